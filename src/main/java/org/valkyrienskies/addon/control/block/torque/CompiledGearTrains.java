@@ -0,0 +1,155 @@
+package org.valkyrienskies.addon.control.block.torque;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import net.minecraft.util.EnumFacing;
+import net.minecraft.util.Tuple;
+import org.valkyrienskies.mod.common.physics.management.PhysicsObject;
+
+/**
+ * The gear trains of a rotation node world, flattened into arrays so that simulating them doesn't
+ * have to walk the node graph again every physics tick. The nodes of every gear train are stored
+ * next to each other, along with the ratio between the angular velocity of each node and the
+ * angular velocity of the first node of its train.
+ * <p>
+ * Only describes how the nodes are connected, so it has to be compiled again whenever a node is
+ * added, removed or has its gear ratios changed. Everything else (torque, inertia, velocity) is
+ * read from the nodes every tick.
+ */
+class CompiledGearTrains {
+
+    private final IRotationNode[] nodes;
+    // The angular velocity of nodes[i] divided by that of the first node of its gear train.
+    private final double[] multipliers;
+    // The nodes of gear train i are nodes[trainStarts[i]] to nodes[trainStarts[i + 1] - 1].
+    private final int[] trainStarts;
+
+    private CompiledGearTrains(IRotationNode[] nodes, double[] multipliers, int[] trainStarts) {
+        this.nodes = nodes;
+        this.multipliers = multipliers;
+        this.trainStarts = trainStarts;
+    }
+
+    /**
+     * Finds the gear trains that the given nodes are part of. Nodes connected to the given ones
+     * are included as well, even if they aren't in the collection.
+     */
+    @PhysicsThreadOnly
+    static CompiledGearTrains compile(Collection<IRotationNode> startNodes) {
+        List<IRotationNode> nodes = new ArrayList<>(startNodes.size());
+        List<Double> multipliers = new ArrayList<>(startNodes.size());
+        List<Integer> trainStarts = new ArrayList<>();
+        Set<IRotationNode> visitedNodes = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<Tuple<IRotationNode, Double>> toVisit = new ArrayDeque<>();
+        for (IRotationNode startNode : startNodes) {
+            if (visitedNodes.contains(startNode)) {
+                continue;
+            }
+            trainStarts.add(nodes.size());
+            toVisit.push(new Tuple<>(startNode, 1D));
+            while (!toVisit.isEmpty()) {
+                Tuple<IRotationNode, Double> next = toVisit.pop();
+                IRotationNode node = next.getFirst();
+                if (!visitedNodes.add(node)) {
+                    continue;
+                }
+                nodes.add(node);
+                multipliers.add(next.getSecond());
+                for (Tuple<IRotationNode, EnumFacing> connectedNode : node
+                    .connectedTorqueTilesList()) {
+                    IRotationNode endNode = connectedNode.getFirst();
+                    EnumFacing exploreDirection = connectedNode.getSecond();
+                    if (visitedNodes.contains(endNode)) {
+                        continue;
+                    }
+                    double ratioStart = node.getAngularVelocityRatioFor(exploreDirection).get();
+                    double ratioEnd = endNode
+                        .getAngularVelocityRatioFor(exploreDirection.getOpposite()).get();
+                    double multiplier = -ratioStart / ratioEnd;
+                    toVisit.push(new Tuple<>(endNode, next.getSecond() * multiplier));
+                }
+            }
+        }
+        trainStarts.add(nodes.size());
+
+        double[] multipliersArray = new double[multipliers.size()];
+        for (int i = 0; i < multipliersArray.length; i++) {
+            multipliersArray[i] = multipliers.get(i);
+        }
+        int[] trainStartsArray = new int[trainStarts.size()];
+        for (int i = 0; i < trainStartsArray.length; i++) {
+            trainStartsArray[i] = trainStarts.get(i);
+        }
+        return new CompiledGearTrains(nodes.toArray(new IRotationNode[0]), multipliersArray,
+            trainStartsArray);
+    }
+
+    /**
+     * @return True if any of the nodes was marked for deletion since this was compiled.
+     */
+    boolean hasDeletedNodes() {
+        for (IRotationNode node : nodes) {
+            if (node.markedForDeletion()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Advances every gear train forward by 1 timestep.
+     */
+    @PhysicsThreadOnly
+    void simulate(double timeDelta, PhysicsObject parent) {
+        for (int train = 0; train < trainStarts.length - 1; train++) {
+            int start = trainStarts[train];
+            int end = trainStarts[train + 1];
+            // For reference, omega is angular velocity. Everything is relative to the first node.
+            double apparentTorque = 0;
+            double apparentInertia = 0;
+            double apparentOmega = 0;
+            double gearTrainEnergy = 0;
+            for (int i = start; i < end; i++) {
+                IRotationNode node = nodes[i];
+                double multiplier = multipliers[i];
+                apparentTorque += multiplier * node.calculateInstantaneousTorque(parent);
+                apparentInertia += multiplier * multiplier * node.getRotationalInertia();
+                apparentOmega += multiplier * node.getAngularVelocity();
+                gearTrainEnergy += node.getEnergy();
+            }
+            double apparentAngularAcceleration = apparentTorque / apparentInertia;
+            double deltaOmega = apparentAngularAcceleration * timeDelta;
+            // Try to estimate the best guess for the current omega based on gear train energy
+            double omegaGuess = Math.sqrt(2 * gearTrainEnergy / apparentInertia);
+            // Guess the direction of rotation based on apparent omega.
+            omegaGuess = omegaGuess * Math.signum(apparentOmega);
+            double newOmega = omegaGuess + deltaOmega;
+            if (!Double.isNaN(newOmega)) {
+                // Apply the new omega to all rotation nodes based on the gear ratios.
+                for (int i = start; i < end; i++) {
+                    IRotationNode node = nodes[i];
+                    double nodeOmega = newOmega * multipliers[i];
+                    node.setAngularRotation(
+                        node.getAngularRotation() + (node.getAngularVelocity() * timeDelta) + (
+                            (nodeOmega - node.getAngularVelocity()) * timeDelta / 2D));
+                    node.setAngularVelocity(nodeOmega);
+                }
+            } else {
+                System.err.println(
+                    "Gear Train Simulation Error, Resetting Rotation Nodes.\nOmega guess is "
+                        + omegaGuess
+                        + "\nDelta omega is " + deltaOmega);
+                for (int i = start; i < end; i++) {
+                    nodes[i].setAngularRotation(0);
+                    nodes[i].setAngularVelocity(0);
+                }
+            }
+        }
+    }
+}
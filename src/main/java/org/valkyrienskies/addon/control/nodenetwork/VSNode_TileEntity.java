@@ -14,6 +14,7 @@ import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.World;
 import org.valkyrienskies.fixes.VSNetwork;
 import org.valkyrienskies.mod.common.physics.management.PhysicsObject;
+import org.valkyrienskies.mod.common.util.ValkyrienUtils;
 
 public class VSNode_TileEntity implements IVSNode {
 
@@ -92,6 +93,7 @@ public class VSNode_TileEntity implements IVSNode {
             parentTile.markDirty();
             other.makeConnection(this);
             sendNodeUpdates();
+            wakeUpPhysicsObject();
             List stupid = Collections.singletonList(other);
             getGraph().addNeighours(this, stupid);
             // System.out.println("Connections: " + getGraph().getObjects().size());
@@ -108,6 +110,7 @@ public class VSNode_TileEntity implements IVSNode {
             parentTile.markDirty();
             other.breakConnection(this);
             sendNodeUpdates();
+            wakeUpPhysicsObject();
             try {
                 // TODO: For some reason null graphs show up. Not sure why, but it seems safe to just ignore them.
                 if (this.getGraph() != null) {
@@ -188,6 +191,15 @@ public class VSNode_TileEntity implements IVSNode {
         }
     }
 
+    /**
+     * The controllers of a ship find the engines they drive through the node connections, so a
+     * sleeping ship could start moving when they change.
+     */
+    private void wakeUpPhysicsObject() {
+        ValkyrienUtils.getPhysicsObject(getNodeWorld(), getNodePos())
+            .ifPresent(PhysicsObject::wakeUp);
+    }
+
     private void assertValidity() {
         if (!isValid()) {
             throw new IllegalStateException(
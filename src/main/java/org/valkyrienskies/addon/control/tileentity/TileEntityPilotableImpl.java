@@ -41,6 +41,9 @@ public abstract class TileEntityPilotableImpl extends BasicNodeTileEntity implem
     public final void onPilotControlsMessage(PilotControlsMessage message, EntityPlayerMP sender) {
         if (sender == pilotPlayerEntity) {
             processControlMessage(message, sender);
+            // The controls changed, so the forces on the ship could have changed too.
+            Optional<PhysicsObject> physicsObject = ValkyrienUtils.getPhysicsObject(world, pos);
+            physicsObject.ifPresent(PhysicsObject::wakeUp);
         } else {
             // Wtf is this packet being sent for?
         }
@@ -0,0 +1,132 @@
+package org.valkyrienskies.fixes;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.WorldServer;
+import org.valkyrienskies.mod.common.physics.management.PhysicsObject;
+import org.valkyrienskies.mod.common.util.ValkyrienUtils;
+
+/**
+ * Everything {@link VSNetwork} needs to quickly send a packet to the players near a position in one
+ * world. Players are kept in a grid of chunk columns so that only the players in the columns around
+ * the position have to be checked, and the ship owning each chunk is remembered so that the many
+ * packets coming from the same ship only have to look it up once.
+ * <p>
+ * Players move every tick, so both are thrown away and rebuilt the first time the index is used in
+ * a new tick, and whenever a player joins or leaves the world. Players also move after the world
+ * ticks, when their movement packets are handled, so queries look one column further than they
+ * need to, to find players that crossed into the next column since the rebuild.
+ */
+class NearbyPacketIndex {
+
+    // Queries spanning more columns than this just check every player.
+    private static final int MAX_CELLS_PER_QUERY = 256;
+
+    private final WorldServer world;
+    private final Long2ObjectMap<List<EntityPlayerMP>> cells;
+    private final Long2ObjectMap<Optional<PhysicsObject>> chunkShips;
+    private long indexedTick;
+    // True if a player was added to or removed from the world since the last rebuild.
+    private boolean playersChanged;
+
+    NearbyPacketIndex(WorldServer world) {
+        this.world = world;
+        this.cells = new Long2ObjectOpenHashMap<>();
+        this.chunkShips = new Long2ObjectOpenHashMap<>();
+        this.indexedTick = Long.MIN_VALUE;
+        this.playersChanged = false;
+    }
+
+    /**
+     * Makes the next update() rebuild the index, must be called when a player is added to or
+     * removed from the world.
+     */
+    void onPlayersChanged() {
+        playersChanged = true;
+    }
+
+    /**
+     * Rebuilds the index if the world has ticked since it was last built, or if the players
+     * changed.
+     */
+    void update() {
+        if (world.getTotalWorldTime() == indexedTick && !playersChanged) {
+            return;
+        }
+        indexedTick = world.getTotalWorldTime();
+        playersChanged = false;
+        cells.clear();
+        chunkShips.clear();
+        for (EntityPlayer player : world.playerEntities) {
+            long key = ChunkPos
+                .asLong((int) Math.floor(player.posX) >> 4, (int) Math.floor(player.posZ) >> 4);
+            List<EntityPlayerMP> cell = cells.get(key);
+            if (cell == null) {
+                cell = new ArrayList<>(1);
+                cells.put(key, cell);
+            }
+            cell.add((EntityPlayerMP) player);
+        }
+    }
+
+    /**
+     * @return The ship that owns the chunk of pos, looked up at most once per chunk every tick.
+     */
+    Optional<PhysicsObject> getPhysicsObject(BlockPos pos) {
+        long key = ChunkPos.asLong(pos.getX() >> 4, pos.getZ() >> 4);
+        Optional<PhysicsObject> physicsObject = chunkShips.get(key);
+        if (physicsObject == null) {
+            physicsObject = ValkyrienUtils.getPhysicsObject(world, pos);
+            chunkShips.put(key, physicsObject);
+        }
+        return physicsObject;
+    }
+
+    /**
+     * Gives every player closer than radius to xyz to the consumer.
+     */
+    void forEachPlayerNear(double x, double y, double z, double radius,
+        Consumer<EntityPlayerMP> consumer) {
+        // One more column on every side, for the players that moved since the rebuild.
+        int minX = ((int) Math.floor(x - radius) >> 4) - 1;
+        int minZ = ((int) Math.floor(z - radius) >> 4) - 1;
+        int maxX = ((int) Math.floor(x + radius) >> 4) + 1;
+        int maxZ = ((int) Math.floor(z + radius) >> 4) + 1;
+        if (((long) maxX - minX + 1) * ((long) maxZ - minZ + 1) > MAX_CELLS_PER_QUERY) {
+            for (EntityPlayer player : world.playerEntities) {
+                if (isInRange(player, x, y, z, radius)) {
+                    consumer.accept((EntityPlayerMP) player);
+                }
+            }
+            return;
+        }
+        for (int cellX = minX; cellX <= maxX; cellX++) {
+            for (int cellZ = minZ; cellZ <= maxZ; cellZ++) {
+                List<EntityPlayerMP> cell = cells.get(ChunkPos.asLong(cellX, cellZ));
+                if (cell == null) {
+                    continue;
+                }
+                for (EntityPlayerMP player : cell) {
+                    if (isInRange(player, x, y, z, radius)) {
+                        consumer.accept(player);
+                    }
+                }
+            }
+        }
+    }
+
+    static boolean isInRange(EntityPlayer player, double x, double y, double z, double radius) {
+        double dx = x - player.posX;
+        double dy = y - player.posY;
+        double dz = z - player.posZ;
+        return dx * dx + dy * dy + dz * dz < radius * radius;
+    }
+}
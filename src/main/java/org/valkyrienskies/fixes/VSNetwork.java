@@ -1,10 +1,10 @@
 package org.valkyrienskies.fixes;
 
-import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
 import javax.annotation.Nullable;
 import net.minecraft.entity.player.EntityPlayer;
-import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.network.Packet;
 import net.minecraft.network.play.server.SPacketEffect;
 import net.minecraft.network.play.server.SPacketSoundEffect;
@@ -16,7 +16,6 @@ import net.minecraft.world.WorldServer;
 import net.minecraftforge.common.DimensionManager;
 import org.valkyrienskies.mod.common.math.Vector;
 import org.valkyrienskies.mod.common.physics.management.PhysicsObject;
-import org.valkyrienskies.mod.common.util.ValkyrienUtils;
 
 /**
  * A few simple static implementations of functions that send packets, correctly handling for
@@ -24,6 +23,8 @@ import org.valkyrienskies.mod.common.util.ValkyrienUtils;
  */
 public class VSNetwork {
 
+    private static final Map<World, NearbyPacketIndex> PACKET_INDICES = new HashMap<>();
+
     /**
      * Don't use this! Use world.notifyBlockUpdate() instead!
      */
@@ -42,50 +43,83 @@ public class VSNetwork {
         } else {
             worldIn = except.world;
         }
-        Optional<PhysicsObject> physicsObject = ValkyrienUtils.getPhysicsObject(worldIn, pos);
-        Vector packetPosition = new Vector(x, y, z);
-        if (physicsObject.isPresent()) {
-            physicsObject.get()
-                .getShipTransformationManager()
-                .fromLocalToGlobal(packetPosition);
-            // Special treatment for certain packets.
-            if (packetIn instanceof SPacketSoundEffect) {
-                SPacketSoundEffect soundEffect = (SPacketSoundEffect) packetIn;
-                packetIn = new SPacketSoundEffect(soundEffect.sound, soundEffect.category,
-                    packetPosition.X, packetPosition.Y, packetPosition.Z, soundEffect.soundVolume,
-                    soundEffect.soundPitch);
+        if (worldIn == null) {
+            return;
+        }
+        NearbyPacketIndex packetIndex = getPacketIndex((WorldServer) worldIn);
+        synchronized (packetIndex) {
+            packetIndex.update();
+            Optional<PhysicsObject> physicsObject = packetIndex.getPhysicsObject(pos);
+            Vector packetPosition = new Vector(x, y, z);
+            if (physicsObject.isPresent()) {
+                physicsObject.get()
+                    .getShipTransformationManager()
+                    .fromLocalToGlobal(packetPosition);
+                // Special treatment for certain packets.
+                if (packetIn instanceof SPacketSoundEffect) {
+                    SPacketSoundEffect soundEffect = (SPacketSoundEffect) packetIn;
+                    packetIn = new SPacketSoundEffect(soundEffect.sound, soundEffect.category,
+                        packetPosition.X, packetPosition.Y, packetPosition.Z,
+                        soundEffect.soundVolume, soundEffect.soundPitch);
+                }
+
+                if (packetIn instanceof SPacketEffect) {
+                    SPacketEffect effect = (SPacketEffect) packetIn;
+                    BlockPos blockpos = new BlockPos(packetPosition.X, packetPosition.Y,
+                        packetPosition.Z);
+                    packetIn = new SPacketEffect(effect.soundType, blockpos, effect.soundData,
+                        effect.serverWide);
+                }
             }
 
-            if (packetIn instanceof SPacketEffect) {
-                SPacketEffect effect = (SPacketEffect) packetIn;
-                BlockPos blockpos = new BlockPos(packetPosition.X, packetPosition.Y,
-                    packetPosition.Z);
-                packetIn = new SPacketEffect(effect.soundType, blockpos, effect.soundData,
-                    effect.serverWide);
+            final Packet<?> toSend = packetIn;
+            // Cover both cases; if player is in ship space or if player is in world space.
+            packetIndex.forEachPlayerNear(x, y, z, radius, player -> {
+                if (player != except && player.dimension == dimension) {
+                    player.connection.sendPacket(toSend);
+                }
+            });
+            if (physicsObject.isPresent()) {
+                packetIndex.forEachPlayerNear(packetPosition.X, packetPosition.Y,
+                    packetPosition.Z, radius, player -> {
+                        // Don't send it twice to players that were close to both.
+                        if (player != except && player.dimension == dimension
+                            && !NearbyPacketIndex.isInRange(player, x, y, z, radius)) {
+                            player.connection.sendPacket(toSend);
+                        }
+                    });
             }
         }
+    }
 
-        List<EntityPlayer> playerEntityList = ((WorldServer) worldIn).playerEntities;
-
-        // Original method here.
-        for (int i = 0; i < playerEntityList.size(); ++i) {
-            EntityPlayerMP entityplayermp = (EntityPlayerMP) playerEntityList.get(i);
-
-            if (entityplayermp != except && entityplayermp.dimension == dimension) {
-                double d0 = x - entityplayermp.posX;
-                double d1 = y - entityplayermp.posY;
-                double d2 = z - entityplayermp.posZ;
+    /**
+     * Must be called when a player is added to or removed from a world, so that packets sent later
+     * in the same tick reach them.
+     */
+    public static void onPlayersChanged(World world) {
+        NearbyPacketIndex packetIndex;
+        synchronized (PACKET_INDICES) {
+            packetIndex = PACKET_INDICES.get(world);
+        }
+        if (packetIndex != null) {
+            synchronized (packetIndex) {
+                packetIndex.onPlayersChanged();
+            }
+        }
+    }
 
-                double d3 = packetPosition.X - entityplayermp.posX;
-                double d4 = packetPosition.Y - entityplayermp.posY;
-                double d5 = packetPosition.Z - entityplayermp.posZ;
+    /**
+     * Must be called when a world unloads, so that it doesn't stay in memory.
+     */
+    public static void removeWorld(World world) {
+        synchronized (PACKET_INDICES) {
+            PACKET_INDICES.remove(world);
+        }
+    }
 
-                // Cover both cases; if player is in ship space or if player is in world space.
-                if ((d0 * d0 + d1 * d1 + d2 * d2 < radius * radius) || (d3 * d3 + d4 * d4 + d5 * d5
-                    < radius * radius)) {
-                    entityplayermp.connection.sendPacket(packetIn);
-                }
-            }
+    private static NearbyPacketIndex getPacketIndex(WorldServer world) {
+        synchronized (PACKET_INDICES) {
+            return PACKET_INDICES.computeIfAbsent(world, NearbyPacketIndex::new);
         }
     }
 }
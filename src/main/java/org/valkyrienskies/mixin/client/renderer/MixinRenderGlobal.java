@@ -240,6 +240,14 @@ public abstract class MixinRenderGlobal {
         }
     }
 
+    // The block layers are rendered before the entities, so grab the camera from here to cull
+    // ships with the frustum of the current frame rather than the last one.
+    @Inject(method = "setupTerrain", at = @At("HEAD"))
+    private void preSetupTerrain(Entity viewEntity, double partialTicks, ICamera camera,
+        int frameCount, boolean playerSpectator, CallbackInfo callbackInfo) {
+        ClientProxy.lastCamera = camera;
+    }
+
     @Inject(method = "renderEntities(Lnet/minecraft/entity/Entity;Lnet/minecraft/client/renderer/culling/ICamera;F)V", at = @At("HEAD"))
     private void preRenderEntities(Entity renderViewEntity, ICamera camera, float partialTicks,
         CallbackInfo callbackInfo) {
@@ -0,0 +1,28 @@
+package org.valkyrienskies.mixin.world;
+
+import net.minecraft.world.Explosion;
+import net.minecraft.world.World;
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+import org.valkyrienskies.mod.common.physmanagement.interaction.IWorldVS;
+
+/**
+ * Forgets the ships found for an explosion once it's done damaging entities, so the world doesn't
+ * hold on to them until the next explosion.
+ */
+@Mixin(Explosion.class)
+public abstract class MixinExplosion {
+
+    @Shadow
+    @Final
+    private World world;
+
+    @Inject(method = "doExplosionA", at = @At("RETURN"))
+    public void postDoExplosionA(CallbackInfo callbackInfo) {
+        ((IWorldVS) world).setExplosionOcclusion(null);
+    }
+}
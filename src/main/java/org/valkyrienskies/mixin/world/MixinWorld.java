@@ -10,6 +10,7 @@ import java.util.function.Function;
 import javax.annotation.Nullable;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.entity.Entity;
+import net.minecraft.util.EnumFacing;
 import net.minecraft.util.math.AxisAlignedBB;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.MathHelper;
@@ -41,10 +42,11 @@ import org.valkyrienskies.mod.common.coordinates.ImplSubspace;
 import org.valkyrienskies.mod.common.coordinates.ShipTransform;
 import org.valkyrienskies.mod.common.entity.PhysicsWrapperEntity;
 import org.valkyrienskies.mod.common.math.Vector;
-import org.valkyrienskies.mod.common.physics.collision.polygons.Polygon;
+import org.valkyrienskies.mod.common.physics.collision.ShipExplosionOcclusion;
 import org.valkyrienskies.mod.common.physics.management.PhysicsObject;
 import org.valkyrienskies.mod.common.physics.management.WorldPhysObjectManager;
 import org.valkyrienskies.mod.common.physmanagement.interaction.IWorldVS;
+import org.valkyrienskies.mod.common.physmanagement.interaction.ShipEntityQueryCache;
 import org.valkyrienskies.mod.common.ship_handling.IHasShipManager;
 import org.valkyrienskies.mod.common.ship_handling.IWorldShipManager;
 import org.valkyrienskies.mod.common.util.ValkyrienUtils;
@@ -63,6 +65,15 @@ public abstract class MixinWorld implements IWorldVS, ISubspaceProvider, IHasShi
     // Pork added on to this already bad code because it was already like this so he doesn't feel bad about it
     private PhysicsWrapperEntity dontInterceptShip = null;
     private final ISubspace worldSubspace = new ImplSubspace(null);
+    // getBlockDensity() only checks whether its ray traces return null, so the same result is
+    // returned for every ray blocked by a ship.
+    private static final RayTraceResult SHIP_OCCLUDED_RESULT = new RayTraceResult(
+        RayTraceResult.Type.BLOCK, Vec3d.ZERO, EnumFacing.UP, BlockPos.ORIGIN);
+    // The ships near the explosion that is currently damaging entities, null between explosions.
+    private ShipExplosionOcclusion explosionOcclusion = null;
+    // Which ship each entity query is in, and where its box is in global space.
+    private final ShipEntityQueryCache entityQueryCache = new ShipEntityQueryCache(
+        World.class.cast(this));
 
     // The IWorldShipManager
     private IWorldShipManager manager = null;
@@ -235,20 +246,13 @@ public abstract class MixinWorld implements IWorldVS, ISubspaceProvider, IHasShi
         AxisAlignedBB aabb,
         @Nullable Predicate<? super T> filter) {
         List<T> toReturn = this.getEntitiesWithinAABBOriginal(clazz, aabb, filter);
-        BlockPos pos = new BlockPos((aabb.minX + aabb.maxX) / 2D, (aabb.minY + aabb.maxY) / 2D,
-            (aabb.minZ + aabb.maxZ) / 2D);
-        Optional<PhysicsObject> physicsObject = ValkyrienUtils
-            .getPhysicsObject(World.class.cast(this), pos);
+        ShipEntityQueryCache.Entry shipQuery = entityQueryCache.getShipQuery(aabb);
 
-        if (physicsObject.isPresent()) {
-            Polygon poly = new Polygon(aabb, physicsObject.get()
-                .getShipTransformationManager()
-                .getCurrentTickTransform(),
-                TransformType.SUBSPACE_TO_GLOBAL);
-            aabb = poly.getEnclosedAABB();// .contract(.3D);
-            toReturn.addAll(this.getEntitiesWithinAABBOriginal(clazz, aabb, filter));
+        if (shipQuery != null) {
+            toReturn.addAll(
+                this.getEntitiesWithinAABBOriginal(clazz, shipQuery.boundingBoxInGlobal, filter));
 
-            toReturn.remove(physicsObject.get()
+            toReturn.remove(shipQuery.ship
                 .getWrapperEntity());
         }
         return toReturn;
@@ -273,18 +277,10 @@ public abstract class MixinWorld implements IWorldVS, ISubspaceProvider, IHasShi
         List<Entity> toReturn = this
             .getEntitiesInAABBexcludingOriginal(entityIn, boundingBox, predicate);
 
-        BlockPos pos = new BlockPos((boundingBox.minX + boundingBox.maxX) / 2D,
-            (boundingBox.minY + boundingBox.maxY) / 2D, (boundingBox.minZ + boundingBox.maxZ) / 2D);
-
-        Optional<PhysicsObject> physicsObject = ValkyrienUtils
-            .getPhysicsObject(World.class.cast(this), pos);
+        ShipEntityQueryCache.Entry shipQuery = entityQueryCache.getShipQuery(boundingBox);
 
-        if (physicsObject.isPresent()) {
-            Polygon poly = new Polygon(boundingBox, physicsObject.get()
-                .getShipTransformationManager()
-                .getCurrentTickTransform(),
-                TransformType.SUBSPACE_TO_GLOBAL);
-            boundingBox = poly.getEnclosedAABB().shrink(.3D);
+        if (shipQuery != null) {
+            boundingBox = shipQuery.boundingBoxInGlobal.shrink(.3D);
 
             if (isBoundingBoxTooLarge(boundingBox)) {
                 new Exception("Tried getting entities from giant bounding box of " + boundingBox)
@@ -295,7 +291,7 @@ public abstract class MixinWorld implements IWorldVS, ISubspaceProvider, IHasShi
             toReturn
                 .addAll(this.getEntitiesInAABBexcludingOriginal(entityIn, boundingBox, predicate));
 
-            toReturn.remove(physicsObject.get()
+            toReturn.remove(shipQuery.ship
                 .getWrapperEntity());
         }
         return toReturn;
@@ -407,6 +403,11 @@ public abstract class MixinWorld implements IWorldVS, ISubspaceProvider, IHasShi
         return vanillaTrace;
     }
 
+    @Override
+    public void setExplosionOcclusion(ShipExplosionOcclusion occlusion) {
+        this.explosionOcclusion = occlusion;
+    }
+
     @Override
     public IWorldShipManager getManager() {
         if (manager == null) {
@@ -429,7 +430,8 @@ public abstract class MixinWorld implements IWorldVS, ISubspaceProvider, IHasShi
 
     /**
      * Fixes World.getBlockDensity() creating huge amounts of lag by telling it not to look for
-     * ships when ray-tracing.
+     * ships when ray-tracing. Ships still block the rays, but through {@link
+     * ShipExplosionOcclusion} which is much cheaper than ray-tracing each ship.
      */
     @Redirect(method = "getBlockDensity", at = @At(value = "INVOKE", target = "Lnet/minecraft/world/World;rayTraceBlocks(Lnet/minecraft/util/math/Vec3d;Lnet/minecraft/util/math/Vec3d;)Lnet/minecraft/util/math/RayTraceResult;"))
     private RayTraceResult rayTraceBlocksForGetBlockDensity(World world, Vec3d start, Vec3d end) {
@@ -438,7 +440,18 @@ public abstract class MixinWorld implements IWorldVS, ISubspaceProvider, IHasShi
         RayTraceResult result = rayTraceBlocks(start, end);
         // Ok, now we can look for ships again.
         this.dontIntercept = false;
-        return result;
+        if (result != null) {
+            return result;
+        }
+        // Instead of a full ray trace per ship, check the ray against the solid blocks of the
+        // ships found once for this explosion.
+        ShipExplosionOcclusion occlusion = this.explosionOcclusion;
+        if (occlusion == null || !occlusion.matches(world, end)) {
+            // Not an explosion we were told about, so only look for the ships around this ray.
+            occlusion = ShipExplosionOcclusion.create(world, end,
+                new AxisAlignedBB(start.x, start.y, start.z, end.x, end.y, end.z));
+        }
+        return occlusion.isBlocked(start) ? SHIP_OCCLUDED_RESULT : null;
     }
 
     /**
@@ -13,6 +13,7 @@ import net.minecraft.util.ResourceLocation;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.RayTraceResult;
 import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
 import net.minecraftforge.client.event.DrawBlockHighlightEvent;
 import net.minecraftforge.client.event.ModelBakeEvent;
 import net.minecraftforge.client.event.TextureStitchEvent;
@@ -20,6 +21,7 @@ import net.minecraftforge.client.event.sound.PlaySoundEvent;
 import net.minecraftforge.client.model.IModel;
 import net.minecraftforge.client.model.ModelLoader;
 import net.minecraftforge.client.model.ModelLoaderRegistry;
+import net.minecraftforge.event.world.ChunkEvent;
 import net.minecraftforge.fml.common.eventhandler.EventPriority;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
 import net.minecraftforge.fml.common.gameevent.TickEvent.ClientTickEvent;
@@ -170,6 +172,21 @@ public class EventsClient {
     /**
      * Register textures for all the models registered in the GibsModelRegistry.
      */
+    @SubscribeEvent
+    public void onChunkLoad(ChunkEvent.Load event) {
+        World world = event.getWorld();
+        if (!world.isRemote) {
+            return;
+        }
+        Chunk chunk = event.getChunk();
+        // Ship chunks sent by the server after the ship have to be linked to it.
+        PhysicsWrapperEntity wrapper = ValkyrienSkiesMod.VS_PHYSICS_MANAGER
+            .getManagerForWorld(world).getShipClaimingChunk(chunk.x, chunk.z);
+        if (wrapper != null) {
+            wrapper.getPhysicsObject().onClaimedChunkLoad(chunk);
+        }
+    }
+
     @SubscribeEvent
     public void onTextureStitchEvent(TextureStitchEvent.Pre event) {
         GibsModelRegistry.registerTextures(event);
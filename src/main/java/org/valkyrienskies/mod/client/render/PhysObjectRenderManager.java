@@ -3,9 +3,11 @@ package org.valkyrienskies.mod.client.render;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.renderer.GlStateManager;
 import net.minecraft.client.renderer.culling.ICamera;
+import net.minecraft.entity.Entity;
 import net.minecraft.util.BlockRenderLayer;
 import net.minecraft.util.math.BlockPos;
 import org.lwjgl.opengl.GL11;
+import org.valkyrienskies.mod.common.config.VSConfig;
 import org.valkyrienskies.mod.common.coordinates.ShipTransform;
 import org.valkyrienskies.mod.common.math.Quaternion;
 import org.valkyrienskies.mod.common.math.Vector;
@@ -29,7 +31,9 @@ public class PhysObjectRenderManager {
     private int glCallListCutout;
     private int glCallListCutoutMipped;
     private PhysicsObject parent;
+    // Null for chunks without anything to render.
     private PhysRenderChunk[][] renderChunks;
+    private final ShipSectionCuller culler;
 
     public PhysObjectRenderManager(PhysicsObject toRender) {
         this.parent = toRender;
@@ -39,6 +43,7 @@ public class PhysObjectRenderManager {
         this.glCallListCutoutMipped = -1;
         this.offsetPos = null;
         this.renderChunks = null;
+        this.culler = new ShipSectionCuller();
     }
 
     public void updateOffsetPos(BlockPos newPos) {
@@ -52,12 +57,18 @@ public class PhysObjectRenderManager {
                 .chunkLengthZ()];
             for (int xChunk = 0; xChunk < parent.getOwnedChunks().chunkLengthX(); xChunk++) {
                 for (int zChunk = 0; zChunk < parent.getOwnedChunks().chunkLengthZ(); zChunk++) {
-                    renderChunks[xChunk][zChunk] = new PhysRenderChunk(parent, parent
+                    PhysRenderChunk renderChunk = new PhysRenderChunk(parent, parent
                         .getChunkAt(xChunk + parent.getOwnedChunks().minX(),
                             zChunk + parent.getOwnedChunks().minZ()));
+                    // Most of the claim is usually air, those chunks get made in updateRange()
+                    // once blocks are placed in them.
+                    if (!renderChunk.isEmpty()) {
+                        renderChunks[xChunk][zChunk] = renderChunk;
+                    }
                 }
             }
         }
+        setupCuller(partialTicks);
 
         GL11.glPushMatrix();
         Minecraft.getMinecraft().entityRenderer.enableLightmap();
@@ -72,7 +83,9 @@ public class PhysObjectRenderManager {
         applyRenderTransform(partialTicks);
         for (PhysRenderChunk[] chunkArray : renderChunks) {
             for (PhysRenderChunk renderChunk : chunkArray) {
-                renderChunk.renderBlockLayer(layerToRender, partialTicks, pass);
+                if (renderChunk != null) {
+                    renderChunk.renderBlockLayer(layerToRender, partialTicks, pass, culler);
+                }
             }
         }
 
@@ -84,12 +97,34 @@ public class PhysObjectRenderManager {
         if (renderChunks != null) {
             for (PhysRenderChunk[] chunks : renderChunks) {
                 for (PhysRenderChunk chunk : chunks) {
-                    chunk.killRenderChunk();
+                    if (chunk != null) {
+                        chunk.killRenderChunk();
+                    }
                 }
             }
         }
     }
 
+    /**
+     * Throws away the render chunk of a chunk that was replaced by a new one from the server, it
+     * gets made again for the new chunk by the next updateRange().
+     */
+    public void onChunkReplaced(int chunkX, int chunkZ) {
+        if (renderChunks == null) {
+            return;
+        }
+        int relativeX = chunkX - parent.getOwnedChunks().minX();
+        int relativeZ = chunkZ - parent.getOwnedChunks().minZ();
+        if (relativeX < 0 || relativeZ < 0 || relativeX >= renderChunks.length
+            || relativeZ >= renderChunks[0].length) {
+            return;
+        }
+        if (renderChunks[relativeX][relativeZ] != null) {
+            renderChunks[relativeX][relativeZ].killRenderChunk();
+            renderChunks[relativeX][relativeZ] = null;
+        }
+    }
+
     public void updateRange(int minX, int minY, int minZ, int maxX, int maxY, int maxZ,
         boolean updateImmediately) {
         if (renderChunks == null || parent == null || parent.getOwnedChunks() == null) {
@@ -118,15 +153,16 @@ public class PhysObjectRenderManager {
                         .getOwnedChunks().minZ()
                         && chunkX - parent.getOwnedChunks().minX() < renderChunks.length
                         && chunkZ - parent.getOwnedChunks().minZ() < renderChunks[0].length) {
-                        PhysRenderChunk renderChunk = renderChunks[chunkX - parent.getOwnedChunks()
-                            .minX()][chunkZ
-                            - parent.getOwnedChunks().minZ()];
-                        if (renderChunk != null) {
-                            renderChunk.updateLayers(minBlockArrayY, maxBlockArrayY);
-                        } else {
-                            System.err
-                                .println("SHIP RENDER CHUNK CAME OUT NULL! THIS IS VERY WRONG!!");
+                        int relativeX = chunkX - parent.getOwnedChunks().minX();
+                        int relativeZ = chunkZ - parent.getOwnedChunks().minZ();
+                        PhysRenderChunk renderChunk = renderChunks[relativeX][relativeZ];
+                        if (renderChunk == null) {
+                            // Chunks without any blocks don't get a render chunk until now.
+                            renderChunk = new PhysRenderChunk(parent,
+                                parent.getChunkAt(chunkX, chunkZ));
+                            renderChunks[relativeX][relativeZ] = renderChunk;
                         }
+                        renderChunk.updateLayers(minBlockArrayY, maxBlockArrayY);
                     } else {
                         // ValkyrienSkiesMod.VSLogger.info("updateRange Just attempted to update
                         // blocks outside of a Ship's block Range. ANY ERRORS PAST THIS ARE LIKELY
@@ -139,6 +175,23 @@ public class PhysObjectRenderManager {
         }
     }
 
+    /**
+     * Prepares the culler for this frame, using the same camera position as {@link
+     * #applyRenderTransform(double)}.
+     */
+    private void setupCuller(double partialTicks) {
+        Entity player = Minecraft.getMinecraft().player;
+        double cameraX = player.lastTickPosX + (player.posX - player.lastTickPosX) * partialTicks;
+        double cameraY = player.lastTickPosY + (player.posY - player.lastTickPosY) * partialTicks;
+        double cameraZ = player.lastTickPosZ + (player.posZ - player.lastTickPosZ) * partialTicks;
+        double maxDistance = VSConfig.shipRenderDistance;
+        if (maxDistance == 0) {
+            maxDistance = Minecraft.getMinecraft().gameSettings.renderDistanceChunks * 16;
+        }
+        culler.setup(parent.getShipTransformationManager().getRenderTransform(),
+            ClientProxy.lastCamera, cameraX, cameraY, cameraZ, maxDistance);
+    }
+
     public boolean shouldRender() {
         if (parent.getWrapperEntity().isDead) {
             return false;
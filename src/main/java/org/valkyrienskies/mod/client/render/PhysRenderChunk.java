@@ -1,24 +1,26 @@
 package org.valkyrienskies.mod.client.render;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
-import net.minecraft.block.state.IBlockState;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import lombok.extern.log4j.Log4j2;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.renderer.BufferBuilder;
 import net.minecraft.client.renderer.GLAllocation;
-import net.minecraft.client.renderer.GlStateManager;
 import net.minecraft.client.renderer.Tessellator;
 import net.minecraft.client.renderer.vertex.DefaultVertexFormats;
 import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.BlockRenderLayer;
 import net.minecraft.util.math.BlockPos;
-import net.minecraft.util.math.BlockPos.MutableBlockPos;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
-import net.minecraftforge.client.ForgeHooksClient;
 import org.lwjgl.opengl.GL11;
+import org.valkyrienskies.mod.client.render.ShipSectionMesher.ShipSectionMesh;
 import org.valkyrienskies.mod.common.physics.management.PhysicsObject;
 
+@Log4j2
 public class PhysRenderChunk {
 
     public RenderLayer[] layers = new RenderLayer[16];
@@ -30,22 +32,45 @@ public class PhysRenderChunk {
         this.renderChunk = renderChunk;
         for (int i = 0; i < 16; i++) {
             ExtendedBlockStorage storage = renderChunk.storageArrays[i];
-            if (storage != null) {
+            if (storage != null && !storage.isEmpty()) {
                 RenderLayer renderLayer = new RenderLayer(renderChunk, i * 16, i * 16 + 15, this);
                 layers[i] = renderLayer;
             }
         }
     }
 
-    public void renderBlockLayer(BlockRenderLayer layerToRender, double partialTicks, int pass) {
+    public void renderBlockLayer(BlockRenderLayer layerToRender, double partialTicks, int pass,
+        ShipSectionCuller culler) {
         for (int i = 0; i < 16; i++) {
             RenderLayer layer = layers[i];
-            if (layer != null) {
+            if (layer == null) {
+                continue;
+            }
+            if (layer.canBeDropped()) {
+                // Nothing left to draw here, so don't keep its display lists around. It's made
+                // again by updateLayers() if blocks get placed.
+                layer.deleteRenderLayer();
+                layers[i] = null;
+                continue;
+            }
+            if (culler.isSectionVisible(renderChunk.x << 4, i << 4, renderChunk.z << 4)) {
                 layer.renderBlockLayer(layerToRender, partialTicks, pass);
             }
         }
     }
 
+    /**
+     * @return True if none of the sections of this chunk have anything to draw.
+     */
+    public boolean isEmpty() {
+        for (RenderLayer layer : layers) {
+            if (layer != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public void updateLayers(int minLayer, int maxLayer) {
         for (int layerY = minLayer; layerY <= maxLayer; layerY++) {
             RenderLayer layer = layers[layerY];
@@ -74,7 +99,12 @@ public class PhysRenderChunk {
         int yMin, yMax;
         int glCallListCutout, glCallListCutoutMipped, glCallListSolid, glCallListTranslucent;
         PhysRenderChunk parent;
-        boolean needsCutoutUpdate, needsCutoutMippedUpdate, needsSolidUpdate, needsTranslucentUpdate;
+        // True if blocks changed since the last mesh build was started.
+        boolean needsRebuild;
+        // The mesh being built by a worker thread, null if there isn't one.
+        CompletableFuture<ShipSectionMesh> pendingMesh;
+        // True if the last uploaded mesh had no vertices.
+        boolean empty;
         List<TileEntity> renderTiles = new ArrayList<TileEntity>();
 
         RenderLayer(Chunk chunk, int yMin, int yMax, PhysRenderChunk parent) {
@@ -82,6 +112,8 @@ public class PhysRenderChunk {
             this.yMin = yMin;
             this.yMax = yMax;
             this.parent = parent;
+            this.pendingMesh = null;
+            this.empty = false;
             markDirtyRenderLists();
             glCallListCutout = GLAllocation.generateDisplayLists(4);
             glCallListCutoutMipped = glCallListCutout + 1;
@@ -89,12 +121,11 @@ public class PhysRenderChunk {
             glCallListTranslucent = glCallListCutout + 3;
         }
 
+        /**
+         * Cheap, many block changes in the same frame only cause one rebuild.
+         */
         public void markDirtyRenderLists() {
-            needsCutoutUpdate = true;
-            needsCutoutMippedUpdate = true;
-            needsSolidUpdate = true;
-            needsTranslucentUpdate = true;
-            updateRenderTileEntities();
+            needsRebuild = true;
         }
 
         // TODO: There's probably a faster way of doing this.
@@ -108,7 +139,19 @@ public class PhysRenderChunk {
             }
         }
 
+        /**
+         * @return True if this has no blocks to draw, no tile entities, and no changes that
+         * haven't been meshed yet.
+         */
+        boolean canBeDropped() {
+            return empty && !needsRebuild && pendingMesh == null && renderTiles.isEmpty();
+        }
+
         public void deleteRenderLayer() {
+            if (pendingMesh != null) {
+                pendingMesh.cancel(false);
+                pendingMesh = null;
+            }
             clearRenderLists();
             Minecraft.getMinecraft().renderGlobal.updateTileEntities(renderTiles, new ArrayList());
             renderTiles.clear();
@@ -123,29 +166,23 @@ public class PhysRenderChunk {
 
         public void renderBlockLayer(BlockRenderLayer layerToRender, double partialTicks,
             int pass) {
+            updateMesh();
+            if (empty) {
+                return;
+            }
+            // Until the first mesh is uploaded the lists are empty, and until a newer one is
+            // uploaded they keep drawing the old one.
             switch (layerToRender) {
                 case CUTOUT:
-                    if (needsCutoutUpdate) {
-                        updateList(layerToRender);
-                    }
                     GL11.glCallList(glCallListCutout);
                     break;
                 case CUTOUT_MIPPED:
-                    if (needsCutoutMippedUpdate) {
-                        updateList(layerToRender);
-                    }
                     GL11.glCallList(glCallListCutoutMipped);
                     break;
                 case SOLID:
-                    if (needsSolidUpdate) {
-                        updateList(layerToRender);
-                    }
                     GL11.glCallList(glCallListSolid);
                     break;
                 case TRANSLUCENT:
-                    if (needsTranslucentUpdate) {
-                        updateList(layerToRender);
-                    }
                     GL11.glCallList(glCallListTranslucent);
                     break;
                 default:
@@ -153,7 +190,27 @@ public class PhysRenderChunk {
             }
         }
 
-        private void updateList(BlockRenderLayer layerToUpdate) {
+        /**
+         * Uploads the pending mesh if its worker finished building it, and starts building a new
+         * one if blocks changed. Must be called from the render thread.
+         */
+        private void updateMesh() {
+            if (pendingMesh != null && pendingMesh.isDone()) {
+                try {
+                    ShipSectionMesh mesh = pendingMesh.join();
+                    uploadLayer(mesh, BlockRenderLayer.SOLID, glCallListSolid);
+                    uploadLayer(mesh, BlockRenderLayer.CUTOUT_MIPPED, glCallListCutoutMipped);
+                    uploadLayer(mesh, BlockRenderLayer.CUTOUT, glCallListCutout);
+                    uploadLayer(mesh, BlockRenderLayer.TRANSLUCENT, glCallListTranslucent);
+                    empty = mesh.isEmpty();
+                } catch (CompletionException e) {
+                    log.error("Failed to build the mesh of a ship chunk section", e.getCause());
+                }
+                pendingMesh = null;
+            }
+            if (!needsRebuild || pendingMesh != null) {
+                return;
+            }
             if (parent.toRender.getShipRenderer() == null) {
                 return;
             }
@@ -161,85 +218,24 @@ public class PhysRenderChunk {
             if (offsetPos == null) {
                 return;
             }
-            Tessellator tessellator = Tessellator.getInstance();
-            BufferBuilder worldrenderer = tessellator.getBuffer();
-            worldrenderer.begin(7, DefaultVertexFormats.BLOCK);
-            worldrenderer.setTranslation(-offsetPos.getX(), -offsetPos.getY(), -offsetPos.getZ());
-            GL11.glPushMatrix();
-            switch (layerToUpdate) {
-                case CUTOUT:
-                    GLAllocation.deleteDisplayLists(glCallListCutout);
-                    GL11.glNewList(glCallListCutout, GL11.GL_COMPILE);
-                    break;
-                case CUTOUT_MIPPED:
-                    GLAllocation.deleteDisplayLists(glCallListCutoutMipped);
-                    GL11.glNewList(glCallListCutoutMipped, GL11.GL_COMPILE);
-                    break;
-                case SOLID:
-                    GLAllocation.deleteDisplayLists(glCallListSolid);
-                    GL11.glNewList(glCallListSolid, GL11.GL_COMPILE);
-                    break;
-                case TRANSLUCENT:
-                    GLAllocation.deleteDisplayLists(glCallListTranslucent);
-                    GL11.glNewList(glCallListTranslucent, GL11.GL_COMPILE);
-                    break;
-                default:
-                    break;
-            }
+            needsRebuild = false;
+            updateRenderTileEntities();
+            pendingMesh = ShipMeshBuilder.buildSection(chunkToRender, yMin >> 4, offsetPos);
+        }
 
-            GlStateManager.pushMatrix();
-            // worldrenderer.begin(GL11.GL_QUADS, DefaultVertexFormats.BLOCK);
-            IBlockState iblockstate;
-            // if (Minecraft.isAmbientOcclusionEnabled()) {
-            // GlStateManager.shadeModel(GL11.GL_SMOOTH);
-            // } else {
-            // GlStateManager.shadeModel(GL11.GL_FLAT);
-            // }
-            ForgeHooksClient.setRenderLayer(layerToUpdate);
-            MutableBlockPos pos = new MutableBlockPos();
-            for (int x = chunkToRender.x * 16; x < chunkToRender.x * 16 + 16; x++) {
-                for (int z = chunkToRender.z * 16; z < chunkToRender.z * 16 + 16; z++) {
-                    for (int y = yMin; y <= yMax; y++) {
-                        pos.setPos(x, y, z);
-                        iblockstate = chunkToRender.getBlockState(pos);
-                        try {
-                            if (iblockstate.getBlock()
-                                .canRenderInLayer(iblockstate, layerToUpdate)) {
-                                Minecraft.getMinecraft().getBlockRendererDispatcher()
-                                    .renderBlock(iblockstate, pos, chunkToRender.world,
-                                        worldrenderer);
-                            }
-                        } catch (NullPointerException e) {
-                            System.out.println(
-                                "Something was null! LValkyrienSkiesBase/render/PhysRenderChunk#updateList");
-                        }
-                    }
-                }
+        private static void uploadLayer(ShipSectionMesh mesh, BlockRenderLayer layer,
+            int glCallList) {
+            GL11.glNewList(glCallList, GL11.GL_COMPILE);
+            ByteBuffer layerData = mesh.getLayerData(layer);
+            if (layerData != null) {
+                Tessellator tessellator = Tessellator.getInstance();
+                BufferBuilder buffer = tessellator.getBuffer();
+                buffer.begin(GL11.GL_QUADS, DefaultVertexFormats.BLOCK);
+                // putBulkData() moves the position of the buffer it's given.
+                buffer.putBulkData(layerData.duplicate());
+                tessellator.draw();
             }
-            tessellator.draw();
-            // worldrenderer.finishDrawing();
-            ForgeHooksClient.setRenderLayer(null);
-            GlStateManager.popMatrix();
             GL11.glEndList();
-            GL11.glPopMatrix();
-            worldrenderer.setTranslation(0, 0, 0);
-
-            switch (layerToUpdate) {
-                case CUTOUT:
-                    needsCutoutUpdate = false;
-                    break;
-                case CUTOUT_MIPPED:
-                    needsCutoutMippedUpdate = false;
-                    break;
-                case SOLID:
-                    needsSolidUpdate = false;
-                    break;
-                case TRANSLUCENT:
-                    needsTranslucentUpdate = false;
-                    break;
-                default:
-                    break;
-            }
         }
     }
 }
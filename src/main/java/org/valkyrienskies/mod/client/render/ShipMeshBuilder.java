@@ -0,0 +1,97 @@
+package org.valkyrienskies.mod.client.render;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import lombok.extern.log4j.Log4j2;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.renderer.BlockRendererDispatcher;
+import net.minecraft.client.renderer.BufferBuilder;
+import net.minecraft.util.BlockRenderLayer;
+import net.minecraft.util.EnumBlockRenderType;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.BlockPos.MutableBlockPos;
+import net.minecraft.world.ChunkCache;
+import net.minecraft.world.IBlockAccess;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraftforge.client.ForgeHooksClient;
+import org.valkyrienskies.mod.client.render.ShipSectionMesher.ShipSectionMesh;
+import org.valkyrienskies.mod.common.config.VSConfig;
+
+/**
+ * Builds the meshes of ship chunk sections on a pool of worker threads, so that ships with lots
+ * of block changes don't stall the render thread. The vertex data is built with a {@link
+ * ShipSectionMesher} on the workers, and then has to be uploaded by the render thread.
+ */
+@Log4j2
+public class ShipMeshBuilder {
+
+    private static final BlockRenderLayer[] LAYERS = BlockRenderLayer.values();
+    private static final ExecutorService EXECUTOR = Executors
+        .newFixedThreadPool(VSConfig.shipMeshBuilderThreads, new ThreadFactoryBuilder()
+            .setNameFormat("VS Ship Mesh Builder %d")
+            .setDaemon(true)
+            .build());
+    private static final ThreadLocal<ShipSectionMesher> MESHERS = ThreadLocal
+        .withInitial(ShipSectionMesher::new);
+
+    /**
+     * Starts building the mesh of a section. Must be called from the render thread.
+     *
+     * @param chunk     The chunk the section is in.
+     * @param sectionY  The y of the section, from 0 to 15.
+     * @param offsetPos Subtracted from every vertex, see {@link PhysObjectRenderManager#offsetPos}.
+     */
+    public static CompletableFuture<ShipSectionMesh> buildSection(Chunk chunk, int sectionY,
+        BlockPos offsetPos) {
+        BlockPos minPos = new BlockPos(chunk.x << 4, sectionY << 4, chunk.z << 4);
+        // Grab the chunks around the section now, just like vanilla does before building its
+        // chunk meshes off of the render thread.
+        IBlockAccess blockAccess = new ChunkCache(chunk.getWorld(), minPos.add(-1, -1, -1),
+            minPos.add(16, 16, 16), 1);
+        BlockRendererDispatcher dispatcher = Minecraft.getMinecraft().getBlockRendererDispatcher();
+        return CompletableFuture.supplyAsync(() -> MESHERS.get()
+            .build(new WorldBlockRenderer(blockAccess, dispatcher), minPos.getX(), minPos.getY(),
+                minPos.getZ(), offsetPos.getX(), offsetPos.getY(), offsetPos.getZ()), EXECUTOR);
+    }
+
+    /**
+     * Renders blocks from the world with the vanilla block renderer.
+     */
+    private static class WorldBlockRenderer implements ShipSectionMesher.BlockRenderer {
+
+        final IBlockAccess blockAccess;
+        final BlockRendererDispatcher dispatcher;
+        final MutableBlockPos pos;
+
+        WorldBlockRenderer(IBlockAccess blockAccess, BlockRendererDispatcher dispatcher) {
+            this.blockAccess = blockAccess;
+            this.dispatcher = dispatcher;
+            this.pos = new MutableBlockPos();
+        }
+
+        @Override
+        public void renderBlock(int x, int y, int z, BufferBuilder[] buffers) {
+            pos.setPos(x, y, z);
+            IBlockState state = blockAccess.getBlockState(pos);
+            if (state.getRenderType() == EnumBlockRenderType.INVISIBLE) {
+                return;
+            }
+            for (BlockRenderLayer layer : LAYERS) {
+                if (!state.getBlock().canRenderInLayer(state, layer)) {
+                    continue;
+                }
+                ForgeHooksClient.setRenderLayer(layer);
+                try {
+                    dispatcher.renderBlock(state, pos, blockAccess, buffers[layer.ordinal()]);
+                } catch (NullPointerException e) {
+                    log.error("Something was null while rendering " + state + " at " + pos, e);
+                } finally {
+                    ForgeHooksClient.setRenderLayer(null);
+                }
+            }
+        }
+    }
+}
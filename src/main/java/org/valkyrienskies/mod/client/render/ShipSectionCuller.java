@@ -0,0 +1,75 @@
+package org.valkyrienskies.mod.client.render;
+
+import javax.annotation.Nullable;
+import net.minecraft.client.renderer.culling.ICamera;
+import net.minecraft.util.math.AxisAlignedBB;
+import org.valkyrienskies.mod.common.coordinates.ShipTransform;
+import valkyrienwarfare.api.TransformType;
+
+/**
+ * Decides which 16x16x16 sections of a ship are worth drawing. The bounds of a section in ship
+ * space are transformed into a world space bounding box, which then has to be close enough to the
+ * camera and inside of its view frustum.
+ * <p>
+ * Only does math, so it can be used without OpenGL. Reused between frames, call {@link
+ * #setup(ShipTransform, ICamera, double, double, double, double)} before every use.
+ */
+public class ShipSectionCuller {
+
+    // Scratch space for the ship to world matrix
+    private final double[] matrix;
+    @Nullable
+    private ICamera frustum;
+    private double cameraX, cameraY, cameraZ;
+    private double maxDistanceSq;
+
+    public ShipSectionCuller() {
+        this.matrix = new double[16];
+        this.frustum = null;
+    }
+
+    /**
+     * @param renderTransform The transform the ship is being rendered with.
+     * @param frustum         The view frustum, or null to not do frustum culling.
+     * @param maxDistance     Sections further than this from the camera are culled.
+     */
+    public void setup(ShipTransform renderTransform, @Nullable ICamera frustum, double cameraX,
+        double cameraY, double cameraZ, double maxDistance) {
+        renderTransform.copyMatrixInto(TransformType.SUBSPACE_TO_GLOBAL, matrix);
+        this.frustum = frustum;
+        this.cameraX = cameraX;
+        this.cameraY = cameraY;
+        this.cameraZ = cameraZ;
+        this.maxDistanceSq = maxDistance * maxDistance;
+    }
+
+    /**
+     * @return True if the section whose lowest corner is at the given ship space block position
+     * should be drawn.
+     */
+    public boolean isSectionVisible(int minX, int minY, int minZ) {
+        // Transform the center of the section, and then find how far the rotated section reaches
+        // along every world axis. That's a lot cheaper than transforming all 8 corners.
+        double centerX = minX + 8;
+        double centerY = minY + 8;
+        double centerZ = minZ + 8;
+        double worldX = matrix[0] * centerX + matrix[1] * centerY + matrix[2] * centerZ + matrix[3];
+        double worldY = matrix[4] * centerX + matrix[5] * centerY + matrix[6] * centerZ + matrix[7];
+        double worldZ =
+            matrix[8] * centerX + matrix[9] * centerY + matrix[10] * centerZ + matrix[11];
+        double extentX = 8 * (Math.abs(matrix[0]) + Math.abs(matrix[1]) + Math.abs(matrix[2]));
+        double extentY = 8 * (Math.abs(matrix[4]) + Math.abs(matrix[5]) + Math.abs(matrix[6]));
+        double extentZ = 8 * (Math.abs(matrix[8]) + Math.abs(matrix[9]) + Math.abs(matrix[10]));
+
+        // The distance from the camera to the closest point of the bounding box.
+        double dx = Math.max(0, Math.abs(worldX - cameraX) - extentX);
+        double dy = Math.max(0, Math.abs(worldY - cameraY) - extentY);
+        double dz = Math.max(0, Math.abs(worldZ - cameraZ) - extentZ);
+        if (dx * dx + dy * dy + dz * dz > maxDistanceSq) {
+            return false;
+        }
+        return frustum == null || frustum.isBoundingBoxInFrustum(new AxisAlignedBB(
+            worldX - extentX, worldY - extentY, worldZ - extentZ, worldX + extentX,
+            worldY + extentY, worldZ + extentZ));
+    }
+}
@@ -0,0 +1,129 @@
+package org.valkyrienskies.mod.client.render;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import net.minecraft.client.renderer.BufferBuilder;
+import net.minecraft.client.renderer.vertex.DefaultVertexFormats;
+import net.minecraft.util.BlockRenderLayer;
+import org.lwjgl.opengl.GL11;
+
+/**
+ * Builds the vertex data of a 16x16x16 section of ship blocks for every {@link BlockRenderLayer}.
+ * Doesn't touch OpenGL or the Minecraft client, so it can run on any thread, including in tests
+ * and benchmarks without a game running. Uploading the result is up to the caller.
+ * <p>
+ * Keeps a buffer for every layer that is reused between sections, so every thread building meshes
+ * needs its own instance.
+ */
+public class ShipSectionMesher {
+
+    private static final BlockRenderLayer[] LAYERS = BlockRenderLayer.values();
+    // The buffers grow on their own if a section needs more.
+    private static final int INITIAL_BUFFER_SIZE = 0x10000;
+
+    private final BufferBuilder[] buffers;
+
+    public ShipSectionMesher() {
+        this.buffers = new BufferBuilder[LAYERS.length];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = new BufferBuilder(INITIAL_BUFFER_SIZE);
+        }
+    }
+
+    /**
+     * Renders every block of a section into its layers.
+     *
+     * @param blockRenderer The blocks of the section.
+     * @param minX          The x of the lowest corner of the section.
+     * @param minY          The y of the lowest corner of the section.
+     * @param minZ          The z of the lowest corner of the section.
+     * @param offsetX       Subtracted from the x of every vertex, to keep the floats small.
+     * @param offsetY       Subtracted from the y of every vertex.
+     * @param offsetZ       Subtracted from the z of every vertex.
+     */
+    public ShipSectionMesh build(BlockRenderer blockRenderer, int minX, int minY, int minZ,
+        int offsetX, int offsetY, int offsetZ) {
+        for (BufferBuilder buffer : buffers) {
+            buffer.begin(GL11.GL_QUADS, DefaultVertexFormats.BLOCK);
+            buffer.setTranslation(-offsetX, -offsetY, -offsetZ);
+        }
+        for (int x = minX; x < minX + 16; x++) {
+            for (int z = minZ; z < minZ + 16; z++) {
+                for (int y = minY; y < minY + 16; y++) {
+                    blockRenderer.renderBlock(x, y, z, buffers);
+                }
+            }
+        }
+        ByteBuffer[] layerData = new ByteBuffer[LAYERS.length];
+        int[] vertexCounts = new int[LAYERS.length];
+        for (int i = 0; i < buffers.length; i++) {
+            BufferBuilder buffer = buffers[i];
+            buffer.finishDrawing();
+            buffer.setTranslation(0, 0, 0);
+            vertexCounts[i] = buffer.getVertexCount();
+            if (vertexCounts[i] == 0) {
+                continue;
+            }
+            // The buffer gets reused for the next section, so the data has to be copied.
+            ByteBuffer source = buffer.getByteBuffer();
+            ByteBuffer copy = ByteBuffer.allocateDirect(source.limit())
+                .order(ByteOrder.nativeOrder());
+            copy.put(source);
+            copy.flip();
+            source.position(0);
+            layerData[i] = copy;
+        }
+        return new ShipSectionMesh(layerData, vertexCounts);
+    }
+
+    /**
+     * Renders single blocks for a {@link ShipSectionMesher}.
+     */
+    @FunctionalInterface
+    public interface BlockRenderer {
+
+        /**
+         * Renders the block at the given position into the buffers of the layers it is in.
+         *
+         * @param buffers One buffer for every layer, indexed by {@link BlockRenderLayer#ordinal()}.
+         *                Already started.
+         */
+        void renderBlock(int x, int y, int z, BufferBuilder[] buffers);
+    }
+
+    /**
+     * The vertex data of a section. Immutable.
+     */
+    public static class ShipSectionMesh {
+
+        // Null for layers without any vertices.
+        private final ByteBuffer[] layerData;
+        private final int[] vertexCounts;
+
+        private ShipSectionMesh(ByteBuffer[] layerData, int[] vertexCounts) {
+            this.layerData = layerData;
+            this.vertexCounts = vertexCounts;
+        }
+
+        /**
+         * @return The vertices of the layer in the {@link DefaultVertexFormats#BLOCK} format, or
+         * null if it has none. Don't modify it.
+         */
+        public ByteBuffer getLayerData(BlockRenderLayer layer) {
+            return layerData[layer.ordinal()];
+        }
+
+        public int getVertexCount(BlockRenderLayer layer) {
+            return vertexCounts[layer.ordinal()];
+        }
+
+        public boolean isEmpty() {
+            for (int vertexCount : vertexCounts) {
+                if (vertexCount != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
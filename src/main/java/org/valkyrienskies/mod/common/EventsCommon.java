@@ -1,5 +1,6 @@
 package org.valkyrienskies.mod.common;
 
+import java.io.File;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -50,12 +51,16 @@ import net.minecraftforge.fml.relauncher.Side;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.valkyrienskies.fixes.IPhysicsChunk;
+import org.valkyrienskies.fixes.VSNetwork;
 import org.valkyrienskies.mod.common.coordinates.CoordinateSpaceType;
 import org.valkyrienskies.mod.common.entity.EntityMountable;
 import org.valkyrienskies.mod.common.entity.PhysicsWrapperEntity;
 import org.valkyrienskies.mod.common.math.Vector;
+import org.valkyrienskies.mod.common.network.PhysWrapperPositionHandler;
+import org.valkyrienskies.mod.common.physics.collision.ShipExplosionOcclusion;
 import org.valkyrienskies.mod.common.physics.management.PhysicsObject;
 import org.valkyrienskies.mod.common.physics.management.PhysicsTickHandler;
+import org.valkyrienskies.mod.common.physmanagement.interaction.IWorldVS;
 import org.valkyrienskies.mod.common.physmanagement.interaction.VSWorldEventListener;
 import org.valkyrienskies.mod.common.physmanagement.shipdata.IValkyrienSkiesWorldData;
 import org.valkyrienskies.mod.common.ship_handling.IHasShipManager;
@@ -190,6 +195,10 @@ public class EventsCommon {
         if (!event.getWorld().isRemote) {
             ValkyrienSkiesMod.VS_CHUNK_MANAGER.initWorld(world);
             shipManager.setManager(WorldServerShipManager::new);
+            // Only the ships that changed get written on every save from now on.
+            ValkyrienUtils.getQueryableData(world).openStore(new File(
+                world.getSaveHandler().getWorldDirectory(),
+                "valkyrienskies/ships_dim" + world.provider.getDimension() + ".dat"));
         } else {
             shipManager.setManager(WorldClientShipManager::new);
         }
@@ -199,9 +208,12 @@ public class EventsCommon {
     public void onWorldUnload(WorldEvent.Unload event) {
         if (!event.getWorld().isRemote) {
             ValkyrienSkiesMod.VS_CHUNK_MANAGER.removeWorld(event.getWorld());
+            ValkyrienUtils.getQueryableData(event.getWorld()).closeStore();
+            VSNetwork.removeWorld(event.getWorld());
         } else {
             // Fixes memory leak; @DaPorkChop please don't leave static maps lying around D:
             lastPositions.clear();
+            PhysWrapperPositionHandler.forgetAllShips();
         }
         ValkyrienSkiesMod.VS_PHYSICS_MANAGER.removeWorld(event.getWorld());
         IHasShipManager shipManager = (IHasShipManager) event.getWorld();
@@ -363,6 +375,15 @@ public class EventsCommon {
         }
     }
 
+    @SubscribeEvent
+    public void onExplosionDetonate(ExplosionEvent.Detonate event) {
+        Explosion explosion = event.getExplosion();
+        // Right after this event, doExplosionA() calls getBlockDensity() for every entity within
+        // twice the explosion size. Find the ships that could block those rays just once.
+        ((IWorldVS) event.getWorld()).setExplosionOcclusion(ShipExplosionOcclusion
+            .create(event.getWorld(), explosion.getPosition(), explosion.size * 2 + 2));
+    }
+
     @SubscribeEvent
     public void onEntityTravelToDimension(EntityTravelToDimensionEvent event) {
         if (event.getEntity() instanceof PhysicsWrapperEntity) {
@@ -1,7 +1,6 @@
 package org.valkyrienskies.mod.common;
 
 import com.esotericsoftware.kryo.Kryo;
-import com.googlecode.cqengine.ConcurrentIndexedCollection;
 import de.javakaffee.kryoserializers.SynchronizedCollectionsSerializer;
 import de.javakaffee.kryoserializers.UUIDSerializer;
 import de.javakaffee.kryoserializers.UnmodifiableCollectionsSerializer;
@@ -22,11 +21,11 @@ import de.javakaffee.kryoserializers.guava.TreeMultimapSerializer;
 import de.javakaffee.kryoserializers.guava.UnmodifiableNavigableSetSerializer;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import lombok.Getter;
 import lombok.extern.log4j.Log4j2;
 import net.minecraft.block.Block;
@@ -74,7 +73,7 @@ import org.valkyrienskies.mod.common.network.SubspacedEntityRecordHandler;
 import org.valkyrienskies.mod.common.network.SubspacedEntityRecordMessage;
 import org.valkyrienskies.mod.common.network.VSGuiButtonHandler;
 import org.valkyrienskies.mod.common.network.VSGuiButtonMessage;
-import org.valkyrienskies.mod.common.network.WrapperPositionMessage;
+import org.valkyrienskies.mod.common.network.WrapperPositionBatchMessage;
 import org.valkyrienskies.mod.common.physics.management.DimensionPhysObjectManager;
 import org.valkyrienskies.mod.common.physmanagement.VS_APIPhysicsEntityManager;
 import org.valkyrienskies.mod.common.physmanagement.chunk.DimensionPhysicsChunkManager;
@@ -126,10 +125,11 @@ public class ValkyrienSkiesMod {
     public static final DimensionPhysObjectManager VS_PHYSICS_MANAGER =
         new DimensionPhysObjectManager();
     /**
-     * This service is directly responsible for running collision tasks.
+     * This work stealing pool runs the parallel parts of the physics tick; the per ship
+     * integration and the collision tasks.
      */
     @Getter
-    private static ExecutorService PHYSICS_THREADS_EXECUTOR = null;
+    private static ForkJoinPool PHYSICS_THREADS_EXECUTOR = null;
     public Block physicsInfuser;
     public Block physicsInfuserCreative;
     public Block physicsInfuserDummy;
@@ -155,8 +155,7 @@ public class ValkyrienSkiesMod {
         runConfiguration();
 
         log.debug("Instantiating the physics thread executor");
-        ValkyrienSkiesMod.PHYSICS_THREADS_EXECUTOR = Executors
-            .newFixedThreadPool(VSConfig.threadCount);
+        ValkyrienSkiesMod.PHYSICS_THREADS_EXECUTOR = new ForkJoinPool(VSConfig.threadCount);
 
         log.debug("Beginning asynchronous Kryo initialization");
         serializationInitAsync();
@@ -206,7 +205,7 @@ public class ValkyrienSkiesMod {
     private void registerNetworks(FMLStateEvent event) {
         physWrapperNetwork = NetworkRegistry.INSTANCE.newSimpleChannel("physChannel");
         physWrapperNetwork.registerMessage(PhysWrapperPositionHandler.class,
-            WrapperPositionMessage.class, 0, Side.CLIENT);
+            WrapperPositionBatchMessage.class, 0, Side.CLIENT);
         physWrapperNetwork.registerMessage(SubspacedEntityRecordHandler.class,
             SubspacedEntityRecordMessage.class, 1, Side.CLIENT);
         physWrapperNetwork.registerMessage(SubspacedEntityRecordHandler.class,
@@ -247,32 +246,9 @@ public class ValkyrienSkiesMod {
 
             Kryo kryo = new Kryo();
 
-            // region More serializers
+            registerCollectionSerializers(kryo);
 
-            //noinspection ArraysAsListWithZeroOrOneArgument
-            UnmodifiableCollectionsSerializer.registerSerializers(kryo);
-            SynchronizedCollectionsSerializer.registerSerializers(kryo);
-
-            ImmutableListSerializer.registerSerializers(kryo);
-            ImmutableSetSerializer.registerSerializers(kryo);
-            ImmutableMapSerializer.registerSerializers(kryo);
-            ImmutableMultimapSerializer.registerSerializers(kryo);
-            ImmutableTableSerializer.registerSerializers(kryo);
-            ReverseListSerializer.registerSerializers(kryo);
-            UnmodifiableNavigableSetSerializer.registerSerializers(kryo);
-
-            ArrayListMultimapSerializer.registerSerializers(kryo);
-            HashMultimapSerializer.registerSerializers(kryo);
-            LinkedHashMultimapSerializer.registerSerializers(kryo);
-            LinkedListMultimapSerializer.registerSerializers(kryo);
-            TreeMultimapSerializer.registerSerializers(kryo);
-            ArrayTableSerializer.registerSerializers(kryo);
-            HashBasedTableSerializer.registerSerializers(kryo);
-            TreeBasedTableSerializer.registerSerializers(kryo);
-
-            // endregion
-
-            kryo.register(ConcurrentIndexedCollection.class);
+            kryo.register(ArrayList.class);
             kryo.register(ShipData.class);
             kryo.register(ShipPositionData.class);
             kryo.register(VSChunkClaim.class);
@@ -288,6 +264,37 @@ public class ValkyrienSkiesMod {
         });
     }
 
+    /**
+     * Registers the serializers for the java and guava collections. Classes are saved by the id
+     * they were registered with, so the order of the registrations must never change.
+     */
+    public static void registerCollectionSerializers(Kryo kryo) {
+        // region More serializers
+
+        //noinspection ArraysAsListWithZeroOrOneArgument
+        UnmodifiableCollectionsSerializer.registerSerializers(kryo);
+        SynchronizedCollectionsSerializer.registerSerializers(kryo);
+
+        ImmutableListSerializer.registerSerializers(kryo);
+        ImmutableSetSerializer.registerSerializers(kryo);
+        ImmutableMapSerializer.registerSerializers(kryo);
+        ImmutableMultimapSerializer.registerSerializers(kryo);
+        ImmutableTableSerializer.registerSerializers(kryo);
+        ReverseListSerializer.registerSerializers(kryo);
+        UnmodifiableNavigableSetSerializer.registerSerializers(kryo);
+
+        ArrayListMultimapSerializer.registerSerializers(kryo);
+        HashMultimapSerializer.registerSerializers(kryo);
+        LinkedHashMultimapSerializer.registerSerializers(kryo);
+        LinkedListMultimapSerializer.registerSerializers(kryo);
+        TreeMultimapSerializer.registerSerializers(kryo);
+        ArrayTableSerializer.registerSerializers(kryo);
+        HashBasedTableSerializer.registerSerializers(kryo);
+        TreeBasedTableSerializer.registerSerializers(kryo);
+
+        // endregion
+    }
+
     /**
      * @return The Kryo instance for the mod. This operation is blocking!
      */
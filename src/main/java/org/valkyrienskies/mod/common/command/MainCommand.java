@@ -11,7 +11,9 @@ import net.minecraft.util.text.TextComponentString;
 import net.minecraft.util.text.TextComponentTranslation;
 import net.minecraft.world.World;
 import org.valkyrienskies.mod.common.command.autocompleters.ShipNameAutocompleter;
+import org.valkyrienskies.mod.common.config.VSConfig;
 import org.valkyrienskies.mod.common.entity.PhysicsWrapperEntity;
+import org.valkyrienskies.mod.common.multithreaded.PhysicsTickTimings;
 import org.valkyrienskies.mod.common.multithreaded.VSThread;
 import org.valkyrienskies.mod.common.physmanagement.shipdata.QueryableShipData;
 import org.valkyrienskies.mod.common.physmanagement.shipdata.ShipData;
@@ -35,7 +37,8 @@ import picocli.CommandLine.Spec;
         MainCommand.ListShips.class,
         MainCommand.DisableShip.class,
         MainCommand.GC.class,
-        MainCommand.TPS.class})
+        MainCommand.TPS.class,
+        MainCommand.Profile.class})
 public class MainCommand implements Runnable {
 
     @Spec
@@ -92,6 +95,44 @@ public class MainCommand implements Runnable {
         }
     }
 
+    @Command(name = "profile")
+    static class Profile implements Runnable {
+
+        @Inject
+        ICommandSender sender;
+
+        @Option(names = {"--world", "-w"})
+        World world;
+
+        @Option(names = {"--ships", "-s"}, defaultValue = "5")
+        int shipCount;
+
+        @Override
+        public void run() {
+            if (world == null) {
+                world = sender.getEntityWorld();
+            }
+
+            VSThread worldPhysicsThread = ((WorldServerShipManager) ((IHasShipManager) world)
+                .getManager()).getPhysicsThread();
+
+            if (worldPhysicsThread == null) {
+                return;
+            }
+
+            PhysicsTickTimings.Report report = worldPhysicsThread.getTickTimings().getLastReport();
+            if (report == null) {
+                sender.sendMessage(new TextComponentTranslation("commands.vs.profile.noreport",
+                    VSConfig.physicsTimingsLogPeriod));
+                return;
+            }
+
+            for (String line : report.toLines(shipCount)) {
+                sender.sendMessage(new TextComponentString(line));
+            }
+        }
+    }
+
     @Command(name = "ship-physics")
     static class DisableShip implements Runnable {
 
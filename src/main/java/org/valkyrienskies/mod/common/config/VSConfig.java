@@ -3,6 +3,7 @@ package org.valkyrienskies.mod.common.config;
 import net.minecraftforge.common.config.Config;
 import net.minecraftforge.common.config.Config.Comment;
 import net.minecraftforge.common.config.Config.Name;
+import net.minecraftforge.common.config.Config.RangeDouble;
 import net.minecraftforge.common.config.Config.RangeInt;
 import net.minecraftforge.common.config.Config.RequiresMcRestart;
 import net.minecraftforge.common.config.Config.Type;
@@ -45,14 +46,95 @@ public class VSConfig extends VSConfigTemplate {
     @Comment("Makes wrench toggle a multiblock's constructed state, removes modes.")
     public static boolean wrenchModeless = false;
 
-    public static double physSpeed = 0.01D;
+    @Comment("The number of physics ticks run every second. Each tick simulates " +
+        "1 / physicsTicksPerSecond seconds, so ships always move in real time.")
+    @RangeInt(min = 1, max = 1000)
+    public static int physicsTicksPerSecond = 100;
 
-    @Comment("The number of threads to use for physics, " +
+    @Comment("The most physics ticks that can be run back to back to catch up after lag. Any " +
+        "time lost beyond that is skipped instead.")
+    @RangeInt(min = 1)
+    public static int maxPhysicsCatchUpTicks = 5;
+
+    @Comment("The number of threads in the work stealing pool used for physics, " +
         "recommended to use your cpu's thread count minus 2. " +
+        "Ships and their collision tasks are spread over these threads. " +
         "Cannot be set at runtime.")
     @RangeInt(min = 2)
     public static int threadCount = Math.max(2, Runtime.getRuntime().availableProcessors() - 2);
 
+    @Comment("If true, every physics thread logs how long each stage of its physics ticks, and " +
+        "its most expensive ships, took every physicsTimingsLogPeriod seconds.")
+    public static boolean logPhysicsStageTimings = false;
+
+    @Comment("If true, the physics timings are also appended to " +
+        "valkyrienskies/physics_timings_dim<dimension>.csv in the world folder every " +
+        "physicsTimingsLogPeriod seconds.")
+    public static boolean dumpPhysicsTimingsToCsv = false;
+
+    @Comment("The number of seconds of physics timings in each log, CSV dump, and /vs profile " +
+        "report.")
+    @RangeInt(min = 1)
+    public static int physicsTimingsLogPeriod = 60;
+
+    @Comment("If true, ship to world block collisions are tested with an allocation free " +
+        "separating axis test instead of creating Polygon objects for every block pair. " +
+        "Both give the same collision results.")
+    public static boolean useFastCollisionNarrowPhase = true;
+
+    @Comment("If true, ships remember the impulses of their contacts with the world between " +
+        "physics ticks and reuse them to warm start the next tick. Makes ships resting on the " +
+        "ground jitter a lot less.")
+    public static boolean enableContactWarmStarting = true;
+
+    @Comment("If true, ships that stay at rest for a while stop being simulated and stop " +
+        "sending position updates until a block changes, a force is applied, or something " +
+        "touches them.")
+    public static boolean enableShipSleeping = true;
+
+    @Comment("Ships moving slower than this many blocks per second are considered at rest.")
+    public static double shipSleepLinearVelocityThreshold = .02D;
+
+    @Comment("Ships rotating slower than this many radians per second are considered at rest.")
+    public static double shipSleepAngularVelocityThreshold = .02D;
+
+    @Comment("The number of consecutive physics ticks a ship has to be at rest before it falls " +
+        "asleep. See physicsTicksPerSecond.")
+    @RangeInt(min = 1)
+    public static int shipSleepTicks = 200;
+
+    @Comment("The number of threads that build the meshes of ship blocks in the background. " +
+        "Only used by the client.")
+    @RangeInt(min = 1, max = 8)
+    @RequiresMcRestart
+    public static int shipMeshBuilderThreads = 2;
+
+    @Comment("Ship blocks further than this many blocks from the camera aren't rendered. Set to " +
+        "0 to use the render distance from the video settings. Only used by the client.")
+    @RangeInt(min = 0)
+    public static int shipRenderDistance = 0;
+
+    @Comment("The most ship position updates sent to a player every second, used for ships " +
+        "close to the player.")
+    @RangeInt(min = 1, max = 100)
+    public static int shipPositionUpdateRate = 20;
+
+    @Comment("The fewest ship position updates sent to a player every second, used for slow " +
+        "ships at shipPositionFalloffDistance or further from the player.")
+    @RangeInt(min = 1, max = 100)
+    public static int shipPositionMinUpdateRate = 5;
+
+    @Comment("The distance in blocks over which ship position updates slow down from " +
+        "shipPositionUpdateRate to shipPositionMinUpdateRate. Fast ships are updated more often.")
+    @RangeDouble(min = 1)
+    public static double shipPositionFalloffDistance = 128D;
+
+    @Comment("The most bytes of ship chunks sent to a player every tick after they start " +
+        "watching ships, for all of those ships together. The chunks closest to the player " +
+        "are sent first.")
+    @RangeInt(min = 1024)
+    public static int shipChunkBytesPerTick = 32768;
+
     @Name("Max airships per player")
     @Comment("Players can't own more than this many airships at once. Set to -1 to disable")
     public static int maxAirships = -1;
@@ -164,6 +164,28 @@ public class ShipTransform {
         }
     }
 
+    /**
+     * Copies the internal matrix for the given transform type into dest. Unlike the transform
+     * methods this doesn't allocate, which makes it suitable for hot loops that want to apply the
+     * same transform many times.
+     *
+     * @param transformType
+     * @param dest          An array with a length of at least 16.
+     */
+    public void copyMatrixInto(TransformType transformType, double[] dest) {
+        switch (transformType) {
+            case SUBSPACE_TO_GLOBAL:
+                System.arraycopy(subspaceToGlobal, 0, dest, 0, subspaceToGlobal.length);
+                break;
+            case GLOBAL_TO_SUBSPACE:
+                System.arraycopy(globalToSubspace, 0, dest, 0, globalToSubspace.length);
+                break;
+            default:
+                throw new IllegalArgumentException(
+                    "Unexpected TransformType Enum: " + transformType);
+        }
+    }
+
     @Deprecated
     public void transform(Entity entity, TransformType subspaceToGlobal) {
         RotationMatrices.applyTransform(this, entity, subspaceToGlobal);
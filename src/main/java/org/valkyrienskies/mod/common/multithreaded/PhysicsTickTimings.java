@@ -0,0 +1,285 @@
+package org.valkyrienskies.mod.common.multithreaded;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import lombok.extern.log4j.Log4j2;
+import org.valkyrienskies.mod.common.config.VSConfig;
+import org.valkyrienskies.mod.common.entity.PhysicsWrapperEntity;
+
+/**
+ * Profiles the physics ticks of a physics thread. The time spent in each stage of a tick, and the
+ * time spent on each ship, are recorded into {@link TimingHistogram}s.
+ * <p>
+ * Every {@link VSConfig#physicsTimingsLogPeriod} seconds the histograms are summarized into a
+ * {@link Report}, which can be read from any thread with {@link #getLastReport()}. The report is
+ * also logged if {@link VSConfig#logPhysicsStageTimings} is enabled, and appended to a CSV file if
+ * {@link VSConfig#dumpPhysicsTimingsToCsv} is enabled. The CSV is written on another thread, so
+ * the physics thread never waits for the disk.
+ * <p>
+ * Apart from {@link #getLastReport()}, only accessed by the physics thread that owns it.
+ */
+@Log4j2
+public class PhysicsTickTimings {
+
+    public enum Stage {
+        PRE_COLLISION,
+        COLLISION_CACHE,
+        TORQUE,
+        COLLISION_TASKS,
+        COLLISION_RESOLUTION,
+        POST_COLLISION,
+        SEND_UPDATES,
+        TOTAL
+    }
+
+    // The number of ships that are logged in each report.
+    private static final int SHIPS_LOGGED = 5;
+    private static final String CSV_HEADER = "time,thread,kind,name,samples,avg_ms,p50_ms,"
+        + "p99_ms,max_ms,total_ms,collision_candidates";
+
+    private final String threadName;
+    // Can be null, in which case no CSV is written.
+    private final File csvFile;
+    private final TimingHistogram[] stageHistograms;
+    private final Map<UUID, ShipTimings> shipTimings;
+    private int ticksRecorded;
+    private long lastReportTimeNano;
+    private volatile Report lastReport;
+    // The last CSV write, every write waits for the one before it so the rows stay in order.
+    private CompletableFuture<Void> csvWrite;
+
+    public PhysicsTickTimings(String threadName, File csvFile) {
+        this.threadName = threadName;
+        this.csvFile = csvFile;
+        this.stageHistograms = new TimingHistogram[Stage.values().length];
+        for (int i = 0; i < stageHistograms.length; i++) {
+            stageHistograms[i] = new TimingHistogram();
+        }
+        this.shipTimings = new HashMap<>();
+        this.ticksRecorded = 0;
+        this.lastReportTimeNano = System.nanoTime();
+        this.lastReport = null;
+        this.csvWrite = CompletableFuture.completedFuture(null);
+    }
+
+    public void recordStage(Stage stage, long nanos) {
+        stageHistograms[stage.ordinal()].record(nanos);
+    }
+
+    /**
+     * Records the time spent on each ship during this tick.
+     *
+     * @param shipNanos The time spent on ships.get(i) is in shipNanos[i].
+     */
+    public void recordShips(List<PhysicsWrapperEntity> ships, long[] shipNanos) {
+        for (int i = 0; i < ships.size(); i++) {
+            PhysicsWrapperEntity ship = ships.get(i);
+            ShipTimings timings = shipTimings
+                .computeIfAbsent(ship.getPersistentID(), uuid -> new ShipTimings());
+            timings.name = ship.getName();
+            timings.collisionCandidates = ship.getPhysicsObject().getPhysicsProcessor()
+                .getWorldCollision().getCachedPotentialHitSize();
+            timings.histogram.record(shipNanos[i]);
+        }
+    }
+
+    /**
+     * Must be called at the end of every physics tick. Makes a new report and resets the
+     * timings if it's time to.
+     */
+    public void endTick() {
+        ticksRecorded++;
+        long now = System.nanoTime();
+        if (now - lastReportTimeNano < VSConfig.physicsTimingsLogPeriod * 1000000000L) {
+            return;
+        }
+        Report report = makeReport((now - lastReportTimeNano) / 1e9D);
+        lastReport = report;
+        if (VSConfig.logPhysicsStageTimings) {
+            for (String line : report.toLines(SHIPS_LOGGED)) {
+                log.info(line);
+            }
+        }
+        if (VSConfig.dumpPhysicsTimingsToCsv && csvFile != null) {
+            csvWrite = csvWrite.thenRunAsync(() -> writeCsv(report)).exceptionally(e -> {
+                // Don't let one failed write stop all the ones after it.
+                log.error("Unable to write the physics timings to " + csvFile, e);
+                return null;
+            });
+        }
+        for (TimingHistogram histogram : stageHistograms) {
+            histogram.reset();
+        }
+        // Forget about the ships that weren't ticked at all since the last report.
+        Iterator<ShipTimings> iterator = shipTimings.values().iterator();
+        while (iterator.hasNext()) {
+            ShipTimings timings = iterator.next();
+            if (timings.histogram.getCount() == 0) {
+                iterator.remove();
+            } else {
+                timings.histogram.reset();
+            }
+        }
+        ticksRecorded = 0;
+        lastReportTimeNano = now;
+    }
+
+    /**
+     * @return The report of the last finished profiling period, or null if there hasn't been
+     * one yet.
+     */
+    public Report getLastReport() {
+        return lastReport;
+    }
+
+    private Report makeReport(double periodSeconds) {
+        List<Entry> stages = new ArrayList<>();
+        for (Stage stage : Stage.values()) {
+            stages.add(new Entry(stage.toString(), stageHistograms[stage.ordinal()], 0));
+        }
+        List<Entry> ships = new ArrayList<>();
+        for (ShipTimings timings : shipTimings.values()) {
+            if (timings.histogram.getCount() != 0) {
+                ships.add(new Entry(timings.name, timings.histogram,
+                    timings.collisionCandidates));
+            }
+        }
+        // The most expensive ships first
+        ships.sort((a, b) -> Double.compare(b.totalMs, a.totalMs));
+        return new Report(threadName, System.currentTimeMillis(), periodSeconds, ticksRecorded,
+            Collections.unmodifiableList(stages), Collections.unmodifiableList(ships));
+    }
+
+    private void writeCsv(Report report) {
+        boolean writeHeader = !csvFile.exists();
+        if (writeHeader && csvFile.getParentFile() != null) {
+            csvFile.getParentFile().mkdirs();
+        }
+        try (PrintWriter writer = new PrintWriter(new FileWriter(csvFile, true))) {
+            if (writeHeader) {
+                writer.println(CSV_HEADER);
+            }
+            for (Entry stage : report.getStages()) {
+                writeCsvRow(writer, report, "stage", stage);
+            }
+            for (Entry ship : report.getShips()) {
+                writeCsvRow(writer, report, "ship", ship);
+            }
+        } catch (IOException e) {
+            log.error("Unable to write the physics timings to " + csvFile, e);
+        }
+    }
+
+    private static void writeCsvRow(PrintWriter writer, Report report, String kind, Entry entry) {
+        // Ship names are picked by players, so keep them from breaking the columns.
+        String name = entry.name.replace("\"", "\"\"");
+        writer.println(String.format("%d,%s,%s,\"%s\",%d,%.4f,%.4f,%.4f,%.4f,%.4f,%d",
+            report.timeMillis, report.threadName, kind, name, entry.samples, entry.averageMs,
+            entry.p50Ms, entry.p99Ms, entry.maxMs, entry.totalMs, entry.collisionCandidates));
+    }
+
+    private static class ShipTimings {
+
+        final TimingHistogram histogram = new TimingHistogram();
+        String name;
+        int collisionCandidates;
+    }
+
+    /**
+     * A summary of a {@link TimingHistogram}, in milliseconds.
+     */
+    public static class Entry {
+
+        public final String name;
+        public final long samples;
+        public final double averageMs;
+        public final double p50Ms;
+        public final double p99Ms;
+        public final double maxMs;
+        public final double totalMs;
+        // Only used for ships
+        public final int collisionCandidates;
+
+        private Entry(String name, TimingHistogram histogram, int collisionCandidates) {
+            this.name = name;
+            this.samples = histogram.getCount();
+            this.averageMs = histogram.getAverageNanos() / 1e6D;
+            this.p50Ms = histogram.getPercentileNanos(.5D) / 1e6D;
+            this.p99Ms = histogram.getPercentileNanos(.99D) / 1e6D;
+            this.maxMs = histogram.getMaxNanos() / 1e6D;
+            this.totalMs = histogram.getTotalNanos() / 1e6D;
+            this.collisionCandidates = collisionCandidates;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: avg %.3f, p50 %.3f, p99 %.3f, max %.3f ms", name,
+                averageMs, p50Ms, p99Ms, maxMs);
+        }
+    }
+
+    /**
+     * The timings of one profiling period. Immutable.
+     */
+    public static class Report {
+
+        private final String threadName;
+        private final long timeMillis;
+        private final double periodSeconds;
+        private final int ticks;
+        private final List<Entry> stages;
+        // Sorted from most to least total time
+        private final List<Entry> ships;
+
+        private Report(String threadName, long timeMillis, double periodSeconds, int ticks,
+            List<Entry> stages, List<Entry> ships) {
+            this.threadName = threadName;
+            this.timeMillis = timeMillis;
+            this.periodSeconds = periodSeconds;
+            this.ticks = ticks;
+            this.stages = stages;
+            this.ships = ships;
+        }
+
+        public List<Entry> getStages() {
+            return stages;
+        }
+
+        public List<Entry> getShips() {
+            return ships;
+        }
+
+        /**
+         * @param maxShips The number of ships to include, starting from the most expensive one.
+         * @return A human readable version of this report.
+         */
+        public List<String> toLines(int maxShips) {
+            List<String> lines = new ArrayList<>();
+            lines.add(String.format("%s physics timings over %d ticks in the last %.0f seconds:",
+                threadName, ticks, periodSeconds));
+            for (Entry stage : stages) {
+                lines.add("  " + stage);
+            }
+            int shipCount = Math.min(maxShips, ships.size());
+            if (shipCount != 0) {
+                lines.add(String.format("Most expensive ships (%d of %d):", shipCount,
+                    ships.size()));
+                for (int i = 0; i < shipCount; i++) {
+                    lines.add(String.format("  %s, %.1f ms total, %d collision candidates",
+                        ships.get(i), ships.get(i).totalMs, ships.get(i).collisionCandidates));
+                }
+            }
+            return lines;
+        }
+    }
+}
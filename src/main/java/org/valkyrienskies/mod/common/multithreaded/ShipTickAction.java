@@ -0,0 +1,88 @@
+package org.valkyrienskies.mod.common.multithreaded;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import org.valkyrienskies.mod.common.entity.PhysicsWrapperEntity;
+
+/**
+ * Runs the same piece of work for every ship in a list on a ForkJoinPool. The list is split in
+ * halves until each action only has one ship left, so idle physics threads can steal the ships
+ * that are left over from busy ones.
+ * <p>
+ * The work must only touch the state of the ship it was given, since many ships run at the same
+ * time.
+ */
+public class ShipTickAction extends RecursiveAction {
+
+    private final List<PhysicsWrapperEntity> ships;
+    private final int fromIndex;
+    private final int toIndex;
+    private final Consumer<PhysicsWrapperEntity> work;
+    // Can be null
+    private final long[] shipNanos;
+
+    private ShipTickAction(List<PhysicsWrapperEntity> ships, int fromIndex, int toIndex,
+        Consumer<PhysicsWrapperEntity> work, long[] shipNanos) {
+        this.ships = ships;
+        this.fromIndex = fromIndex;
+        this.toIndex = toIndex;
+        this.work = work;
+        this.shipNanos = shipNanos;
+    }
+
+    /**
+     * Runs work for every ship in ships, and waits for all of them to finish. An exception thrown
+     * by one ship is printed and doesn't stop the other ships from being ticked.
+     */
+    public static void invoke(ForkJoinPool pool, List<PhysicsWrapperEntity> ships,
+        Consumer<PhysicsWrapperEntity> work) {
+        invoke(pool, ships, work, null);
+    }
+
+    /**
+     * Same as {@link #invoke(ForkJoinPool, List, Consumer)}, but also adds the time spent on the
+     * ship at index i to shipNanos[i].
+     *
+     * @param shipNanos Must be at least as long as ships, or null.
+     */
+    public static void invoke(ForkJoinPool pool, List<PhysicsWrapperEntity> ships,
+        Consumer<PhysicsWrapperEntity> work, long[] shipNanos) {
+        if (ships.size() <= 1) {
+            // Not worth the overhead of handing a single ship off to another thread.
+            for (int i = 0; i < ships.size(); i++) {
+                runSafely(ships, i, work, shipNanos);
+            }
+        } else {
+            pool.invoke(new ShipTickAction(ships, 0, ships.size(), work, shipNanos));
+        }
+    }
+
+    @Override
+    protected void compute() {
+        if (toIndex - fromIndex <= 1) {
+            for (int i = fromIndex; i < toIndex; i++) {
+                runSafely(ships, i, work, shipNanos);
+            }
+        } else {
+            int middle = (fromIndex + toIndex) >>> 1;
+            invokeAll(new ShipTickAction(ships, fromIndex, middle, work, shipNanos),
+                new ShipTickAction(ships, middle, toIndex, work, shipNanos));
+        }
+    }
+
+    private static void runSafely(List<PhysicsWrapperEntity> ships, int index,
+        Consumer<PhysicsWrapperEntity> work, long[] shipNanos) {
+        long startNano = System.nanoTime();
+        try {
+            work.accept(ships.get(index));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        if (shipNanos != null) {
+            // Every index is only touched by one action, and invoke() waits for all of them.
+            shipNanos[index] += System.nanoTime() - startNano;
+        }
+    }
+}
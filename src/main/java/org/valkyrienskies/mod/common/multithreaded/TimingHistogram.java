@@ -0,0 +1,79 @@
+package org.valkyrienskies.mod.common.multithreaded;
+
+/**
+ * A histogram of durations in nanoseconds with one bucket per power of 2, so recording a sample
+ * is just a few arithmetic operations and never allocates. Percentiles are only accurate to
+ * within a factor of 2, which is plenty for finding out where time is being spent.
+ * <p>
+ * Not thread safe.
+ */
+public class TimingHistogram {
+
+    // Bucket i holds the samples in [2^(i - 1), 2^i), bucket 0 only holds 0.
+    private static final int BUCKET_COUNT = 64;
+
+    private final long[] buckets;
+    private long count;
+    private long totalNanos;
+    private long maxNanos;
+
+    public TimingHistogram() {
+        this.buckets = new long[BUCKET_COUNT];
+        reset();
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets[Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(nanos))]++;
+        count++;
+        totalNanos += nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+    }
+
+    /**
+     * @param percentile A number from 0 to 1.
+     * @return The upper bound of the bucket that contains the given percentile, in nanoseconds.
+     */
+    public long getPercentileNanos(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(count * percentile);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets[i];
+            if (seen >= Math.max(1, target)) {
+                // The max is a better bound for the last bucket.
+                return Math.min(maxNanos, i == 0 ? 0 : 1L << i);
+            }
+        }
+        return maxNanos;
+    }
+
+    public double getAverageNanos() {
+        return count == 0 ? 0 : (double) totalNanos / count;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = 0;
+        }
+        count = 0;
+        totalNanos = 0;
+        maxNanos = 0;
+    }
+}
@@ -1,12 +1,14 @@
 package org.valkyrienskies.mod.common.multithreaded;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.LockSupport;
 import lombok.extern.log4j.Log4j2;
 import net.minecraft.client.Minecraft;
 import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.math.AxisAlignedBB;
 import net.minecraft.world.World;
 import net.minecraftforge.fml.relauncher.Side;
 import net.minecraftforge.fml.relauncher.SideOnly;
@@ -14,6 +16,7 @@ import org.valkyrienskies.addon.control.block.torque.IRotationNodeWorldProvider;
 import org.valkyrienskies.mod.common.ValkyrienSkiesMod;
 import org.valkyrienskies.mod.common.config.VSConfig;
 import org.valkyrienskies.mod.common.entity.PhysicsWrapperEntity;
+import org.valkyrienskies.mod.common.network.ShipPositionBroadcaster;
 import org.valkyrienskies.mod.common.physics.collision.optimization.ShipCollisionTask;
 import org.valkyrienskies.mod.common.physics.management.WorldPhysObjectManager;
 
@@ -25,14 +28,26 @@ import org.valkyrienskies.mod.common.physics.management.WorldPhysObjectManager;
 @Log4j2
 public class VSThread extends Thread {
 
-    private final static long NS_PER_TICK = 10000000;
+    // Never fall more than one second behind, if we get further behind than that then physics
+    // would move too quickly after the lag source was removed.
     private final static long MAX_LOST_TIME_NS = 1000000000;
+    // Instead of parking for the last bit of the wait we yield in a loop, parkNanos() can
+    // oversleep by a lot on some operating systems.
+    private final static long SPIN_WAIT_NS = 200000;
     // The number of physics ticks to be considered in the average tick time.
-    private final static long TICK_TIME_QUEUE = 100;
+    private final static int TICK_TIME_HISTORY = 100;
     // Used to give each VS thread a unique name
     private static int threadID = 0;
     private final World hostWorld;
-    private final Queue<Long> latestPhysicsTickTimes;
+    // A ring buffer of the time between the starts of the latest physics ticks.
+    private final long[] latestPhysicsTickTimes;
+    private final PhysicsTickTimings tickTimings;
+    private final ShipPositionBroadcaster positionBroadcaster;
+    private int tickTimesIndex;
+    private int tickTimesCount;
+    private long tickTimesSum;
+    // Written by this thread, read by the game thread for the /vs tps command.
+    private volatile long averagePhysicsTickTimeNano;
     // The ships we will be ticking physics for every tick, and sending those
     // updates to players.
     private int physicsTicksCount;
@@ -44,8 +59,14 @@ public class VSThread extends Thread {
         threadID++;
         this.hostWorld = host;
         this.physicsTicksCount = 0;
+        this.positionBroadcaster = new ShipPositionBroadcaster();
         this.threadRunning = true;
-        this.latestPhysicsTickTimes = new ConcurrentLinkedQueue<>();
+        this.latestPhysicsTickTimes = new long[TICK_TIME_HISTORY];
+        this.tickTimings = new PhysicsTickTimings(getName(), getTimingsCsvFile(host));
+        this.tickTimesIndex = 0;
+        this.tickTimesCount = 0;
+        this.tickTimesSum = 0;
+        this.averagePhysicsTickTimeNano = getNanosPerTick();
         log.trace(this.getName() + " thread created.");
     }
 
@@ -54,6 +75,18 @@ public class VSThread extends Thread {
         return Minecraft.getMinecraft().isGamePaused();
     }
 
+    private static File getTimingsCsvFile(World world) {
+        if (world.getSaveHandler() == null) {
+            return null;
+        }
+        return new File(world.getSaveHandler().getWorldDirectory(),
+            "valkyrienskies/physics_timings_dim" + world.provider.getDimension() + ".csv");
+    }
+
+    private static long getNanosPerTick() {
+        return 1000000000L / VSConfig.physicsTicksPerSecond;
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -61,50 +94,29 @@ public class VSThread extends Thread {
      */
     @Override
     public void run() {
-        // Used to make up for any lost time when we tick
-        long lostTickTime = 0;
+        // The time the next physics tick is scheduled to start at. Ticks are scheduled on a fixed
+        // grid, so time lost to a slow tick is made up for by the following ticks.
+        long nextTickTimeNano = System.nanoTime();
+        long lastTickStartNano = nextTickTimeNano;
         while (threadRunning) {
-            long startOfPhysicsTickTimeNano = System.nanoTime();
-            // Limit the tick smoothing to just one second (1000ms), if lostTickTime becomes
-            // too large then physics would move too quickly after the lag source was
-            // removed.
-            if (lostTickTime > MAX_LOST_TIME_NS) {
-                lostTickTime %= MAX_LOST_TIME_NS;
-            }
-            // Run the physics code
-            runGameLoop();
-            long endOfPhysicsTickTimeNano = System.nanoTime();
-            long deltaPhysicsTickTimeNano = endOfPhysicsTickTimeNano - startOfPhysicsTickTimeNano;
-
-            try {
-                long sleepTime = NS_PER_TICK - deltaPhysicsTickTimeNano;
-                // Sending a negative sleepTime would crash the thread.
-                if (sleepTime > 0) {
-                    // If our lostTickTime is greater than zero then we're behind a few ticks, try
-                    // to make up for it by skipping sleep() time.
-                    if (sleepTime > lostTickTime) {
-                        sleepTime -= lostTickTime;
-                        lostTickTime = 0;
-                        sleep(sleepTime / 1000000L);
-                    } else {
-                        lostTickTime -= sleepTime;
-                    }
-                } else {
-                    // We were late in processing this tick, add it to the lost tick time.
-                    lostTickTime -= sleepTime;
-                }
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+            waitUntil(nextTickTimeNano);
+            // Run the ticks that are due, but never more than maxPhysicsCatchUpTicks in a row.
+            int ticksRun = 0;
+            long now = System.nanoTime();
+            while (threadRunning && now - nextTickTimeNano >= 0
+                && ticksRun < VSConfig.maxPhysicsCatchUpTicks) {
+                recordTickTime(now - lastTickStartNano);
+                lastTickStartNano = now;
+                // Run the physics code
+                runGameLoop();
+                nextTickTimeNano += getNanosPerTick();
+                ticksRun++;
+                now = System.nanoTime();
             }
-
-            long endOfTickTimeFullNano = System.nanoTime();
-            long deltaTickTimeFullNano = endOfTickTimeFullNano - startOfPhysicsTickTimeNano;
-
-            // Update the average tick time here:
-            latestPhysicsTickTimes.add(deltaTickTimeFullNano);
-            if (latestPhysicsTickTimes.size() > TICK_TIME_QUEUE) {
-                // Remove the head of this queue.
-                latestPhysicsTickTimes.poll();
+            if (now - nextTickTimeNano >= 0 && (ticksRun >= VSConfig.maxPhysicsCatchUpTicks
+                || now - nextTickTimeNano > MAX_LOST_TIME_NS)) {
+                // We're too far behind to catch up, drop the lost time and carry on from now.
+                nextTickTimeNano = now;
             }
         }
         // If we get to this point of run(), then we are about to return and this thread
@@ -112,6 +124,36 @@ public class VSThread extends Thread {
         log.trace(super.getName() + " killed");
     }
 
+    /**
+     * Blocks until System.nanoTime() reaches the given time. Parks for most of the wait, then
+     * yields for the last few hundred microseconds to avoid oversleeping.
+     */
+    private void waitUntil(long timeNano) {
+        long remaining = timeNano - System.nanoTime();
+        while (remaining > 0 && threadRunning) {
+            if (remaining > SPIN_WAIT_NS) {
+                LockSupport.parkNanos(this, remaining - SPIN_WAIT_NS);
+            } else {
+                Thread.yield();
+            }
+            remaining = timeNano - System.nanoTime();
+        }
+    }
+
+    private void recordTickTime(long tickTimeNano) {
+        if (tickTimesCount == TICK_TIME_HISTORY) {
+            tickTimesSum -= latestPhysicsTickTimes[tickTimesIndex];
+        } else {
+            tickTimesCount++;
+        }
+        latestPhysicsTickTimes[tickTimesIndex] = tickTimeNano;
+        tickTimesSum += tickTimeNano;
+        tickTimesIndex = (tickTimesIndex + 1) % TICK_TIME_HISTORY;
+        if (tickTimesCount == TICK_TIME_HISTORY) {
+            averagePhysicsTickTimeNano = tickTimesSum / TICK_TIME_HISTORY;
+        }
+    }
+
     private void runGameLoop() {
         MinecraftServer mcServer = hostWorld.getMinecraftServer();
         assert mcServer != null;
@@ -131,76 +173,154 @@ public class VSThread extends Thread {
     // The whole time need to be careful the game thread isn't messing with these
     // values.
     private void physicsTick() {
+        long tickStartNano = System.nanoTime();
         // TODO: Temporary fix:
         WorldPhysObjectManager manager = ValkyrienSkiesMod.VS_PHYSICS_MANAGER
             .getManagerForWorld(hostWorld);
         List<PhysicsWrapperEntity> physicsEntities = manager.getTickablePhysicsEntities();
+        // Sleeping ships don't need to be simulated, nor do their positions need to be sent.
+        List<PhysicsWrapperEntity> awakeEntities = new ArrayList<>(physicsEntities.size());
+        List<PhysicsWrapperEntity> sleepingEntities = new ArrayList<>();
+        for (PhysicsWrapperEntity wrapper : physicsEntities) {
+            if (wrapper.getPhysicsObject().getPhysicsProcessor().tickSleepState()) {
+                awakeEntities.add(wrapper);
+            } else {
+                sleepingEntities.add(wrapper);
+            }
+        }
         // Tick ship physics here
-        tickThePhysicsAndCollision(physicsEntities);
-        tickSendUpdatesToPlayers(physicsEntities);
+        tickThePhysicsAndCollision(awakeEntities);
+        long sendStartNano = System.nanoTime();
+        tickSendUpdatesToPlayers(awakeEntities);
+        recordStage(PhysicsTickTimings.Stage.SEND_UPDATES, sendStartNano);
+        wakeUpTouchedShips(awakeEntities, sleepingEntities);
+        recordStage(PhysicsTickTimings.Stage.TOTAL, tickStartNano);
+        tickTimings.endTick();
+    }
+
+    /**
+     * Wakes up the sleeping ships whose bounding boxes intersect the bounding box of an awake
+     * ship.
+     */
+    private void wakeUpTouchedShips(List<PhysicsWrapperEntity> awakeShips,
+        List<PhysicsWrapperEntity> sleepingShips) {
+        for (PhysicsWrapperEntity sleeping : sleepingShips) {
+            AxisAlignedBB sleepingBB = sleeping.getPhysicsObject().getShipBoundingBox();
+            for (PhysicsWrapperEntity awake : awakeShips) {
+                if (sleepingBB.intersects(awake.getPhysicsObject().getShipBoundingBox())) {
+                    sleeping.getPhysicsObject().wakeUp();
+                    break;
+                }
+            }
+        }
     }
 
     /**
      * Ticks physics and collision for the List of PhysicsWrapperEntity passed in.
      */
     private void tickThePhysicsAndCollision(List<PhysicsWrapperEntity> shipsWithPhysics) {
-        double newPhysSpeed = VSConfig.physSpeed;
-        List<ShipCollisionTask> collisionTasks = new ArrayList<>(
-            shipsWithPhysics.size() * 2);
-        for (PhysicsWrapperEntity wrapper : shipsWithPhysics) {
+        // Every tick simulates exactly the time between two ticks.
+        final double newPhysSpeed = 1D / VSConfig.physicsTicksPerSecond;
+        final ForkJoinPool physicsPool = ValkyrienSkiesMod.getPHYSICS_THREADS_EXECUTOR();
+        // The time spent on each ship, used to find the expensive ones.
+        final long[] shipNanos = new long[shipsWithPhysics.size()];
+
+        long stageStartNano = System.nanoTime();
+        // Ships don't share any physics state, so each ship can be updated on its own thread.
+        ShipTickAction.invoke(physicsPool, shipsWithPhysics, wrapper -> {
             if (!wrapper.firstUpdate) {
                 // Update the physics simulation
                 wrapper.getPhysicsObject().getPhysicsProcessor().rawPhysTickPreCol(newPhysSpeed);
+            }
+        }, shipNanos);
+        stageStartNano = recordStage(PhysicsTickTimings.Stage.PRE_COLLISION, stageStartNano);
+
+        ShipTickAction.invoke(physicsPool, shipsWithPhysics, wrapper -> {
+            if (!wrapper.firstUpdate) {
                 // Update the collision task if necessary
                 wrapper.getPhysicsObject().getPhysicsProcessor().getWorldCollision()
                     .tickUpdatingTheCollisionCache();
-                // Take the big collision and split into tiny ones
-                wrapper.getPhysicsObject().getPhysicsProcessor().getWorldCollision()
-                    .splitIntoCollisionTasks(collisionTasks);
             }
-        }
+        }, shipNanos);
+        stageStartNano = recordStage(PhysicsTickTimings.Stage.COLLISION_CACHE, stageStartNano);
 
         // Process gear physics simulation for the game worlds.
         IRotationNodeWorldProvider rotationNodeWorldProvider = (IRotationNodeWorldProvider) hostWorld;
         rotationNodeWorldProvider.getPhysicsRotationNodeWorld().processTorquePhysics(newPhysSpeed);
+        stageStartNano = recordStage(PhysicsTickTimings.Stage.TORQUE, stageStartNano);
 
-        try {
-            // The individual collision tasks will sort through a lot of data to find
-            // collision points
-            ValkyrienSkiesMod.getPHYSICS_THREADS_EXECUTOR().invokeAll(collisionTasks);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+        // Size the collision tasks based on the total amount of work, rather than per ship, so
+        // that we get a few tasks per thread no matter how the work is spread across ships.
+        int totalPotentialHits = 0;
+        for (PhysicsWrapperEntity wrapper : shipsWithPhysics) {
+            if (!wrapper.firstUpdate) {
+                totalPotentialHits += wrapper.getPhysicsObject().getPhysicsProcessor()
+                    .getWorldCollision().getCachedPotentialHitSize();
+            }
         }
-
-        // Then those collision points have to be processed sequentially afterwards, all in
-        // this thread. Thankfully this step is not cpu intensive.
-        for (ShipCollisionTask task : collisionTasks) {
-            PhysicsWrapperEntity wrapper = task.getToTask().getParent().getWrapperEntity();
+        int taskSize = ShipCollisionTask
+            .getTaskSize(totalPotentialHits, physicsPool.getParallelism());
+        List<ShipCollisionTask> collisionTasks = new ArrayList<>();
+        // The tasks of ship i are the ones from shipTaskStarts[i] to shipTaskStarts[i + 1].
+        int[] shipTaskStarts = new int[shipsWithPhysics.size() + 1];
+        for (int i = 0; i < shipsWithPhysics.size(); i++) {
+            PhysicsWrapperEntity wrapper = shipsWithPhysics.get(i);
+            shipTaskStarts[i] = collisionTasks.size();
             if (!wrapper.firstUpdate) {
-                task.getToTask().processCollisionTask(task);
+                // Take the big collision and split into tiny ones
+                wrapper.getPhysicsObject().getPhysicsProcessor().getWorldCollision()
+                    .splitIntoCollisionTasks(collisionTasks, taskSize);
             }
         }
+        shipTaskStarts[shipsWithPhysics.size()] = collisionTasks.size();
 
-        for (PhysicsWrapperEntity wrapper : shipsWithPhysics) {
+        // The individual collision tasks will sort through a lot of data to find
+        // collision points
+        physicsPool.invokeAll(collisionTasks);
+        for (int i = 0; i < shipsWithPhysics.size(); i++) {
+            for (int task = shipTaskStarts[i]; task < shipTaskStarts[i + 1]; task++) {
+                shipNanos[i] += collisionTasks.get(task).getElapsedNanos();
+            }
+        }
+        stageStartNano = recordStage(PhysicsTickTimings.Stage.COLLISION_TASKS, stageStartNano);
+
+        // Then the collision points of each ship have to be processed sequentially in a fixed
+        // order, but different ships can still be processed in parallel.
+        ShipTickAction.invoke(physicsPool, shipsWithPhysics, wrapper -> {
             if (!wrapper.firstUpdate) {
-                try {
-                    wrapper.getPhysicsObject().getPhysicsProcessor().rawPhysTickPostCol();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+                wrapper.getPhysicsObject().getPhysicsProcessor().getWorldCollision()
+                    .processCollisionTasks();
+            }
+        }, shipNanos);
+        stageStartNano = recordStage(PhysicsTickTimings.Stage.COLLISION_RESOLUTION,
+            stageStartNano);
+
+        ShipTickAction.invoke(physicsPool, shipsWithPhysics, wrapper -> {
+            if (!wrapper.firstUpdate) {
+                wrapper.getPhysicsObject().getPhysicsProcessor().rawPhysTickPostCol();
             } else {
                 wrapper.getPhysicsObject()
                     .getShipTransformationManager()
                     .updateAllTransforms(false, false, false);
             }
-        }
+        }, shipNanos);
+        recordStage(PhysicsTickTimings.Stage.POST_COLLISION, stageStartNano);
+        tickTimings.recordShips(shipsWithPhysics, shipNanos);
+    }
+
+    /**
+     * Records the time since stageStartNano for the given stage.
+     *
+     * @return The current time, to be used as the start of the next stage.
+     */
+    private long recordStage(PhysicsTickTimings.Stage stage, long stageStartNano) {
+        long now = System.nanoTime();
+        tickTimings.recordStage(stage, now - stageStartNano);
+        return now;
     }
 
     private void tickSendUpdatesToPlayers(List<PhysicsWrapperEntity> ships) {
-        for (PhysicsWrapperEntity wrapper : ships) {
-            wrapper.getPhysicsObject().getShipTransformationManager()
-                .sendPositionToPlayers(physicsTicksCount);
-        }
+        positionBroadcaster.tick(ships, physicsTicksCount);
         physicsTicksCount++;
     }
 
@@ -213,19 +333,15 @@ public class VSThread extends Thread {
         threadRunning = false;
     }
 
+    public PhysicsTickTimings getTickTimings() {
+        return tickTimings;
+    }
+
     /**
-     * @return The average runtime of the last 100 physics ticks in nanoseconds.
+     * @return The average time between the starts of the last 100 physics ticks in nanoseconds.
      */
     public long getAveragePhysicsTickTimeNano() {
-        if (latestPhysicsTickTimes.size() >= TICK_TIME_QUEUE) {
-            long average = 0;
-            for (Long tickTime : latestPhysicsTickTimes) {
-                average += tickTime;
-            }
-            return average / TICK_TIME_QUEUE;
-        }
-        // If we don't have enough data to get an average, just assume its the ideal
-        // tick time.
-        return NS_PER_TICK;
+        // If we don't have enough data to get an average yet, this is the ideal tick time.
+        return averagePhysicsTickTimeNano;
     }
 }
@@ -1,34 +1,83 @@
 package org.valkyrienskies.mod.common.network;
 
+import io.netty.buffer.Unpooled;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import java.util.ArrayList;
+import java.util.List;
 import net.minecraft.client.Minecraft;
 import net.minecraft.entity.Entity;
+import net.minecraft.network.PacketBuffer;
 import net.minecraft.util.IThreadListener;
 import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
 import net.minecraftforge.fml.common.network.simpleimpl.IMessageHandler;
 import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
 import org.valkyrienskies.mod.common.entity.PhysicsWrapperEntity;
+import org.valkyrienskies.mod.common.physics.management.ShipTransformationBuffer;
 
 public class PhysWrapperPositionHandler implements
-    IMessageHandler<WrapperPositionMessage, IMessage> {
+    IMessageHandler<WrapperPositionBatchMessage, IMessage> {
+
+    // The last state received for every ship, which the next differences are added to. Messages
+    // are decoded by the network thread one at a time in order, but ships are forgotten by the
+    // main thread, so every access is synchronized.
+    private static final Int2ObjectMap<ShipPositionState> BASELINES =
+        new Int2ObjectOpenHashMap<>();
+
+    /**
+     * Forgets the last state received for a ship, called when the ship entity is removed from the
+     * client world. The server sends the whole state again if the ship comes back.
+     */
+    public static void forgetShip(int entityID) {
+        synchronized (BASELINES) {
+            BASELINES.remove(entityID);
+        }
+    }
+
+    /**
+     * Forgets every ship, called when the client world is unloaded, which also happens when the
+     * client disconnects.
+     */
+    public static void forgetAllShips() {
+        synchronized (BASELINES) {
+            BASELINES.clear();
+        }
+    }
 
     @Override
-    public IMessage onMessage(final WrapperPositionMessage message, MessageContext ctx) {
-        if (Minecraft.getMinecraft().player == null) {
-            return null;
+    public IMessage onMessage(final WrapperPositionBatchMessage message, MessageContext ctx) {
+        // Decode right away, even if the player or the ships aren't there yet, so that the
+        // baselines stay in sync with the server.
+        PacketBuffer buf = new PacketBuffer(Unpooled.wrappedBuffer(message.data));
+        int physicsTicksPerSecond = buf.readVarInt();
+        int positionUpdateRate = buf.readVarInt();
+        int physicsTick = buf.readVarInt();
+        int shipCount = buf.readVarInt();
+        List<WrapperPositionMessage> positions = new ArrayList<>(shipCount);
+        synchronized (BASELINES) {
+            for (int i = 0; i < shipCount; i++) {
+                int entityID = buf.readVarInt();
+                ShipPositionState state = ShipPositionState.read(buf, BASELINES.get(entityID));
+                if (state != null) {
+                    BASELINES.put(entityID, state);
+                    positions.add(state.toMessage(entityID, physicsTick));
+                }
+            }
         }
 
         IThreadListener mainThread = Minecraft.getMinecraft();
-        mainThread.addScheduledTask(new Runnable() {
-            @Override
-            public void run() {
-                if (Minecraft.getMinecraft().world != null) {
-                    Entity ent = Minecraft.getMinecraft().world
-                        .getEntityByID(message.getEntityID());
-                    if (ent instanceof PhysicsWrapperEntity) {
-                        PhysicsWrapperEntity wrapper = (PhysicsWrapperEntity) ent;
-                        wrapper.getPhysicsObject().getShipTransformationManager().serverBuffer
-                            .pushMessage(message);
-                    }
+        mainThread.addScheduledTask(() -> {
+            if (Minecraft.getMinecraft().world == null) {
+                return;
+            }
+            for (WrapperPositionMessage position : positions) {
+                Entity ent = Minecraft.getMinecraft().world
+                    .getEntityByID(position.getEntityID());
+                if (ent instanceof PhysicsWrapperEntity) {
+                    ShipTransformationBuffer buffer = ((PhysicsWrapperEntity) ent)
+                        .getPhysicsObject().getShipTransformationManager().serverBuffer;
+                    buffer.setServerRates(physicsTicksPerSecond, positionUpdateRate);
+                    buffer.pushMessage(position);
                 }
             }
         });
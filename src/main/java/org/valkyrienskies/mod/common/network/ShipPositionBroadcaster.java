@@ -0,0 +1,157 @@
+package org.valkyrienskies.mod.common.network;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import net.minecraft.entity.player.EntityPlayerMP;
+import org.valkyrienskies.mod.common.ValkyrienSkiesMod;
+import org.valkyrienskies.mod.common.config.VSConfig;
+import org.valkyrienskies.mod.common.entity.PhysicsWrapperEntity;
+import org.valkyrienskies.mod.common.physics.management.PhysicsObject;
+
+/**
+ * Sends the positions of ships to the players watching them. Positions are only sent every
+ * network tick, which is {@link VSConfig#shipPositionUpdateRate} times a second, and each player
+ * gets all of its updates in one {@link WrapperPositionBatchMessage}.
+ * <p>
+ * Ships far away from a player are updated less often than ships close to it, down to {@link
+ * VSConfig#shipPositionMinUpdateRate}, unless they're moving fast. Ships that didn't move are only
+ * sent once more after they stopped. Every state is sent as the difference to the last state sent
+ * to that player.
+ * <p>
+ * Only to be used by the physics thread.
+ */
+public class ShipPositionBroadcaster {
+
+    // Every this many updates of a ship to a player the whole state is sent again, in case the
+    // client missed a message.
+    private static final int KEYFRAME_INTERVAL = 100;
+    // A ship moving this many blocks per second is updated twice as often as a ship standing still
+    // at the same distance.
+    private static final double SPEED_FOR_DOUBLE_RATE = 8;
+    // Ships that haven't been updated for this many network ticks are forgotten.
+    private static final int FORGET_SHIP_NETWORK_TICKS = 1200;
+
+    // For every ship, what was last sent to each player watching it.
+    private final Map<PhysicsWrapperEntity, Map<EntityPlayerMP, SentState>> sentStates;
+    private int networkTick;
+
+    public ShipPositionBroadcaster() {
+        this.sentStates = new IdentityHashMap<>();
+        this.networkTick = 0;
+    }
+
+    /**
+     * Called every physics tick with the ships that were simulated.
+     */
+    public void tick(List<PhysicsWrapperEntity> ships, int physicsTick) {
+        int physicsTicksPerNetworkTick = Math
+            .max(1, VSConfig.physicsTicksPerSecond / VSConfig.shipPositionUpdateRate);
+        if (physicsTick % physicsTicksPerNetworkTick != 0) {
+            return;
+        }
+        networkTick++;
+
+        Map<EntityPlayerMP, WrapperPositionBatchMessage> batches = new HashMap<>();
+        for (PhysicsWrapperEntity wrapper : ships) {
+            PhysicsObject physicsObject = wrapper.getPhysicsObject();
+            ShipPositionState state = ShipPositionState.quantize(
+                physicsObject.getShipTransformationManager().createPositionMessage(physicsTick));
+            Map<EntityPlayerMP, SentState> sentToPlayers = sentStates
+                .computeIfAbsent(wrapper, k -> new IdentityHashMap<>());
+            // The clients of players that stopped watching forgot this ship, so when they watch
+            // it again they need the whole state.
+            for (EntityPlayerMP untracked : physicsObject.pollUntrackedPlayers()) {
+                sentToPlayers.remove(untracked);
+            }
+
+            // Do a standard loop here to avoid a concurrentModificationException. A standard for
+            // each loop could cause a crash.
+            for (int i = 0; i < physicsObject.getWatchingPlayers().size(); i++) {
+                EntityPlayerMP player = physicsObject.getWatchingPlayers().get(i);
+                if (player == null) {
+                    continue;
+                }
+                SentState sent = sentToPlayers.get(player);
+                ShipPositionState baseline = null;
+                if (sent != null) {
+                    boolean isAtRest = state.equals(sent.state);
+                    // A ship that stopped is sent once more without any changes, so that clients
+                    // know to stop extrapolating its movement.
+                    if ((isAtRest && sent.isAtRest) || !isUpdateDue(player, state, sent)) {
+                        continue;
+                    }
+                    sent.isAtRest = isAtRest;
+                    if (sent.sendsSinceKeyframe < KEYFRAME_INTERVAL) {
+                        baseline = sent.state;
+                    }
+                } else {
+                    sent = new SentState();
+                    sentToPlayers.put(player, sent);
+                }
+                sent.sendsSinceKeyframe = baseline == null ? 0 : sent.sendsSinceKeyframe + 1;
+                sent.state = state;
+                sent.lastSentNetworkTick = networkTick;
+
+                batches.computeIfAbsent(player, k -> new WrapperPositionBatchMessage(physicsTick))
+                    .addShip(wrapper.getEntityId(), state, baseline);
+            }
+        }
+
+        for (Map.Entry<EntityPlayerMP, WrapperPositionBatchMessage> batch : batches.entrySet()) {
+            ValkyrienSkiesMod.physWrapperNetwork.sendTo(batch.getValue(), batch.getKey());
+        }
+        forgetOldStates();
+    }
+
+    /**
+     * @return True if enough time has passed since the last update of this ship to the player,
+     * depending on how far away the ship is and how fast it's moving.
+     */
+    private boolean isUpdateDue(EntityPlayerMP player, ShipPositionState state, SentState sent) {
+        int networkTicksSinceSent = networkTick - sent.lastSentNetworkTick;
+        double dx = state.getX() - player.posX;
+        double dy = state.getY() - player.posY;
+        double dz = state.getZ() - player.posZ;
+        double distance = Math.sqrt(dx * dx + dy * dy + dz * dz);
+        double speed = state.distanceTo(sent.state) * VSConfig.shipPositionUpdateRate
+            / networkTicksSinceSent;
+
+        double maxInterval = Math.max(1D,
+            (double) VSConfig.shipPositionUpdateRate / VSConfig.shipPositionMinUpdateRate);
+        double interval = 1 + (maxInterval - 1) * Math
+            .min(1, distance / VSConfig.shipPositionFalloffDistance);
+        interval /= 1 + speed / SPEED_FOR_DOUBLE_RATE;
+        return networkTicksSinceSent >= interval;
+    }
+
+    /**
+     * Forgets the players that left, and the ships that haven't been updated in a while. The next
+     * time they're sent the whole state is sent again.
+     */
+    private void forgetOldStates() {
+        Iterator<Map.Entry<PhysicsWrapperEntity, Map<EntityPlayerMP, SentState>>> shipIterator =
+            sentStates.entrySet().iterator();
+        while (shipIterator.hasNext()) {
+            Map.Entry<PhysicsWrapperEntity, Map<EntityPlayerMP, SentState>> entry = shipIterator
+                .next();
+            entry.getValue().entrySet().removeIf(playerEntry -> playerEntry.getKey()
+                .hasDisconnected()
+                || networkTick - playerEntry.getValue().lastSentNetworkTick
+                > FORGET_SHIP_NETWORK_TICKS);
+            if (entry.getKey().isDead || entry.getValue().isEmpty()) {
+                shipIterator.remove();
+            }
+        }
+    }
+
+    private static class SentState {
+
+        ShipPositionState state;
+        int lastSentNetworkTick;
+        int sendsSinceKeyframe;
+        boolean isAtRest;
+    }
+}
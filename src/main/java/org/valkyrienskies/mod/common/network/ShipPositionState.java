@@ -0,0 +1,307 @@
+package org.valkyrienskies.mod.common.network;
+
+import java.util.Arrays;
+import javax.annotation.Nullable;
+import net.minecraft.network.PacketBuffer;
+import net.minecraft.util.math.AxisAlignedBB;
+import org.valkyrienskies.mod.common.coordinates.ShipTransform;
+import org.valkyrienskies.mod.common.math.Quaternion;
+import org.valkyrienskies.mod.common.math.Vector;
+import valkyrienwarfare.api.TransformType;
+
+/**
+ * The data of a {@link WrapperPositionMessage} quantized to what clients actually need, so that
+ * it can be sent in a handful of bytes. Positions are fixed point, the rotation is a quaternion
+ * stored as its three smallest components, and the bounding box is stored relative to the
+ * position of the ship.
+ * <p>
+ * A state can either be written whole, or as the difference to a baseline state the receiver
+ * already has. Both sides quantize the same way, so the receiver ends up with exactly the state
+ * of the sender.
+ */
+public class ShipPositionState {
+
+    // Positions are sent in 1/4096ths of a block.
+    private static final double POSITION_SCALE = 4096;
+    // The bounding box only has to be roughly right, so it's sent in 1/16ths of a block.
+    private static final double BOUNDS_SCALE = 16;
+    // The three smallest components of a unit quaternion are within +-1/sqrt(2).
+    private static final double ROTATION_SCALE = Short.MAX_VALUE * Math.sqrt(2);
+
+    private static final int FLAG_KEYFRAME = 1;
+    private static final int FLAG_POSITION = 1 << 1;
+    private static final int FLAG_ROTATION = 1 << 2;
+    private static final int FLAG_CENTER_OF_MASS = 1 << 3;
+    private static final int FLAG_BOUNDS = 1 << 4;
+
+    // What keyframes are written against, so that they're read the same way as any other state.
+    private static final ShipPositionState ZERO = new ShipPositionState(0, 0, 0, 0, 0, 0, 0,
+        new short[6]);
+
+    private final long posX, posY, posZ;
+    // The index of the largest component in bits 48 and 49, then the other three components.
+    private final long rotation;
+    private final long centerX, centerY, centerZ;
+    // minX, minY, minZ, maxX, maxY, maxZ relative to the position.
+    private final short[] bounds;
+
+    private ShipPositionState(long posX, long posY, long posZ, long rotation, long centerX,
+        long centerY, long centerZ, short[] bounds) {
+        this.posX = posX;
+        this.posY = posY;
+        this.posZ = posZ;
+        this.rotation = rotation;
+        this.centerX = centerX;
+        this.centerY = centerY;
+        this.centerZ = centerZ;
+        this.bounds = bounds;
+    }
+
+    public static ShipPositionState quantize(WrapperPositionMessage message) {
+        long posX = Math.round(message.getPosX() * POSITION_SCALE);
+        long posY = Math.round(message.getPosY() * POSITION_SCALE);
+        long posZ = Math.round(message.getPosZ() * POSITION_SCALE);
+        Quaternion quaternion = ShipTransform
+            .createRotationTransform(message.getPitch(), message.getYaw(), message.getRoll())
+            .createRotationQuaternion(TransformType.SUBSPACE_TO_GLOBAL);
+        // Round the bounds outwards, so that the ship always fits inside of them.
+        AxisAlignedBB shipBB = message.getShipBB();
+        double x = posX / POSITION_SCALE;
+        double y = posY / POSITION_SCALE;
+        double z = posZ / POSITION_SCALE;
+        short[] bounds = {
+            quantizeBound(Math.floor((shipBB.minX - x) * BOUNDS_SCALE)),
+            quantizeBound(Math.floor((shipBB.minY - y) * BOUNDS_SCALE)),
+            quantizeBound(Math.floor((shipBB.minZ - z) * BOUNDS_SCALE)),
+            quantizeBound(Math.ceil((shipBB.maxX - x) * BOUNDS_SCALE)),
+            quantizeBound(Math.ceil((shipBB.maxY - y) * BOUNDS_SCALE)),
+            quantizeBound(Math.ceil((shipBB.maxZ - z) * BOUNDS_SCALE))
+        };
+        Vector centerOfMass = message.getCenterOfMass();
+        return new ShipPositionState(posX, posY, posZ, packRotation(quaternion),
+            Math.round(centerOfMass.X * POSITION_SCALE),
+            Math.round(centerOfMass.Y * POSITION_SCALE),
+            Math.round(centerOfMass.Z * POSITION_SCALE), bounds);
+    }
+
+    /**
+     * Turns this state back into a message that can be applied to a ship.
+     */
+    public WrapperPositionMessage toMessage(int entityID, int relativeTick) {
+        WrapperPositionMessage message = new WrapperPositionMessage();
+        message.setEntityID(entityID);
+        message.setRelativeTick(relativeTick);
+        double x = getX();
+        double y = getY();
+        double z = getZ();
+        message.setPosX(x);
+        message.setPosY(y);
+        message.setPosZ(z);
+        double[] radians = unpackRotation(rotation).toRadians();
+        message.setPitch(Math.toDegrees(radians[0]));
+        message.setYaw(Math.toDegrees(radians[1]));
+        message.setRoll(Math.toDegrees(radians[2]));
+        message.setCenterOfMass(new Vector(centerX / POSITION_SCALE, centerY / POSITION_SCALE,
+            centerZ / POSITION_SCALE));
+        message.setShipBB(new AxisAlignedBB(x + bounds[0] / BOUNDS_SCALE,
+            y + bounds[1] / BOUNDS_SCALE, z + bounds[2] / BOUNDS_SCALE,
+            x + bounds[3] / BOUNDS_SCALE, y + bounds[4] / BOUNDS_SCALE,
+            z + bounds[5] / BOUNDS_SCALE));
+        return message;
+    }
+
+    public double getX() {
+        return posX / POSITION_SCALE;
+    }
+
+    public double getY() {
+        return posY / POSITION_SCALE;
+    }
+
+    public double getZ() {
+        return posZ / POSITION_SCALE;
+    }
+
+    /**
+     * @return The distance in blocks between the positions of this and the other state.
+     */
+    public double distanceTo(ShipPositionState other) {
+        double dx = getX() - other.getX();
+        double dy = getY() - other.getY();
+        double dz = getZ() - other.getZ();
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    /**
+     * Writes this state to buf.
+     *
+     * @param baseline The last state the receiver got for this ship, or null to write the whole
+     *                 state.
+     */
+    public void write(PacketBuffer buf, @Nullable ShipPositionState baseline) {
+        int flags = FLAG_POSITION | FLAG_ROTATION | FLAG_CENTER_OF_MASS | FLAG_BOUNDS;
+        if (baseline == null) {
+            flags |= FLAG_KEYFRAME;
+            baseline = ZERO;
+        } else {
+            // Only write what changed.
+            if (posX == baseline.posX && posY == baseline.posY && posZ == baseline.posZ) {
+                flags &= ~FLAG_POSITION;
+            }
+            if (rotation == baseline.rotation) {
+                flags &= ~FLAG_ROTATION;
+            }
+            if (centerX == baseline.centerX && centerY == baseline.centerY
+                && centerZ == baseline.centerZ) {
+                flags &= ~FLAG_CENTER_OF_MASS;
+            }
+            if (Arrays.equals(bounds, baseline.bounds)) {
+                flags &= ~FLAG_BOUNDS;
+            }
+        }
+        buf.writeByte(flags);
+        if ((flags & FLAG_POSITION) != 0) {
+            buf.writeVarLong(zigZag(posX - baseline.posX));
+            buf.writeVarLong(zigZag(posY - baseline.posY));
+            buf.writeVarLong(zigZag(posZ - baseline.posZ));
+        }
+        if ((flags & FLAG_ROTATION) != 0) {
+            buf.writeByte((int) (rotation >>> 48));
+            buf.writeShort((int) (rotation >>> 32));
+            buf.writeShort((int) (rotation >>> 16));
+            buf.writeShort((int) rotation);
+        }
+        if ((flags & FLAG_CENTER_OF_MASS) != 0) {
+            buf.writeVarLong(zigZag(centerX - baseline.centerX));
+            buf.writeVarLong(zigZag(centerY - baseline.centerY));
+            buf.writeVarLong(zigZag(centerZ - baseline.centerZ));
+        }
+        if ((flags & FLAG_BOUNDS) != 0) {
+            for (short bound : bounds) {
+                buf.writeShort(bound);
+            }
+        }
+    }
+
+    /**
+     * Reads a state that was written by {@link #write(PacketBuffer, ShipPositionState)}.
+     *
+     * @param baseline The last state read for this ship, or null if there isn't one.
+     * @return Null if the state was written against a baseline, but there was no baseline given.
+     */
+    @Nullable
+    public static ShipPositionState read(PacketBuffer buf, @Nullable ShipPositionState baseline) {
+        int flags = buf.readByte();
+        boolean isKeyframe = (flags & FLAG_KEYFRAME) != 0;
+        ShipPositionState from = isKeyframe || baseline == null ? ZERO : baseline;
+
+        long posX = from.posX, posY = from.posY, posZ = from.posZ;
+        long rotation = from.rotation;
+        long centerX = from.centerX, centerY = from.centerY, centerZ = from.centerZ;
+        short[] bounds = from.bounds;
+        if ((flags & FLAG_POSITION) != 0) {
+            posX += unZigZag(buf.readVarLong());
+            posY += unZigZag(buf.readVarLong());
+            posZ += unZigZag(buf.readVarLong());
+        }
+        if ((flags & FLAG_ROTATION) != 0) {
+            rotation = (buf.readByte() & 3L) << 48 | (buf.readShort() & 0xFFFFL) << 32
+                | (buf.readShort() & 0xFFFFL) << 16 | buf.readShort() & 0xFFFFL;
+        }
+        if ((flags & FLAG_CENTER_OF_MASS) != 0) {
+            centerX += unZigZag(buf.readVarLong());
+            centerY += unZigZag(buf.readVarLong());
+            centerZ += unZigZag(buf.readVarLong());
+        }
+        if ((flags & FLAG_BOUNDS) != 0) {
+            bounds = new short[6];
+            for (int i = 0; i < bounds.length; i++) {
+                bounds[i] = buf.readShort();
+            }
+        }
+        if (!isKeyframe && baseline == null) {
+            // Everything still had to be read, but without a baseline there's nothing to add
+            // the differences to.
+            return null;
+        }
+        return new ShipPositionState(posX, posY, posZ, rotation, centerX, centerY, centerZ,
+            bounds);
+    }
+
+    /**
+     * Packs a unit quaternion into its three smallest components, 16 bits each, and the index of
+     * the largest one. The largest one can be calculated from the other three.
+     */
+    static long packRotation(Quaternion quaternion) {
+        double[] components = {quaternion.getX(), quaternion.getY(), quaternion.getZ(),
+            quaternion.getW()};
+        double length = Math.sqrt(components[0] * components[0] + components[1] * components[1]
+            + components[2] * components[2] + components[3] * components[3]);
+        int largest = 0;
+        for (int i = 1; i < 4; i++) {
+            if (Math.abs(components[i]) > Math.abs(components[largest])) {
+                largest = i;
+            }
+        }
+        // q and -q are the same rotation, so make the largest component positive.
+        double sign = components[largest] < 0 ? -1 : 1;
+        long packed = (long) largest << 48;
+        int shift = 32;
+        for (int i = 0; i < 4; i++) {
+            if (i == largest) {
+                continue;
+            }
+            long quantized = Math.round(sign * components[i] / length * ROTATION_SCALE);
+            quantized = Math.max(-Short.MAX_VALUE, Math.min(Short.MAX_VALUE, quantized));
+            packed |= (quantized & 0xFFFF) << shift;
+            shift -= 16;
+        }
+        return packed;
+    }
+
+    static Quaternion unpackRotation(long packed) {
+        int largest = (int) (packed >>> 48) & 3;
+        double[] components = new double[4];
+        double sumSq = 0;
+        int shift = 32;
+        for (int i = 0; i < 4; i++) {
+            if (i == largest) {
+                continue;
+            }
+            components[i] = (short) (packed >>> shift) / ROTATION_SCALE;
+            sumSq += components[i] * components[i];
+            shift -= 16;
+        }
+        components[largest] = Math.sqrt(Math.max(0, 1 - sumSq));
+        return new Quaternion(components[0], components[1], components[2], components[3]);
+    }
+
+    private static short quantizeBound(double bound) {
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, bound));
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof ShipPositionState)) {
+            return false;
+        }
+        ShipPositionState otherState = (ShipPositionState) other;
+        return posX == otherState.posX && posY == otherState.posY && posZ == otherState.posZ
+            && rotation == otherState.rotation && centerX == otherState.centerX
+            && centerY == otherState.centerY && centerZ == otherState.centerZ
+            && Arrays.equals(bounds, otherState.bounds);
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(posX * 31 + posY * 17 + posZ) ^ Long.hashCode(rotation);
+    }
+}
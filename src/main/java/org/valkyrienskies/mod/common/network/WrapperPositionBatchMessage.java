@@ -0,0 +1,75 @@
+package org.valkyrienskies.mod.common.network;
+
+import gnu.trove.list.array.TIntArrayList;
+import io.netty.buffer.ByteBuf;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+import net.minecraft.network.PacketBuffer;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+import org.valkyrienskies.mod.common.config.VSConfig;
+
+/**
+ * Sends the positions of all the ships a player needs an update for in one packet. Every ship is
+ * written as a {@link ShipPositionState}, either whole or as the difference to the last state
+ * sent to that player. The differences are against the last state that was sent rather than one
+ * the client confirmed, which works because messages arrive reliably and in order.
+ * <p>
+ * Every message starts with the physics tick rate and the position update rate of the server, so
+ * the client can turn the ticks of the states into time without relying on its own config.
+ *
+ * @see ShipPositionBroadcaster
+ */
+public class WrapperPositionBatchMessage implements IMessage {
+
+    // This data only exists on the side that received this packet, it's decoded by the handler
+    // because only the handler knows the baselines.
+    @Nullable
+    public byte[] data;
+    // These objects only exist on the side that created this packet.
+    private final int physicsTick;
+    private final TIntArrayList entityIDs;
+    private final List<ShipPositionState> states;
+    private final List<ShipPositionState> baselines;
+
+    public WrapperPositionBatchMessage(int physicsTick) {
+        this.physicsTick = physicsTick;
+        this.entityIDs = new TIntArrayList();
+        this.states = new ArrayList<>();
+        this.baselines = new ArrayList<>();
+    }
+
+    public WrapperPositionBatchMessage() {
+        this(0);
+    }
+
+    /**
+     * @param baseline The last state sent to the player for this ship, or null to send all of
+     *                 the state.
+     */
+    public void addShip(int entityID, ShipPositionState state,
+        @Nullable ShipPositionState baseline) {
+        entityIDs.add(entityID);
+        states.add(state);
+        baselines.add(baseline);
+    }
+
+    @Override
+    public void fromBytes(ByteBuf buf) {
+        data = new byte[buf.readableBytes()];
+        buf.readBytes(data);
+    }
+
+    @Override
+    public void toBytes(ByteBuf buf) {
+        PacketBuffer packetBuffer = new PacketBuffer(buf);
+        packetBuffer.writeVarInt(VSConfig.physicsTicksPerSecond);
+        packetBuffer.writeVarInt(VSConfig.shipPositionUpdateRate);
+        packetBuffer.writeVarInt(physicsTick);
+        packetBuffer.writeVarInt(entityIDs.size());
+        for (int i = 0; i < entityIDs.size(); i++) {
+            packetBuffer.writeVarInt(entityIDs.get(i));
+            states.get(i).write(packetBuffer, baselines.get(i));
+        }
+    }
+}
@@ -4,16 +4,15 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.PriorityQueue;
 import java.util.Queue;
-import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
-import java.util.concurrent.ConcurrentHashMap;
 import javax.vecmath.Matrix3d;
 import net.minecraft.block.Block;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.init.Blocks;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.BlockPos.MutableBlockPos;
 import net.minecraft.world.World;
 import org.valkyrienskies.addon.control.block.torque.IRotationNodeWorld;
 import org.valkyrienskies.addon.control.block.torque.IRotationNodeWorldProvider;
@@ -29,6 +28,7 @@ import org.valkyrienskies.mod.common.math.Vector;
 import org.valkyrienskies.mod.common.multithreaded.PhysicsShipTransform;
 import org.valkyrienskies.mod.common.physics.collision.WorldPhysicsCollider;
 import org.valkyrienskies.mod.common.physics.management.PhysicsObject;
+import org.valkyrienskies.mod.common.physics.management.ShipBlockIndex;
 import org.valkyrienskies.mod.common.physics.management.ShipTransformationManager;
 import org.valkyrienskies.mod.common.util.ValkyrienNBTUtils;
 import valkyrienwarfare.api.TransformType;
@@ -42,8 +42,6 @@ public class PhysicsCalculations implements IRotationNodeWorldProvider {
     private final PhysicsObject parent;
     private final WorldPhysicsCollider worldCollision;
     private final PhysicsParticleManager particleManager;
-    // CopyOnWrite to provide concurrency between threads.
-    private final Set<BlockPos> activeForcePositions;
     private final IRotationNodeWorld physicsRotationNodeWorld;
     public org.valkyrienskies.mod.common.math.Vector gameTickCenterOfMass;
     public org.valkyrienskies.mod.common.math.Vector linearMomentum;
@@ -61,6 +59,13 @@ public class PhysicsCalculations implements IRotationNodeWorldProvider {
     private double[] physInvMOITensor;
     private double physRoll, physPitch, physYaw;
     private double physX, physY, physZ;
+    // The number of consecutive physics ticks this ship has been moving slower than the sleep
+    // thresholds.
+    private int ticksAtRest;
+    // Sleeping ships are skipped by the physics thread until something wakes them up.
+    private volatile boolean asleep;
+    // Set by the game thread, consumed by the physics thread at the start of the next tick.
+    private volatile boolean wakeUpRequested;
 
     public PhysicsCalculations(PhysicsObject toProcess) {
         parent = toProcess;
@@ -78,19 +83,19 @@ public class PhysicsCalculations implements IRotationNodeWorldProvider {
         angularVelocity = new org.valkyrienskies.mod.common.math.Vector();
         torque = new org.valkyrienskies.mod.common.math.Vector();
         actAsArchimedes = false;
-        // We need thread safe access to this.
-        activeForcePositions = ConcurrentHashMap.newKeySet();
         this.physicsRotationNodeWorld = new ImplRotationNodeWorld(parent);
+        this.ticksAtRest = 0;
+        this.asleep = false;
+        this.wakeUpRequested = false;
     }
 
     public void onSetBlockState(IBlockState oldState, IBlockState newState, BlockPos pos) {
         World worldObj = getParent().world();
         if (!newState.equals(oldState)) {
-            if (BlockPhysicsDetails.isBlockProvidingForce(newState, pos, worldObj)) {
-                activeForcePositions.add(pos);
-            } else {
-                activeForcePositions.remove(pos);
-            }
+            // The mass and forces of the ship are changing, so it can't keep sleeping.
+            wakeUp();
+            getParent().getBlockIndex().setForceProvider(pos.getX(), pos.getY(), pos.getZ(),
+                BlockPhysicsDetails.isBlockProvidingForce(newState, pos, worldObj));
 
             double oldMass = BlockPhysicsDetails.getMassFromState(oldState, pos, worldObj);
             double newMass = BlockPhysicsDetails.getMassFromState(newState, pos, worldObj);
@@ -233,6 +238,66 @@ public class PhysicsCalculations implements IRotationNodeWorldProvider {
         getParent().getShipTransformationManager().setCurrentPhysicsTransform(finalPhysTransform);
 
         updatePhysCenterOfMass();
+        updateRestState();
+    }
+
+    /**
+     * Wakes this ship up if it was sleeping, and resets the rest timer. Safe to call from any
+     * thread; the ship starts being simulated again on the next physics tick.
+     */
+    public void wakeUp() {
+        wakeUpRequested = true;
+    }
+
+    /**
+     * @return True if this ship is sleeping, and is not being simulated by the physics thread.
+     */
+    public boolean isAsleep() {
+        return asleep;
+    }
+
+    /**
+     * Called by the physics thread at the start of every physics tick, before anything else.
+     *
+     * @return True if this ship should be simulated this physics tick, false if it is sleeping.
+     */
+    public boolean tickSleepState() {
+        if (wakeUpRequested) {
+            wakeUpRequested = false;
+            asleep = false;
+            ticksAtRest = 0;
+        }
+        if (!VSConfig.enableShipSleeping) {
+            asleep = false;
+        }
+        return !asleep;
+    }
+
+    /**
+     * Puts the ship to sleep once it has been moving slower than the sleep thresholds for enough
+     * consecutive physics ticks.
+     */
+    private void updateRestState() {
+        if (!VSConfig.enableShipSleeping || parent.getShipAligningToGrid()) {
+            ticksAtRest = 0;
+            return;
+        }
+        double invMass = getInvMass();
+        double linearSpeedSq = linearMomentum.lengthSq() * invMass * invMass;
+        double maxLinearSpeed = VSConfig.shipSleepLinearVelocityThreshold;
+        double maxAngularSpeed = VSConfig.shipSleepAngularVelocityThreshold;
+        if (linearSpeedSq < maxLinearSpeed * maxLinearSpeed
+            && angularVelocity.lengthSq() < maxAngularSpeed * maxAngularSpeed) {
+            ticksAtRest++;
+        } else {
+            ticksAtRest = 0;
+        }
+        if (ticksAtRest >= VSConfig.shipSleepTicks) {
+            // Don't let the leftover velocity make the ship drift when it wakes up.
+            linearMomentum.zero();
+            angularVelocity.zero();
+            asleep = true;
+        }
     }
 
     // If the ship is moving at these speeds, its likely something in the physics
@@ -325,8 +390,6 @@ public class PhysicsCalculations implements IRotationNodeWorldProvider {
         applyAirDrag();
         applyGravity();
 
-        // Collections.shuffle(activeForcePositions);
-
         org.valkyrienskies.mod.common.math.Vector blockForce = new org.valkyrienskies.mod.common.math.Vector();
         org.valkyrienskies.mod.common.math.Vector inBodyWO = new org.valkyrienskies.mod.common.math.Vector();
         org.valkyrienskies.mod.common.math.Vector crossVector = new org.valkyrienskies.mod.common.math.Vector();
@@ -345,7 +408,7 @@ public class PhysicsCalculations implements IRotationNodeWorldProvider {
             this.physicsRotationNodeWorld.processTorquePhysics(getPhysicsTimeDeltaPerPhysTick());
 
             SortedMap<IBlockTorqueProvider, List<BlockPos>> torqueProviders = new TreeMap<IBlockTorqueProvider, List<BlockPos>>();
-            for (BlockPos pos : activeForcePositions) {
+            for (BlockPos pos : getParent().getBlockIndex().getForceProviders()) {
                 IBlockState state = getParent().getChunkAt(pos.getX() >> 4, pos.getZ() >> 4)
                     .getBlockState(pos);
                 Block blockAt = state.getBlock();
@@ -592,10 +655,14 @@ public class PhysicsCalculations implements IRotationNodeWorldProvider {
         gameTickMass = 0;
         gameMoITensor = RotationMatrices.getZeroMatrix(3);
         IBlockState air = Blocks.AIR.getDefaultState();
-        for (BlockPos pos : getParent().getBlockPositions()) {
+        ShipBlockIndex blockIndex = getParent().getBlockIndex();
+        MutableBlockPos pos = new MutableBlockPos();
+        blockIndex.forEachBlock(packed -> {
+            blockIndex.unpack(packed, pos);
             onSetBlockState(air, getParent().getChunkAt(pos.getX() >> 4, pos.getZ() >> 4)
                 .getBlockState(pos), pos);
-        }
+            return true;
+        });
     }
 
     // These getter methods guarantee that only code within this class can modify
@@ -616,10 +683,6 @@ public class PhysicsCalculations implements IRotationNodeWorldProvider {
         return Math.pow(DRAG_CONSTANT, getPhysicsTimeDeltaPerPhysTick() * 20D);
     }
 
-    public void addPotentialActiveForcePos(BlockPos pos) {
-        this.activeForcePositions.add(pos);
-    }
-
     /**
      * @return The inverse moment of inertia tensor with local translation (0 vector is at the
      * center of mass), but rotated into world coordinates.
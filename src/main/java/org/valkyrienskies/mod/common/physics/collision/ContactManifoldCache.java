@@ -0,0 +1,239 @@
+package org.valkyrienskies.mod.common.physics.collision;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.util.math.BlockPos.MutableBlockPos;
+import org.valkyrienskies.mod.common.coordinates.ShipTransform;
+import org.valkyrienskies.mod.common.math.RotationMatrices;
+import org.valkyrienskies.mod.common.math.Vector;
+import org.valkyrienskies.mod.common.physics.PhysicsCalculations;
+import org.valkyrienskies.mod.common.physics.collision.polygons.PrimitivePolygonCollider;
+import valkyrienwarfare.api.TransformType;
+
+/**
+ * Remembers the contacts between a ship and the world across physics ticks. Each contact is keyed
+ * by the (world block, ship block) pair that produced it, and stores the total impulse that was
+ * applied to keep those two blocks apart.
+ * <p>
+ * At the start of every physics tick the impulses of the contacts that were touching last tick are
+ * applied again (warm starting), so a ship resting on the ground only has to correct for what
+ * changed since the last tick instead of stopping its fall from scratch. Contacts that stopped
+ * touching are kept around until their separation grows past {@link #SEPARATION_THRESHOLD}, which
+ * stops the impulses from being thrown away when a contact flickers on and off. Contacts whose
+ * blocks stopped being solid are removed right away.
+ * <p>
+ * The normal impulse a contact has accumulated in a tick can never be negative, see {@link
+ * Contact#clampNormalImpulse(Vector, double)}.
+ * <p>
+ * Only accessed by the physics thread that owns the ship.
+ */
+public class ContactManifoldCache {
+
+    // The fraction of last tick's impulse that gets reapplied at the start of this tick. Values
+    // too close to 1 make ships bounce off the ground.
+    public static final double WARM_START_FACTOR = .8D;
+    // Contacts that separate by more than this distance (in blocks) are removed from the cache.
+    public static final double SEPARATION_THRESHOLD = .1D;
+    // How much the stored impulse of a contact that isn't touching decays every tick.
+    public static final double IDLE_IMPULSE_DECAY = .5D;
+
+    private final PhysicsCalculations calculator;
+    private final Map<ContactKey, Contact> contacts;
+    // Reused to look up contacts without allocating a new key every time.
+    private final ContactKey lookupKey;
+    private final PrimitivePolygonCollider separationCollider;
+    private final double[] shipToWorldMatrix;
+    private final MutableBlockPos blockPos;
+
+    public ContactManifoldCache(PhysicsCalculations calculator) {
+        this.calculator = calculator;
+        this.contacts = new HashMap<>();
+        this.lookupKey = new ContactKey();
+        this.separationCollider = new PrimitivePolygonCollider();
+        this.shipToWorldMatrix = new double[16];
+        this.blockPos = new MutableBlockPos();
+    }
+
+    /**
+     * Prunes the contacts that separated too far, and warm starts the ones that were touching last
+     * tick. Must be called once per physics tick, before any collisions are processed.
+     */
+    public void beginPhysicsTick(ShipTransform physicsTransform, Vector[] separatingAxes) {
+        if (contacts.isEmpty()) {
+            return;
+        }
+        physicsTransform.copyMatrixInto(TransformType.SUBSPACE_TO_GLOBAL, shipToWorldMatrix);
+        separationCollider.setAxes(separatingAxes);
+
+        Vector angularImpulse = new Vector();
+        Iterator<Contact> iterator = contacts.values().iterator();
+        while (iterator.hasNext()) {
+            Contact contact = iterator.next();
+            if (!areBlocksSolid(contact.key)) {
+                // One of the blocks was broken, pushing it away from the other would make the
+                // ship jump.
+                iterator.remove();
+                continue;
+            }
+            contact.warmStartedThisTick = contact.touchedThisTick;
+            contact.touchedThisTick = false;
+            if (contact.warmStartedThisTick) {
+                contact.scaleImpulse(WARM_START_FACTOR);
+                calculator.linearMomentum
+                    .add(contact.linearImpulseX, contact.linearImpulseY, contact.linearImpulseZ);
+                angularImpulse.setValue(contact.angularImpulseX, contact.angularImpulseY,
+                    contact.angularImpulseZ);
+                RotationMatrices.applyTransform3by3(calculator.getPhysInvMOITensor(),
+                    angularImpulse);
+                calculator.angularVelocity.add(angularImpulse);
+            } else {
+                separationCollider.setMovableBlock(contact.key.shipX, contact.key.shipY,
+                    contact.key.shipZ, shipToWorldMatrix);
+                separationCollider.setFixedBlock(contact.key.worldX, contact.key.worldY,
+                    contact.key.worldZ);
+                if (separationCollider.computeSeparation() > SEPARATION_THRESHOLD) {
+                    iterator.remove();
+                } else {
+                    contact.scaleImpulse(IDLE_IMPULSE_DECAY);
+                }
+            }
+        }
+    }
+
+    private boolean areBlocksSolid(ContactKey key) {
+        blockPos.setPos(key.worldX, key.worldY, key.worldZ);
+        IBlockState worldState = calculator.getParent().getCachedSurroundingChunks()
+            .getBlockState(blockPos);
+        if (!worldState.getMaterial().isSolid()) {
+            return false;
+        }
+        IBlockState shipState = calculator.getParent().getChunkAt(key.shipX >> 4, key.shipZ >> 4)
+            .getBlockState(key.shipX, key.shipY, key.shipZ);
+        return shipState.getMaterial().isSolid();
+    }
+
+    /**
+     * Gets the contact between the given world and ship blocks, creating it if it doesn't exist
+     * yet. Also marks the contact as touching for this tick.
+     */
+    public Contact getOrCreateContact(int worldX, int worldY, int worldZ, int shipX, int shipY,
+        int shipZ) {
+        lookupKey.set(worldX, worldY, worldZ, shipX, shipY, shipZ);
+        Contact contact = contacts.get(lookupKey);
+        if (contact == null) {
+            ContactKey key = new ContactKey();
+            key.set(worldX, worldY, worldZ, shipX, shipY, shipZ);
+            contact = new Contact(key);
+            contacts.put(key, contact);
+        } else if (!contact.touchedThisTick && !contact.warmStartedThisTick) {
+            // This contact wasn't touching last tick, so it didn't get warm started. Don't let the
+            // old impulse be counted as if it had been applied.
+            contact.scaleImpulse(0);
+        }
+        contact.touchedThisTick = true;
+        return contact;
+    }
+
+    public int getContactCount() {
+        return contacts.size();
+    }
+
+    public void clear() {
+        contacts.clear();
+    }
+
+    /**
+     * The impulse applied to a ship because of one (world block, ship block) pair. The angular
+     * impulse is the cross product of the point of contact (relative to the center of mass) with
+     * the linear impulse, before being multiplied by the inverse moment of inertia.
+     */
+    public static class Contact {
+
+        private final ContactKey key;
+        private double linearImpulseX, linearImpulseY, linearImpulseZ;
+        private double angularImpulseX, angularImpulseY, angularImpulseZ;
+        private boolean touchedThisTick;
+        private boolean warmStartedThisTick;
+
+        private Contact(ContactKey key) {
+            this.key = key;
+        }
+
+        /**
+         * Records an impulse that was applied at inBody.
+         */
+        public void addImpulse(Vector inBody, Vector impulse) {
+            linearImpulseX += impulse.X;
+            linearImpulseY += impulse.Y;
+            linearImpulseZ += impulse.Z;
+            angularImpulseX += inBody.Y * impulse.Z - impulse.Y * inBody.Z;
+            angularImpulseY += inBody.Z * impulse.X - inBody.X * impulse.Z;
+            angularImpulseZ += inBody.X * impulse.Y - impulse.X * inBody.Y;
+        }
+
+        /**
+         * Clamps an impulse along the contact normal so that the total normal impulse of this
+         * contact, including what it was warm started with, never pulls the blocks together.
+         *
+         * @param normal  The direction that pushes the ship block away from the world block.
+         * @param impulse The impulse that would be added along the normal, can be negative to
+         *                take back some of the impulse that was already applied.
+         * @return The impulse that may actually be added along the normal.
+         */
+        public double clampNormalImpulse(Vector normal, double impulse) {
+            double accumulated = Math.max(0, linearImpulseX * normal.X
+                + linearImpulseY * normal.Y + linearImpulseZ * normal.Z);
+            return Math.max(0, accumulated + impulse) - accumulated;
+        }
+
+        private void scaleImpulse(double scale) {
+            linearImpulseX *= scale;
+            linearImpulseY *= scale;
+            linearImpulseZ *= scale;
+            angularImpulseX *= scale;
+            angularImpulseY *= scale;
+            angularImpulseZ *= scale;
+        }
+    }
+
+    private static class ContactKey {
+
+        private int worldX, worldY, worldZ;
+        private int shipX, shipY, shipZ;
+
+        private void set(int worldX, int worldY, int worldZ, int shipX, int shipY, int shipZ) {
+            this.worldX = worldX;
+            this.worldY = worldY;
+            this.worldZ = worldZ;
+            this.shipX = shipX;
+            this.shipY = shipY;
+            this.shipZ = shipZ;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ContactKey)) {
+                return false;
+            }
+            ContactKey other = (ContactKey) o;
+            return worldX == other.worldX && worldY == other.worldY && worldZ == other.worldZ
+                && shipX == other.shipX && shipY == other.shipY && shipZ == other.shipZ;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = worldX;
+            result = 31 * result + worldY;
+            result = 31 * result + worldZ;
+            result = 31 * result + shipX;
+            result = 31 * result + shipY;
+            result = 31 * result + shipZ;
+            return result;
+        }
+    }
+}
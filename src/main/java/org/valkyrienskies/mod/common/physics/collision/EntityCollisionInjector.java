@@ -77,6 +77,8 @@ public class EntityCollisionInjector {
                     if (!fast.arePolygonsSeperated()) {
                         // fastCollisions.add(fast);
                         worldBelow = shipPoly.shipFrom.getWrapperEntity();
+                        // Entities touching a sleeping ship wake it up.
+                        shipPoly.shipFrom.wakeUp();
 
                         Vector response = fast.getCollisions()[fast.getMinDistanceIndex()]
                             .getResponse();
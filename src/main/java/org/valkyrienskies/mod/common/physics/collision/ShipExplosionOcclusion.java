@@ -0,0 +1,227 @@
+package org.valkyrienskies.mod.common.physics.collision;
+
+import java.util.ArrayList;
+import java.util.List;
+import net.minecraft.util.math.AxisAlignedBB;
+import net.minecraft.util.math.Vec3d;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import org.valkyrienskies.mod.common.ValkyrienSkiesMod;
+import org.valkyrienskies.mod.common.coordinates.ShipTransform;
+import org.valkyrienskies.mod.common.entity.PhysicsWrapperEntity;
+import org.valkyrienskies.mod.common.math.Vector;
+import org.valkyrienskies.mod.common.physics.collision.optimization.IBitOctree;
+import org.valkyrienskies.mod.common.physics.collision.optimization.IBitOctreeProvider;
+import org.valkyrienskies.mod.common.physics.management.PhysicsObject;
+import org.valkyrienskies.mod.common.physmanagement.chunk.VSChunkClaim;
+import valkyrienwarfare.api.TransformType;
+
+/**
+ * Tests whether the rays that World.getBlockDensity() casts towards an explosion are blocked by
+ * ships. The ships near the explosion are found once, and the explosion origin is transformed
+ * into each of their subspaces once, when the instance is made. Every ray after that only has to
+ * be transformed into the ships it passes near, and is then walked through the solid block bits
+ * of the ship chunks instead of doing a vanilla ray trace per ship.
+ * <p>
+ * Ship blocks count as full cubes, same as for collision.
+ */
+public class ShipExplosionOcclusion {
+
+    private final World world;
+    private final double originX, originY, originZ;
+    private final long worldTime;
+    private final List<ShipEntry> ships;
+    // Reused so that rays don't allocate.
+    private final Vector rayStart;
+
+    private ShipExplosionOcclusion(World world, Vec3d origin, List<ShipEntry> ships) {
+        this.world = world;
+        this.originX = origin.x;
+        this.originY = origin.y;
+        this.originZ = origin.z;
+        this.worldTime = world.getTotalWorldTime();
+        this.ships = ships;
+        this.rayStart = new Vector();
+    }
+
+    /**
+     * @param radius The distance from the origin within which rays can start.
+     */
+    public static ShipExplosionOcclusion create(World world, Vec3d origin, double radius) {
+        return create(world, origin, new AxisAlignedBB(origin.x - radius, origin.y - radius,
+            origin.z - radius, origin.x + radius, origin.y + radius, origin.z + radius));
+    }
+
+    /**
+     * @param bounds Every ray must start inside these bounds.
+     */
+    public static ShipExplosionOcclusion create(World world, Vec3d origin, AxisAlignedBB bounds) {
+        List<PhysicsWrapperEntity> nearbyShips = ValkyrienSkiesMod.VS_PHYSICS_MANAGER
+            .getManagerForWorld(world).getNearbyPhysObjects(bounds);
+        List<ShipEntry> ships = new ArrayList<>(nearbyShips.size());
+        int originChunkX = (int) Math.floor(origin.x) >> 4;
+        int originChunkZ = (int) Math.floor(origin.z) >> 4;
+        for (PhysicsWrapperEntity wrapper : nearbyShips) {
+            if (wrapper.getPhysicsObject().getOwnedChunks()
+                .containsChunk(originChunkX, originChunkZ)) {
+                // The explosion is inside of ship chunks, where the ship blocks already block it
+                // just like world blocks do.
+                ships.clear();
+                break;
+            }
+            ships.add(new ShipEntry(wrapper.getPhysicsObject(), origin));
+        }
+        return new ShipExplosionOcclusion(world, origin, ships);
+    }
+
+    /**
+     * @return True if this was made for an explosion at origin during this tick.
+     */
+    public boolean matches(World world, Vec3d origin) {
+        return this.world == world && origin.x == originX && origin.y == originY
+            && origin.z == originZ && world.getTotalWorldTime() == worldTime;
+    }
+
+    /**
+     * @return True if a ship block is in the way of the ray from start to the explosion origin.
+     */
+    public boolean isBlocked(Vec3d start) {
+        for (ShipEntry ship : ships) {
+            if (ship.isBlocked(start, originX, originY, originZ, rayStart)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class ShipEntry {
+
+        final PhysicsObject ship;
+        final AxisAlignedBB boundingBox;
+        final ShipTransform transform;
+        final VSChunkClaim claim;
+        // The explosion origin in subspace coordinates.
+        final double originX, originY, originZ;
+        // Scratch space for segmentIntersectsBox()
+        final double[] tRange = new double[2];
+
+        ShipEntry(PhysicsObject ship, Vec3d origin) {
+            this.ship = ship;
+            this.boundingBox = ship.getShipBoundingBox();
+            this.transform = ship.getShipTransformationManager().getCurrentTickTransform();
+            this.claim = ship.getOwnedChunks();
+            Vector originInShip = new Vector(origin.x, origin.y, origin.z);
+            transform.transform(originInShip, TransformType.GLOBAL_TO_SUBSPACE);
+            this.originX = originInShip.X;
+            this.originY = originInShip.Y;
+            this.originZ = originInShip.Z;
+        }
+
+        boolean isBlocked(Vec3d start, double endX, double endY, double endZ, Vector scratch) {
+            if (!segmentIntersectsBox(start.x, start.y, start.z, endX, endY, endZ)) {
+                return false;
+            }
+            scratch.X = start.x;
+            scratch.Y = start.y;
+            scratch.Z = start.z;
+            transform.transform(scratch, TransformType.GLOBAL_TO_SUBSPACE);
+            return walkVoxels(scratch.X, scratch.Y, scratch.Z);
+        }
+
+        /**
+         * Slab test of the segment against the world bounding box of the ship.
+         */
+        private boolean segmentIntersectsBox(double x0, double y0, double z0, double x1,
+            double y1, double z1) {
+            double[] range = tRange;
+            range[0] = 0;
+            range[1] = 1;
+            return clipAxis(x0, x1 - x0, boundingBox.minX, boundingBox.maxX, range)
+                && clipAxis(y0, y1 - y0, boundingBox.minY, boundingBox.maxY, range)
+                && clipAxis(z0, z1 - z0, boundingBox.minZ, boundingBox.maxZ, range);
+        }
+
+        /**
+         * Narrows range, the part of the segment inside the box so far, down to the part that is
+         * between min and max on this axis.
+         *
+         * @return False if none of the segment is left.
+         */
+        private static boolean clipAxis(double from, double delta, double min, double max,
+            double[] range) {
+            if (Math.abs(delta) < 1e-12) {
+                return from >= min && from <= max;
+            }
+            double t0 = (min - from) / delta;
+            double t1 = (max - from) / delta;
+            range[0] = Math.max(range[0], Math.min(t0, t1));
+            range[1] = Math.min(range[1], Math.max(t0, t1));
+            return range[0] <= range[1];
+        }
+
+        /**
+         * Walks the blocks along the ray from (x, y, z) to the origin in subspace, one block at a
+         * time, and stops at the first solid one.
+         */
+        private boolean walkVoxels(double x, double y, double z) {
+            double dx = originX - x;
+            double dy = originY - y;
+            double dz = originZ - z;
+            int blockX = (int) Math.floor(x);
+            int blockY = (int) Math.floor(y);
+            int blockZ = (int) Math.floor(z);
+            int endBlockX = (int) Math.floor(originX);
+            int endBlockY = (int) Math.floor(originY);
+            int endBlockZ = (int) Math.floor(originZ);
+            int stepX = dx > 0 ? 1 : -1;
+            int stepY = dy > 0 ? 1 : -1;
+            int stepZ = dz > 0 ? 1 : -1;
+            // The fraction of the ray needed to cross one block on each axis.
+            double deltaX = dx == 0 ? Double.MAX_VALUE : Math.abs(1 / dx);
+            double deltaY = dy == 0 ? Double.MAX_VALUE : Math.abs(1 / dy);
+            double deltaZ = dz == 0 ? Double.MAX_VALUE : Math.abs(1 / dz);
+            // The fraction of the ray at which the next block boundary is crossed on each axis.
+            double nextX = dx == 0 ? Double.MAX_VALUE
+                : (stepX > 0 ? blockX + 1 - x : x - blockX) * deltaX;
+            double nextY = dy == 0 ? Double.MAX_VALUE
+                : (stepY > 0 ? blockY + 1 - y : y - blockY) * deltaY;
+            double nextZ = dz == 0 ? Double.MAX_VALUE
+                : (stepZ > 0 ? blockZ + 1 - z : z - blockZ) * deltaZ;
+            int maxSteps = Math.abs(endBlockX - blockX) + Math.abs(endBlockY - blockY)
+                + Math.abs(endBlockZ - blockZ);
+            for (int i = 0; i <= maxSteps; i++) {
+                if (isSolid(blockX, blockY, blockZ)) {
+                    return true;
+                }
+                if (nextX < nextY && nextX < nextZ) {
+                    blockX += stepX;
+                    nextX += deltaX;
+                } else if (nextY < nextZ) {
+                    blockY += stepY;
+                    nextY += deltaY;
+                } else {
+                    blockZ += stepZ;
+                    nextZ += deltaZ;
+                }
+            }
+            return false;
+        }
+
+        private boolean isSolid(int x, int y, int z) {
+            if (y < 0 || y > 255 || !claim.containsChunk(x >> 4, z >> 4)) {
+                return false;
+            }
+            Chunk chunk = ship.getClaimedChunkCache().getChunkAt(x >> 4, z >> 4);
+            if (chunk == null) {
+                return false;
+            }
+            ExtendedBlockStorage storage = chunk.storageArrays[y >> 4];
+            if (storage == null) {
+                return false;
+            }
+            IBitOctree octree = ((IBitOctreeProvider) storage.getData()).getBitOctree();
+            return octree.get(x & 15, y & 15, z & 15);
+        }
+    }
+}
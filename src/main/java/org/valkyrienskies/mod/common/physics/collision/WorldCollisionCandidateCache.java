@@ -0,0 +1,251 @@
+package org.valkyrienskies.mod.common.physics.collision;
+
+import gnu.trove.list.TIntList;
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.ChunkCache;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import org.valkyrienskies.mod.common.physics.collision.optimization.IBitOctree;
+import org.valkyrienskies.mod.common.physics.collision.optimization.IBitOctreeProvider;
+import org.valkyrienskies.mod.common.physmanagement.relocation.SpatialDetector;
+
+/**
+ * The set of solid world blocks inside the region around a ship, which are the candidates for
+ * collisions with that ship. The candidates are stored as hashes relative to {@link #getCenter()},
+ * see {@link SpatialDetector#getHashWithRespectTo(int, int, int, BlockPos)}.
+ * <p>
+ * Instead of rescanning the whole region every time it moves, only the slabs of blocks that
+ * entered or left the region are scanned, so the cost of an update depends on how far the ship
+ * moved rather than on how big it is. Changes to world blocks inside the region have to be passed
+ * to {@link #onBlockChanged(ChunkCache, int, int, int)} or {@link #onBoxChanged(ChunkCache, int,
+ * int, int, int, int, int)}.
+ * <p>
+ * Only accessed by the physics thread that owns the ship.
+ */
+public class WorldCollisionCandidateCache {
+
+    private final TIntSet candidates;
+    private BlockPos center;
+    // The region is inclusive on both ends.
+    private int minX, minY, minZ, maxX, maxY, maxZ;
+    private boolean hasRegion;
+    // True if the candidates changed since the last call to pollChanged().
+    private boolean changed;
+    // True if part of the region was in chunks that weren't loaded in the chunk cache.
+    private boolean missedChunks;
+
+    public WorldCollisionCandidateCache() {
+        this.candidates = new TIntHashSet();
+        this.center = BlockPos.ORIGIN;
+        this.hasRegion = false;
+        this.changed = false;
+        this.missedChunks = false;
+    }
+
+    /**
+     * Moves the region to the given bounds, adding the solid blocks that entered it and removing
+     * the ones that left it.
+     *
+     * @param forceRebuild If true then the whole region is scanned again, even if it didn't move.
+     */
+    public void setRegion(ChunkCache cache, int newMinX, int newMinY, int newMinZ, int newMaxX,
+        int newMaxY, int newMaxZ, boolean forceRebuild) {
+        if (hasRegion && !forceRebuild && newMinX == minX && newMinY == minY && newMinZ == minZ
+            && newMaxX == maxX && newMaxY == maxY && newMaxZ == maxZ) {
+            // Nothing moved, nothing to do.
+            return;
+        }
+        boolean overlaps = hasRegion && newMinX <= maxX && newMaxX >= minX && newMinY <= maxY
+            && newMaxY >= minY && newMinZ <= maxZ && newMaxZ >= minZ;
+        if (forceRebuild || !overlaps || !canHash(newMinX, newMinZ, newMaxX, newMaxZ)) {
+            clear();
+            center = new BlockPos((newMinX + newMaxX) / 2, (newMinY + newMaxY) / 2,
+                (newMinZ + newMaxZ) / 2);
+            setBounds(newMinX, newMinY, newMinZ, newMaxX, newMaxY, newMaxZ);
+            hasRegion = true;
+            scanBox(cache, minX, minY, minZ, maxX, maxY, maxZ, true);
+            return;
+        }
+        // Remove the slabs that left the region, then add the ones that entered it.
+        scanDifference(cache, minX, minY, minZ, maxX, maxY, maxZ,
+            newMinX, newMinY, newMinZ, newMaxX, newMaxY, newMaxZ, false);
+        scanDifference(cache, newMinX, newMinY, newMinZ, newMaxX, newMaxY, newMaxZ,
+            minX, minY, minZ, maxX, maxY, maxZ, true);
+        setBounds(newMinX, newMinY, newMinZ, newMaxX, newMaxY, newMaxZ);
+    }
+
+    /**
+     * Updates the candidate at the given world position, if it is inside the region.
+     */
+    public void onBlockChanged(ChunkCache cache, int x, int y, int z) {
+        if (!hasRegion || x < minX || x > maxX || y < minY || y > maxY || z < minZ || z > maxZ) {
+            return;
+        }
+        scanBox(cache, x, y, z, x, y, z, true);
+    }
+
+    /**
+     * Updates the candidates in the given box, only the part of it inside the region.
+     */
+    public void onBoxChanged(ChunkCache cache, int boxMinX, int boxMinY, int boxMinZ,
+        int boxMaxX, int boxMaxY, int boxMaxZ) {
+        if (!hasRegion) {
+            return;
+        }
+        scanBox(cache, Math.max(boxMinX, minX), Math.max(boxMinY, minY), Math.max(boxMinZ, minZ),
+            Math.min(boxMaxX, maxX), Math.min(boxMaxY, maxY), Math.min(boxMaxZ, maxZ), true);
+    }
+
+    /**
+     * @return True if the candidates changed since the last time this method was called.
+     */
+    public boolean pollChanged() {
+        boolean wasChanged = changed;
+        changed = false;
+        return wasChanged;
+    }
+
+    /**
+     * Replaces the contents of dest with the candidate hashes.
+     */
+    public void copyCandidatesInto(TIntList dest) {
+        dest.clear();
+        dest.addAll(candidates);
+    }
+
+    /**
+     * @return True if part of the region couldn't be scanned because its chunks weren't in the
+     * chunk cache. The caller should force a rebuild later on to fill those blocks in.
+     */
+    public boolean hasMissedChunks() {
+        return missedChunks;
+    }
+
+    public BlockPos getCenter() {
+        return center;
+    }
+
+    public int getCandidateCount() {
+        return candidates.size();
+    }
+
+    public void clear() {
+        if (!candidates.isEmpty()) {
+            candidates.clear();
+            changed = true;
+        }
+        hasRegion = false;
+        missedChunks = false;
+    }
+
+    private void setBounds(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        this.minX = minX;
+        this.minY = minY;
+        this.minZ = minZ;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.maxZ = maxZ;
+    }
+
+    // The hashes only work within maxRangeHalved blocks of the center on the x and z axes.
+    private boolean canHash(int minX, int minZ, int maxX, int maxZ) {
+        int range = SpatialDetector.maxRangeHalved - 1;
+        return minX - center.getX() > -range && maxX - center.getX() < range
+            && minZ - center.getZ() > -range && maxZ - center.getZ() < range;
+    }
+
+    /**
+     * Scans every block that is inside box a but not inside box b. Box a is split into at most 6
+     * boxes that don't overlap with b or with each other.
+     */
+    private void scanDifference(ChunkCache cache, int aMinX, int aMinY, int aMinZ, int aMaxX,
+        int aMaxY, int aMaxZ, int bMinX, int bMinY, int bMinZ, int bMaxX, int bMaxY, int bMaxZ,
+        boolean add) {
+        // The slabs along the x axis
+        scanBox(cache, aMinX, aMinY, aMinZ, Math.min(aMaxX, bMinX - 1), aMaxY, aMaxZ, add);
+        scanBox(cache, Math.max(aMinX, bMaxX + 1), aMinY, aMinZ, aMaxX, aMaxY, aMaxZ, add);
+        int overlapMinX = Math.max(aMinX, bMinX);
+        int overlapMaxX = Math.min(aMaxX, bMaxX);
+        // The slabs along the y axis, within the x overlap
+        scanBox(cache, overlapMinX, aMinY, aMinZ, overlapMaxX, Math.min(aMaxY, bMinY - 1), aMaxZ,
+            add);
+        scanBox(cache, overlapMinX, Math.max(aMinY, bMaxY + 1), aMinZ, overlapMaxX, aMaxY, aMaxZ,
+            add);
+        int overlapMinY = Math.max(aMinY, bMinY);
+        int overlapMaxY = Math.min(aMaxY, bMaxY);
+        // The slabs along the z axis, within the x and y overlap
+        scanBox(cache, overlapMinX, overlapMinY, aMinZ, overlapMaxX, overlapMaxY,
+            Math.min(aMaxZ, bMinZ - 1), add);
+        scanBox(cache, overlapMinX, overlapMinY, Math.max(aMinZ, bMaxZ + 1), overlapMaxX,
+            overlapMaxY, aMaxZ, add);
+    }
+
+    /**
+     * If add is true, the solid blocks in the box are added as candidates and the other blocks
+     * are removed. If add is false every block in the box is removed.
+     */
+    private void scanBox(ChunkCache cache, int boxMinX, int boxMinY, int boxMinZ, int boxMaxX,
+        int boxMaxY, int boxMaxZ, boolean add) {
+        if (boxMinX > boxMaxX || boxMinY > boxMaxY || boxMinZ > boxMaxZ) {
+            return;
+        }
+        if (!add) {
+            if (candidates.isEmpty()) {
+                return;
+            }
+            for (int x = boxMinX; x <= boxMaxX; x++) {
+                for (int z = boxMinZ; z <= boxMaxZ; z++) {
+                    for (int y = boxMinY; y <= boxMaxY; y++) {
+                        removeCandidate(x, y, z);
+                    }
+                }
+            }
+            return;
+        }
+        for (int x = boxMinX; x <= boxMaxX; x++) {
+            for (int z = boxMinZ; z <= boxMaxZ; z++) {
+                Chunk chunk = getChunk(cache, x >> 4, z >> 4);
+                if (chunk == null) {
+                    missedChunks = true;
+                    continue;
+                }
+                for (int y = boxMinY; y <= boxMaxY; y++) {
+                    ExtendedBlockStorage storage = chunk.storageArrays[y >> 4];
+                    if (storage == null) {
+                        removeCandidate(x, y, z);
+                        continue;
+                    }
+                    IBitOctree octree = ((IBitOctreeProvider) storage.getData()).getBitOctree();
+                    if (octree.get(x & 15, y & 15, z & 15)) {
+                        if (candidates.add(SpatialDetector.getHashWithRespectTo(x, y, z, center))) {
+                            changed = true;
+                        }
+                    } else {
+                        removeCandidate(x, y, z);
+                    }
+                }
+            }
+        }
+    }
+
+    private void removeCandidate(int x, int y, int z) {
+        if (candidates.remove(SpatialDetector.getHashWithRespectTo(x, y, z, center))) {
+            changed = true;
+        }
+    }
+
+    private static Chunk getChunk(ChunkCache cache, int chunkX, int chunkZ) {
+        if (cache == null) {
+            return null;
+        }
+        int arrayChunkX = chunkX - cache.chunkX;
+        int arrayChunkZ = chunkZ - cache.chunkZ;
+        if (arrayChunkX < 0 || arrayChunkZ < 0 || arrayChunkX > cache.chunkArray.length - 1
+            || arrayChunkZ > cache.chunkArray[0].length - 1) {
+            return null;
+        }
+        return cache.chunkArray[arrayChunkX][arrayChunkZ];
+    }
+}
@@ -2,36 +2,33 @@ package org.valkyrienskies.mod.common.physics.collision;
 
 import gnu.trove.TCollections;
 import gnu.trove.iterator.TIntIterator;
+import gnu.trove.list.TDoubleList;
+import gnu.trove.list.array.TDoubleArrayList;
 import gnu.trove.list.TIntList;
 import gnu.trove.list.array.TIntArrayList;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Queue;
-import java.util.Random;
-import java.util.function.Consumer;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import net.minecraft.block.state.IBlockState;
-import net.minecraft.util.Tuple;
 import net.minecraft.util.math.AxisAlignedBB;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.BlockPos.MutableBlockPos;
 import net.minecraft.util.math.MathHelper;
-import net.minecraft.world.ChunkCache;
 import net.minecraft.world.World;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import org.valkyrienskies.mod.common.config.VSConfig;
 import org.valkyrienskies.mod.common.math.RotationMatrices;
 import org.valkyrienskies.mod.common.math.Vector;
 import org.valkyrienskies.mod.common.multithreaded.PhysicsShipTransform;
 import org.valkyrienskies.mod.common.physics.PhysicsCalculations;
-import org.valkyrienskies.mod.common.physics.collision.optimization.IBitOctree;
-import org.valkyrienskies.mod.common.physics.collision.optimization.IBitOctreeProvider;
 import org.valkyrienskies.mod.common.physics.collision.optimization.ShipCollisionTask;
 import org.valkyrienskies.mod.common.physics.collision.polygons.PhysCollisionObject;
 import org.valkyrienskies.mod.common.physics.collision.polygons.PhysPolygonCollider;
 import org.valkyrienskies.mod.common.physics.collision.polygons.Polygon;
 import org.valkyrienskies.mod.common.physics.collision.polygons.PolygonCollisionPointFinder;
+import org.valkyrienskies.mod.common.physics.collision.polygons.PrimitivePolygonCollider;
 import org.valkyrienskies.mod.common.physics.management.PhysicsObject;
 import org.valkyrienskies.mod.common.physmanagement.relocation.SpatialDetector;
 import valkyrienwarfare.api.TransformType;
@@ -44,16 +41,22 @@ import valkyrienwarfare.api.TransformType;
  */
 public class WorldPhysicsCollider {
 
-    // Used to expand the AABB used to check for potential collisions; helps prevent
-    // ships ghosting through blocks
+    // Used to expand the AABB of the chunks cached around a ship; leaves room for the velocity
+    // sweep of the collision candidates and helps prevent ships ghosting through blocks
     public static final double AABB_EXPANSION = 2D;
+    // How far outside the bounding box of a ship the region of its collision candidates can
+    // reach: the grow(3), AABB_EXPANSION, the extra block below, and room for the velocity sweep.
+    public static final double CANDIDATE_REGION_MARGIN = 12D;
+    // How far outside the bounding box of a ship the region of a ship at rest reaches: the
+    // grow(3), AABB_EXPANSION and the extra block below.
+    public static final double RESTING_CANDIDATE_REGION_MARGIN = 3D + AABB_EXPANSION + 1D;
     // The range we check for possible collisions with a block.
     public static final double RANGE_CHECK = 1.8D;
     // The minimum depth a collision projection must have, to not use the default
     // collision normal of <0, 1, 0>
     public static final double AXIS_TOLERANCE = .3D;
-    // Time in seconds between collision cache updates. A value of .1D means we
-    // update the collision cache every 1/10th of a second.
+    // Time in seconds between full rescans of the collision cache, which only happen when part of
+    // it was in chunks that weren't loaded. Otherwise the cache is updated incrementally.
     public static final double CACHE_UPDATE_FREQUENCY = .075D;
     // Determines how 'bouncy' collisions are
     public static final double COEFFICIENT_OF_RESTITUTION = .52D;
@@ -63,23 +66,28 @@ public class WorldPhysicsCollider {
     // (Approx. O(log(n)^3)).
     // If false then this class uses the much slower iterative approach O(n^3).
     public static final boolean USE_OCTREE_COLLISION = true;
-    // How likely it is for the collision tasks to shuffle every physics tick
-    // ie. (.50D => 50% chance to shuffle, .30D => 30% chance, etc.)
-    public static final double COLLISION_TASK_SHUFFLE_FREQUENCY = .50D;
     // Greater coefficients result in more friction
     public static final double KINETIC_FRICTION_COEFFICIENT = .15D;
     private final MutableBlockPos mutablePos;
-    private final Random rand;
-    private final Collection<ShipCollisionTask> tasks;
+    private final List<ShipCollisionTask> tasks;
     private final PhysicsCalculations calculator;
     private final World worldObj;
     private final PhysicsObject parent;
     private final TIntList cachedPotentialHits;
     private final TIntArrayList cachedHitsToRemove;
+    private final ContactManifoldCache contactCache;
+    private final WorldCollisionCandidateCache candidateCache;
+    // World block changes that happened since the last physics tick.
+    private final Queue<BlockPos> worldBlockChanges;
+    // Chunk sections of the world, as chunk x, section y, chunk z, that had blocks changed in
+    // them since the last physics tick.
+    private final Queue<BlockPos> worldSectionChanges;
     // Ensures this always updates the first tick after creation
     private double ticksSinceCacheUpdate;
     private boolean updateCollisionTasksCache;
-    private BlockPos centerPotentialHit;
+    private int lastTaskSize;
+    // Used to alternate the order collisions are processed in.
+    private int collisionResolutionCount;
 
     public WorldPhysicsCollider(PhysicsCalculations calculations) {
         this.calculator = calculations;
@@ -87,69 +95,140 @@ public class WorldPhysicsCollider {
         this.worldObj = parent.world();
         this.cachedPotentialHits = TCollections.synchronizedList(new TIntArrayList());
         this.cachedHitsToRemove = new TIntArrayList();
-        this.rand = new Random();
+        this.contactCache = new ContactManifoldCache(calculations);
+        this.candidateCache = new WorldCollisionCandidateCache();
+        this.worldBlockChanges = new ConcurrentLinkedQueue<>();
+        this.worldSectionChanges = new ConcurrentLinkedQueue<>();
         this.mutablePos = new MutableBlockPos();
         this.tasks = new ArrayList<ShipCollisionTask>();
         this.ticksSinceCacheUpdate = 25D;
         this.updateCollisionTasksCache = true;
-        this.centerPotentialHit = null;
+        this.lastTaskSize = 0;
+        this.collisionResolutionCount = 0;
     }
 
     public void tickUpdatingTheCollisionCache() {
+        Vector[] separatingAxes = parent.getShipTransformationManager().normals;
+        if (VSConfig.enableContactWarmStarting && separatingAxes != null) {
+            contactCache.beginPhysicsTick(
+                parent.getShipTransformationManager().getCurrentPhysicsTransform(),
+                separatingAxes);
+        } else {
+            contactCache.clear();
+        }
         // Multiply by 20 to convert seconds (physTickSpeed) into ticks
         ticksSinceCacheUpdate += calculator.getPhysicsTimeDeltaPerPhysTick();
         for (int i = 0; i < cachedHitsToRemove.size(); i++) {
             cachedPotentialHits.remove(cachedHitsToRemove.get(i));
         }
         cachedHitsToRemove.resetQuick();
-        if (ticksSinceCacheUpdate > CACHE_UPDATE_FREQUENCY || parent.isNeedsCollisionCacheUpdate()) {
-            updatePotentialCollisionCache();
-            updateCollisionTasksCache = true;
+        // Rescan everything if we were told to, or if some chunks weren't loaded last time.
+        boolean forceRebuild = parent.isNeedsCollisionCacheUpdate()
+            || (candidateCache.hasMissedChunks()
+            && ticksSinceCacheUpdate > CACHE_UPDATE_FREQUENCY);
+        updatePotentialCollisionCache(forceRebuild);
+        BlockPos changedPos;
+        while ((changedPos = worldBlockChanges.poll()) != null) {
+            candidateCache.onBlockChanged(parent.getCachedSurroundingChunks(), changedPos.getX(),
+                changedPos.getY(), changedPos.getZ());
+        }
+        while ((changedPos = worldSectionChanges.poll()) != null) {
+            candidateCache.onBoxChanged(parent.getCachedSurroundingChunks(),
+                changedPos.getX() << 4, changedPos.getY() << 4, changedPos.getZ() << 4,
+                (changedPos.getX() << 4) + 15, (changedPos.getY() << 4) + 15,
+                (changedPos.getZ() << 4) + 15);
         }
-        if (Math.random() < COLLISION_TASK_SHUFFLE_FREQUENCY) {
-            cachedPotentialHits.shuffle(rand);
+        if (candidateCache.pollChanged()) {
+            candidateCache.copyCandidatesInto(cachedPotentialHits);
+            // Sorted so the collisions are always found and resolved in the same order, no
+            // matter the order the candidates were added in.
+            cachedPotentialHits.sort();
+            updateCollisionTasksCache = true;
         }
     }
 
-    public void splitIntoCollisionTasks(List<ShipCollisionTask> toAdd) {
-        if (updateCollisionTasksCache) {
+    /**
+     * Splits the collision candidates into tasks that check taskSize candidates each, and adds
+     * them to toAdd. The tasks are reused until the candidates or the task size change.
+     */
+    public void splitIntoCollisionTasks(List<ShipCollisionTask> toAdd, int taskSize) {
+        if (updateCollisionTasksCache || taskSize != lastTaskSize) {
             tasks.clear();
             int index = 0;
             int size = cachedPotentialHits.size();
             while (index < size) {
-                ShipCollisionTask task = new ShipCollisionTask(this, index);
-                index += ShipCollisionTask.MAX_TASKS_TO_CHECK;
+                ShipCollisionTask task = new ShipCollisionTask(this, index, taskSize);
+                index += taskSize;
                 tasks.add(task);
             }
             updateCollisionTasksCache = false;
+            lastTaskSize = taskSize;
         }
         toAdd.addAll(tasks);
     }
 
-    public void processCollisionTask(ShipCollisionTask task) {
+    /**
+     * Applies the collisions found by this ship's collision tasks. The tasks, and the collisions
+     * within each task, are always processed in the same order, so the result only depends on
+     * the state of the ship and the world. The order is reversed every other physics tick; that
+     * way the contacts processed first, which get a bigger share of the impulse, don't always
+     * come from the same side of the ship, which would make the other side slowly sink into the
+     * ground.
+     * <p>
+     * Only touches the state of this ship, so the collision tasks of different ships can be
+     * processed in parallel.
+     */
+    public void processCollisionTasks() {
+        boolean reverseOrder = (collisionResolutionCount++ & 1) == 1;
+        for (int i = 0; i < tasks.size(); i++) {
+            processCollisionTask(tasks.get(reverseOrder ? tasks.size() - 1 - i : i),
+                reverseOrder);
+        }
+    }
+
+    private void processCollisionTask(ShipCollisionTask task, boolean reverseOrder) {
         MutableBlockPos inWorldPos = new MutableBlockPos();
         MutableBlockPos inLocalPos = new MutableBlockPos();
 
-        Iterator<CollisionInformationHolder> collisionIterator = task
-            .getCollisionInformationIterator();
-
-        while (collisionIterator.hasNext()) {
-            CollisionInformationHolder info = collisionIterator.next();
+        List<CollisionInformationHolder> collisions = task.getCollisionInformationGenerated();
+        for (int i = 0; i < collisions.size(); i++) {
+            CollisionInformationHolder info = collisions
+                .get(reverseOrder ? collisions.size() - 1 - i : i);
             inWorldPos.setPos(info.inWorldX, info.inWorldY, info.inWorldZ);
             inLocalPos.setPos(info.inLocalX, info.inLocalY, info.inLocalZ);
             handleActualCollision(info.collider, inWorldPos, inLocalPos, info.inWorldState,
-                info.inLocalState);
+                info.inLocalState, getContact(inWorldPos, inLocalPos));
         }
+        collisions.clear();
+
+        TDoubleArrayList fastCollisions = task.getFastCollisionsGenerated();
+        TIntArrayList fastCollisionPositions = task.getFastCollisionPositions();
+        int fastCollisionCount = fastCollisions.size() / PrimitivePolygonCollider.CONTACT_STRIDE;
+        for (int j = 0; j < fastCollisionCount; j++) {
+            int i = reverseOrder ? fastCollisionCount - 1 - j : j;
+            int positionOffset = i * 6;
+            inWorldPos.setPos(fastCollisionPositions.get(positionOffset),
+                fastCollisionPositions.get(positionOffset + 1),
+                fastCollisionPositions.get(positionOffset + 2));
+            inLocalPos.setPos(fastCollisionPositions.get(positionOffset + 3),
+                fastCollisionPositions.get(positionOffset + 4),
+                fastCollisionPositions.get(positionOffset + 5));
+            handleActualCollision(fastCollisions, i * PrimitivePolygonCollider.CONTACT_STRIDE,
+                getContact(inWorldPos, inLocalPos));
+        }
+        fastCollisions.resetQuick();
+        fastCollisionPositions.resetQuick();
+    }
 
-        /*
-         * for (CollisionInformationHolder info :
-         * task.getCollisionInformationGenerated()) { inWorldPos.setPos(info.inWorldX,
-         * info.inWorldY, info.inWorldZ); inLocalPos.setPos(info.inLocalX,
-         * info.inLocalY, info.inLocalZ); handleActualCollision(info.collider,
-         * inWorldPos, inLocalPos, info.inWorldState, info.inLocalState); }
-         */
-
-        task.getCollisionInformationGenerated().clear();
+    /**
+     * @return The cached contact for the given block pair, or null if warm starting is disabled.
+     */
+    private ContactManifoldCache.Contact getContact(BlockPos inWorldPos, BlockPos inLocalPos) {
+        if (!VSConfig.enableContactWarmStarting) {
+            return null;
+        }
+        return contactCache.getOrCreateContact(inWorldPos.getX(), inWorldPos.getY(),
+            inWorldPos.getZ(), inLocalPos.getX(), inLocalPos.getY(), inLocalPos.getZ());
     }
 
     // Runs through the cache ArrayList, checking each possible BlockPos for SOLID
@@ -165,8 +244,8 @@ public class WorldPhysicsCollider {
         TIntIterator cachedHitsIterator = cachedPotentialHits.iterator();
         while (cachedHitsIterator.hasNext()) {
             // Converts the int to a mutablePos
-            SpatialDetector
-                .setPosWithRespectTo(cachedHitsIterator.next(), centerPotentialHit, mutablePos);
+            SpatialDetector.setPosWithRespectTo(cachedHitsIterator.next(),
+                getCenterPotentialHit(), mutablePos);
 
             inWorld.X = mutablePos.getX() + .5;
             inWorld.Y = mutablePos.getY() + .5;
@@ -249,7 +328,7 @@ public class WorldPhysicsCollider {
                                                                 mutablePos.getX(),
                                                                 mutablePos.getY(),
                                                                 mutablePos.getZ(),
-                                                                centerPotentialHit);
+                                                                getCenterPotentialHit());
                                                         cachedHitsToRemove.add(positionRemoved);
                                                         break entireLoop;
                                                     }
@@ -292,7 +371,7 @@ public class WorldPhysicsCollider {
             parent.getShipTransformationManager().normals);
         if (!collider.seperated) {
             return handleActualCollision(collider, inWorldPos, inLocalPos, inWorldState,
-                inLocalState);
+                inLocalState, getContact(inWorldPos, inLocalPos));
         }
 
         return false;
@@ -302,7 +381,8 @@ public class WorldPhysicsCollider {
     // ideal value that is to be followed
     private boolean handleActualCollision(PhysPolygonCollider collider, BlockPos inWorldPos,
         BlockPos inLocalPos,
-        IBlockState inWorldState, IBlockState inLocalState) {
+        IBlockState inWorldState, IBlockState inLocalState,
+        ContactManifoldCache.Contact contact) {
         PhysCollisionObject toCollideWith = collider.collisions[1];
 
         if (toCollideWith.penetrationDistance > AXIS_TOLERANCE
@@ -331,19 +411,47 @@ public class WorldPhysicsCollider {
             org.valkyrienskies.mod.common.math.Vector axis = toCollideWith.collision_normal;
             org.valkyrienskies.mod.common.math.Vector offsetVector = toCollideWith.getResponse();
             calculateCollisionImpulseForce(inBody, momentumAtPoint, axis, offsetVector, false,
-                false, impulseApplied);
+                false, impulseApplied, contact);
         }
 
         return false;
     }
 
+    // The same as the method above, but for collisions found by the fast narrow phase. The
+    // normal, penetration and contact points were already picked by the ShipCollisionTask.
+    private void handleActualCollision(TDoubleList contacts, int offset,
+        ContactManifoldCache.Contact contact) {
+        org.valkyrienskies.mod.common.math.Vector axis = new org.valkyrienskies.mod.common.math.Vector(
+            contacts.get(offset + PrimitivePolygonCollider.NORMAL_OFFSET),
+            contacts.get(offset + PrimitivePolygonCollider.NORMAL_OFFSET + 1),
+            contacts.get(offset + PrimitivePolygonCollider.NORMAL_OFFSET + 2));
+        org.valkyrienskies.mod.common.math.Vector offsetVector = axis
+            .getProduct(contacts.get(offset + PrimitivePolygonCollider.PENETRATION_OFFSET));
+
+        // PolygonCollisionPointFinder returns {top, bottom, top, bottom}
+        double impulseApplied = 1D / 4D;
+        for (int i = 0; i < 4; i++) {
+            int pointOffset = offset + (i % 2 == 0 ? PrimitivePolygonCollider.TOP_POINT_OFFSET
+                : PrimitivePolygonCollider.BOTTOM_POINT_OFFSET);
+            org.valkyrienskies.mod.common.math.Vector inBody = new org.valkyrienskies.mod.common.math.Vector(
+                contacts.get(pointOffset) - parent.getWrapperEntity().posX,
+                contacts.get(pointOffset + 1) - parent.getWrapperEntity().posY,
+                contacts.get(pointOffset + 2) - parent.getWrapperEntity().posZ);
+            org.valkyrienskies.mod.common.math.Vector momentumAtPoint = calculator
+                .getVelocityAtPoint(inBody);
+            calculateCollisionImpulseForce(inBody, momentumAtPoint, axis, offsetVector, false,
+                false, impulseApplied, contact);
+        }
+    }
+
     // Finally, the end of all this spaghetti code! This step takes all of the math
     // generated before, and it directly adds the result to Ship velocities
     private void calculateCollisionImpulseForce(org.valkyrienskies.mod.common.math.Vector inBody,
         org.valkyrienskies.mod.common.math.Vector velocityAtPointOfCollision,
         org.valkyrienskies.mod.common.math.Vector axis,
         org.valkyrienskies.mod.common.math.Vector offsetVector, boolean didBlockBreakInShip,
-        boolean didBlockBreakInWorld, double impulseApplied) {
+        boolean didBlockBreakInWorld, double impulseApplied,
+        ContactManifoldCache.Contact contact) {
         org.valkyrienskies.mod.common.math.Vector firstCross = inBody.cross(axis);
         RotationMatrices.applyTransform3by3(calculator.getPhysInvMOITensor(), firstCross);
 
@@ -362,6 +470,28 @@ public class WorldPhysicsCollider {
             // impulseMagnitude *= .5D;
         }
 
+        if (contact != null && collisionSpeed <= slopR) {
+            // A resting contact that was warm started. The impulse may be negative to take back
+            // some of the warm start, as long as the total impulse of the contact still pushes.
+            double sign = axis.dot(offsetVector) > 0 ? -1D : 1D;
+            org.valkyrienskies.mod.common.math.Vector normal = new org.valkyrienskies.mod.common.math.Vector(
+                axis, sign);
+            if (normal.dot(inBody) >= 0) {
+                return;
+            }
+            double normalImpulse = contact.clampNormalImpulse(normal, impulseMagnitude * sign);
+            if (normalImpulse == 0) {
+                return;
+            }
+            org.valkyrienskies.mod.common.math.Vector contactImpulse = new org.valkyrienskies.mod.common.math.Vector(
+                normal, normalImpulse);
+            if (normalImpulse > 0) {
+                addFrictionToNormalForce(velocityAtPointOfCollision, contactImpulse, inBody);
+            }
+            applyCollisionImpulse(inBody, contactImpulse, contact);
+            return;
+        }
+
         org.valkyrienskies.mod.common.math.Vector collisionImpulseForce = new org.valkyrienskies.mod.common.math.Vector(
             axis, impulseMagnitude);
 
@@ -370,15 +500,23 @@ public class WorldPhysicsCollider {
         // the direction towards the in body vector.
         if (collisionImpulseForce.dot(offsetVector) < 0 && collisionImpulseForce.dot(inBody) < 0) {
             // collisionImpulseForce.multiply(1.8D);
-            double collisionVelocity = velocityAtPointOfCollision.dot(axis);
-
             addFrictionToNormalForce(velocityAtPointOfCollision, collisionImpulseForce, inBody);
-            calculator.linearMomentum.add(collisionImpulseForce);
-            org.valkyrienskies.mod.common.math.Vector thirdCross = inBody
-                .cross(collisionImpulseForce);
+            applyCollisionImpulse(inBody, collisionImpulseForce, contact);
+        }
+    }
 
-            RotationMatrices.applyTransform3by3(calculator.getPhysInvMOITensor(), thirdCross);
-            calculator.angularVelocity.add(thirdCross);
+    private void applyCollisionImpulse(org.valkyrienskies.mod.common.math.Vector inBody,
+        org.valkyrienskies.mod.common.math.Vector collisionImpulseForce,
+        ContactManifoldCache.Contact contact) {
+        calculator.linearMomentum.add(collisionImpulseForce);
+        org.valkyrienskies.mod.common.math.Vector thirdCross = inBody
+            .cross(collisionImpulseForce);
+
+        RotationMatrices.applyTransform3by3(calculator.getPhysInvMOITensor(), thirdCross);
+        calculator.angularVelocity.add(thirdCross);
+        if (contact != null) {
+            // Remember this impulse so it can be used to warm start the next physics tick.
+            contact.addImpulse(inBody, collisionImpulseForce);
         }
     }
 
@@ -463,14 +601,17 @@ public class WorldPhysicsCollider {
         impulseVector.add(frictionVector);
     }
 
-    // TODO: The greatest physics lag starts here.
-    private void updatePotentialCollisionCache() {
+    /**
+     * Moves the region of collision candidates to cover the physics bounding box of the ship,
+     * swept along its velocity.
+     */
+    private void updatePotentialCollisionCache(boolean forceRebuild) {
         PhysicsShipTransform currentPhysicsTransform = (PhysicsShipTransform) parent
             .getShipTransformationManager()
             .getCurrentPhysicsTransform();
 
         // Use the physics tick collision box instead of the game tick collision box.
-        // We are using grow(3) on both because for some reason if we don't then ships start
+        // We are using grow(3) because for some reason if we don't then ships start
         // jiggling through the ground. God I can't wait for a new physics engine.
         final AxisAlignedBB collisionBB = currentPhysicsTransform.getShipBoundingBox().grow(3)
             .grow(AABB_EXPANSION).expand(
@@ -481,515 +622,43 @@ public class WorldPhysicsCollider {
                 calculator.linearMomentum.Z * calculator.getInvMass() * calculator
                     .getPhysicsTimeDeltaPerPhysTick()
                     * 5);
-        final AxisAlignedBB shipBB = currentPhysicsTransform.getShipBoundingBox().grow(3);
-        ticksSinceCacheUpdate = 0D;
-        // This is being used to occasionally offset the collision cache update, in the
-        // hopes this will prevent multiple ships from all updating
-        // in the same tick
-        if (Math.random() > .5) {
-            ticksSinceCacheUpdate -= .05D;
+        if (forceRebuild) {
+            ticksSinceCacheUpdate = 0D;
         }
-        int oldSize = cachedPotentialHits.size();
-        // Resets the potential hits array in O(1) time! Isn't that something.
-        // cachedPotentialHits.resetQuick();
-        cachedPotentialHits.clear();
         // Ship is outside of world blockSpace, just skip this all togvalkyrium
         if (collisionBB.maxY < 0 || collisionBB.minY > 255) {
+            candidateCache.clear();
             return;
         }
 
         // Has a -1 on the minY value, I hope this helps with preventing things from
         // falling through the floor
-        BlockPos min = new BlockPos(collisionBB.minX, Math.max(collisionBB.minY - 1, 0),
-            collisionBB.minZ);
-        BlockPos max = new BlockPos(collisionBB.maxX, Math.min(collisionBB.maxY, 255),
-            collisionBB.maxZ);
-        centerPotentialHit = new BlockPos((min.getX() + max.getX()) / 2D,
-            (min.getY() + max.getY()) / 2D,
-            (min.getZ() + max.getZ()) / 2D);
-
-        ChunkCache cache = parent.getCachedSurroundingChunks();
-
-        if (cache == null) {
-            System.err.println(
-                "VS Cached Surrounding Chunks was null! This is going to cause catastophric terrible events!!");
-            return;
-        }
-
-        int chunkMinX = min.getX() >> 4;
-        int chunkMaxX = (max.getX() >> 4) + 1;
-        int chunkMinZ = min.getZ() >> 4;
-        int chunkMaxZ = (max.getZ() >> 4) + 1;
-        // long startTime = System.nanoTime();
-
-        int minX = min.getX();
-        int minY = min.getY();
-        int minZ = min.getZ();
-        int maxX = max.getX();
-        int maxY = max.getY();
-        int maxZ = max.getZ();
-
-        // More multithreading!
-        if (parent.getBlockPositions().size() > 100) {
-            List<Tuple<Integer, Integer>> tasks = new ArrayList<Tuple<Integer, Integer>>();
-
-            for (int chunkX = chunkMinX; chunkX < chunkMaxX; chunkX++) {
-                for (int chunkZ = chunkMinZ; chunkZ < chunkMaxZ; chunkZ++) {
-                    tasks.add(new Tuple<Integer, Integer>(chunkX, chunkZ));
-                }
-            }
-
-            Consumer<Tuple<Integer, Integer>> consumer = i -> { // i is a Tuple<Integer, Integer>
-                // updateCollisionCacheParrallel(cache, cachedPotentialHits, i.getFirst(),
-                // i.getSecond(), minX, minY, minZ, maxX, maxY, maxZ);
-                updateCollisionCacheSequential(cache, i.getFirst(), i.getSecond(), minX, minY, minZ,
-                    maxX, maxY, maxZ,
-                    shipBB);
-            };
-            try {
-                tasks.parallelStream().forEach(consumer);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        } else {
-            // Cast to double to avoid overflow errors
-            double size = ((double) (chunkMaxX - chunkMinX)) * ((double) (chunkMaxZ - chunkMinZ));
-            if (size > 300000) {
-                // Sanity check; don't execute the rest of the code because we'll just freeze the physics thread.
-                return;
-            }
-            // TODO: VS thread freezes here.
-            for (int chunkX = chunkMinX; chunkX < chunkMaxX; chunkX++) {
-                for (int chunkZ = chunkMinZ; chunkZ < chunkMaxZ; chunkZ++) {
-                    updateCollisionCacheSequential(cache, chunkX, chunkZ, minX, minY, minZ, maxX,
-                        maxY, maxZ, shipBB);
-                }
-            }
-        }
-    }
-
-    private void updateCollisionCacheParrallel(ChunkCache cache, Queue<Integer> dataQueue,
-        int chunkX, int chunkZ,
-        int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
-        int arrayChunkX = chunkX - cache.chunkX;
-        int arrayChunkZ = chunkZ - cache.chunkZ;
-
-        if (cache.chunkArray[arrayChunkX][arrayChunkZ] != null && !(arrayChunkX < 0
-            || arrayChunkZ < 0
-            || arrayChunkX > cache.chunkArray.length - 1
-            || arrayChunkZ > cache.chunkArray[0].length - 1)) {
-
-            org.valkyrienskies.mod.common.math.Vector temp1 = new org.valkyrienskies.mod.common.math.Vector();
-            org.valkyrienskies.mod.common.math.Vector temp2 = new org.valkyrienskies.mod.common.math.Vector();
-            org.valkyrienskies.mod.common.math.Vector temp3 = new org.valkyrienskies.mod.common.math.Vector();
-
-            Chunk chunk = cache.chunkArray[arrayChunkX][arrayChunkZ];
-            for (int storageY = minY >> 4; storageY <= maxY >> 4; storageY++) {
-                ExtendedBlockStorage extendedblockstorage = chunk.storageArrays[storageY];
-                if (extendedblockstorage != null) {
-                    int minStorageX = chunkX << 4;
-                    int minStorageY = storageY << 4;
-                    int minStorageZ = chunkZ << 4;
-
-                    int maxStorageX = minStorageX + 16;
-                    int maxStorageY = minStorageY + 16;
-                    int maxStorageZ = minStorageZ + 16;
-
-                    IBitOctreeProvider provider = (IBitOctreeProvider) extendedblockstorage.data;
-                    IBitOctree octree = provider.getBitOctree();
-
-                    if (USE_OCTREE_COLLISION) {
-                        for (int levelThree = 0; levelThree < 8; levelThree++) {
-                            int levelThreeIndex = octree.getOctreeLevelThreeIndex(levelThree);
-                            if (octree.getAtIndex(levelThreeIndex)) {
-                                for (int levelTwo = 0; levelTwo < 8; levelTwo++) {
-                                    int levelTwoIndex = octree
-                                        .getOctreeLevelTwoIndex(levelThreeIndex, levelTwo);
-                                    if (octree.getAtIndex(levelTwoIndex)) {
-                                        for (int levelOne = 0; levelOne < 8; levelOne++) {
-                                            int levelOneIndex = octree
-                                                .getOctreeLevelOneIndex(levelTwoIndex, levelOne);
-                                            if (octree.getAtIndex(levelOneIndex)) {
-
-                                                int baseX =
-                                                    ((levelThree % 2) * 8) + ((levelTwo % 2) * 4)
-                                                        + ((levelOne % 2) * 2);
-                                                int baseY = (((levelThree >> 1) % 2) * 8) + (
-                                                    ((levelTwo >> 1) % 2) * 4)
-                                                    + (((levelOne >> 1) % 2) * 2);
-                                                int baseZ = (((levelThree >> 2) % 2) * 8) + (
-                                                    ((levelTwo >> 2) % 2) * 4)
-                                                    + (((levelOne >> 2) % 2) * 2);
-
-                                                int x = baseX + minStorageX;
-                                                int y = baseY + minStorageY;
-                                                int z = baseZ + minStorageZ;
-
-                                                dataQueue.add(0);
-
-                                                if (x >= minX && x <= maxX && y >= minY && y <= maxY
-                                                    && z >= minZ
-                                                    && z <= maxZ && false) {
-                                                    checkForCollision(x, y, z, extendedblockstorage,
-                                                        octree, temp1,
-                                                        temp2, temp3, dataQueue);
-                                                    checkForCollision(x, y, z + 1,
-                                                        extendedblockstorage, octree, temp1,
-                                                        temp2, temp3, dataQueue);
-                                                    checkForCollision(x, y + 1, z,
-                                                        extendedblockstorage, octree, temp1,
-                                                        temp2, temp3, dataQueue);
-                                                    checkForCollision(x, y + 1, z + 1,
-                                                        extendedblockstorage, octree,
-                                                        temp1, temp2, temp3, dataQueue);
-                                                    checkForCollision(x + 1, y, z,
-                                                        extendedblockstorage, octree, temp1,
-                                                        temp2, temp3, dataQueue);
-                                                    checkForCollision(x + 1, y, z + 1,
-                                                        extendedblockstorage, octree,
-                                                        temp1, temp2, temp3, dataQueue);
-                                                    checkForCollision(x + 1, y + 1, z,
-                                                        extendedblockstorage, octree,
-                                                        temp1, temp2, temp3, dataQueue);
-                                                    checkForCollision(x + 1, y + 1, z + 1,
-                                                        extendedblockstorage, octree,
-                                                        temp1, temp2, temp3, dataQueue);
-                                                }
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    } else {
-                        for (int x = minStorageX; x < maxStorageX; x++) {
-                            for (int y = minStorageY; y < maxStorageY; y++) {
-                                for (int z = minStorageZ; z < maxStorageZ; z++) {
-                                    checkForCollision(x, y, z, extendedblockstorage, octree, temp1,
-                                        temp2, temp3,
-                                        dataQueue);
-                                }
-                            }
-                        }
-                    }
-                }
-            }
-        }
-    }
-
-    private void updateCollisionCacheSequential(ChunkCache cache, int chunkX, int chunkZ, int minX,
-        int minY, int minZ,
-        int maxX, int maxY, int maxZ, AxisAlignedBB shipBB) {
-        int arrayChunkX = chunkX - cache.chunkX;
-        int arrayChunkZ = chunkZ - cache.chunkZ;
-
-        if (!(arrayChunkX < 0 || arrayChunkZ < 0 || arrayChunkX > cache.chunkArray.length - 1
-            || arrayChunkZ > cache.chunkArray[0].length - 1)
-            && cache.chunkArray[arrayChunkX][arrayChunkZ] != null) {
-
-            org.valkyrienskies.mod.common.math.Vector temp1 = new org.valkyrienskies.mod.common.math.Vector();
-            org.valkyrienskies.mod.common.math.Vector temp2 = new org.valkyrienskies.mod.common.math.Vector();
-            org.valkyrienskies.mod.common.math.Vector temp3 = new org.valkyrienskies.mod.common.math.Vector();
-
-            Chunk chunk = cache.chunkArray[arrayChunkX][arrayChunkZ];
-            for (int storageY = minY >> 4; storageY <= maxY >> 4; storageY++) {
-                ExtendedBlockStorage extendedblockstorage = chunk.storageArrays[storageY];
-                if (extendedblockstorage != null) {
-                    int minStorageX = chunkX << 4;
-                    int minStorageY = storageY << 4;
-                    int minStorageZ = chunkZ << 4;
-
-                    int maxStorageX = minStorageX + 16;
-                    int maxStorageY = minStorageY + 16;
-                    int maxStorageZ = minStorageZ + 16;
-
-                    IBitOctreeProvider provider = (IBitOctreeProvider) extendedblockstorage.data;
-                    IBitOctree octree = provider.getBitOctree();
-
-                    if (USE_OCTREE_COLLISION) {
-                        for (int levelThree = 0; levelThree < 8; levelThree++) {
-                            int levelThreeIndex = octree.getOctreeLevelThreeIndex(levelThree);
-                            if (octree.getAtIndex(levelThreeIndex)) {
-                                for (int levelTwo = 0; levelTwo < 8; levelTwo++) {
-                                    int levelTwoIndex = octree
-                                        .getOctreeLevelTwoIndex(levelThreeIndex, levelTwo);
-                                    if (octree.getAtIndex(levelTwoIndex)) {
-                                        for (int levelOne = 0; levelOne < 8; levelOne++) {
-                                            int levelOneIndex = octree
-                                                .getOctreeLevelOneIndex(levelTwoIndex, levelOne);
-                                            if (octree.getAtIndex(levelOneIndex)) {
-
-                                                int baseX =
-                                                    ((levelThree % 2) * 8) + ((levelTwo % 2) * 4)
-                                                        + ((levelOne % 2) * 2);
-                                                int baseY = (((levelThree >> 1) % 2) * 8) + (
-                                                    ((levelTwo >> 1) % 2) * 4)
-                                                    + (((levelOne >> 1) % 2) * 2);
-                                                int baseZ = (((levelThree >> 2) % 2) * 8) + (
-                                                    ((levelTwo >> 2) % 2) * 4)
-                                                    + (((levelOne >> 2) % 2) * 2);
-
-                                                int x = baseX + minStorageX;
-                                                int y = baseY + minStorageY;
-                                                int z = baseZ + minStorageZ;
-
-                                                if (x >= minX && x <= maxX && y >= minY && y <= maxY
-                                                    && z >= minZ
-                                                    && z <= maxZ) {
-                                                    checkForCollision(x, y, z, extendedblockstorage,
-                                                        octree, temp1,
-                                                        temp2, temp3, shipBB);
-                                                    checkForCollision(x, y, z + 1,
-                                                        extendedblockstorage, octree, temp1,
-                                                        temp2, temp3, shipBB);
-                                                    checkForCollision(x, y + 1, z,
-                                                        extendedblockstorage, octree, temp1,
-                                                        temp2, temp3, shipBB);
-                                                    checkForCollision(x, y + 1, z + 1,
-                                                        extendedblockstorage, octree,
-                                                        temp1, temp2, temp3, shipBB);
-                                                    checkForCollision(x + 1, y, z,
-                                                        extendedblockstorage, octree, temp1,
-                                                        temp2, temp3, shipBB);
-                                                    checkForCollision(x + 1, y, z + 1,
-                                                        extendedblockstorage, octree,
-                                                        temp1, temp2, temp3, shipBB);
-                                                    checkForCollision(x + 1, y + 1, z,
-                                                        extendedblockstorage, octree,
-                                                        temp1, temp2, temp3, shipBB);
-                                                    checkForCollision(x + 1, y + 1, z + 1,
-                                                        extendedblockstorage, octree,
-                                                        temp1, temp2, temp3, shipBB);
-                                                }
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    } else {
-                        for (int x = minStorageX; x < maxStorageX; x++) {
-                            for (int y = minStorageY; y < maxStorageY; y++) {
-                                for (int z = minStorageZ; z < maxStorageZ; z++) {
-                                    checkForCollision(x, y, z, extendedblockstorage, octree, temp1,
-                                        temp2, temp3,
-                                        shipBB);
-                                }
-                            }
-                        }
-                    }
-                }
-            }
-        }
-    }
-
-    private void checkForCollision(int x, int y, int z, ExtendedBlockStorage storage,
-        IBitOctree octree, org.valkyrienskies.mod.common.math.Vector inLocal,
-        org.valkyrienskies.mod.common.math.Vector inBody,
-        org.valkyrienskies.mod.common.math.Vector speedInBody, AxisAlignedBB shipBB) {
-        if (octree.get(x & 15, y & 15, z & 15)) {
-            inLocal.X = x + .5D;
-            inLocal.Y = y + .5D;
-            inLocal.Z = z + .5D;
-            // TODO: Something
-            // parent.coordTransform.fromGlobalToLocal(inLocal);
-            if (inLocal.X > shipBB.minX && inLocal.X < shipBB.maxX && inLocal.Y > shipBB.minY
-                && inLocal.Y < shipBB.maxY
-                && inLocal.Z > shipBB.minZ && inLocal.Z < shipBB.maxZ) {
-                parent.getShipTransformationManager().getCurrentPhysicsTransform()
-                    .transform(inLocal,
-                        TransformType.GLOBAL_TO_SUBSPACE);
-
-                inBody.setSubtraction(inLocal, parent.getCenterCoord());
-                // parent.physicsProcessor.setVectorToVelocityAtPoint(inBody, speedInBody);
-                // speedInBody.multiply(-parent.physicsProcessor.getPhysicsTimeDeltaPerGameTick());
-
-                // TODO: This isnt ideal, but we do gain a lot of performance.
-                speedInBody.zero();
-
-                // double RANGE_CHECK = 1;
-
-                int minX, minY, minZ, maxX, maxY, maxZ;
-                if (speedInBody.X > 0) {
-                    minX = MathHelper.floor(inLocal.X - RANGE_CHECK);
-                    maxX = MathHelper.floor(inLocal.X + RANGE_CHECK + speedInBody.X);
-                } else {
-                    minX = MathHelper.floor(inLocal.X - RANGE_CHECK + speedInBody.X);
-                    maxX = MathHelper.floor(inLocal.X + RANGE_CHECK);
-                }
-
-                if (speedInBody.Y > 0) {
-                    minY = MathHelper.floor(inLocal.Y - RANGE_CHECK);
-                    maxY = MathHelper.floor(inLocal.Y + RANGE_CHECK + speedInBody.Y);
-                } else {
-                    minY = MathHelper.floor(inLocal.Y - RANGE_CHECK + speedInBody.Y);
-                    maxY = MathHelper.floor(inLocal.Y + RANGE_CHECK);
-                }
-
-                if (speedInBody.Z > 0) {
-                    minZ = MathHelper.floor(inLocal.Z - RANGE_CHECK);
-                    maxZ = MathHelper.floor(inLocal.Z + RANGE_CHECK + speedInBody.Z);
-                } else {
-                    minZ = MathHelper.floor(inLocal.Z - RANGE_CHECK + speedInBody.Z);
-                    maxZ = MathHelper.floor(inLocal.Z + RANGE_CHECK);
-                }
-
-                minY = Math.min(255, Math.max(minY, 0));
-                maxY = Math.min(255, Math.max(maxY, 0));
-
-                // int localX = MathHelper.floor(inLocal.X);
-                // int localY = MathHelper.floor(inLocal.Y);
-                // int localZ = MathHelper.floor(inLocal.Z);
-
-                // tooTiredToName(localX, localY, localZ, x, y, z);
-                // if (false)
-                // maxX = Math.min(maxX, minX << 4);
-                // maxZ = Math.min(maxZ, minZ << 4);
-
-                if (parent.ownsChunk(minX >> 4, minZ >> 4) && parent
-                    .ownsChunk(maxX >> 4, maxZ >> 4)) {
-
-                    Chunk chunkIn00 = parent.getChunkAt(minX >> 4, minZ >> 4);
-                    Chunk chunkIn01 = parent.getChunkAt(minX >> 4, maxZ >> 4);
-                    Chunk chunkIn10 = parent.getChunkAt(maxX >> 4, minZ >> 4);
-                    Chunk chunkIn11 = parent.getChunkAt(maxX >> 4, maxZ >> 4);
-
-                    breakThisLoop:
-                    for (int localX = minX; localX < maxX; localX++) {
-                        for (int localZ = minZ; localZ < maxZ; localZ++) {
-                            Chunk theChunk = null;
-                            if (localX >> 4 == minX >> 4) {
-                                if (localZ >> 4 == minZ >> 4) {
-                                    theChunk = chunkIn00;
-                                } else {
-                                    theChunk = chunkIn01;
-                                }
-                            } else {
-                                if (localZ >> 4 == minZ >> 4) {
-                                    theChunk = chunkIn10;
-                                } else {
-                                    theChunk = chunkIn11;
-                                }
-                            }
-                            for (int localY = minY; localY < maxY; localY++) {
-                                boolean result = checkForCollisionFast(theChunk, localX, localY,
-                                    localZ, x, y, z);
-                                if (result) {
-                                    break breakThisLoop;
-                                }
-
-                                /*
-                                 * if (false) // TODO: This code isn't thread safe. try { boolean result =
-                                 * tooTiredToName(localX, localY, localZ, x, y, z); if (result) { break
-                                 * breakThisLoop; } } catch (Exception e) { e.printStackTrace(); }
-                                 */
-                            }
-                        }
-                    }
-                }
-            }
-        }
+        candidateCache.setRegion(parent.getCachedSurroundingChunks(),
+            MathHelper.floor(collisionBB.minX),
+            Math.max(MathHelper.floor(collisionBB.minY) - 1, 0),
+            MathHelper.floor(collisionBB.minZ),
+            MathHelper.floor(collisionBB.maxX),
+            Math.min(MathHelper.floor(collisionBB.maxY), 255),
+            MathHelper.floor(collisionBB.maxZ), forceRebuild);
     }
 
-    private boolean checkForCollisionFast(final Chunk chunk, final int localX, final int localY,
-        final int localZ,
-        final int x, final int y, final int z) {
-        if (chunk.storageArrays[localY >> 4] != null) {
-            IBitOctreeProvider provider = (IBitOctreeProvider) chunk.storageArrays[localY >> 4]
-                .getData();
-            IBitOctree octreeInLocal = provider.getBitOctree();
-            if (octreeInLocal.get(localX & 15, localY & 15, localZ & 15)) {
-                int hash = SpatialDetector.getHashWithRespectTo(x, y, z, centerPotentialHit);
-                // Sometimes we end up adding to the hits array in multiple threads at once,
-                // crashing the physics.
-                try {
-                    cachedPotentialHits.add(hash);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-                return true;
-                // break outermostloop;
-            }
-            // }
-        }
-        return false;
+    /**
+     * Queues a change to a world block for the physics thread, so the collision candidates stay
+     * up to date without rescanning. Safe to call from any thread.
+     */
+    public void onWorldBlockChange(BlockPos pos) {
+        worldBlockChanges.add(pos.toImmutable());
     }
 
-    private void checkForCollision(int x, int y, int z, ExtendedBlockStorage storage,
-        IBitOctree octree, org.valkyrienskies.mod.common.math.Vector inLocal,
-        org.valkyrienskies.mod.common.math.Vector inBody, Vector speedInBody,
-        Collection<Integer> collection) {
-        if (octree.get(x & 15, y & 15, z & 15)) {
-            inLocal.X = x + .5D;
-            inLocal.Y = y + .5D;
-            inLocal.Z = z + .5D;
-            // TODO: Something
-            // parent.coordTransform.fromGlobalToLocal(inLocal);
-            parent.getShipTransformationManager().getCurrentPhysicsTransform().transform(inLocal,
-                TransformType.GLOBAL_TO_SUBSPACE);
-
-            inBody.setSubtraction(inLocal, parent.getCenterCoord());
-            // parent.physicsProcessor.setVectorToVelocityAtPoint(inBody, speedInBody);
-            // speedInBody.multiply(-parent.physicsProcessor.getPhysicsTimeDeltaPerGameTick());
-
-            // TODO: This isnt ideal, but we do gain a lot of performance.
-            speedInBody.zero();
-
-            double RANGE_CHECK = 1.8;
-
-            int minX, minY, minZ, maxX, maxY, maxZ;
-            if (speedInBody.X > 0) {
-                minX = MathHelper.floor(inLocal.X - RANGE_CHECK);
-                maxX = MathHelper.floor(inLocal.X + RANGE_CHECK + speedInBody.X);
-            } else {
-                minX = MathHelper.floor(inLocal.X - RANGE_CHECK + speedInBody.X);
-                maxX = MathHelper.floor(inLocal.X + RANGE_CHECK);
-            }
-
-            if (speedInBody.Y > 0) {
-                minY = MathHelper.floor(inLocal.Y - RANGE_CHECK);
-                maxY = MathHelper.floor(inLocal.Y + RANGE_CHECK + speedInBody.Y);
-            } else {
-                minY = MathHelper.floor(inLocal.Y - RANGE_CHECK + speedInBody.Y);
-                maxY = MathHelper.floor(inLocal.Y + RANGE_CHECK);
-            }
-
-            if (speedInBody.Z > 0) {
-                minZ = MathHelper.floor(inLocal.Z - RANGE_CHECK);
-                maxZ = MathHelper.floor(inLocal.Z + RANGE_CHECK + speedInBody.Z);
-            } else {
-                minZ = MathHelper.floor(inLocal.Z - RANGE_CHECK + speedInBody.Z);
-                maxZ = MathHelper.floor(inLocal.Z + RANGE_CHECK);
-            }
-
-            minY = Math.min(255, Math.max(minY, 0));
-
-            outermostloop:
-            for (int localX = minX; localX < maxX; localX++) {
-                for (int localZ = minZ; localZ < maxZ; localZ++) {
-                    for (int localY = minY; localY < maxY; localY++) {
-                        if (parent.ownsChunk(localX >> 4, localZ >> 4)) {
-                            Chunk chunkIn = parent.getChunkAt(localX >> 4, localZ >> 4);
-                            if (localY >> 4 < 16 && chunkIn.storageArrays[localY >> 4] != null) {
-                                IBitOctreeProvider provider = (IBitOctreeProvider) chunkIn.storageArrays[
-                                    localY >> 4].getData();
-                                IBitOctree octreeInLocal = provider.getBitOctree();
-                                if (octreeInLocal.get(localX & 15, localY & 15, localZ & 15)) {
-                                    int hash = SpatialDetector
-                                        .getHashWithRespectTo(x, y, z, centerPotentialHit);
-                                    collection.add(hash);
-                                    break outermostloop;
-                                }
-                            }
-                        }
-                    }
-                }
-            }
-        }
+    /**
+     * Same as {@link #onWorldBlockChange(BlockPos)}, for every block of a chunk section at once.
+     */
+    public void onWorldSectionChange(int chunkX, int sectionY, int chunkZ) {
+        worldSectionChanges.add(new BlockPos(chunkX, sectionY, chunkZ));
     }
 
     public BlockPos getCenterPotentialHit() {
-        return centerPotentialHit;
+        return candidateCache.getCenter();
     }
 
     public int getCachedPotentialHit(int offset) {
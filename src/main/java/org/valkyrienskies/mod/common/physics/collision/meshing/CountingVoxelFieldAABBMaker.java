@@ -0,0 +1,175 @@
+package org.valkyrienskies.mod.common.physics.collision.meshing;
+
+import net.minecraft.util.math.AxisAlignedBB;
+import net.minecraft.util.math.BlockPos;
+
+/**
+ * Keeps track of the bounds of the voxel field by counting how many voxels there are on every x, y
+ * and z plane of the field. Adding or removing a voxel only changes three counts, and the bounds
+ * only have to be searched for when the last voxel on a boundary plane is removed, which is at
+ * most a scan over one count array.
+ * <p>
+ * Which voxels exist is stored in a bitset that is split into pages of 16x16x16 voxels, which are
+ * only allocated once a voxel is added to them. Do not serialize.
+ */
+public class CountingVoxelFieldAABBMaker implements IVoxelFieldAABBMaker {
+
+    private static final int SIZE_X = MAX_X - MIN_X + 1;
+    private static final int SIZE_Y = MAX_Y - MIN_Y + 1;
+    private static final int SIZE_Z = MAX_Z - MIN_Z + 1;
+
+    private final BlockPos centerPos;
+    private final int[] xCounts, yCounts, zCounts;
+    // Indexed by the 16x16 column of the voxel, and then by its 16 high section.
+    private final long[][][] pages;
+    // The bounds of the voxels, in local coordinates. Only valid when voxelCount > 0.
+    private int minX, minY, minZ, maxX, maxY, maxZ;
+    private int voxelCount;
+
+    public CountingVoxelFieldAABBMaker(int x, int z) {
+        this.centerPos = new BlockPos(x, 0, z);
+        this.xCounts = new int[SIZE_X];
+        this.yCounts = new int[SIZE_Y];
+        this.zCounts = new int[SIZE_Z];
+        this.pages = new long[(SIZE_X >> 4) * (SIZE_Z >> 4)][][];
+        this.voxelCount = 0;
+    }
+
+    @Override
+    public AxisAlignedBB makeVoxelFieldAABB() {
+        if (voxelCount == 0) {
+            return null;
+        }
+        return new AxisAlignedBB(minX + centerPos.getX(), minY + centerPos.getY(),
+            minZ + centerPos.getZ(), maxX + centerPos.getX(), maxY + centerPos.getY(),
+            maxZ + centerPos.getZ());
+    }
+
+    @Override
+    public boolean addVoxel(int x, int y, int z) {
+        // Put xyz into local coordinates.
+        x -= centerPos.getX();
+        y -= centerPos.getY();
+        z -= centerPos.getZ();
+
+        assertValidInputs(x, y, z);
+
+        int indexX = x - MIN_X;
+        int indexY = y - MIN_Y;
+        int indexZ = z - MIN_Z;
+        int column = (indexX >> 4) + (SIZE_X >> 4) * (indexZ >> 4);
+        if (pages[column] == null) {
+            pages[column] = new long[SIZE_Y >> 4][];
+        }
+        long[] page = pages[column][indexY >> 4];
+        if (page == null) {
+            page = new long[64];
+            pages[column][indexY >> 4] = page;
+        }
+        int bit = getBitIndex(indexX, indexY, indexZ);
+        if ((page[bit >> 6] & (1L << bit)) != 0) {
+            // Already there, nothing to change.
+            return false;
+        }
+        page[bit >> 6] |= 1L << bit;
+        xCounts[indexX]++;
+        yCounts[indexY]++;
+        zCounts[indexZ]++;
+
+        if (voxelCount++ == 0) {
+            minX = maxX = x;
+            minY = maxY = y;
+            minZ = maxZ = z;
+        } else {
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            minZ = Math.min(minZ, z);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+            maxZ = Math.max(maxZ, z);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean removeVoxel(int x, int y, int z) {
+        // Put xyz into local coordinates.
+        x -= centerPos.getX();
+        y -= centerPos.getY();
+        z -= centerPos.getZ();
+
+        assertValidInputs(x, y, z);
+
+        int indexX = x - MIN_X;
+        int indexY = y - MIN_Y;
+        int indexZ = z - MIN_Z;
+        long[][] column = pages[(indexX >> 4) + (SIZE_X >> 4) * (indexZ >> 4)];
+        if (column == null || column[indexY >> 4] == null) {
+            return false;
+        }
+        long[] page = column[indexY >> 4];
+        int bit = getBitIndex(indexX, indexY, indexZ);
+        if ((page[bit >> 6] & (1L << bit)) == 0) {
+            // Nothing removed, nothing to change.
+            return false;
+        }
+        page[bit >> 6] &= ~(1L << bit);
+        voxelCount--;
+
+        // Only when the last voxel of a boundary plane is gone do the bounds move, and then only
+        // to the next plane that still has voxels.
+        if (--xCounts[indexX] == 0 && voxelCount != 0) {
+            if (x == minX) {
+                minX = nextOccupied(xCounts, minX - MIN_X, 1) + MIN_X;
+            }
+            if (x == maxX) {
+                maxX = nextOccupied(xCounts, maxX - MIN_X, -1) + MIN_X;
+            }
+        }
+        if (--yCounts[indexY] == 0 && voxelCount != 0) {
+            if (y == minY) {
+                minY = nextOccupied(yCounts, minY - MIN_Y, 1) + MIN_Y;
+            }
+            if (y == maxY) {
+                maxY = nextOccupied(yCounts, maxY - MIN_Y, -1) + MIN_Y;
+            }
+        }
+        if (--zCounts[indexZ] == 0 && voxelCount != 0) {
+            if (z == minZ) {
+                minZ = nextOccupied(zCounts, minZ - MIN_Z, 1) + MIN_Z;
+            }
+            if (z == maxZ) {
+                maxZ = nextOccupied(zCounts, maxZ - MIN_Z, -1) + MIN_Z;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public BlockPos getFieldCenter() {
+        return centerPos;
+    }
+
+    /**
+     * @return The first index from start in the given direction with a count above 0. There must
+     * be one.
+     */
+    private static int nextOccupied(int[] counts, int start, int direction) {
+        int i = start;
+        while (counts[i] == 0) {
+            i += direction;
+        }
+        return i;
+    }
+
+    private static int getBitIndex(int x, int y, int z) {
+        return (x & 15) | (y & 15) << 4 | (z & 15) << 8;
+    }
+
+    private void assertValidInputs(int x, int y, int z) throws IllegalArgumentException {
+        if (x < MIN_X || x > MAX_X || y < MIN_Y || y > MAX_Y || z < MIN_Z || z > MAX_Z) {
+            throw new IllegalArgumentException(
+                x + ":" + y + ":" + z + " is out of range from " + getFieldCenter());
+        }
+    }
+}
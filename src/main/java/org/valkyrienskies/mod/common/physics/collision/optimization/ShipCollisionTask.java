@@ -1,5 +1,7 @@
 package org.valkyrienskies.mod.common.physics.collision.optimization;
 
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -10,17 +12,25 @@ import net.minecraft.util.math.BlockPos.MutableBlockPos;
 import net.minecraft.util.math.MathHelper;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import org.valkyrienskies.mod.common.config.VSConfig;
 import org.valkyrienskies.mod.common.math.Vector;
 import org.valkyrienskies.mod.common.physics.collision.CollisionInformationHolder;
 import org.valkyrienskies.mod.common.physics.collision.WorldPhysicsCollider;
 import org.valkyrienskies.mod.common.physics.collision.polygons.PhysPolygonCollider;
 import org.valkyrienskies.mod.common.physics.collision.polygons.Polygon;
+import org.valkyrienskies.mod.common.physics.collision.polygons.PrimitivePolygonCollider;
+import org.valkyrienskies.mod.common.physics.management.ShipTransformationManager;
 import org.valkyrienskies.mod.common.physmanagement.relocation.SpatialDetector;
 import valkyrienwarfare.api.TransformType;
 
 public class ShipCollisionTask implements Callable<Void> {
 
-    public final static int MAX_TASKS_TO_CHECK = 45;
+    // Collision tasks never check fewer positions than this, because tiny tasks cost more to
+    // schedule than they do to run.
+    public final static int MIN_TASK_SIZE = 16;
+    // How many collision tasks we aim to create per physics thread, having a few per thread lets
+    // idle threads steal work from the busy ones.
+    public final static int TASKS_PER_THREAD = 4;
     private final WorldPhysicsCollider toTask;
     private final int taskStartIndex;
     private final int tasksToCheck;
@@ -28,40 +38,94 @@ public class ShipCollisionTask implements Callable<Void> {
     private final MutableBlockPos inLocalPos;
     private final Vector inWorld;
     private final List<CollisionInformationHolder> collisionInformationGenerated;
+    // Used instead of collisionInformationGenerated when the fast narrow phase is enabled. Stores
+    // PrimitivePolygonCollider.CONTACT_STRIDE doubles per collision.
+    private final TDoubleArrayList fastCollisionsGenerated;
+    // The world and ship block positions of each fast collision, 6 ints per collision.
+    private final TIntArrayList fastCollisionPositions;
+    private final PrimitivePolygonCollider fastCollider;
+    private final double[] shipToWorldMatrix;
+    private final double[] contactBuffer;
+    private boolean useFastNarrowPhase;
     private IBlockState inWorldState;
+    // How long call() took.
+    private long elapsedNanos;
     // public TIntArrayList foundPairs = new TIntArrayList();
 
-    public ShipCollisionTask(WorldPhysicsCollider toTask, int taskStartIndex) {
+    public ShipCollisionTask(WorldPhysicsCollider toTask, int taskStartIndex, int taskSize) {
         this.taskStartIndex = taskStartIndex;
         this.toTask = toTask;
+        this.tasksToCheck = Math.min(taskSize, toTask.getCachedPotentialHitSize() - taskStartIndex);
         this.mutablePos = new MutableBlockPos();
         this.inLocalPos = new MutableBlockPos();
         this.inWorld = new Vector();
         this.collisionInformationGenerated = new ArrayList<>();
+        this.fastCollisionsGenerated = new TDoubleArrayList();
+        this.fastCollisionPositions = new TIntArrayList();
+        this.fastCollider = new PrimitivePolygonCollider();
+        this.shipToWorldMatrix = new double[16];
+        this.contactBuffer = new double[PrimitivePolygonCollider.CONTACT_STRIDE];
+        this.useFastNarrowPhase = false;
         this.inWorldState = null;
 
-        int size = toTask.getCachedPotentialHitSize();
-        if (taskStartIndex + MAX_TASKS_TO_CHECK > size + 1) {
-            tasksToCheck = size + 1 - taskStartIndex;
-        } else {
-            tasksToCheck = MAX_TASKS_TO_CHECK;
-        }
+    }
+
+    /**
+     * @return The number of positions each collision task should check, so that the given number
+     * of positions is split into roughly {@link #TASKS_PER_THREAD} tasks per thread.
+     */
+    public static int getTaskSize(int totalPositions, int threadCount) {
+        int taskCount = Math.max(1, threadCount * TASKS_PER_THREAD);
+        return Math.max(MIN_TASK_SIZE, (totalPositions + taskCount - 1) / taskCount);
     }
 
     @Override
     public Void call() {
-        for (int index = taskStartIndex; index < tasksToCheck + 1; index++) {
+        long startNano = System.nanoTime();
+        useFastNarrowPhase = VSConfig.useFastCollisionNarrowPhase;
+        if (useFastNarrowPhase) {
+            ShipTransformationManager transformManager = toTask.getParent()
+                .getShipTransformationManager();
+            transformManager.getCurrentPhysicsTransform()
+                .copyMatrixInto(TransformType.SUBSPACE_TO_GLOBAL, shipToWorldMatrix);
+            fastCollider.setAxes(transformManager.normals);
+        }
+        for (int index = taskStartIndex; index < taskStartIndex + tasksToCheck; index++) {
             int integer = toTask.getCachedPotentialHit(index);
             processNumber(integer);
         }
 
+        elapsedNanos = System.nanoTime() - startNano;
         return null;
     }
 
+    /**
+     * @return How long this task took to run, in nanoseconds.
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
     public List<CollisionInformationHolder> getCollisionInformationGenerated() {
         return collisionInformationGenerated;
     }
 
+    /**
+     * @return The collisions found by the fast narrow phase, packed as {@link
+     * PrimitivePolygonCollider#CONTACT_STRIDE} doubles per collision.
+     */
+    public TDoubleArrayList getFastCollisionsGenerated() {
+        return fastCollisionsGenerated;
+    }
+
+    /**
+     * @return The world block and ship block positions of the fast collisions, packed as {worldX,
+     * worldY, worldZ, shipX, shipY, shipZ} per collision.
+     */
+    public TIntArrayList getFastCollisionPositions() {
+        return fastCollisionPositions;
+    }
+
     /**
      * Returns an iterator that loops over the collision information in quasi-random order. This is
      * important to avoid biasing one side over another, because otherwise one side would slowly
@@ -138,6 +202,10 @@ public class ShipCollisionTask implements Callable<Void> {
             IBitOctree octree = provider.getBitOctree();
 
             if (octree.get(x & 15, y & 15, z & 15)) {
+                if (useFastNarrowPhase) {
+                    checkPositionFast(x, y, z);
+                    return;
+                }
                 IBlockState inLocalState = chunkIn.getBlockState(x, y, z);
                 // Only if you want to stop short
                 // foundPairs.add(positionHash);
@@ -182,6 +250,31 @@ public class ShipCollisionTask implements Callable<Void> {
         }
     }
 
+    /**
+     * Does the same thing as the polygon code in checkPosition(), but without allocating anything.
+     */
+    private void checkPositionFast(int x, int y, int z) {
+        fastCollider.setMovableBlock(x, y, z, shipToWorldMatrix);
+        fastCollider.setFixedBlock(mutablePos.getX(), mutablePos.getY(), mutablePos.getZ());
+        if (!fastCollider.processData()) {
+            // Same axis choice as WorldPhysicsCollider.handleActualCollision()
+            int axisIndex = 1;
+            double penetration = fastCollider.getPenetrationDistance(axisIndex);
+            if (penetration > WorldPhysicsCollider.AXIS_TOLERANCE
+                || penetration < -WorldPhysicsCollider.AXIS_TOLERANCE) {
+                axisIndex = fastCollider.getMinDistanceIndex();
+            }
+            fastCollider.writeContact(axisIndex, contactBuffer, 0);
+            fastCollisionsGenerated.add(contactBuffer);
+            fastCollisionPositions.add(mutablePos.getX());
+            fastCollisionPositions.add(mutablePos.getY());
+            fastCollisionPositions.add(mutablePos.getZ());
+            fastCollisionPositions.add(x);
+            fastCollisionPositions.add(y);
+            fastCollisionPositions.add(z);
+        }
+    }
+
     public WorldPhysicsCollider getToTask() {
         return toTask;
     }
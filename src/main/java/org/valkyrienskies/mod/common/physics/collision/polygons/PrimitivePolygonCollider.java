@@ -0,0 +1,257 @@
+package org.valkyrienskies.mod.common.physics.collision.polygons;
+
+import org.valkyrienskies.mod.common.math.Vector;
+
+/**
+ * An allocation free version of {@link PhysPolygonCollider} specialized for testing one ship block
+ * against one world block. Vertices, axes and penetration distances are all kept in primitive
+ * arrays that are reused between tests, so a single instance can process thousands of block pairs
+ * per physics tick without creating any garbage.
+ * <p>
+ * The results are identical to building two {@link Polygon} objects from the block AABBs and
+ * running them through {@link PhysPolygonCollider} and {@link PolygonCollisionPointFinder}; the
+ * vertex order and the tie breaking rules are the same.
+ * <p>
+ * Not thread safe, every thread must use its own instance.
+ */
+public class PrimitivePolygonCollider {
+
+    /**
+     * The number of doubles written by {@link #writeContact(int, double[], int)}.
+     */
+    public static final int CONTACT_STRIDE = 10;
+    // Offsets of the values written by writeContact()
+    public static final int NORMAL_OFFSET = 0;
+    public static final int PENETRATION_OFFSET = 3;
+    public static final int TOP_POINT_OFFSET = 4;
+    public static final int BOTTOM_POINT_OFFSET = 7;
+
+    private static final int VERTEX_COUNT = 8;
+    private static final int MAX_AXES = 15;
+
+    private final double[] axes;
+    private final double[] movableVertices;
+    private final double[] fixedVertices;
+    private final double[] penetrationDistances;
+    private int axisCount;
+    private boolean separated;
+    private int minDistanceIndex;
+    private double minDistance;
+
+    public PrimitivePolygonCollider() {
+        this.axes = new double[MAX_AXES * 3];
+        this.movableVertices = new double[VERTEX_COUNT * 3];
+        this.fixedVertices = new double[VERTEX_COUNT * 3];
+        this.penetrationDistances = new double[MAX_AXES];
+        this.axisCount = 0;
+        this.separated = true;
+    }
+
+    /**
+     * Copies the potential separating axes into this collider. Only needs to be called when the
+     * axes change, which is at most once per physics tick.
+     */
+    public void setAxes(Vector[] potentialSeparatingAxes) {
+        if (potentialSeparatingAxes.length > MAX_AXES) {
+            throw new IllegalArgumentException(
+                "Can't have more than " + MAX_AXES + " axes, got " + potentialSeparatingAxes.length);
+        }
+        axisCount = potentialSeparatingAxes.length;
+        for (int i = 0; i < axisCount; i++) {
+            Vector axis = potentialSeparatingAxes[i];
+            axes[i * 3] = axis.X;
+            axes[i * 3 + 1] = axis.Y;
+            axes[i * 3 + 2] = axis.Z;
+        }
+    }
+
+    /**
+     * Sets the movable polygon to the unit cube at the given block position, transformed by the
+     * given 4x4 matrix (typically the subspace to global matrix of the physics transform).
+     */
+    public void setMovableBlock(int x, int y, int z, double[] transformMatrix) {
+        setBlockVertices(movableVertices, x, y, z);
+        final double[] m = transformMatrix;
+        for (int i = 0; i < VERTEX_COUNT * 3; i += 3) {
+            double vx = movableVertices[i];
+            double vy = movableVertices[i + 1];
+            double vz = movableVertices[i + 2];
+            movableVertices[i] = vx * m[0] + vy * m[1] + vz * m[2] + m[3];
+            movableVertices[i + 1] = vx * m[4] + vy * m[5] + vz * m[6] + m[7];
+            movableVertices[i + 2] = vx * m[8] + vy * m[9] + vz * m[10] + m[11];
+        }
+    }
+
+    /**
+     * Sets the stationary polygon to the unit cube at the given block position.
+     */
+    public void setFixedBlock(int x, int y, int z) {
+        setBlockVertices(fixedVertices, x, y, z);
+    }
+
+    /**
+     * Runs the separating axis test between the movable and fixed polygons.
+     *
+     * @return True if the polygons are separated.
+     */
+    public boolean processData() {
+        separated = false;
+        for (int i = 0; i < axisCount && !separated; i++) {
+            double ax = axes[i * 3];
+            double ay = axes[i * 3 + 1];
+            double az = axes[i * 3 + 2];
+            double movableMin = projectionMin(movableVertices, ax, ay, az);
+            double movableMax = projectionMax(movableVertices, ax, ay, az);
+            double fixedMin = projectionMin(fixedVertices, ax, ay, az);
+            double fixedMax = projectionMax(fixedVertices, ax, ay, az);
+            double movMaxFixMin = movableMin - fixedMax;
+            double movMinFixMax = movableMax - fixedMin;
+            if (movMaxFixMin > 0 || movMinFixMax < 0) {
+                separated = true;
+                penetrationDistances[i] = 0.0D;
+            } else if (Math.abs(movMaxFixMin) > Math.abs(movMinFixMax)) {
+                penetrationDistances[i] = movMinFixMax;
+            } else {
+                penetrationDistances[i] = movMaxFixMin;
+            }
+        }
+        if (!separated) {
+            minDistance = 420;
+            for (int i = 0; i < axisCount; i++) {
+                // Take the collision response closest to 0
+                if (Math.abs(penetrationDistances[i]) < minDistance) {
+                    minDistanceIndex = i;
+                    minDistance = Math.abs(penetrationDistances[i]);
+                }
+            }
+        }
+        return separated;
+    }
+
+    /**
+     * Unlike {@link #processData()} this checks every axis, even after a separating axis has been
+     * found.
+     *
+     * @return The largest gap between the movable and fixed polygons along any axis. Positive if
+     * the polygons are separated, zero or negative if they overlap.
+     */
+    public double computeSeparation() {
+        double separation = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < axisCount; i++) {
+            double ax = axes[i * 3];
+            double ay = axes[i * 3 + 1];
+            double az = axes[i * 3 + 2];
+            double movMaxFixMin = projectionMin(movableVertices, ax, ay, az)
+                - projectionMax(fixedVertices, ax, ay, az);
+            double fixMaxMovMin = projectionMin(fixedVertices, ax, ay, az)
+                - projectionMax(movableVertices, ax, ay, az);
+            separation = Math.max(separation, Math.max(movMaxFixMin, fixMaxMovMin));
+        }
+        return separation;
+    }
+
+    public boolean isSeparated() {
+        return separated;
+    }
+
+    public int getMinDistanceIndex() {
+        return minDistanceIndex;
+    }
+
+    public double getPenetrationDistance(int axisIndex) {
+        return penetrationDistances[axisIndex];
+    }
+
+    /**
+     * Writes the collision normal, the penetration distance and the two contact points along the
+     * given axis into dest, starting at offset. Uses the same algorithm as {@link
+     * PolygonCollisionPointFinder#getPointsOfCollisionForPolygons(PhysCollisionObject)}.
+     *
+     * @return The number of doubles written, always {@link #CONTACT_STRIDE}.
+     */
+    public int writeContact(int axisIndex, double[] dest, int offset) {
+        double ax = axes[axisIndex * 3];
+        double ay = axes[axisIndex * 3 + 1];
+        double az = axes[axisIndex * 3 + 2];
+
+        double centerDifferenceDot = 0;
+        for (int i = 0; i < VERTEX_COUNT * 3; i += 3) {
+            centerDifferenceDot += (fixedVertices[i] - movableVertices[i]) * ax
+                + (fixedVertices[i + 1] - movableVertices[i + 1]) * ay
+                + (fixedVertices[i + 2] - movableVertices[i + 2]) * az;
+        }
+
+        final double[] topPoly;
+        final double[] bottomPoly;
+        if (centerDifferenceDot > 0) {
+            // Then the movable is the bottom
+            topPoly = fixedVertices;
+            bottomPoly = movableVertices;
+        } else {
+            // Then the fixed is the bottom
+            topPoly = movableVertices;
+            bottomPoly = fixedVertices;
+        }
+
+        double minDot = 99999999D;
+        int topPointIndex = 0;
+        double maxDot = -9999999999D;
+        int bottomPointIndex = 0;
+        for (int i = 0; i < VERTEX_COUNT * 3; i += 3) {
+            double topDot = topPoly[i] * ax + topPoly[i + 1] * ay + topPoly[i + 2] * az;
+            if (topDot < minDot) {
+                minDot = topDot;
+                topPointIndex = i;
+            }
+            double bottomDot = bottomPoly[i] * ax + bottomPoly[i + 1] * ay + bottomPoly[i + 2] * az;
+            if (bottomDot > maxDot) {
+                maxDot = bottomDot;
+                bottomPointIndex = i;
+            }
+        }
+
+        dest[offset + NORMAL_OFFSET] = ax;
+        dest[offset + NORMAL_OFFSET + 1] = ay;
+        dest[offset + NORMAL_OFFSET + 2] = az;
+        dest[offset + PENETRATION_OFFSET] = penetrationDistances[axisIndex];
+        dest[offset + TOP_POINT_OFFSET] = topPoly[topPointIndex];
+        dest[offset + TOP_POINT_OFFSET + 1] = topPoly[topPointIndex + 1];
+        dest[offset + TOP_POINT_OFFSET + 2] = topPoly[topPointIndex + 2];
+        dest[offset + BOTTOM_POINT_OFFSET] = bottomPoly[bottomPointIndex];
+        dest[offset + BOTTOM_POINT_OFFSET + 1] = bottomPoly[bottomPointIndex + 1];
+        dest[offset + BOTTOM_POINT_OFFSET + 2] = bottomPoly[bottomPointIndex + 2];
+        return CONTACT_STRIDE;
+    }
+
+    /**
+     * Same vertex order as Polygon.getCornersForAABB()
+     */
+    private static void setBlockVertices(double[] vertices, int x, int y, int z) {
+        int index = 0;
+        for (int dx = 0; dx < 2; dx++) {
+            for (int dz = 0; dz < 2; dz++) {
+                for (int dy = 0; dy < 2; dy++) {
+                    vertices[index++] = x + dx;
+                    vertices[index++] = y + dy;
+                    vertices[index++] = z + dz;
+                }
+            }
+        }
+    }
+
+    private static double projectionMin(double[] vertices, double ax, double ay, double az) {
+        double min = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < VERTEX_COUNT * 3; i += 3) {
+            min = Math.min(min, vertices[i] * ax + vertices[i + 1] * ay + vertices[i + 2] * az);
+        }
+        return min;
+    }
+
+    private static double projectionMax(double[] vertices, double ax, double ay, double az) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < VERTEX_COUNT * 3; i += 3) {
+            max = Math.max(max, vertices[i] * ax + vertices[i + 1] * ay + vertices[i + 2] * az);
+        }
+        return max;
+    }
+}
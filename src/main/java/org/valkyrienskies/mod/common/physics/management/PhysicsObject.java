@@ -2,19 +2,17 @@ package org.valkyrienskies.mod.common.physics.management;
 
 import com.google.common.collect.Sets;
 import gnu.trove.iterator.TIntIterator;
-import gnu.trove.list.array.TIntArrayList;
 import io.netty.buffer.ByteBuf;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
-import net.minecraft.block.Block;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.entity.Entity;
 import net.minecraft.entity.player.EntityPlayer;
@@ -22,7 +20,6 @@ import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.init.Blocks;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.network.PacketBuffer;
-import net.minecraft.network.play.server.SPacketChunkData;
 import net.minecraft.network.play.server.SPacketUnloadChunk;
 import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.IThreadListener;
@@ -53,15 +50,16 @@ import org.valkyrienskies.mod.common.multithreaded.TickSyncCompletableFuture;
 import org.valkyrienskies.mod.common.network.WrapperPositionMessage;
 import org.valkyrienskies.mod.common.physics.BlockPhysicsDetails;
 import org.valkyrienskies.mod.common.physics.PhysicsCalculations;
+import org.valkyrienskies.mod.common.physics.collision.meshing.CountingVoxelFieldAABBMaker;
 import org.valkyrienskies.mod.common.physics.collision.meshing.IVoxelFieldAABBMaker;
-import org.valkyrienskies.mod.common.physics.collision.meshing.NaiveVoxelFieldAABBMaker;
 import org.valkyrienskies.mod.common.physics.management.chunkcache.ClaimedChunkCacheController;
+import org.valkyrienskies.mod.common.physics.management.chunkcache.ShipChunkStreamer;
 import org.valkyrienskies.mod.common.physics.management.chunkcache.SurroundingChunkCacheController;
 import org.valkyrienskies.mod.common.physmanagement.chunk.ShipChunkAllocator;
 import org.valkyrienskies.mod.common.physmanagement.chunk.VSChunkClaim;
+import org.valkyrienskies.mod.common.physmanagement.relocation.BulkBlockMover;
 import org.valkyrienskies.mod.common.physmanagement.relocation.DetectorManager;
 import org.valkyrienskies.mod.common.physmanagement.relocation.DetectorManager.DetectorIDs;
-import org.valkyrienskies.mod.common.physmanagement.relocation.MoveBlocks;
 import org.valkyrienskies.mod.common.physmanagement.relocation.SpatialDetector;
 import org.valkyrienskies.mod.common.tileentity.TileEntityPhysicsInfuser;
 import org.valkyrienskies.mod.common.util.ValkyrienNBTUtils;
@@ -80,12 +78,14 @@ public class PhysicsObject implements ISubspaceProvider, IPhysicsEntity {
     private final PhysicsWrapperEntity wrapperEntity;
     @Getter
     private final List<EntityPlayerMP> watchingPlayers;
+    // The players that stopped watching this ship since the physics thread last checked, so that
+    // the next positions it sends them aren't differences to a state the client forgot.
+    private final Set<EntityPlayerMP> untrackedPlayers;
     private final ISubspace shipSubspace;
     private final Set<INodeController> physicsControllers;
     private final Set<INodeController> physicsControllersImmutable;
-    // Used to iterate over the ship blocks extremely quickly by taking advantage of the cache
-    @Getter(AccessLevel.PACKAGE)
-    private final TIntArrayList blockPositionsGameTick;
+    // Sends the chunks of the ship to the players that start watching it.
+    private final ShipChunkStreamer chunkStreamer;
     @Getter
     private PhysObjectRenderManager shipRenderer;
     /**
@@ -105,12 +105,12 @@ public class PhysicsObject implements ISubspaceProvider, IPhysicsEntity {
     @Setter
     private PhysicsCalculations physicsProcessor;
     /**
-     * Has to be concurrent, only exists properly on the server. Do not use this for anything client
-     * side! Contains all of the non-air block positions on the ship. This is used for generating
-     * AABBs and deconstructing the ship.
+     * Only exists properly on the server. Do not use this for anything client side! Contains all of
+     * the non-air block positions on the ship, and which of them provide force. This is used for
+     * calculating the inertia, applying block forces and deconstructing the ship.
      */
     @Getter
-    private Set<BlockPos> blockPositions;
+    private ShipBlockIndex blockIndex;
     @Getter
     @Setter
     private boolean isPhysicsEnabled = false;
@@ -133,7 +133,6 @@ public class PhysicsObject implements ISubspaceProvider, IPhysicsEntity {
     private ClaimedChunkCacheController claimedChunkCache;
 
     @Getter
-    @Setter
     private AxisAlignedBB shipBoundingBox;
 
     /**
@@ -156,16 +155,16 @@ public class PhysicsObject implements ISubspaceProvider, IPhysicsEntity {
         if (host.world.isRemote) {
             this.shipRenderer = new PhysObjectRenderManager(this);
         }
-        // We need safe access to this across multiple threads.
-        this.blockPositions = ConcurrentHashMap.newKeySet();
         this.shipBoundingBox = Entity.ZERO_AABB;
         this.watchingPlayers = new ArrayList<>();
+        this.untrackedPlayers = Sets.newConcurrentHashSet();
         this.shipSubspace = new ImplSubspace(this);
         this.physicsControllers = Sets.newConcurrentHashSet();
         this.physicsControllersImmutable = Collections.unmodifiableSet(this.physicsControllers);
-        this.blockPositionsGameTick = new TIntArrayList();
         this.cachedSurroundingChunks = new SurroundingChunkCacheController(this);
+        this.chunkStreamer = new ShipChunkStreamer(this);
         this.voxelFieldAABBMaker = null;
+        this.blockIndex = null;
     }
 
     public void onSetBlockState(IBlockState oldState, IBlockState newState, BlockPos posAt) {
@@ -189,25 +188,16 @@ public class PhysicsObject implements ISubspaceProvider, IPhysicsEntity {
         boolean isNewAir = newState == null || newState.getBlock().equals(Blocks.AIR);
 
         if (isNewAir) {
-            boolean removed = getBlockPositions().remove(posAt);
+            blockIndex.removeBlock(posAt.getX(), posAt.getY(), posAt.getZ());
             voxelFieldAABBMaker.removeVoxel(posAt.getX(), posAt.getY(), posAt.getZ());
-            if (removed) {
-                this.blockPositionsGameTick.remove(this.getBlockPosToIntRelToShip(posAt));
-            }
         }
 
         if (isOldAir && !isNewAir) {
-            boolean isAdded = getBlockPositions().add(posAt);
+            blockIndex.addBlock(posAt.getX(), posAt.getY(), posAt.getZ());
             voxelFieldAABBMaker.addVoxel(posAt.getX(), posAt.getY(), posAt.getZ());
-            if (isAdded) {
-                this.blockPositionsGameTick.add(this.getBlockPosToIntRelToShip(posAt));
-            }
-
-            int chunkRelativeX = (posAt.getX() >> 4) - getOwnedChunks().minX();
-            int chunkRelativeZ = (posAt.getZ() >> 4) - getOwnedChunks().minZ();
         }
 
-        if (getBlockPositions().isEmpty()) {
+        if (blockIndex.isEmpty()) {
             destroy();
         }
 
@@ -231,6 +221,7 @@ public class PhysicsObject implements ISubspaceProvider, IPhysicsEntity {
             // onPlayerUntracking(wachingPlayer);
         }
         getWatchingPlayers().clear();
+        chunkStreamer.clear();
         ValkyrienSkiesMod.VS_CHUNK_MANAGER.removeRegisteredChunksForShip(getWrapperEntity());
         ValkyrienSkiesMod.VS_CHUNK_MANAGER.removeShipPosition(getWrapperEntity());
         ValkyrienSkiesMod.VS_CHUNK_MANAGER.removeShipNameRegistry(getWrapperEntity());
@@ -317,8 +308,9 @@ public class PhysicsObject implements ISubspaceProvider, IPhysicsEntity {
         assignChunkPhysicObject();
 
         setReferenceBlockPos(getOwnedChunks().regionCenter());
-        voxelFieldAABBMaker = new NaiveVoxelFieldAABBMaker(referenceBlockPos.getX(),
+        voxelFieldAABBMaker = new CountingVoxelFieldAABBMaker(referenceBlockPos.getX(),
             referenceBlockPos.getZ());
+        blockIndex = new ShipBlockIndex(referenceBlockPos.getX(), referenceBlockPos.getZ());
 
         setCenterCoord(new Vector(getReferenceBlockPos().getX() + .5,
             getReferenceBlockPos().getY() + .5,
@@ -329,58 +321,17 @@ public class PhysicsObject implements ISubspaceProvider, IPhysicsEntity {
         iter = detector.foundSet.iterator();
         BlockPos centerDifference = getReferenceBlockPos().subtract(centerInWorld);
 
-        MutableBlockPos oldPos = new MutableBlockPos();
-        MutableBlockPos newPos = new MutableBlockPos();
-
-        // First copy all the blocks from ship to world.
-        while (iter.hasNext()) {
-            int i = iter.next();
-            SpatialDetector.setPosWithRespectTo(i, centerInWorld, oldPos);
-            SpatialDetector.setPosWithRespectTo(i, centerInWorld, newPos);
-            newPos.setPos(newPos.getX() + centerDifference.getX(),
-                newPos.getY() + centerDifference.getY(),
-                newPos.getZ() + centerDifference.getZ());
-
-            MoveBlocks.copyBlockToPos(world(), oldPos, newPos, Optional.of(this));
-            voxelFieldAABBMaker.addVoxel(newPos.getX(), newPos.getY(), newPos.getZ());
-        }
-        this.physicsInfuserPos = this.physicsInfuserPos.add(centerDifference);
-
-        // First we destroy all the tile entities we copied.
-        iter = detector.foundSet.iterator();
+        // Move all the blocks from the world to the ship, one chunk section at a time. This also
+        // takes care of the tile entities, lighting, and sending the changes to clients.
+        BulkBlockMover blockMover = new BulkBlockMover(world(), centerDifference,
+            Optional.of(this));
         while (iter.hasNext()) {
             int i = iter.next();
             SpatialDetector.setPosWithRespectTo(i, centerInWorld, pos);
-            TileEntity tile = world().getTileEntity(pos);
-            if (tile != null && !tile.isInvalid()) {
-                try {
-                    tile.invalidate();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-                try {
-                    world().removeTileEntity(pos);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // Then we destroy all the blocks we copied
-        iter = detector.foundSet.iterator();
-        while (iter.hasNext()) {
-            int i = iter.next();
-            SpatialDetector.setPosWithRespectTo(i, centerInWorld, pos);
-            world().setBlockState(pos, Blocks.AIR.getDefaultState(), 2);
-        }
-
-        // We NEED this to fix ship lighting. If this code was removed then ships would have lighting artifacts all
-        // over them.
-        for (int x = getOwnedChunks().minX(); x <= getOwnedChunks().maxX(); x++) {
-            for (int z = getOwnedChunks().minZ(); z <= getOwnedChunks().maxZ(); z++) {
-                claimedChunkCache.getChunkAt(x, z).checkLight();
-            }
+            blockMover.addBlock(pos.getX(), pos.getY(), pos.getZ());
         }
+        blockMover.moveBlocks(true);
+        this.physicsInfuserPos = this.physicsInfuserPos.add(centerDifference);
 
         getWrapperEntity().posX += .5;
         getWrapperEntity().posY += .5;
@@ -395,18 +346,27 @@ public class PhysicsObject implements ISubspaceProvider, IPhysicsEntity {
 
     public void preloadNewPlayers() {
         Set<EntityPlayerMP> newWatchers = getPlayersThatJustWatched();
-        for (Chunk[] chunkArray : claimedChunkCache.getCacheArray()) {
-            for (Chunk chunk : chunkArray) {
-                SPacketChunkData data = new SPacketChunkData(chunk, 65535);
-                for (EntityPlayerMP player : newWatchers) {
-                    player.connection.sendPacket(data);
-                    ((WorldServer) world()).getEntityTracker()
-                        .sendLeashedEntitiesInChunk(player, chunk);
-                }
-            }
+        // Only the closest chunks are sent right away, the rest follow over the next ticks.
+        for (EntityPlayerMP player : newWatchers) {
+            chunkStreamer.addPlayer(player);
         }
     }
 
+    /**
+     * Called on the client when a chunk in the claim of this ship gets loaded. The server sends
+     * the chunks of a ship after the ship itself, so the chunk replaces the empty one the ship was
+     * made with.
+     */
+    public void onClaimedChunkLoad(Chunk chunk) {
+        if (claimedChunkCache == null || !getOwnedChunks().containsChunk(chunk.x, chunk.z)) {
+            // Still loading the claimed chunks, they'll be picked up from the world.
+            return;
+        }
+        ((IPhysicsChunk) chunk).setParentPhysicsObject(Optional.of(this));
+        claimedChunkCache.setChunkAt(chunk.x, chunk.z, chunk);
+        getShipRenderer().onChunkReplaced(chunk.x, chunk.z);
+    }
+
     /**
      * TODO: Make this further get the player to stop all further tracking of those physObject
      *
@@ -414,6 +374,8 @@ public class PhysicsObject implements ISubspaceProvider, IPhysicsEntity {
      */
     public void onPlayerUntracking(EntityPlayer untracking) {
         getWatchingPlayers().remove(untracking);
+        untrackedPlayers.add((EntityPlayerMP) untracking);
+        chunkStreamer.removePlayer(untracking);
         for (int x = getOwnedChunks().minX(); x <= getOwnedChunks().maxX(); x++) {
             for (int z = getOwnedChunks().minZ(); z <= getOwnedChunks().maxZ(); z++) {
                 SPacketUnloadChunk unloadPacket = new SPacketUnloadChunk(x, z);
@@ -422,6 +384,23 @@ public class PhysicsObject implements ISubspaceProvider, IPhysicsEntity {
         }
     }
 
+    /**
+     * Removes and returns the players that stopped watching this ship since the last call. Only
+     * to be used by the physics thread.
+     */
+    public List<EntityPlayerMP> pollUntrackedPlayers() {
+        if (untrackedPlayers.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<EntityPlayerMP> polled = new ArrayList<>();
+        Iterator<EntityPlayerMP> iterator = untrackedPlayers.iterator();
+        while (iterator.hasNext()) {
+            polled.add(iterator.next());
+            iterator.remove();
+        }
+        return polled;
+    }
+
     /**
      * Called when this entity has been unloaded from the world
      */
@@ -457,6 +436,7 @@ public class PhysicsObject implements ISubspaceProvider, IPhysicsEntity {
 
     public void onTick() {
         if (!world().isRemote) {
+            boolean wasPhysicsEnabled = isPhysicsEnabled();
             TileEntity te = world().getTileEntity(this.physicsInfuserPos);
             boolean shouldDeconstructShip;
             if (te instanceof TileEntityPhysicsInfuser) {
@@ -475,6 +455,12 @@ public class PhysicsObject implements ISubspaceProvider, IPhysicsEntity {
                 setPhysicsEnabled(true);
             }
 
+            // Sleeping ships don't move, so they need to be woken up to align or to start
+            // falling again.
+            if (shipAligningToGrid || wasPhysicsEnabled != isPhysicsEnabled()) {
+                wakeUp();
+            }
+
             if (shouldDeconstructShip) {
                 this.tryToDeconstructShip();
             }
@@ -497,7 +483,7 @@ public class PhysicsObject implements ISubspaceProvider, IPhysicsEntity {
         WrapperPositionMessage toUse = getShipTransformationManager().serverBuffer
             .pollForClientTransform();
         if (toUse != null) {
-            toUse.applySmoothLerp(this, .6D);
+            toUse.applySmoothLerp(this, 1D);
         }
 
         getShipTransformationManager().updateAllTransforms(false, false, true);
@@ -514,8 +500,9 @@ public class PhysicsObject implements ISubspaceProvider, IPhysicsEntity {
 
         assignChunkPhysicObject();
         setReferenceBlockPos(getOwnedChunks().regionCenter());
-        voxelFieldAABBMaker = new NaiveVoxelFieldAABBMaker(referenceBlockPos.getX(),
+        voxelFieldAABBMaker = new CountingVoxelFieldAABBMaker(referenceBlockPos.getX(),
             referenceBlockPos.getZ());
+        blockIndex = new ShipBlockIndex(referenceBlockPos.getX(), referenceBlockPos.getZ());
         setShipTransformationManager(new ShipTransformationManager(this));
         if (!world().isRemote) {
             createPhysicsCalculations();
@@ -527,45 +514,38 @@ public class PhysicsObject implements ISubspaceProvider, IPhysicsEntity {
         // getgetShipTransformationManager().updateAllTransforms(false, false);
     }
 
-    // Generates the blockPos array; must be loaded DIRECTLY after the chunks are
+    // Generates the block index; must be loaded DIRECTLY after the chunks are
     // setup
     public void detectgetBlockPositions() {
-        // int minChunkX = claimedChunks[0][0].x;
-        // int minChunkZ = claimedChunks[0][0].z;
-        int chunkX, chunkZ, index, x, y, z;
-        Chunk chunk;
-        ExtendedBlockStorage storage;
         Chunk[][] claimedChunks = claimedChunkCache.getCacheArray();
-        int airStateIndex = Block.getStateId(Blocks.AIR.getDefaultState());
-
-        for (chunkX = claimedChunks.length - 1; chunkX > -1; chunkX--) {
-            for (chunkZ = claimedChunks[0].length - 1; chunkZ > -1; chunkZ--) {
-                chunk = claimedChunks[chunkX][chunkZ];
-                if (chunk != null) {
-                    for (index = 0; index < 16; index++) {
-                        storage = chunk.getBlockStorageArray()[index];
-                        if (storage != null) {
-                            for (y = 0; y < 16; y++) {
-                                for (x = 0; x < 16; x++) {
-                                    for (z = 0; z < 16; z++) {
-                                        if (storage.data.storage
-                                            .getAt(y << 8 | z << 4 | x)
-                                            != airStateIndex) {
-                                            BlockPos pos = new BlockPos(chunk.x * 16 + x,
-                                                index * 16 + y,
-                                                chunk.z * 16 + z);
-                                            getBlockPositions().add(pos);
-                                            blockPositionsGameTick
-                                                .add(this.getBlockPosToIntRelToShip(pos));
-                                            voxelFieldAABBMaker
-                                                .addVoxel(pos.getX(), pos.getY(), pos.getZ());
-                                            if (BlockPhysicsDetails.isBlockProvidingForce(
-                                                world().getBlockState(pos), pos, world())) {
-                                                getPhysicsProcessor()
-                                                    .addPotentialActiveForcePos(pos);
-                                            }
-                                        }
-                                    }
+        MutableBlockPos pos = new MutableBlockPos();
+
+        for (Chunk[] chunkArray : claimedChunks) {
+            for (Chunk chunk : chunkArray) {
+                if (chunk == null) {
+                    continue;
+                }
+                for (int index = 0; index < 16; index++) {
+                    ExtendedBlockStorage storage = chunk.getBlockStorageArray()[index];
+                    if (storage == Chunk.NULL_BLOCK_STORAGE) {
+                        continue;
+                    }
+                    for (int y = 0; y < 16; y++) {
+                        for (int z = 0; z < 16; z++) {
+                            for (int x = 0; x < 16; x++) {
+                                // Read the state straight from the storage, rather than looking
+                                // the chunk up again through the world.
+                                IBlockState state = storage.get(x, y, z);
+                                if (state.getBlock() == Blocks.AIR) {
+                                    continue;
+                                }
+                                pos.setPos(chunk.x << 4 | x, index << 4 | y, chunk.z << 4 | z);
+                                blockIndex.addBlock(pos.getX(), pos.getY(), pos.getZ());
+                                voxelFieldAABBMaker.addVoxel(pos.getX(), pos.getY(), pos.getZ());
+                                if (BlockPhysicsDetails
+                                    .isBlockProvidingForce(state, pos, world())) {
+                                    blockIndex
+                                        .setForceProvider(pos.getX(), pos.getY(), pos.getZ(), true);
                                 }
                             }
                         }
@@ -573,7 +553,6 @@ public class PhysicsObject implements ISubspaceProvider, IPhysicsEntity {
                 }
             }
         }
-
     }
 
     public boolean ownsChunk(int chunkX, int chunkZ) {
@@ -759,15 +738,6 @@ public class PhysicsObject implements ISubspaceProvider, IPhysicsEntity {
         return physicsControllersImmutable;
     }
 
-    private int getBlockPosToIntRelToShip(BlockPos pos) {
-        return SpatialDetector
-            .getHashWithRespectTo(pos.getX(), pos.getY(), pos.getZ(), this.referenceBlockPos);
-    }
-
-    void setBlockPosFromIntRelToShop(int pos, MutableBlockPos toSet) {
-        SpatialDetector.setPosWithRespectTo(pos, this.referenceBlockPos, toSet);
-    }
-
     /**
      * Returns true if this ship is aligned close enough to the grid that it is allowed to
      * deconstruct back to the world.
@@ -795,23 +765,20 @@ public class PhysicsObject implements ISubspaceProvider, IPhysicsEntity {
         }
 
         // We're pretty close to the grid; time 2 go.
-        MutableBlockPos newPos = new MutableBlockPos();
         BlockPos centerDifference = new BlockPos(
             Math.round(centerCoord.X - getWrapperEntity().posX),
             Math.round(centerCoord.Y - getWrapperEntity().posY),
             Math.round(centerCoord.Z - getWrapperEntity().posZ));
-        // First copy all the blocks from ship to world.
-
-        for (BlockPos oldPos : this.blockPositions) {
-            newPos.setPos(oldPos.getX() - centerDifference.getX(),
-                oldPos.getY() - centerDifference.getY(), oldPos.getZ() - centerDifference.getZ());
-            MoveBlocks.copyBlockToPos(world(), oldPos, newPos, Optional.empty());
-        }
-
-        // Just delete the tile entities in ship to prevent any dupe bugs.
-        for (BlockPos oldPos : this.blockPositions) {
-            world().removeTileEntity(oldPos);
-        }
+        // First copy all the blocks from ship to world. The tile entities in the ship are deleted
+        // to prevent any dupe bugs.
+        BulkBlockMover blockMover = new BulkBlockMover(world(), BlockPos.ORIGIN
+            .subtract(centerDifference), Optional.empty());
+        blockIndex.forEachBlock(packed -> {
+            blockMover.addBlock(blockIndex.getX(packed), blockIndex.getY(packed),
+                blockIndex.getZ(packed));
+            return true;
+        });
+        blockMover.moveBlocks(false);
 
         // Delete old blocks. TODO: Used to use EMPTYCHUNK to do this but that causes crashes?
         for (int x = getOwnedChunks().minX(); x <= getOwnedChunks().maxX(); x++) {
@@ -831,6 +798,32 @@ public class PhysicsObject implements ISubspaceProvider, IPhysicsEntity {
         return this.shipAligningToGrid;
     }
 
+    /**
+     * Wakes this ship up if it was sleeping. Should be called whenever something that the physics
+     * thread can't see by itself could make the ship move, like a change in the pilot's controls.
+     */
+    public void wakeUp() {
+        if (getPhysicsProcessor() != null) {
+            getPhysicsProcessor().wakeUp();
+        }
+    }
+
+    /**
+     * @return True if this ship is at rest and isn't being simulated.
+     */
+    public boolean isAsleep() {
+        return getPhysicsProcessor() != null && getPhysicsProcessor().isAsleep();
+    }
+
+    /**
+     * Sets the world bounding box of this ship, and moves it in the spatial index of ships.
+     */
+    public void setShipBoundingBox(AxisAlignedBB shipBoundingBox) {
+        this.shipBoundingBox = shipBoundingBox;
+        ValkyrienSkiesMod.VS_PHYSICS_MANAGER.getManagerForWorld(world())
+            .onShipBoundingBoxChanged(getWrapperEntity());
+    }
+
     // VS API Functions Begin:
     @Override
     public Vec3d rotateVector(Vec3d vector, TransformType transformType) {
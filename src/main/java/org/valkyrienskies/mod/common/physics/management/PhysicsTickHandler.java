@@ -74,6 +74,7 @@ public class PhysicsTickHandler {
         for (PhysicsWrapperEntity wrapperEnt : physicsEntities) {
             wrapperEnt.getPhysicsObject().onPostTick();
         }
+        manager.getShipChunkSender().tick();
     }
 
 }
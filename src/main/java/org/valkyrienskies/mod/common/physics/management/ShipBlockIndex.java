@@ -0,0 +1,223 @@
+package org.valkyrienskies.mod.common.physics.management;
+
+import gnu.trove.procedure.TIntProcedure;
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.BlockPos.MutableBlockPos;
+
+/**
+ * Keeps track of every non-air block of a ship, and of which of them can provide force.
+ * <p>
+ * Blocks are stored as bits in 16x16x16 section bitsets, and sections are only allocated once a
+ * block is added to them, so a ship costs 512 bytes per section that has blocks in it. Positions
+ * are handed out as packed ints relative to the center of the index, see {@link #pack(int, int,
+ * int)}. The index covers the same 1024x256x1024 field as the {@link
+ * org.valkyrienskies.mod.common.physics.collision.meshing.IVoxelFieldAABBMaker}.
+ * <p>
+ * Blocks must only be added and removed from the game thread. The force providers can be read
+ * from any thread with {@link #getForceProviders()}.
+ */
+public class ShipBlockIndex {
+
+    private static final int FIELD_RADIUS = 512;
+    private static final int COLUMNS_LENGTH = (FIELD_RADIUS * 2) >> 4;
+
+    private final int centerX, centerZ;
+    // Indexed by the 16x16 column of the block, and then by its 16 high section.
+    private final long[][][] sections;
+    private final TIntSet forceProviders;
+    // Rebuilt from forceProviders whenever it has changed and somebody asks for it.
+    private volatile BlockPos[] forceProvidersSnapshot;
+    private int blockCount;
+
+    public ShipBlockIndex(int centerX, int centerZ) {
+        this.centerX = centerX;
+        this.centerZ = centerZ;
+        this.sections = new long[COLUMNS_LENGTH * COLUMNS_LENGTH][][];
+        this.forceProviders = new TIntHashSet();
+        this.forceProvidersSnapshot = new BlockPos[0];
+        this.blockCount = 0;
+    }
+
+    /**
+     * Packs a block position into 28 bits, 10 for x, 10 for z and 8 for y.
+     *
+     * @throws IllegalArgumentException If the position isn't inside of the index.
+     */
+    public int pack(int x, int y, int z) throws IllegalArgumentException {
+        int localX = x - centerX + FIELD_RADIUS;
+        int localZ = z - centerZ + FIELD_RADIUS;
+        if (localX < 0 || localX >= FIELD_RADIUS * 2 || y < 0 || y > 255 || localZ < 0
+            || localZ >= FIELD_RADIUS * 2) {
+            throw new IllegalArgumentException(
+                x + ":" + y + ":" + z + " is out of range from " + centerX + ":" + centerZ);
+        }
+        return localX | localZ << 10 | y << 20;
+    }
+
+    /**
+     * Sets toSet to the block position that was packed by {@link #pack(int, int, int)}.
+     */
+    public void unpack(int packed, MutableBlockPos toSet) {
+        toSet.setPos(getX(packed), getY(packed), getZ(packed));
+    }
+
+    public int getX(int packed) {
+        return (packed & 1023) + centerX - FIELD_RADIUS;
+    }
+
+    public int getY(int packed) {
+        return packed >>> 20;
+    }
+
+    public int getZ(int packed) {
+        return ((packed >> 10) & 1023) + centerZ - FIELD_RADIUS;
+    }
+
+    /**
+     * @return True if the block wasn't in the index already.
+     */
+    public boolean addBlock(int x, int y, int z) {
+        int packed = pack(x, y, z);
+        long[][] column = sections[getColumnIndex(packed)];
+        if (column == null) {
+            column = new long[16][];
+            sections[getColumnIndex(packed)] = column;
+        }
+        long[] section = column[y >> 4];
+        if (section == null) {
+            section = new long[64];
+            column[y >> 4] = section;
+        }
+        int bit = getBitIndex(packed);
+        if ((section[bit >> 6] & (1L << bit)) != 0) {
+            return false;
+        }
+        section[bit >> 6] |= 1L << bit;
+        blockCount++;
+        return true;
+    }
+
+    /**
+     * Removes a block, and stops it from being a force provider.
+     *
+     * @return True if the block was in the index.
+     */
+    public boolean removeBlock(int x, int y, int z) {
+        int packed = pack(x, y, z);
+        long[][] column = sections[getColumnIndex(packed)];
+        if (column == null || column[y >> 4] == null) {
+            return false;
+        }
+        long[] section = column[y >> 4];
+        int bit = getBitIndex(packed);
+        if ((section[bit >> 6] & (1L << bit)) == 0) {
+            return false;
+        }
+        section[bit >> 6] &= ~(1L << bit);
+        blockCount--;
+        setForceProvider(x, y, z, false);
+        return true;
+    }
+
+    public boolean containsBlock(int x, int y, int z) {
+        int packed = pack(x, y, z);
+        long[][] column = sections[getColumnIndex(packed)];
+        if (column == null || column[y >> 4] == null) {
+            return false;
+        }
+        int bit = getBitIndex(packed);
+        return (column[y >> 4][bit >> 6] & (1L << bit)) != 0;
+    }
+
+    public int size() {
+        return blockCount;
+    }
+
+    public boolean isEmpty() {
+        return blockCount == 0;
+    }
+
+    /**
+     * Runs the procedure on the packed position of every block, one section at a time.
+     *
+     * @return False if the procedure returned false and stopped the iteration early.
+     */
+    public boolean forEachBlock(TIntProcedure procedure) {
+        for (int columnIndex = 0; columnIndex < sections.length; columnIndex++) {
+            long[][] column = sections[columnIndex];
+            if (column == null) {
+                continue;
+            }
+            int columnBits = (columnIndex % COLUMNS_LENGTH) << 4
+                | (columnIndex / COLUMNS_LENGTH) << 14;
+            for (int sectionY = 0; sectionY < 16; sectionY++) {
+                long[] section = column[sectionY];
+                if (section == null) {
+                    continue;
+                }
+                for (int word = 0; word < 64; word++) {
+                    long bits = section[word];
+                    while (bits != 0) {
+                        int bit = (word << 6) | Long.numberOfTrailingZeros(bits);
+                        bits &= bits - 1;
+                        // The bit index is x, then z, then y, 4 bits each.
+                        int packed = columnBits | (bit & 15) | ((bit >> 4) & 15) << 10
+                            | (sectionY << 4 | bit >> 8) << 20;
+                        if (!procedure.execute(packed)) {
+                            return false;
+                        }
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sets whether the block at xyz can provide force to the ship.
+     */
+    public void setForceProvider(int x, int y, int z, boolean isForceProvider) {
+        int packed = pack(x, y, z);
+        synchronized (forceProviders) {
+            boolean changed =
+                isForceProvider ? forceProviders.add(packed) : forceProviders.remove(packed);
+            if (changed) {
+                forceProvidersSnapshot = null;
+            }
+        }
+    }
+
+    /**
+     * @return The positions of all the blocks that can provide force. Safe to call from any thread,
+     * do not modify the returned array.
+     */
+    public BlockPos[] getForceProviders() {
+        BlockPos[] snapshot = forceProvidersSnapshot;
+        if (snapshot != null) {
+            return snapshot;
+        }
+        synchronized (forceProviders) {
+            if (forceProvidersSnapshot == null) {
+                BlockPos[] positions = new BlockPos[forceProviders.size()];
+                int[] index = {0};
+                forceProviders.forEach(packed -> {
+                    positions[index[0]++] = new BlockPos(getX(packed), getY(packed),
+                        getZ(packed));
+                    return true;
+                });
+                forceProvidersSnapshot = positions;
+            }
+            return forceProvidersSnapshot;
+        }
+    }
+
+    private static int getColumnIndex(int packed) {
+        return ((packed & 1023) >> 4) + COLUMNS_LENGTH * (((packed >> 10) & 1023) >> 4);
+    }
+
+    private static int getBitIndex(int packed) {
+        return (packed & 15) | (packed >> 10 & 15) << 4 | (packed >> 20 & 15) << 8;
+    }
+}
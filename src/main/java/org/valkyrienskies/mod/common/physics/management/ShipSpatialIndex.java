@@ -0,0 +1,139 @@
+package org.valkyrienskies.mod.common.physics.management;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import net.minecraft.util.math.AxisAlignedBB;
+import org.valkyrienskies.mod.common.entity.PhysicsWrapperEntity;
+
+/**
+ * A grid of chunk columns that maps every column to the ships whose bounding boxes overlap it, so
+ * that finding the ships near a bounding box only looks at the ships in the columns it overlaps
+ * instead of at every ship in the world.
+ * <p>
+ * Ships have to be updated with {@link #update(PhysicsWrapperEntity, AxisAlignedBB)} whenever
+ * their bounding box changes. Thread safe.
+ */
+class ShipSpatialIndex {
+
+    // Ships spanning more columns than this are kept in a separate list that every query checks,
+    // rather than being added to every one of their columns.
+    private static final int MAX_CELLS_PER_SHIP = 256;
+    // Queries spanning more columns than this just check every ship.
+    private static final int MAX_CELLS_PER_QUERY = 256;
+
+    private final Long2ObjectMap<List<PhysicsWrapperEntity>> cells;
+    // The columns each ship is in, as {minX, minZ, maxX, maxZ}.
+    private final Map<PhysicsWrapperEntity, int[]> shipCells;
+    private final List<PhysicsWrapperEntity> oversizedShips;
+
+    ShipSpatialIndex() {
+        this.cells = new Long2ObjectOpenHashMap<>();
+        this.shipCells = new IdentityHashMap<>();
+        this.oversizedShips = new ArrayList<>();
+    }
+
+    private static long getCellKey(int cellX, int cellZ) {
+        return (long) cellX & 4294967295L | ((long) cellZ & 4294967295L) << 32;
+    }
+
+    /**
+     * Adds the ship if it isn't in the index yet, otherwise moves it to the columns overlapped by
+     * the given bounding box.
+     */
+    synchronized void update(PhysicsWrapperEntity ship, AxisAlignedBB boundingBox) {
+        int[] newRange = {
+            (int) Math.floor(boundingBox.minX) >> 4, (int) Math.floor(boundingBox.minZ) >> 4,
+            (int) Math.floor(boundingBox.maxX) >> 4, (int) Math.floor(boundingBox.maxZ) >> 4
+        };
+        int[] oldRange = shipCells.get(ship);
+        if (oldRange != null) {
+            if (oldRange[0] == newRange[0] && oldRange[1] == newRange[1]
+                && oldRange[2] == newRange[2] && oldRange[3] == newRange[3]) {
+                // Still in the same columns, which is usually the case.
+                return;
+            }
+            remove(ship);
+        }
+        shipCells.put(ship, newRange);
+        if (getCellCount(newRange[0], newRange[1], newRange[2], newRange[3])
+            > MAX_CELLS_PER_SHIP) {
+            oversizedShips.add(ship);
+            return;
+        }
+        for (int x = newRange[0]; x <= newRange[2]; x++) {
+            for (int z = newRange[1]; z <= newRange[3]; z++) {
+                List<PhysicsWrapperEntity> cell = cells.get(getCellKey(x, z));
+                if (cell == null) {
+                    cell = new ArrayList<>(1);
+                    cells.put(getCellKey(x, z), cell);
+                }
+                cell.add(ship);
+            }
+        }
+    }
+
+    synchronized void remove(PhysicsWrapperEntity ship) {
+        int[] range = shipCells.remove(ship);
+        if (range == null) {
+            return;
+        }
+        if (getCellCount(range[0], range[1], range[2], range[3]) > MAX_CELLS_PER_SHIP) {
+            oversizedShips.remove(ship);
+            return;
+        }
+        for (int x = range[0]; x <= range[2]; x++) {
+            for (int z = range[1]; z <= range[3]; z++) {
+                long key = getCellKey(x, z);
+                List<PhysicsWrapperEntity> cell = cells.get(key);
+                if (cell != null) {
+                    cell.remove(ship);
+                    if (cell.isEmpty()) {
+                        cells.remove(key);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Gives every ship in a column overlapped by the given bounding box to the consumer exactly
+     * once. The ships aren't guaranteed to actually intersect the bounding box.
+     */
+    synchronized void forEachCandidate(AxisAlignedBB boundingBox,
+        Consumer<PhysicsWrapperEntity> consumer) {
+        int minX = (int) Math.floor(boundingBox.minX) >> 4;
+        int minZ = (int) Math.floor(boundingBox.minZ) >> 4;
+        int maxX = (int) Math.floor(boundingBox.maxX) >> 4;
+        int maxZ = (int) Math.floor(boundingBox.maxZ) >> 4;
+        if (getCellCount(minX, minZ, maxX, maxZ) > MAX_CELLS_PER_QUERY) {
+            shipCells.keySet().forEach(consumer);
+            return;
+        }
+        oversizedShips.forEach(consumer);
+        for (int x = minX; x <= maxX; x++) {
+            for (int z = minZ; z <= maxZ; z++) {
+                List<PhysicsWrapperEntity> cell = cells.get(getCellKey(x, z));
+                if (cell == null) {
+                    continue;
+                }
+                for (PhysicsWrapperEntity ship : cell) {
+                    // A ship in several of these columns is only given for the first column it
+                    // shares with the query, so no set is needed to remove duplicates.
+                    int[] range = shipCells.get(ship);
+                    if (Math.max(range[0], minX) == x && Math.max(range[1], minZ) == z) {
+                        consumer.accept(ship);
+                    }
+                }
+            }
+        }
+    }
+
+    private static long getCellCount(int minX, int minZ, int maxX, int maxZ) {
+        return ((long) maxX - minX + 1) * ((long) maxZ - minZ + 1);
+    }
+}
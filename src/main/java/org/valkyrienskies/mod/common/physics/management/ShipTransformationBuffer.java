@@ -1,83 +1,251 @@
 package org.valkyrienskies.mod.common.physics.management;
 
-import java.util.LinkedList;
+import net.minecraft.util.math.AxisAlignedBB;
+import org.valkyrienskies.mod.common.config.VSConfig;
+import org.valkyrienskies.mod.common.coordinates.ShipTransform;
+import org.valkyrienskies.mod.common.math.Quaternion;
+import org.valkyrienskies.mod.common.math.Vector;
 import org.valkyrienskies.mod.common.network.WrapperPositionMessage;
+import valkyrienwarfare.api.TransformType;
 
 /**
- * Ideally this would smooth out data coming from the sever, but for now it mostly does nothing
- * aside from storing the previous transforms. May possibly add something here in the future.
+ * Smooths out the transforms sent from the server. Every transform is a snapshot of the ship at the
+ * physics tick in {@link WrapperPositionMessage#getRelativeTick()}, and the client plays them back
+ * a little behind the newest one, interpolating between the two snapshots around the playback
+ * tick. That way snapshots arriving late or in bursts don't make the ship stutter.
+ * <p>
+ * How far behind playback is depends on how often snapshots arrive and how much their arrival times
+ * jitter. If the snapshots stop coming the ship is extrapolated for a little while, and then held
+ * in place until the next one arrives.
+ * <p>
+ * The tick rates of the server are sent along with the snapshots, see {@link
+ * #setServerRates(int, int)}, since they don't have to match the config of the client.
+ * <p>
+ * Only to be used by the game thread.
  *
  * @author thebest108
  */
 public class ShipTransformationBuffer {
 
-    public static final int PACKET_BUFFER_SIZE = 50;
-    public static final int TRANSFORMS_SMOOTHED = 5;
-    public static final double TRANFORMATION_DELAY = .5D;
-    private final LinkedList<WrapperPositionMessage> transformations;
-    private final BezierWeightGenerator weightGenerator;
+    public static final int PACKET_BUFFER_SIZE = 32;
+    // Never play back further behind than this, no matter how bad the connection is.
+    private static final double MAX_DELAY_SECONDS = .5D;
+    // Never extrapolate further ahead of the newest snapshot than this.
+    private static final double MAX_EXTRAPOLATION_SECONDS = .25D;
+    // Snapshots further apart than this are considered to be from a different stream, and so the
+    // buffer starts over.
+    private static final double MAX_SNAPSHOT_GAP_SECONDS = 5D;
+    // The delay covers the usual time between snapshots plus this many times the jitter.
+    private static final double JITTER_MULTIPLIER = 2D;
+    // How much of the difference between the playback tick and where it should be is corrected
+    // every poll. If the difference is larger than MAX_DELAY_SECONDS playback jumps straight there.
+    private static final double CLOCK_CORRECTION = .1D;
+
+    // The physics ticks per second of the server.
+    private double ticksPerSecond;
+    // A ring buffer of snapshots ordered by their tick, starting at oldestIndex.
+    private final WrapperPositionMessage[] snapshots;
+    private int oldestIndex;
+    private int size;
+    // Measured from the snapshots as they arrive, in seconds.
+    private double snapshotInterval;
+    private double jitter;
+    private long newestArrivalNanos;
+    private boolean hasNewSnapshot;
+    // Where playback currently is, in physics ticks.
+    private double playbackTick;
+    private boolean isPlaying;
+    private long lastPollNanos;
+    private double lastSampledTick;
 
     public ShipTransformationBuffer() {
-        this.transformations = new LinkedList<WrapperPositionMessage>();
-        this.weightGenerator = new BezierWeightGenerator(TRANSFORMS_SMOOTHED);
+        // Only a guess until the server sends its rates with the first snapshot.
+        this(VSConfig.physicsTicksPerSecond, VSConfig.shipPositionUpdateRate);
+    }
+
+    ShipTransformationBuffer(double ticksPerSecond, double positionUpdateRate) {
+        this.ticksPerSecond = ticksPerSecond;
+        this.snapshots = new WrapperPositionMessage[PACKET_BUFFER_SIZE];
+        this.oldestIndex = 0;
+        this.size = 0;
+        // Start out assuming the send rate of the server and a perfect connection.
+        this.snapshotInterval = 1D / positionUpdateRate;
+        this.jitter = 0;
+        this.hasNewSnapshot = false;
+        this.isPlaying = false;
+        this.lastSampledTick = Double.NaN;
+    }
+
+    /**
+     * Must be called with the rates the server sent along with a snapshot, before pushing it.
+     * The ticks of the snapshots are converted to time with these.
+     */
+    public void setServerRates(int physicsTicksPerSecond, int positionUpdateRate) {
+        if (physicsTicksPerSecond != ticksPerSecond) {
+            // The ticks of the old snapshots can't be compared to the new ones.
+            clear();
+            ticksPerSecond = physicsTicksPerSecond;
+            snapshotInterval = 1D / positionUpdateRate;
+            jitter = 0;
+        }
     }
 
     public void pushMessage(WrapperPositionMessage toPush) {
-        transformations.push(new WrapperPositionMessage(toPush));
-        if (transformations.size() > PACKET_BUFFER_SIZE) {
-            transformations.removeLast();
+        pushMessage(toPush, System.nanoTime());
+    }
+
+    void pushMessage(WrapperPositionMessage toPush, long nowNanos) {
+        WrapperPositionMessage snapshot = new WrapperPositionMessage(toPush);
+        if (size != 0) {
+            int ticksSinceNewest = snapshot.getRelativeTick() - getNewest().getRelativeTick();
+            if (ticksSinceNewest <= 0 || ticksSinceNewest > MAX_SNAPSHOT_GAP_SECONDS
+                * ticksPerSecond) {
+                // Either the server restarted its tick count or this snapshot came out of
+                // nowhere, both ways the old snapshots are useless.
+                clear();
+            } else {
+                double expectedInterval = ticksSinceNewest / ticksPerSecond;
+                double actualInterval = (nowNanos - newestArrivalNanos) / 1e9D;
+                // Ships that don't move aren't sent, so don't let pauses count as the interval.
+                snapshotInterval +=
+                    (Math.min(expectedInterval, MAX_DELAY_SECONDS) - snapshotInterval) / 8;
+                jitter += (Math.min(Math.abs(actualInterval - expectedInterval),
+                    MAX_DELAY_SECONDS) - jitter) / 16;
+            }
+        }
+        if (size == PACKET_BUFFER_SIZE) {
+            removeOldest();
         }
+        snapshots[(oldestIndex + size) % PACKET_BUFFER_SIZE] = snapshot;
+        size++;
+        newestArrivalNanos = nowNanos;
+        hasNewSnapshot = true;
     }
 
+    /**
+     * @return The transform the ship should have right now, or null if it hasn't changed since the
+     * last time this was called.
+     */
     public WrapperPositionMessage pollForClientTransform() {
-        if (isSmoothTransformReady()) {
-            return generateSmoothTransform();
+        return pollForClientTransform(System.nanoTime());
+    }
+
+    WrapperPositionMessage pollForClientTransform(long nowNanos) {
+        if (size == 0) {
+            return null;
+        }
+        double delayTicks = getDelaySeconds() * ticksPerSecond;
+        // Where playback should be if the snapshots arrived perfectly on time.
+        double targetTick = getNewest().getRelativeTick()
+            + (nowNanos - newestArrivalNanos) / 1e9D * ticksPerSecond - delayTicks;
+        if (!isPlaying) {
+            playbackTick = targetTick;
+            isPlaying = true;
         } else {
+            playbackTick += (nowNanos - lastPollNanos) / 1e9D * ticksPerSecond;
+            double error = targetTick - playbackTick;
+            if (Math.abs(error) > MAX_DELAY_SECONDS * ticksPerSecond) {
+                playbackTick = targetTick;
+            } else {
+                playbackTick += error * CLOCK_CORRECTION;
+            }
+        }
+        lastPollNanos = nowNanos;
+
+        double sampleTick = Math.min(playbackTick,
+            getNewest().getRelativeTick() + MAX_EXTRAPOLATION_SECONDS * ticksPerSecond);
+        sampleTick = Math.max(sampleTick, getSnapshot(0).getRelativeTick());
+        if (!hasNewSnapshot && sampleTick == lastSampledTick) {
+            // Held in place, nothing to update.
             return null;
         }
+        hasNewSnapshot = false;
+        lastSampledTick = sampleTick;
+
+        // Only the snapshot right before the sample tick and the ones after it are still needed.
+        while (size > 2 && getSnapshot(1).getRelativeTick() <= sampleTick) {
+            removeOldest();
+        }
+        if (size == 1) {
+            return new WrapperPositionMessage(getSnapshot(0));
+        }
+        // Interpolate between the first two, or extrapolate from them if they're the only two
+        // and playback is already past the newest.
+        WrapperPositionMessage from = getSnapshot(0);
+        WrapperPositionMessage to = getSnapshot(1);
+        double timeStep = (sampleTick - from.getRelativeTick()) / (to.getRelativeTick() - from
+            .getRelativeTick());
+        return interpolate(from, to, timeStep);
     }
 
-    private boolean isSmoothTransformReady() {
-        return true; /*transformations.size() > TRANSFORMS_SMOOTHED;*/
+    /**
+     * @return How many seconds behind the newest snapshot playback should be.
+     */
+    double getDelaySeconds() {
+        return Math.min(MAX_DELAY_SECONDS, snapshotInterval + JITTER_MULTIPLIER * jitter);
     }
 
-    // Doesn't really do anything yet.
-    private WrapperPositionMessage generateSmoothTransform() {
-        return transformations.pollFirst();
-        /*
-        double[] weights = new double[TRANSFORMS_SMOOTHED];
-        ShipTransformationPacketHolder[] transforms = new ShipTransformationPacketHolder[TRANSFORMS_SMOOTHED];
-        for (int i = 0; i < TRANSFORMS_SMOOTHED; i++) {
-            weights[i] = weightGenerator.getTermWeight(.5, i);
-            transforms[i] = transformations.get(i);
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            snapshots[(oldestIndex + i) % PACKET_BUFFER_SIZE] = null;
         }
-        return transforms[0]; // new ShipTransformationPacketHolder(transforms, weights);
-        */
+        oldestIndex = 0;
+        size = 0;
+        isPlaying = false;
+        lastSampledTick = Double.NaN;
     }
 
-    private static class BezierWeightGenerator {
+    private WrapperPositionMessage getSnapshot(int index) {
+        return snapshots[(oldestIndex + index) % PACKET_BUFFER_SIZE];
+    }
 
-        private final int order;
+    private WrapperPositionMessage getNewest() {
+        return getSnapshot(size - 1);
+    }
 
-        BezierWeightGenerator(int order) {
-            this.order = order;
-        }
+    private void removeOldest() {
+        snapshots[oldestIndex] = null;
+        oldestIndex = (oldestIndex + 1) % PACKET_BUFFER_SIZE;
+        size--;
+    }
 
-        public double getTermWeight(double deltaTime, int term) {
-            return 2 * Math.pow(deltaTime, term) * Math.pow(1 - deltaTime, order - term)
-                * binomial(TRANSFORMS_SMOOTHED - 1, term);
-        }
+    /**
+     * Linearly interpolates the position and center of mass, and slerps the rotation. A timeStep
+     * above 1 extrapolates.
+     */
+    private static WrapperPositionMessage interpolate(WrapperPositionMessage from,
+        WrapperPositionMessage to, double timeStep) {
+        WrapperPositionMessage result = new WrapperPositionMessage(to);
+        result.setPosX(from.getPosX() + (to.getPosX() - from.getPosX()) * timeStep);
+        result.setPosY(from.getPosY() + (to.getPosY() - from.getPosY()) * timeStep);
+        result.setPosZ(from.getPosZ() + (to.getPosZ() - from.getPosZ()) * timeStep);
 
-        private int binomial(int n, int k) {
-            if (k > n - k) {
-                k = n - k;
-            }
-            int b = 1;
-            for (int i = 1, m = n; i <= k; i++, m--) {
-                b = b * m / i;
-            }
-            return b;
-        }
+        Quaternion fromRotation = ShipTransform
+            .createRotationTransform(from.getPitch(), from.getYaw(), from.getRoll())
+            .createRotationQuaternion(TransformType.SUBSPACE_TO_GLOBAL);
+        Quaternion toRotation = ShipTransform
+            .createRotationTransform(to.getPitch(), to.getYaw(), to.getRoll())
+            .createRotationQuaternion(TransformType.SUBSPACE_TO_GLOBAL);
+        double[] radians = Quaternion.slerpInterpolate(fromRotation, toRotation, timeStep)
+            .toRadians();
+        result.setPitch(Math.toDegrees(radians[0]));
+        result.setYaw(Math.toDegrees(radians[1]));
+        result.setRoll(Math.toDegrees(radians[2]));
+
+        Vector fromCenter = from.getCenterOfMass();
+        Vector toCenter = to.getCenterOfMass();
+        result.setCenterOfMass(new Vector(fromCenter.X + (toCenter.X - fromCenter.X) * timeStep,
+            fromCenter.Y + (toCenter.Y - fromCenter.Y) * timeStep,
+            fromCenter.Z + (toCenter.Z - fromCenter.Z) * timeStep));
 
+        // The bounding box moves along with the ship.
+        AxisAlignedBB shipBB = to.getShipBB();
+        if (shipBB != null) {
+            result.setShipBB(shipBB.offset(result.getPosX() - to.getPosX(),
+                result.getPosY() - to.getPosY(), result.getPosZ() - to.getPosZ()));
+        }
+        result.setRelativeTick((int) Math.floor(from.getRelativeTick()
+            + (to.getRelativeTick() - from.getRelativeTick()) * timeStep));
+        return result;
     }
 }
@@ -1,10 +1,8 @@
 package org.valkyrienskies.mod.common.physics.management;
 
 import net.minecraft.entity.Entity;
-import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.util.math.AxisAlignedBB;
 import net.minecraft.world.border.WorldBorder;
-import org.valkyrienskies.mod.common.ValkyrienSkiesMod;
 import org.valkyrienskies.mod.common.coordinates.ShipTransform;
 import org.valkyrienskies.mod.common.entity.PhysicsWrapperEntity;
 import org.valkyrienskies.mod.common.math.Quaternion;
@@ -118,22 +116,17 @@ public class ShipTransformationManager {
         }
     }
 
-    public void sendPositionToPlayers(int positionTickID) {
-        WrapperPositionMessage posMessage = null;
+    /**
+     * @return A message with the latest position of the ship, to be sent to the players watching
+     * it.
+     */
+    public WrapperPositionMessage createPositionMessage(int positionTickID) {
         if (getCurrentPhysicsTransform() != ZERO_TRANSFORM) {
-            posMessage = new WrapperPositionMessage(
+            return new WrapperPositionMessage(
                 (PhysicsShipTransform) getCurrentPhysicsTransform(),
                 parent.getWrapperEntity().getEntityId(), positionTickID);
         } else {
-            posMessage = new WrapperPositionMessage(parent.getWrapperEntity(), positionTickID);
-        }
-
-        // Do a standard loop here to avoid a concurrentModificationException. A standard for each loop could cause a crash.
-        for (int i = 0; i < parent.getWatchingPlayers().size(); i++) {
-            EntityPlayerMP player = parent.getWatchingPlayers().get(i);
-            if (player != null) {
-                ValkyrienSkiesMod.physWrapperNetwork.sendTo(posMessage, player);
-            }
+            return new WrapperPositionMessage(parent.getWrapperEntity(), positionTickID);
         }
     }
 
@@ -8,10 +8,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
 import net.minecraft.util.math.AxisAlignedBB;
 import net.minecraft.world.World;
+import net.minecraft.world.WorldServer;
 import org.valkyrienskies.mod.common.entity.PhysicsWrapperEntity;
+import org.valkyrienskies.mod.common.physics.management.chunkcache.ShipChunkSender;
 import org.valkyrienskies.mod.common.physmanagement.chunk.VSChunkClaim;
+import org.valkyrienskies.mod.common.physmanagement.interaction.ShipRiderTracker;
 
 /**
  * This class essentially handles all the issues with ticking and handling physics objects in the
@@ -24,11 +28,33 @@ public class WorldPhysObjectManager {
     public final World worldObj;
     public final Set<PhysicsWrapperEntity> physicsEntities;
     private final Long2ObjectMap<PhysicsWrapperEntity> chunkPosToPhysicsEntityMap;
+    // Used to find the ships near a bounding box without checking every ship.
+    private final ShipSpatialIndex shipSpatialIndex;
+    // Used to only drag the entities that are near ships.
+    private final ShipRiderTracker shipRiderTracker;
+    // Sends the chunks of ships to the players that start watching them. Null on the client.
+    private final ShipChunkSender shipChunkSender;
 
     public WorldPhysObjectManager(World toManage) {
         this.worldObj = toManage;
         this.physicsEntities = ConcurrentHashMap.newKeySet();
         this.chunkPosToPhysicsEntityMap = new Long2ObjectOpenHashMap<>();
+        this.shipSpatialIndex = new ShipSpatialIndex();
+        this.shipRiderTracker = new ShipRiderTracker(toManage);
+        this.shipChunkSender = toManage instanceof WorldServer ? new ShipChunkSender(
+            (WorldServer) toManage) : null;
+    }
+
+    public ShipRiderTracker getShipRiderTracker() {
+        return shipRiderTracker;
+    }
+
+    /**
+     * @return Null on the client.
+     */
+    @Nullable
+    public ShipChunkSender getShipChunkSender() {
+        return shipChunkSender;
     }
 
     /**
@@ -61,6 +87,7 @@ public class WorldPhysObjectManager {
             }
             for (PhysicsWrapperEntity caught : potentialMatches) {
                 physicsEntities.remove(caught);
+                shipSpatialIndex.remove(caught);
                 caught.getPhysicsObject().onThisUnload();
                 // System.out.println("Caught one");
             }
@@ -68,6 +95,20 @@ public class WorldPhysObjectManager {
         loaded.isDead = false;
         loaded.getPhysicsObject().resetConsecutiveProperTicks();
         physicsEntities.add(loaded);
+        onShipBoundingBoxChanged(loaded);
+    }
+
+    /**
+     * Must be called whenever the bounding box of a ship changes, to keep the spatial index of
+     * ships up to date.
+     */
+    public void onShipBoundingBoxChanged(PhysicsWrapperEntity wrapper) {
+        if (physicsEntities.contains(wrapper)) {
+            // This .expand() is only needed on server side, which tells me something is wrong
+            // with server side bounding boxes
+            shipSpatialIndex.update(wrapper,
+                wrapper.getPhysicsObject().getShipBoundingBox().expand(2, 2, 2));
+        }
     }
 
     /**
@@ -86,6 +127,14 @@ public class WorldPhysObjectManager {
         }
     }
 
+    /**
+     * @return The ship whose claim contains the given chunk, or null if there is none.
+     */
+    @Nullable
+    public PhysicsWrapperEntity getShipClaimingChunk(int chunkX, int chunkZ) {
+        return chunkPosToPhysicsEntityMap.get(getLongFromInts(chunkX, chunkZ));
+    }
+
     public void onUnload(PhysicsWrapperEntity loaded) {
         if (!loaded.world.isRemote) {
             physicsEntities.remove(loaded);
@@ -104,6 +153,7 @@ public class WorldPhysObjectManager {
         }
         // Remove this ship from all our maps, we do not want to memory leak.
         this.physicsEntities.remove(loaded);
+        this.shipSpatialIndex.remove(loaded);
         List<Long> keysToRemove = new ArrayList();
         for (Map.Entry<Long, PhysicsWrapperEntity> entry : chunkPosToPhysicsEntityMap.entrySet()) {
             if (entry.getValue() == loaded) {
@@ -120,7 +170,8 @@ public class WorldPhysObjectManager {
         ArrayList<PhysicsWrapperEntity> ships = new ArrayList<PhysicsWrapperEntity>();
         AxisAlignedBB expandedCheck = toCheck.expand(6, 6, 6);
 
-        for (PhysicsWrapperEntity wrapper : physicsEntities) {
+        // Only the ships in the chunk columns around expandedCheck need to be checked.
+        shipSpatialIndex.forEachCandidate(expandedCheck, wrapper -> {
             // This .expand() is only needed on server side, which tells me something is wrong with server side bounding
             // boxes
             if (wrapper.getPhysicsObject()
@@ -130,7 +181,7 @@ public class WorldPhysObjectManager {
                 .intersects(expandedCheck)) {
                 ships.add(wrapper);
             }
-        }
+        });
 
         return ships;
     }
@@ -3,6 +3,7 @@ package org.valkyrienskies.mod.common.physics.management.chunkcache;
 import java.util.Map.Entry;
 import java.util.Optional;
 import lombok.extern.log4j.Log4j2;
+import net.minecraft.client.multiplayer.ChunkProviderClient;
 import net.minecraft.server.management.PlayerChunkMap;
 import net.minecraft.server.management.PlayerChunkMapEntry;
 import net.minecraft.tileentity.TileEntity;
@@ -130,6 +131,12 @@ public class ClaimedChunkCacheController {
                 // Added try catch to prevent ships deleting themselves because of a failed tile entity load.
                 try {
                     Chunk chunk = world.getChunk(x, z);
+                    if (world.isRemote && chunk.isEmpty()) {
+                        // The server sends the chunks of a ship over a few ticks after the ship,
+                        // and never sends the ones without blocks. Make a real chunk here so that
+                        // blocks can be placed in it, it's replaced if the server sends one.
+                        chunk = ((ChunkProviderClient) world.getChunkProvider()).loadChunk(x, z);
+                    }
                     // Do this to get it re-integrated into the world
                     if (!world.isRemote) {
                         injectChunkIntoWorld(chunk, x, z, false);
@@ -0,0 +1,129 @@
+package org.valkyrienskies.mod.common.physics.management.chunkcache;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.world.WorldServer;
+import org.valkyrienskies.mod.common.config.VSConfig;
+
+/**
+ * Sends the chunks queued by the {@link ShipChunkStreamer} of every ship in a world. Every player
+ * gets up to {@link VSConfig#shipChunkBytesPerTick} bytes of chunks every tick, no matter how
+ * many ships they started watching, closest chunks of any ship first.
+ * <p>
+ * The chunk packets made in a tick are shared by all the players that need them in that tick.
+ * Only to be used by the game thread of the server.
+ */
+public class ShipChunkSender {
+
+    private final WorldServer world;
+    private final Map<EntityPlayerMP, List<ShipChunkStreamer.PendingChunks>> pendingPlayers;
+    // The packets made this tick, by the position of their chunk. Ship chunks never overlap, so
+    // the position alone is enough.
+    private final Long2ObjectMap<ShipChunkStreamer.ChunkPacket> tickPackets;
+
+    public ShipChunkSender(WorldServer world) {
+        this.world = world;
+        this.pendingPlayers = new IdentityHashMap<>();
+        this.tickPackets = new Long2ObjectOpenHashMap<>();
+    }
+
+    /**
+     * Queues the chunks of a ship for the player, replacing the chunks of that ship already
+     * queued for them.
+     */
+    void addChunks(EntityPlayerMP player, ShipChunkStreamer.PendingChunks pending) {
+        List<ShipChunkStreamer.PendingChunks> playerPending = pendingPlayers
+            .computeIfAbsent(player, k -> new ArrayList<>());
+        removeChunks(playerPending, pending.streamer);
+        playerPending.add(pending);
+    }
+
+    void removeChunks(EntityPlayer player, ShipChunkStreamer streamer) {
+        List<ShipChunkStreamer.PendingChunks> playerPending = pendingPlayers.get(player);
+        if (playerPending != null) {
+            removeChunks(playerPending, streamer);
+            if (playerPending.isEmpty()) {
+                pendingPlayers.remove(player);
+            }
+        }
+    }
+
+    void removeStreamer(ShipChunkStreamer streamer) {
+        Iterator<List<ShipChunkStreamer.PendingChunks>> iterator = pendingPlayers.values()
+            .iterator();
+        while (iterator.hasNext()) {
+            List<ShipChunkStreamer.PendingChunks> playerPending = iterator.next();
+            removeChunks(playerPending, streamer);
+            if (playerPending.isEmpty()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Sends the next chunks to every player that's still waiting for some. Must be called once at
+     * the end of every tick.
+     */
+    public void tick() {
+        Iterator<Map.Entry<EntityPlayerMP, List<ShipChunkStreamer.PendingChunks>>> iterator =
+            pendingPlayers.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<EntityPlayerMP, List<ShipChunkStreamer.PendingChunks>> entry = iterator
+                .next();
+            if (entry.getKey().hasDisconnected() || sendChunks(entry.getKey(),
+                entry.getValue())) {
+                iterator.remove();
+            }
+        }
+        // The chunks could change before the next tick, make new packets then.
+        tickPackets.clear();
+    }
+
+    /**
+     * Sends the closest chunks of all the ships to the player until its budget for this tick runs
+     * out, always at least one.
+     *
+     * @return True if all of the chunks have been sent.
+     */
+    private boolean sendChunks(EntityPlayerMP player,
+        List<ShipChunkStreamer.PendingChunks> playerPending) {
+        int bytesSent = 0;
+        while (!playerPending.isEmpty()
+            && (bytesSent == 0 || bytesSent < VSConfig.shipChunkBytesPerTick)) {
+            // A player only watches a few ships at once, so just look at all of them.
+            int closestIndex = 0;
+            for (int i = 1; i < playerPending.size(); i++) {
+                if (playerPending.get(i).nextDistanceSq()
+                    < playerPending.get(closestIndex).nextDistanceSq()) {
+                    closestIndex = i;
+                }
+            }
+            ShipChunkStreamer.PendingChunks closest = playerPending.get(closestIndex);
+            long chunkKey = closest.chunks[closest.next++];
+            ShipChunkStreamer.ChunkPacket chunkPacket = tickPackets.get(chunkKey);
+            if (chunkPacket == null) {
+                chunkPacket = closest.streamer.makeChunkPacket(chunkKey);
+                tickPackets.put(chunkKey, chunkPacket);
+            }
+            player.connection.sendPacket(chunkPacket.packet);
+            world.getEntityTracker().sendLeashedEntitiesInChunk(player, chunkPacket.chunk);
+            bytesSent += chunkPacket.size;
+            if (closest.next == closest.chunks.length) {
+                playerPending.remove(closestIndex);
+            }
+        }
+        return playerPending.isEmpty();
+    }
+
+    private static void removeChunks(List<ShipChunkStreamer.PendingChunks> playerPending,
+        ShipChunkStreamer streamer) {
+        playerPending.removeIf(pending -> pending.streamer == streamer);
+    }
+}
@@ -0,0 +1,166 @@
+package org.valkyrienskies.mod.common.physics.management.chunkcache;
+
+import java.util.Arrays;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.network.play.server.SPacketChunkData;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import org.valkyrienskies.mod.common.ValkyrienSkiesMod;
+import org.valkyrienskies.mod.common.coordinates.ShipTransform;
+import org.valkyrienskies.mod.common.math.Vector;
+import org.valkyrienskies.mod.common.physics.management.PhysicsObject;
+import org.valkyrienskies.mod.common.physmanagement.chunk.VSChunkClaim;
+import valkyrienwarfare.api.TransformType;
+
+/**
+ * Queues the chunks of a ship for the players that start watching it, so that they're sent a few
+ * at a time instead of all at once. The chunks are sent by the {@link ShipChunkSender} of the
+ * world, which shares one budget per player between all the ships. Chunks without any blocks
+ * aren't sent at all, the client makes those itself.
+ * <p>
+ * Only to be used by the game thread of the server.
+ */
+public class ShipChunkStreamer {
+
+    // The size of the biome array at the end of every full chunk packet.
+    private static final int BIOMES_SIZE = 256;
+
+    private final PhysicsObject parent;
+
+    public ShipChunkStreamer(PhysicsObject parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * Queues all the chunks of the ship that have blocks for the player, closest first. They're
+     * sent at the end of the tick.
+     */
+    public void addPlayer(EntityPlayerMP player) {
+        VSChunkClaim claim = parent.getOwnedChunks();
+        ShipTransform transform = parent.getShipTransformationManager() == null ? null
+            : parent.getShipTransformationManager().getCurrentTickTransform();
+        // Put the player in ship space, that's where the chunks are.
+        Vector playerPos = new Vector(player.posX, player.posY, player.posZ);
+        if (transform != null) {
+            transform.transform(playerPos, TransformType.GLOBAL_TO_SUBSPACE);
+        } else {
+            playerPos = new Vector(claim.regionCenter().getX(), 0, claim.regionCenter().getZ());
+        }
+        // The distances are measured to the centers of the chunks.
+        double playerX = playerPos.X - 8;
+        double playerZ = playerPos.Z - 8;
+
+        // Sorted by the squared distance in the upper 32 bits, and then by the chunk index.
+        long[] sortKeys = new long[claim.chunkLengthX() * claim.chunkLengthZ()];
+        long[] chunkKeys = new long[sortKeys.length];
+        int chunkCount = 0;
+        for (int x = claim.minX(); x <= claim.maxX(); x++) {
+            for (int z = claim.minZ(); z <= claim.maxZ(); z++) {
+                if (isEmpty(parent.getClaimedChunkCache().getChunkAt(x, z))) {
+                    continue;
+                }
+                double dx = (x << 4) - playerX;
+                double dz = (z << 4) - playerZ;
+                long distanceSq = (long) Math.min(Integer.MAX_VALUE, dx * dx + dz * dz);
+                sortKeys[chunkCount] = distanceSq << 32 | chunkCount;
+                chunkKeys[chunkCount] = ChunkPos.asLong(x, z);
+                chunkCount++;
+            }
+        }
+        if (chunkCount == 0) {
+            return;
+        }
+        Arrays.sort(sortKeys, 0, chunkCount);
+        long[] orderedChunks = new long[chunkCount];
+        int[] distancesSq = new int[chunkCount];
+        for (int i = 0; i < chunkCount; i++) {
+            orderedChunks[i] = chunkKeys[(int) sortKeys[i]];
+            distancesSq[i] = (int) (sortKeys[i] >>> 32);
+        }
+        getSender().addChunks(player, new PendingChunks(this, orderedChunks, distancesSq));
+    }
+
+    public void removePlayer(EntityPlayer player) {
+        getSender().removeChunks(player, this);
+    }
+
+    public void clear() {
+        if (!parent.world().isRemote) {
+            getSender().removeStreamer(this);
+        }
+    }
+
+    ChunkPacket makeChunkPacket(long chunkKey) {
+        Chunk chunk = parent.getClaimedChunkCache()
+            .getChunkAt((int) chunkKey, (int) (chunkKey >> 32));
+        return new ChunkPacket(chunk, new SPacketChunkData(chunk, 65535), getPacketSize(chunk));
+    }
+
+    private ShipChunkSender getSender() {
+        return ValkyrienSkiesMod.VS_PHYSICS_MANAGER.getManagerForWorld(parent.world())
+            .getShipChunkSender();
+    }
+
+    /**
+     * @return About how many bytes the full chunk packet of this chunk takes up.
+     */
+    private static int getPacketSize(Chunk chunk) {
+        int size = BIOMES_SIZE;
+        boolean hasSkyLight = chunk.getWorld().provider.hasSkyLight();
+        for (ExtendedBlockStorage storage : chunk.getBlockStorageArray()) {
+            if (storage != Chunk.NULL_BLOCK_STORAGE && !storage.isEmpty()) {
+                size += storage.getData().getSerializedSize();
+                size += storage.getBlockLight().getData().length;
+                if (hasSkyLight) {
+                    size += storage.getSkyLight().getData().length;
+                }
+            }
+        }
+        return size;
+    }
+
+    private static boolean isEmpty(Chunk chunk) {
+        for (ExtendedBlockStorage storage : chunk.getBlockStorageArray()) {
+            if (storage != Chunk.NULL_BLOCK_STORAGE && !storage.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static class PendingChunks {
+
+        final ShipChunkStreamer streamer;
+        // Chunk positions as longs, closest to the player first.
+        final long[] chunks;
+        // The squared distance from the player to each of the chunks.
+        final int[] distancesSq;
+        int next;
+
+        PendingChunks(ShipChunkStreamer streamer, long[] chunks, int[] distancesSq) {
+            this.streamer = streamer;
+            this.chunks = chunks;
+            this.distancesSq = distancesSq;
+            this.next = 0;
+        }
+
+        int nextDistanceSq() {
+            return distancesSq[next];
+        }
+    }
+
+    static class ChunkPacket {
+
+        final Chunk chunk;
+        final SPacketChunkData packet;
+        final int size;
+
+        ChunkPacket(Chunk chunk, SPacketChunkData packet, int size) {
+            this.chunk = chunk;
+            this.packet = packet;
+            this.size = size;
+        }
+    }
+}
@@ -5,6 +5,7 @@ import net.minecraft.util.math.AxisAlignedBB;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.ChunkCache;
 import net.minecraft.world.gen.ChunkProviderServer;
+import org.valkyrienskies.mod.common.physics.collision.WorldPhysicsCollider;
 import org.valkyrienskies.mod.common.physics.management.PhysicsObject;
 
 public class SurroundingChunkCacheController {
@@ -18,7 +19,9 @@ public class SurroundingChunkCacheController {
     }
 
     public void updateChunkCache() {
-        AxisAlignedBB cacheBB = physicsObject.getShipBoundingBox();
+        // Grown so that the world collision candidates around the ship are inside the cache.
+        AxisAlignedBB cacheBB = physicsObject.getShipBoundingBox()
+            .grow(3 + WorldPhysicsCollider.AABB_EXPANSION);
 
         // Check if all those surrounding chunks are loaded
         BlockPos min = new BlockPos(cacheBB.minX, Math.max(cacheBB.minY, 0), cacheBB.minZ);
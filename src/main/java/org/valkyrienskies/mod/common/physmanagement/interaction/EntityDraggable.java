@@ -6,10 +6,10 @@ import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.util.math.AxisAlignedBB;
 import net.minecraft.util.math.MathHelper;
 import net.minecraft.world.World;
+import org.valkyrienskies.mod.common.ValkyrienSkiesMod;
 import org.valkyrienskies.mod.common.coordinates.ShipTransform;
-import org.valkyrienskies.mod.common.entity.PhysicsWrapperEntity;
 import org.valkyrienskies.mod.common.math.Vector;
-import org.valkyrienskies.mod.common.physics.management.ShipTransformationManager;
+import org.valkyrienskies.mod.common.physics.management.WorldPhysObjectManager;
 import org.valkyrienskies.mod.common.util.EntityShipMountData;
 import org.valkyrienskies.mod.common.util.ValkyrienUtils;
 import valkyrienwarfare.api.TransformType;
@@ -23,36 +23,42 @@ import valkyrienwarfare.api.TransformType;
 public class EntityDraggable {
 
     /**
-     * Moves entities such that they move with the ship below them.
+     * Moves entities such that they move with the ship below them. Only the entities near ships,
+     * or still moving from having been on one, are looked at.
      */
     public static void tickAddedVelocityForWorld(World world) {
         try {
-            for (int i = 0; i < world.loadedEntityList.size(); i++) {
-                Entity e = world.loadedEntityList.get(i);
-                if (!(e instanceof PhysicsWrapperEntity) && !e.isDead) {
-                    IDraggable draggable = getDraggableFromEntity(e);
-
-                    if (draggable.getWorldBelowFeet() == null) {
-                        if (e.onGround) {
-                            draggable.getVelocityAddedToPlayer().zero();
-                            draggable.setYawDifVelocity(0);
-                        } else {
-                            if (e instanceof EntityPlayer) {
-                                EntityPlayer player = (EntityPlayer) e;
-                                if (player.isCreative() && player.capabilities.isFlying) {
-                                    draggable.getVelocityAddedToPlayer().multiply(.99D * .95D);
-                                    draggable.setYawDifVelocity(
-                                        draggable.getYawDifVelocity() * .95D * .95D);
-                                }
+            WorldPhysObjectManager manager = ValkyrienSkiesMod.VS_PHYSICS_MANAGER
+                .getManagerForWorld(world);
+            ShipRiderTracker riderTracker = manager.getShipRiderTracker();
+            List<Entity> entitiesToDrag = riderTracker
+                .updateEntitiesToDrag(manager.physicsEntities);
+            for (int i = 0; i < entitiesToDrag.size(); i++) {
+                Entity e = entitiesToDrag.get(i);
+                IDraggable draggable = getDraggableFromEntity(e);
+
+                if (draggable.getWorldBelowFeet() == null) {
+                    if (e.onGround) {
+                        draggable.getVelocityAddedToPlayer().zero();
+                        draggable.setYawDifVelocity(0);
+                    } else {
+                        if (e instanceof EntityPlayer) {
+                            EntityPlayer player = (EntityPlayer) e;
+                            if (player.isCreative() && player.capabilities.isFlying) {
+                                draggable.getVelocityAddedToPlayer().multiply(.99D * .95D);
+                                draggable.setYawDifVelocity(
+                                    draggable.getYawDifVelocity() * .95D * .95D);
                             }
                         }
                     }
-                    // Only run the added velocity code if there's a significant amount to add; or if we're standing on top of a ship.
-                    if (draggable.getVelocityAddedToPlayer()
-                        .lengthSq() > .01 || draggable.getWorldBelowFeet() != null) {
-                        addEntityVelocityFromShipBelow(e);
-                    }
-
+                }
+                // Only run the added velocity code if there's a significant amount to add; or if we're standing on top of a ship.
+                if (draggable.getVelocityAddedToPlayer()
+                    .lengthSq() > .01 || draggable.getWorldBelowFeet() != null) {
+                    addEntityVelocityFromShipBelow(e, riderTracker);
+                } else {
+                    // Nothing left to drag, it's picked up again when it gets near a ship.
+                    riderTracker.stopTracking(e);
                 }
             }
         } catch (Exception e) {
@@ -63,15 +69,13 @@ public class EntityDraggable {
     /**
      * Adds the ship below velocity to entity.
      */
-    private static void addEntityVelocityFromShipBelow(Entity entity) {
+    private static void addEntityVelocityFromShipBelow(Entity entity,
+        ShipRiderTracker riderTracker) {
         IDraggable draggable = EntityDraggable.getDraggableFromEntity(entity);
 
         EntityShipMountData mountData = ValkyrienUtils.getMountedShipAndPos(entity);
 
         if (draggable.getWorldBelowFeet() != null) {
-            ShipTransformationManager coordTransform = draggable.getWorldBelowFeet()
-                .getPhysicsObject().getShipTransformationManager();
-
             if (entity.world.isRemote && entity instanceof EntityPlayer) {
                 // EventsClient.updatePlayerMouseOver(entity);
             }
@@ -81,20 +85,20 @@ public class EntityDraggable {
             float prevYaw = entity.prevRotationYaw;
             float prevPitch = entity.prevRotationPitch;
 
-            Vector oldPos = new Vector(entity);
+            double oldPosX = entity.posX;
+            double oldPosY = entity.posY;
+            double oldPosZ = entity.posZ;
 
-            ShipTransform betweenTransform = new ShipTransform(
-                coordTransform.getPrevTickTransform(), coordTransform.getCurrentTickTransform());
+            // Shared by everything on this ship.
+            ShipTransform betweenTransform = riderTracker
+                .getTickMotion(draggable.getWorldBelowFeet());
             betweenTransform.transform(entity, TransformType.SUBSPACE_TO_GLOBAL);
 
-            Vector newPos = new Vector(entity);
-
             // Move the entity back to its old position, the added velocity will be used
             // afterwards
-            entity.setPosition(oldPos.X, oldPos.Y, oldPos.Z);
-            Vector addedVel = oldPos.getSubtraction(newPos);
-
-            draggable.setVelocityAddedToPlayer(addedVel);
+            draggable.getVelocityAddedToPlayer()
+                .setValue(entity.posX - oldPosX, entity.posY - oldPosY, entity.posZ - oldPosZ);
+            entity.setPosition(oldPosX, oldPosY, oldPosZ);
 
             entity.rotationYaw = rotYaw;
             entity.rotationPitch = rotPitch;
@@ -139,7 +143,7 @@ public class EntityDraggable {
                 draggable.getVelocityAddedToPlayer().zero();
             }
 
-            Vector velocityProper = new Vector(draggable.getVelocityAddedToPlayer());
+            Vector velocityProper = draggable.getVelocityAddedToPlayer();
             AxisAlignedBB originalBoundingBox = entity.getEntityBoundingBox();
             if (velocityProper.lengthSq() < 1000000) {
                 draggable.setVelocityAddedToPlayer(getVelocityProper(velocityProper, entity));
@@ -3,6 +3,7 @@ package org.valkyrienskies.mod.common.physmanagement.interaction;
 import net.minecraft.util.math.RayTraceResult;
 import net.minecraft.util.math.Vec3d;
 import org.valkyrienskies.mod.common.entity.PhysicsWrapperEntity;
+import org.valkyrienskies.mod.common.physics.collision.ShipExplosionOcclusion;
 
 public interface IWorldVS {
 
@@ -25,4 +26,11 @@ public interface IWorldVS {
     RayTraceResult rayTraceBlocksIgnoreShip(Vec3d vec31, Vec3d vec32, boolean stopOnLiquid,
         boolean ignoreBlockWithoutBoundingBox, boolean returnLastUncollidableBlock,
         PhysicsWrapperEntity toIgnore);
+
+    /**
+     * Sets the ships that can block the rays World.getBlockDensity() casts towards the explosion
+     * that is about to damage entities. Rays towards other explosions find their own ships. Set
+     * back to null once the explosion is done.
+     */
+    void setExplosionOcclusion(ShipExplosionOcclusion occlusion);
 }
@@ -0,0 +1,95 @@
+package org.valkyrienskies.mod.common.physmanagement.interaction;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import javax.annotation.Nullable;
+import net.minecraft.util.math.AxisAlignedBB;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.world.World;
+import org.valkyrienskies.mod.common.coordinates.ShipTransform;
+import org.valkyrienskies.mod.common.physics.collision.polygons.Polygon;
+import org.valkyrienskies.mod.common.physics.management.PhysicsObject;
+import org.valkyrienskies.mod.common.physmanagement.chunk.PhysicsChunkManager;
+import org.valkyrienskies.mod.common.util.ValkyrienUtils;
+import valkyrienwarfare.api.TransformType;
+
+/**
+ * Remembers which ship an entity query bounding box is in, and what that bounding box looks like
+ * in global space, for the rest of the tick. Blocks inside of ships (hoppers, mob AI, item pickup)
+ * keep asking for entities in the same boxes every tick, and each of those used to look up the
+ * ship and transform the box again.
+ * <p>
+ * Boxes that aren't anywhere near ship chunk space skip all of this and never enter the cache.
+ * Entries are only used while the ship still has the transform they were made with, and the whole
+ * cache is emptied once the world time moves on.
+ */
+public class ShipEntityQueryCache {
+
+    // Protects against mods that query lots of different boxes in a single tick.
+    private static final int MAX_ENTRIES = 4096;
+
+    private final World world;
+    private final Map<AxisAlignedBB, Entry> entries;
+    private long cacheTime;
+
+    public ShipEntityQueryCache(World world) {
+        this.world = world;
+        this.entries = new HashMap<>();
+        this.cacheTime = Long.MIN_VALUE;
+    }
+
+    /**
+     * @return The ship whose chunks the center of boundingBox is in, along with boundingBox
+     * transformed to global space. Null if the center isn't inside of a ship.
+     */
+    @Nullable
+    public synchronized Entry getShipQuery(AxisAlignedBB boundingBox) {
+        double centerX = (boundingBox.minX + boundingBox.maxX) / 2D;
+        double centerY = (boundingBox.minY + boundingBox.maxY) / 2D;
+        double centerZ = (boundingBox.minZ + boundingBox.maxZ) / 2D;
+        if (!PhysicsChunkManager.isLikelyShipChunk(MathHelper.floor(centerX) >> 4,
+            MathHelper.floor(centerZ) >> 4)) {
+            // Nowhere near ship chunks, which is the case for almost every query.
+            return null;
+        }
+        long worldTime = world.getTotalWorldTime();
+        if (worldTime != cacheTime || entries.size() >= MAX_ENTRIES) {
+            entries.clear();
+            cacheTime = worldTime;
+        }
+        Entry entry = entries.get(boundingBox);
+        if (entry != null && entry.transform == entry.ship.getShipTransformationManager()
+            .getCurrentTickTransform()) {
+            return entry;
+        }
+        Optional<PhysicsObject> physicsObject = ValkyrienUtils
+            .getPhysicsObject(world, new BlockPos(centerX, centerY, centerZ));
+        if (!physicsObject.isPresent()) {
+            // Not cached, the ship might finish loading later on in this tick.
+            entries.remove(boundingBox);
+            return null;
+        }
+        ShipTransform transform = physicsObject.get().getShipTransformationManager()
+            .getCurrentTickTransform();
+        Polygon poly = new Polygon(boundingBox, transform, TransformType.SUBSPACE_TO_GLOBAL);
+        entry = new Entry(physicsObject.get(), transform, poly.getEnclosedAABB());
+        entries.put(boundingBox, entry);
+        return entry;
+    }
+
+    public static class Entry {
+
+        public final PhysicsObject ship;
+        public final AxisAlignedBB boundingBoxInGlobal;
+        private final ShipTransform transform;
+
+        private Entry(PhysicsObject ship, ShipTransform transform,
+            AxisAlignedBB boundingBoxInGlobal) {
+            this.ship = ship;
+            this.transform = transform;
+            this.boundingBoxInGlobal = boundingBoxInGlobal;
+        }
+    }
+}
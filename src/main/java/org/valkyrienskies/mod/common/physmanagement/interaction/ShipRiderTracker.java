@@ -0,0 +1,99 @@
+package org.valkyrienskies.mod.common.physmanagement.interaction;
+
+import it.unimi.dsi.fastutil.objects.Reference2ObjectMap;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import net.minecraft.entity.Entity;
+import net.minecraft.world.World;
+import org.valkyrienskies.mod.common.coordinates.ShipTransform;
+import org.valkyrienskies.mod.common.entity.PhysicsWrapperEntity;
+import org.valkyrienskies.mod.common.physics.management.ShipTransformationManager;
+
+/**
+ * Keeps track of the entities in a world that could be dragged by a ship, so that {@link
+ * EntityDraggable} doesn't have to look at every entity in the world every tick. An entity is
+ * tracked while it's near the bounding box of a ship, and for as long as it keeps moving with the
+ * velocity it got from a ship after that.
+ * <p>
+ * Also remembers how every ship moved this tick, so that all of its riders share one transform.
+ * Only to be used by the game thread of its world.
+ */
+public class ShipRiderTracker {
+
+    // Entities further than this from the bounding box of a ship can't be standing on it, see
+    // WorldPhysObjectManager.getNearbyPhysObjects().
+    private static final double SHIP_REACH = 8;
+
+    private final World world;
+    private final Set<Entity> trackedEntities;
+    // The movement of each ship from its previous tick to this one.
+    private final Reference2ObjectMap<PhysicsWrapperEntity, ShipTransform> tickMotions;
+    private final List<Entity> entitiesToDrag;
+
+    public ShipRiderTracker(World world) {
+        this.world = world;
+        this.trackedEntities = new ReferenceOpenHashSet<>();
+        this.tickMotions = new Reference2ObjectOpenHashMap<>();
+        this.entitiesToDrag = new ArrayList<>();
+    }
+
+    /**
+     * Starts tracking the entities near the given ships, and forgets the entities that are gone.
+     * Must be called once at the start of every tick.
+     *
+     * @return The entities that might have to be dragged this tick. The list is reused every tick.
+     */
+    public List<Entity> updateEntitiesToDrag(Iterable<PhysicsWrapperEntity> ships) {
+        tickMotions.clear();
+        for (PhysicsWrapperEntity wrapper : ships) {
+            if (wrapper.isDead || !wrapper.getPhysicsObject().isFullyLoaded()) {
+                continue;
+            }
+            trackedEntities.addAll(world.getEntitiesWithinAABB(Entity.class,
+                wrapper.getPhysicsObject().getShipBoundingBox().grow(SHIP_REACH)));
+        }
+
+        entitiesToDrag.clear();
+        Iterator<Entity> iterator = trackedEntities.iterator();
+        while (iterator.hasNext()) {
+            Entity entity = iterator.next();
+            // Entities that were unloaded with their chunk aren't dead, but they're gone all the
+            // same.
+            if (entity instanceof PhysicsWrapperEntity || entity.isDead || entity.world != world
+                || !entity.addedToChunk) {
+                iterator.remove();
+            } else {
+                entitiesToDrag.add(entity);
+            }
+        }
+        return entitiesToDrag;
+    }
+
+    /**
+     * Stops tracking an entity that isn't on a ship and barely moves with one anymore. It's
+     * tracked again once it's near a ship.
+     */
+    public void stopTracking(Entity entity) {
+        trackedEntities.remove(entity);
+    }
+
+    /**
+     * @return The transform that moves things from where the ship was last tick to where it is
+     * now. Made once per tick and shared by everything riding the ship.
+     */
+    public ShipTransform getTickMotion(PhysicsWrapperEntity wrapper) {
+        ShipTransform tickMotion = tickMotions.get(wrapper);
+        if (tickMotion == null) {
+            ShipTransformationManager transformationManager = wrapper.getPhysicsObject()
+                .getShipTransformationManager();
+            tickMotion = new ShipTransform(transformationManager.getPrevTickTransform(),
+                transformationManager.getCurrentTickTransform());
+            tickMotions.put(wrapper, tickMotion);
+        }
+        return tickMotion;
+    }
+}
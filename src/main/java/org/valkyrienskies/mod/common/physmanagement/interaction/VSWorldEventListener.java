@@ -1,5 +1,7 @@
 package org.valkyrienskies.mod.common.physmanagement.interaction;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.entity.Entity;
@@ -12,16 +14,21 @@ import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.network.play.server.SPacketBlockBreakAnim;
 import net.minecraft.util.SoundCategory;
 import net.minecraft.util.SoundEvent;
+import net.minecraft.util.math.AxisAlignedBB;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.IWorldEventListener;
 import net.minecraft.world.World;
 import net.minecraft.world.chunk.Chunk;
 import org.valkyrienskies.fixes.IPhysicsChunk;
+import org.valkyrienskies.fixes.VSNetwork;
 import org.valkyrienskies.mod.common.ValkyrienSkiesMod;
 import org.valkyrienskies.mod.common.coordinates.CoordinateSpaceType;
 import org.valkyrienskies.mod.common.entity.EntityMountable;
 import org.valkyrienskies.mod.common.entity.PhysicsWrapperEntity;
 import org.valkyrienskies.mod.common.math.Vector;
+import org.valkyrienskies.mod.common.network.PhysWrapperPositionHandler;
+import org.valkyrienskies.mod.common.physics.PhysicsCalculations;
+import org.valkyrienskies.mod.common.physics.collision.WorldPhysicsCollider;
 import org.valkyrienskies.mod.common.physics.management.PhysicsObject;
 import org.valkyrienskies.mod.common.util.ValkyrienUtils;
 import valkyrienwarfare.api.TransformType;
@@ -44,9 +51,65 @@ public class VSWorldEventListener implements IWorldEventListener {
             physicsChunk.getPhysicsObjectOptional()
                 .get()
                 .onSetBlockState(oldState, newState, pos);
+        } else if (!worldIn.isRemote
+            && oldState.getMaterial().isSolid() != newState.getMaterial().isSolid()) {
+            // A world block became solid or stopped being solid, let the nearby ships know so
+            // they can update their collision candidates.
+            onWorldBlockSolidityChange(worldIn, pos);
         }
     }
 
+    /**
+     * Tells every ship whose collision candidates could include the world block at pos that it
+     * changed, and wakes the ships resting near it.
+     */
+    public static void onWorldBlockSolidityChange(World world, BlockPos pos) {
+        for (PhysicsCalculations physicsProcessor : getShipsNear(world, new AxisAlignedBB(pos))) {
+            physicsProcessor.getWorldCollision().onWorldBlockChange(pos);
+        }
+    }
+
+    /**
+     * Same as {@link #onWorldBlockSolidityChange(World, BlockPos)}, but for any number of blocks
+     * changed in one chunk section without going through the world, like by {@link
+     * org.valkyrienskies.mod.common.physmanagement.relocation.BulkBlockMover}.
+     */
+    public static void onWorldSectionChange(World world, int chunkX, int sectionY, int chunkZ) {
+        AxisAlignedBB sectionBB = new AxisAlignedBB(chunkX << 4, sectionY << 4, chunkZ << 4,
+            (chunkX << 4) + 16, (sectionY << 4) + 16, (chunkZ << 4) + 16);
+        for (PhysicsCalculations physicsProcessor : getShipsNear(world, sectionBB)) {
+            physicsProcessor.getWorldCollision().onWorldSectionChange(chunkX, sectionY, chunkZ);
+        }
+    }
+
+    /**
+     * @return The physics of the ships whose collision candidates could be inside changedBB. The
+     * ones resting close to it are woken up.
+     */
+    private static List<PhysicsCalculations> getShipsNear(World world, AxisAlignedBB changedBB) {
+        // getNearbyPhysObjects() only grows its boxes towards +x +y +z, so grow the box by the
+        // whole candidate margin to also find ships that have it behind their -x -y -z faces.
+        List<PhysicsWrapperEntity> nearbyShips = ValkyrienSkiesMod.VS_PHYSICS_MANAGER
+            .getManagerForWorld(world)
+            .getNearbyPhysObjects(changedBB.grow(WorldPhysicsCollider.CANDIDATE_REGION_MARGIN));
+        List<PhysicsCalculations> physicsProcessors = new ArrayList<>(nearbyShips.size());
+        for (PhysicsWrapperEntity wrapper : nearbyShips) {
+            PhysicsCalculations physicsProcessor = wrapper.getPhysicsObject()
+                .getPhysicsProcessor();
+            if (physicsProcessor == null) {
+                continue;
+            }
+            physicsProcessors.add(physicsProcessor);
+            if (wrapper.getPhysicsObject().getShipBoundingBox()
+                .grow(WorldPhysicsCollider.RESTING_CANDIDATE_REGION_MARGIN)
+                .intersects(changedBB)) {
+                // The ground under a sleeping ship could have been removed.
+                physicsProcessor.wakeUp();
+            }
+        }
+        return physicsProcessors;
+    }
+
     @Override
     public void notifyLightSet(BlockPos pos) { }
 
@@ -73,6 +136,10 @@ public class VSWorldEventListener implements IWorldEventListener {
     // TODO: Fix conflicts with EventsCommon.onEntityJoinWorldEvent()
     @Override
     public void onEntityAdded(Entity entity) {
+        if (entity instanceof EntityPlayerMP) {
+            // So that packets sent later in this tick already reach them.
+            VSNetwork.onPlayersChanged(worldObj);
+        }
         if (entity instanceof PhysicsWrapperEntity) {
             ValkyrienSkiesMod.VS_PHYSICS_MANAGER.onShipLoad((PhysicsWrapperEntity) entity);
         } else {
@@ -106,8 +173,14 @@ public class VSWorldEventListener implements IWorldEventListener {
 
     @Override
     public void onEntityRemoved(Entity entityIn) {
+        if (entityIn instanceof EntityPlayerMP) {
+            VSNetwork.onPlayersChanged(worldObj);
+        }
         if (entityIn instanceof PhysicsWrapperEntity) {
             ValkyrienSkiesMod.VS_PHYSICS_MANAGER.onShipUnload((PhysicsWrapperEntity) entityIn);
+            if (worldObj.isRemote) {
+                PhysWrapperPositionHandler.forgetShip(entityIn.getEntityId());
+            }
         }
     }
 
@@ -0,0 +1,307 @@
+package org.valkyrienskies.mod.common.physmanagement.relocation;
+
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.network.play.server.SPacketChunkData;
+import net.minecraft.server.management.PlayerChunkMapEntry;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.EnumSkyBlock;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import org.valkyrienskies.fixes.IPhysicsChunk;
+import org.valkyrienskies.mod.common.physics.management.PhysicsObject;
+import org.valkyrienskies.mod.common.physmanagement.interaction.VSWorldEventListener;
+
+/**
+ * Moves a whole set of blocks by the same offset, one chunk section at a time. Unlike {@link
+ * MoveBlocks#copyBlockToPos(World, BlockPos, BlockPos, Optional)}, the block states are copied
+ * straight between the {@link ExtendedBlockStorage} of the source and destination sections
+ * without looking up chunks for every block, tile entities are only looked at for blocks that can
+ * have one, and clients get a single chunk data packet per chunk holding every section that
+ * changed instead of one block change per block.
+ * <p>
+ * The source and destination blocks must not overlap, which is always true when moving between
+ * the world and the chunks claimed by a ship.
+ */
+public class BulkBlockMover {
+
+    private static final IBlockState AIR = Blocks.AIR.getDefaultState();
+
+    private final World world;
+    private final int offsetX, offsetY, offsetZ;
+    private final Optional<PhysicsObject> physicsObjectOptional;
+    // For every source chunk, a bitset per section of the blocks in it that have to be moved.
+    private final Long2ObjectMap<long[][]> sourceSections;
+    // The sections of every chunk that were changed, as a bit mask
+    private final Long2IntMap changedSections;
+    private final List<BlockPos> lightSources;
+
+    /**
+     * @param physicsObjectOptional The ship being assembled, should be empty when moving blocks
+     *                              from a ship back to the world.
+     */
+    public BulkBlockMover(World world, BlockPos offset,
+        Optional<PhysicsObject> physicsObjectOptional) {
+        this.world = world;
+        this.offsetX = offset.getX();
+        this.offsetY = offset.getY();
+        this.offsetZ = offset.getZ();
+        this.physicsObjectOptional = physicsObjectOptional;
+        this.sourceSections = new Long2ObjectOpenHashMap<>();
+        this.changedSections = new Long2IntOpenHashMap();
+        this.lightSources = new ArrayList<>();
+    }
+
+    /**
+     * Adds a block to be moved by {@link #moveBlocks(boolean)}.
+     */
+    public void addBlock(int x, int y, int z) {
+        if (y < 0 || y >= 256 || y + offsetY < 0 || y + offsetY >= 256) {
+            // Either not a valid block, or moving it would put it out of the world.
+            return;
+        }
+        long[][] sections = sourceSections
+            .computeIfAbsent(ChunkPos.asLong(x >> 4, z >> 4), k -> new long[16][]);
+        long[] section = sections[y >> 4];
+        if (section == null) {
+            section = new long[64];
+            sections[y >> 4] = section;
+        }
+        int index = getIndex(x & 15, y & 15, z & 15);
+        section[index >> 6] |= 1L << index;
+    }
+
+    /**
+     * Moves all the blocks that were added, along with their tile entities.
+     *
+     * @param clearSource If true the source blocks are replaced with air, otherwise only their
+     *                    tile entities are removed.
+     */
+    public void moveBlocks(boolean clearSource) {
+        List<BlockPos> tilePositions = new ArrayList<>();
+        Chunk destChunk = null;
+        int destSectionY = -1;
+
+        // First copy the block states, one source section at a time.
+        for (Long2ObjectMap.Entry<long[][]> entry : sourceSections.long2ObjectEntrySet()) {
+            long chunkKey = entry.getLongKey();
+            Chunk sourceChunk = world.getChunk(getChunkX(chunkKey), getChunkZ(chunkKey));
+            long[][] sections = entry.getValue();
+            for (int sectionY = 0; sectionY < 16; sectionY++) {
+                long[] section = sections[sectionY];
+                if (section == null) {
+                    continue;
+                }
+                ExtendedBlockStorage sourceStorage = sourceChunk.getBlockStorageArray()[sectionY];
+                if (sourceStorage == Chunk.NULL_BLOCK_STORAGE) {
+                    // Nothing but air in here, there is nothing to move.
+                    sections[sectionY] = null;
+                    continue;
+                }
+                for (int word = 0; word < 64; word++) {
+                    long bits = section[word];
+                    while (bits != 0) {
+                        int index = (word << 6) | Long.numberOfTrailingZeros(bits);
+                        bits &= bits - 1;
+                        int localX = index & 15;
+                        int localY = index >> 8;
+                        int localZ = (index >> 4) & 15;
+                        IBlockState state = sourceStorage.get(localX, localY, localZ);
+                        int x = (sourceChunk.x << 4 | localX) + offsetX;
+                        int y = (sectionY << 4 | localY) + offsetY;
+                        int z = (sourceChunk.z << 4 | localZ) + offsetZ;
+
+                        if (destChunk == null || destChunk.x != x >> 4 || destChunk.z != z >> 4) {
+                            destChunk = world.getChunk(x >> 4, z >> 4);
+                            destSectionY = -1;
+                        }
+                        ExtendedBlockStorage[] destStorages = destChunk.getBlockStorageArray();
+                        if (destStorages[y >> 4] == Chunk.NULL_BLOCK_STORAGE) {
+                            destStorages[y >> 4] = new ExtendedBlockStorage(y & ~15,
+                                world.provider.hasSkyLight());
+                        }
+                        ExtendedBlockStorage destStorage = destStorages[y >> 4];
+                        IBlockState oldState = destStorage.get(x & 15, y & 15, z & 15);
+                        BlockPos newPos = new BlockPos(x, y, z);
+                        if (oldState.getBlock().hasTileEntity(oldState)) {
+                            // Don't leave the tile entity of the replaced block behind.
+                            world.removeTileEntity(newPos);
+                        }
+                        destStorage.set(x & 15, y & 15, z & 15, state);
+                        if (destSectionY != y >> 4) {
+                            destSectionY = y >> 4;
+                            markSectionChanged(destChunk.x, destChunk.z, destSectionY);
+                        }
+
+                        // The ship keeps track of its blocks, mass and forces.
+                        physicsObjectOptional.ifPresent(physicsObject -> physicsObject
+                            .onSetBlockState(oldState, state, newPos));
+                        if (state.getBlock().hasTileEntity(state)) {
+                            tilePositions.add(newPos.add(-offsetX, -offsetY, -offsetZ));
+                        }
+                        if (state.getLightValue() > 0) {
+                            lightSources.add(newPos);
+                        }
+                    }
+                }
+            }
+        }
+
+        // Then move the tile entities over, now that the blocks they belong to are in place.
+        BlockPos.MutableBlockPos newPos = new BlockPos.MutableBlockPos();
+        for (BlockPos oldPos : tilePositions) {
+            TileEntity tile = world.getTileEntity(oldPos);
+            if (tile == null) {
+                continue;
+            }
+            newPos.setPos(oldPos.getX() + offsetX, oldPos.getY() + offsetY,
+                oldPos.getZ() + offsetZ);
+            MoveBlocks.copyTileEntity(world, tile, oldPos, newPos.toImmutable(),
+                physicsObjectOptional);
+        }
+        // And destroy the originals, so that nothing can be duped.
+        for (BlockPos oldPos : tilePositions) {
+            TileEntity tile = world.getTileEntity(oldPos);
+            if (tile != null && !tile.isInvalid()) {
+                try {
+                    tile.invalidate();
+                    world.removeTileEntity(oldPos);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        if (clearSource) {
+            clearSourceBlocks();
+        }
+        updateLightAndClients();
+        notifyNearbyShips();
+    }
+
+    private void clearSourceBlocks() {
+        for (Long2ObjectMap.Entry<long[][]> entry : sourceSections.long2ObjectEntrySet()) {
+            long chunkKey = entry.getLongKey();
+            Chunk sourceChunk = world.getChunk(getChunkX(chunkKey), getChunkZ(chunkKey));
+            long[][] sections = entry.getValue();
+            for (int sectionY = 0; sectionY < 16; sectionY++) {
+                long[] section = sections[sectionY];
+                if (section == null) {
+                    continue;
+                }
+                ExtendedBlockStorage sourceStorage = sourceChunk.getBlockStorageArray()[sectionY];
+                for (int word = 0; word < 64; word++) {
+                    long bits = section[word];
+                    while (bits != 0) {
+                        int index = (word << 6) | Long.numberOfTrailingZeros(bits);
+                        bits &= bits - 1;
+                        int localX = index & 15;
+                        int localY = index >> 8;
+                        int localZ = (index >> 4) & 15;
+                        if (sourceStorage.get(localX, localY, localZ).getLightValue() > 0) {
+                            lightSources.add(new BlockPos(sourceChunk.x << 4 | localX,
+                                sectionY << 4 | localY, sourceChunk.z << 4 | localZ));
+                        }
+                        sourceStorage.set(localX, localY, localZ, AIR);
+                    }
+                }
+                markSectionChanged(sourceChunk.x, sourceChunk.z, sectionY);
+            }
+        }
+    }
+
+    /**
+     * Fixes the lighting of every chunk that was changed, and sends the changed sections to the
+     * players watching them.
+     */
+    private void updateLightAndClients() {
+        for (Long2IntMap.Entry entry : changedSections.long2IntEntrySet()) {
+            long chunkKey = entry.getLongKey();
+            Chunk chunk = world.getChunk(getChunkX(chunkKey), getChunkZ(chunkKey));
+            // The storages were written to directly, so the height map is out of date.
+            chunk.generateSkylightMap();
+            if (physicsObjectOptional.isPresent() && physicsObjectOptional.get()
+                .ownsChunk(chunk.x, chunk.z)) {
+                // We NEED this to fix ship lighting, otherwise ships would have lighting
+                // artifacts all over them.
+                chunk.checkLight();
+            } else {
+                // Have the world recheck the light of this chunk over the next few ticks, like
+                // it does for freshly loaded chunks.
+                chunk.resetRelightChecks();
+            }
+            chunk.markDirty();
+        }
+        for (BlockPos pos : lightSources) {
+            world.checkLightFor(EnumSkyBlock.BLOCK, pos);
+        }
+
+        if (!(world instanceof WorldServer)) {
+            return;
+        }
+        for (Long2IntMap.Entry entry : changedSections.long2IntEntrySet()) {
+            long chunkKey = entry.getLongKey();
+            PlayerChunkMapEntry playerEntry = ((WorldServer) world).getPlayerChunkMap()
+                .getEntry(getChunkX(chunkKey), getChunkZ(chunkKey));
+            if (playerEntry != null && playerEntry.isSentToPlayers()) {
+                playerEntry.sendPacket(new SPacketChunkData(playerEntry.getChunk(),
+                    entry.getIntValue()));
+            }
+        }
+    }
+
+    /**
+     * The blocks were written straight into the sections, so the world never told the ships near
+     * them. Let them know which sections of the world changed so they can update their collision
+     * candidates.
+     */
+    private void notifyNearbyShips() {
+        if (world.isRemote) {
+            return;
+        }
+        for (Long2IntMap.Entry entry : changedSections.long2IntEntrySet()) {
+            long chunkKey = entry.getLongKey();
+            Chunk chunk = world.getChunk(getChunkX(chunkKey), getChunkZ(chunkKey));
+            if (((IPhysicsChunk) chunk).getPhysicsObjectOptional().isPresent()) {
+                // Part of a ship, not the world.
+                continue;
+            }
+            int sectionMask = entry.getIntValue();
+            for (int sectionY = 0; sectionY < 16; sectionY++) {
+                if ((sectionMask & 1 << sectionY) != 0) {
+                    VSWorldEventListener
+                        .onWorldSectionChange(world, chunk.x, sectionY, chunk.z);
+                }
+            }
+        }
+    }
+
+    private void markSectionChanged(int chunkX, int chunkZ, int sectionY) {
+        long chunkKey = ChunkPos.asLong(chunkX, chunkZ);
+        changedSections.put(chunkKey, changedSections.get(chunkKey) | 1 << sectionY);
+    }
+
+    // Same order as the block state array of ExtendedBlockStorage
+    private static int getIndex(int x, int y, int z) {
+        return y << 8 | z << 4 | x;
+    }
+
+    private static int getChunkX(long chunkKey) {
+        return (int) chunkKey;
+    }
+
+    private static int getChunkZ(long chunkKey) {
+        return (int) (chunkKey >> 32);
+    }
+}
@@ -0,0 +1,214 @@
+package org.valkyrienskies.mod.common.physmanagement.relocation;
+
+import gnu.trove.list.array.TIntArrayList;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+/**
+ * A {@link SpatialDetector} that finds the connected blocks with a scanline flood fill instead of
+ * a breadth first search. Every seed is first extended into a vertical run of valid blocks, and
+ * then only the columns next to that run are scanned for new seeds. Blocks are read straight from
+ * the {@link ExtendedBlockStorage} of their chunks, and visited blocks are tracked in a bitset
+ * over the hash space of {@link SpatialDetector} rather than in hash sets.
+ * <p>
+ * Detection stops as soon as {@link #maxSize} blocks were found, or as soon as {@link
+ * #cleanHouse} is set by {@link #isValidBlock(IBlockState)}, so huge structures and structures
+ * attached to bedrock are given up on early.
+ */
+public abstract class FloodFillDetector extends SpatialDetector {
+
+    // Same area as the ChunkCache of SpatialDetector, so the same blocks are found.
+    private static final int CHUNK_RANGE = 128;
+    // The bitset is split into pages of 16x16x16 blocks, that are only allocated once a block in
+    // them is visited. Most of the 512x256x512 hash space is never touched.
+    private static final int PAGES_X = maxRange >> 4;
+    private static final int PAGES_Y = 256 >> 4;
+    private static final int PAGES_Z = maxRange >> 4;
+
+    private final int minChunkX, minChunkZ, chunksLengthX, chunksLengthZ;
+    private final Chunk[] chunks;
+    private final long[][] visitedPages;
+    // Relative positions of the seeds left to fill, in x, y, z order.
+    private final TIntArrayList seeds;
+
+    public FloodFillDetector(BlockPos start, World worldIn, int maximum, boolean checkCorners) {
+        super(start, worldIn, maximum, checkCorners);
+        this.minChunkX = (start.getX() - CHUNK_RANGE) >> 4;
+        this.minChunkZ = (start.getZ() - CHUNK_RANGE) >> 4;
+        this.chunksLengthX = ((start.getX() + CHUNK_RANGE) >> 4) - minChunkX + 1;
+        this.chunksLengthZ = ((start.getZ() + CHUNK_RANGE) >> 4) - minChunkZ + 1;
+        this.chunks = new Chunk[chunksLengthX * chunksLengthZ];
+        this.visitedPages = new long[PAGES_X * PAGES_Y * PAGES_Z][];
+        this.seeds = new TIntArrayList();
+    }
+
+    /**
+     * @return True if the block should be part of the detected structure. Can set {@link
+     * #cleanHouse} to stop detecting.
+     */
+    public abstract boolean isValidBlock(IBlockState state);
+
+    @Override
+    public final boolean isValidExpansion(int x, int y, int z) {
+        return isValidBlock(getBlockState(x, y, z));
+    }
+
+    @Override
+    protected void calculateSpatialOccupation() {
+        // Like the breadth first search, the first block is always included.
+        int startX = maxRangeHalved;
+        int startY = firstBlock.getY();
+        int startZ = maxRangeHalved;
+        if (!visit(startX, startY, startZ)) {
+            return;
+        }
+        seeds.add(startX);
+        seeds.add(startY);
+        seeds.add(startZ);
+        int columnReach = corners ? 1 : 0;
+
+        while (!seeds.isEmpty()) {
+            int size = seeds.size();
+            int x = seeds.get(size - 3);
+            int y = seeds.get(size - 2);
+            int z = seeds.get(size - 1);
+            seeds.remove(size - 3, 3);
+
+            // Extend the seed into a vertical run.
+            int runMinY = y;
+            while (runMinY > 0 && canVisit(x, runMinY - 1, z)) {
+                if (!visit(x, --runMinY, z)) {
+                    return;
+                }
+            }
+            int runMaxY = y;
+            while (runMaxY < 255 && canVisit(x, runMaxY + 1, z)) {
+                if (!visit(x, ++runMaxY, z)) {
+                    return;
+                }
+            }
+            if (cleanHouse) {
+                return;
+            }
+
+            // Look for new runs in the columns next to this one. With corners, diagonal columns
+            // and the blocks diagonally above and below the run count as well.
+            for (int dx = -1; dx <= 1; dx++) {
+                for (int dz = -1; dz <= 1; dz++) {
+                    if ((dx == 0 && dz == 0) || (!corners && dx != 0 && dz != 0)) {
+                        continue;
+                    }
+                    if (!scanColumn(x + dx, z + dz, runMinY - columnReach,
+                        runMaxY + columnReach)) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Visits the first block of every run of valid blocks in the column between minY and maxY,
+     * and queues it as a seed.
+     *
+     * @return False if detection has to stop.
+     */
+    private boolean scanColumn(int x, int z, int minY, int maxY) {
+        if (x < 0 || x >= maxRange || z < 0 || z >= maxRange) {
+            return true;
+        }
+        boolean inRun = false;
+        for (int y = Math.max(0, minY); y <= Math.min(255, maxY); y++) {
+            if (isVisited(x, y, z)) {
+                inRun = false;
+                continue;
+            }
+            boolean valid = isValidExpansion(x + firstBlock.getX() - maxRangeHalved, y,
+                z + firstBlock.getZ() - maxRangeHalved);
+            if (cleanHouse) {
+                return false;
+            }
+            if (valid && !inRun) {
+                if (!visit(x, y, z)) {
+                    return false;
+                }
+                seeds.add(x);
+                seeds.add(y);
+                seeds.add(z);
+            }
+            inRun = valid;
+        }
+        return true;
+    }
+
+    /**
+     * @return True if the block at the given relative position wasn't visited yet and is valid.
+     */
+    private boolean canVisit(int x, int y, int z) {
+        return !isVisited(x, y, z) && isValidExpansion(x + firstBlock.getX() - maxRangeHalved, y,
+            z + firstBlock.getZ() - maxRangeHalved);
+    }
+
+    private boolean isVisited(int x, int y, int z) {
+        long[] page = visitedPages[getPageIndex(x, y, z)];
+        if (page == null) {
+            return false;
+        }
+        int bit = getBitIndex(x, y, z);
+        return (page[bit >> 6] & (1L << bit)) != 0;
+    }
+
+    /**
+     * Marks the block at the given relative position as found.
+     *
+     * @return False if there is no room left for it, in which case detection has to stop.
+     */
+    private boolean visit(int x, int y, int z) {
+        if (foundSet.size() >= maxSize) {
+            return false;
+        }
+        int pageIndex = getPageIndex(x, y, z);
+        if (visitedPages[pageIndex] == null) {
+            visitedPages[pageIndex] = new long[64];
+        }
+        int bit = getBitIndex(x, y, z);
+        visitedPages[pageIndex][bit >> 6] |= 1L << bit;
+        foundSet.add(y + maxRange * x + maxRangeSquared * z);
+        return true;
+    }
+
+    private static int getPageIndex(int x, int y, int z) {
+        return (x >> 4) + PAGES_X * ((y >> 4) + PAGES_Y * (z >> 4));
+    }
+
+    private static int getBitIndex(int x, int y, int z) {
+        return (x & 15) | (y & 15) << 4 | (z & 15) << 8;
+    }
+
+    /**
+     * Reads a block straight from the storage of its chunk. Blocks outside of the detection area
+     * are air.
+     */
+    protected IBlockState getBlockState(int x, int y, int z) {
+        int chunkX = (x >> 4) - minChunkX;
+        int chunkZ = (z >> 4) - minChunkZ;
+        if (y < 0 || y >= 256 || chunkX < 0 || chunkX >= chunksLengthX || chunkZ < 0
+            || chunkZ >= chunksLengthZ) {
+            return Blocks.AIR.getDefaultState();
+        }
+        Chunk chunk = chunks[chunkX + chunksLengthX * chunkZ];
+        if (chunk == null) {
+            chunk = worldObj.getChunk(chunkX + minChunkX, chunkZ + minChunkZ);
+            chunks[chunkX + chunksLengthX * chunkZ] = chunk;
+        }
+        ExtendedBlockStorage storage = chunk.getBlockStorageArray()[y >> 4];
+        if (storage == Chunk.NULL_BLOCK_STORAGE) {
+            return Blocks.AIR.getDefaultState();
+        }
+        return storage.get(x & 15, y & 15, z & 15);
+    }
+}
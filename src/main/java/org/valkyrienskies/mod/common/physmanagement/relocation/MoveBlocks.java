@@ -55,56 +55,58 @@ public class MoveBlocks {
                 .minZ();
         }
         // Now that we've copied the block to the position, copy the tile entity
-        copyTileEntityToPos(world, oldPos, newPos, physicsObjectOptional);
-    }
-
-    private static void copyTileEntityToPos(World world, BlockPos oldPos, BlockPos newPos,
-        Optional<PhysicsObject> physicsObjectOptional) {
-        // Make a copy of the tile entity at oldPos to newPos
         TileEntity worldTile = world.getTileEntity(oldPos);
         if (worldTile != null) {
-            NBTTagCompound tileEntNBT = new NBTTagCompound();
-            TileEntity newInstance;
-            if (worldTile instanceof IRelocationAwareTile) {
-                CoordinateSpaceType coordinateSpaceType =
-                    physicsObjectOptional.isPresent() ? CoordinateSpaceType.SUBSPACE_COORDINATES
-                        : CoordinateSpaceType.GLOBAL_COORDINATES;
+            copyTileEntity(world, worldTile, oldPos, newPos, physicsObjectOptional);
+        }
+    }
+
+    /**
+     * Makes a copy of the tile entity at oldPos to newPos.
+     */
+    static void copyTileEntity(World world, TileEntity worldTile, BlockPos oldPos,
+        BlockPos newPos, Optional<PhysicsObject> physicsObjectOptional) {
+        NBTTagCompound tileEntNBT = new NBTTagCompound();
+        TileEntity newInstance;
+        if (worldTile instanceof IRelocationAwareTile) {
+            CoordinateSpaceType coordinateSpaceType =
+                physicsObjectOptional.isPresent() ? CoordinateSpaceType.SUBSPACE_COORDINATES
+                    : CoordinateSpaceType.GLOBAL_COORDINATES;
 
-                ShipTransform transform = new ShipTransform(newPos.getX() - oldPos.getX(),
-                    newPos.getY() - oldPos.getY(), newPos.getZ() - oldPos.getZ());
+            ShipTransform transform = new ShipTransform(newPos.getX() - oldPos.getX(),
+                newPos.getY() - oldPos.getY(), newPos.getZ() - oldPos.getZ());
 
-                newInstance = ((IRelocationAwareTile) worldTile)
-                    .createRelocatedTile(newPos, transform, coordinateSpaceType);
+            newInstance = ((IRelocationAwareTile) worldTile)
+                .createRelocatedTile(newPos, transform, coordinateSpaceType);
+        } else {
+            tileEntNBT = worldTile.writeToNBT(tileEntNBT);
+            // Change the block position to be inside of the Ship
+            tileEntNBT.setInteger("x", newPos.getX());
+            tileEntNBT.setInteger("y", newPos.getY());
+            tileEntNBT.setInteger("z", newPos.getZ());
+            newInstance = TileEntity.create(world, tileEntNBT);
+        }
+        // Order the IVSNodeProvider to move by the given offset.
+        if (newInstance instanceof IVSNodeProvider) {
+            ((IVSNodeProvider) newInstance).shiftInternalData(newPos.subtract(oldPos));
+            if (physicsObjectOptional.isPresent()) {
+                ((IVSNodeProvider) newInstance)
+                    .getNode()
+                    .setParentPhysicsObject(physicsObjectOptional.get());
             } else {
-                tileEntNBT = worldTile.writeToNBT(tileEntNBT);
-                // Change the block position to be inside of the Ship
-                tileEntNBT.setInteger("x", newPos.getX());
-                tileEntNBT.setInteger("y", newPos.getY());
-                tileEntNBT.setInteger("z", newPos.getZ());
-                newInstance = TileEntity.create(world, tileEntNBT);
-            }
-            // Order the IVSNodeProvider to move by the given offset.
-            if (newInstance instanceof IVSNodeProvider) {
-                ((IVSNodeProvider) newInstance).shiftInternalData(newPos.subtract(oldPos));
-                if (physicsObjectOptional.isPresent()) {
-                    ((IVSNodeProvider) newInstance)
-                        .getNode()
-                        .setParentPhysicsObject(physicsObjectOptional.get());
-                } else {
-                    ((IVSNodeProvider) newInstance)
-                        .getNode()
-                        .setParentPhysicsObject(null);
-                }
+                ((IVSNodeProvider) newInstance)
+                    .getNode()
+                    .setParentPhysicsObject(null);
             }
+        }
 
-            try {
-                world.setTileEntity(newPos, newInstance);
-                physicsObjectOptional
-                    .ifPresent(physicsObject -> physicsObject.onSetTileEntity(newPos, newInstance));
-                newInstance.markDirty();
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+        try {
+            world.setTileEntity(newPos, newInstance);
+            physicsObjectOptional
+                .ifPresent(physicsObject -> physicsObject.onSetTileEntity(newPos, newInstance));
+            newInstance.markDirty();
+        } catch (Exception e) {
+            e.printStackTrace();
         }
     }
 
@@ -1,13 +1,11 @@
 package org.valkyrienskies.mod.common.physmanagement.relocation;
 
+import net.minecraft.block.state.IBlockState;
 import net.minecraft.util.math.BlockPos;
-import net.minecraft.util.math.BlockPos.MutableBlockPos;
 import net.minecraft.world.World;
 import org.valkyrienskies.mod.common.physics.BlockPhysicsDetails;
 
-public class ShipBlockPosFinder extends SpatialDetector {
-
-    private final MutableBlockPos mutablePos = new MutableBlockPos();
+public class ShipBlockPosFinder extends FloodFillDetector {
 
     public ShipBlockPosFinder(BlockPos start, World worldIn, int maximum, boolean checkCorners) {
         super(start, worldIn, maximum, checkCorners);
@@ -15,10 +13,8 @@ public class ShipBlockPosFinder extends SpatialDetector {
     }
 
     @Override
-    public boolean isValidExpansion(int x, int y, int z) {
-        mutablePos.setPos(x, y, z);
-        return !BlockPhysicsDetails.blocksToNotPhysicsInfuse
-            .contains(cache.getBlockState(mutablePos).getBlock());
+    public boolean isValidBlock(IBlockState state) {
+        return !BlockPhysicsDetails.blocksToNotPhysicsInfuse.contains(state.getBlock());
     }
 
 }
@@ -7,11 +7,10 @@ import net.minecraft.block.Block;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.init.Blocks;
 import net.minecraft.util.math.BlockPos;
-import net.minecraft.util.math.BlockPos.MutableBlockPos;
 import net.minecraft.world.World;
 import org.valkyrienskies.mod.common.config.VSConfig;
 
-public class ShipSpawnDetector extends SpatialDetector {
+public class ShipSpawnDetector extends FloodFillDetector {
 
     private static final Set<Block> blacklist = new CopyOnWriteArraySet<>();
 
@@ -33,8 +32,6 @@ public class ShipSpawnDetector extends SpatialDetector {
             .forEach(blacklist::add);
     }
 
-    private final MutableBlockPos mutablePos = new MutableBlockPos();
-
     ShipSpawnDetector(BlockPos start, World worldIn, int maximum, boolean checkCorners) {
         super(start, worldIn, maximum, checkCorners);
         // syncWithConfig();
@@ -42,9 +39,7 @@ public class ShipSpawnDetector extends SpatialDetector {
     }
 
     @Override
-    public boolean isValidExpansion(int x, int y, int z) {
-        mutablePos.setPos(x, y, z);
-        IBlockState state = cache.getBlockState(mutablePos);
+    public boolean isValidBlock(IBlockState state) {
         if (state.getBlock() == Blocks.BEDROCK) {
             cleanHouse = true;
             return false;
@@ -10,8 +10,8 @@ import net.minecraft.world.ChunkCache;
 import net.minecraft.world.World;
 
 /**
- * Used to efficiently detect a connected set of blocks TODO: Incorporate a scanline technique to
- * improve detection speed
+ * Used to efficiently detect a connected set of blocks. See {@link FloodFillDetector} for a faster
+ * scanline version used by the detectors that only look at block states.
  *
  * @author thebest108
  */
@@ -23,7 +23,8 @@ public abstract class SpatialDetector {
     public final TIntHashSet foundSet = new TIntHashSet(250);
     public final BlockPos firstBlock;
     public final MutableBlockPos tempPos = new MutableBlockPos();
-    public final ChunkCache cache;
+    // Made on first use, most detectors never need it.
+    private ChunkCache cache;
     public final World worldObj;
     public final int maxSize;
     public final boolean corners;
@@ -36,9 +37,18 @@ public abstract class SpatialDetector {
         worldObj = worldIn;
         maxSize = maximum;
         corners = checkCorners;
-        BlockPos minPos = new BlockPos(start.getX() - 128, 0, start.getZ() - 128);
-        BlockPos maxPos = new BlockPos(start.getX() + 128, 255, start.getZ() + 128);
-        cache = new ChunkCache(worldIn, minPos, maxPos, 0);
+    }
+
+    /**
+     * @return A cache of the chunks within 128 blocks of the first block.
+     */
+    public ChunkCache getCache() {
+        if (cache == null) {
+            BlockPos minPos = new BlockPos(firstBlock.getX() - 128, 0, firstBlock.getZ() - 128);
+            BlockPos maxPos = new BlockPos(firstBlock.getX() + 128, 255, firstBlock.getZ() + 128);
+            cache = new ChunkCache(worldObj, minPos, maxPos, 0);
+        }
+        return cache;
     }
 
     public static int getHashWithRespectTo(int realX, int realY, int realZ, BlockPos start) {
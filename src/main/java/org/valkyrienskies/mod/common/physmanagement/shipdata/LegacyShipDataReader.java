@@ -0,0 +1,142 @@
+package org.valkyrienskies.mod.common.physmanagement.shipdata;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.util.DefaultClassResolver;
+import com.esotericsoftware.kryo.util.MapReferenceResolver;
+import com.googlecode.cqengine.ConcurrentIndexedCollection;
+import com.googlecode.cqengine.attribute.MultiValueAttribute;
+import com.googlecode.cqengine.query.option.QueryOptions;
+import de.javakaffee.kryoserializers.UUIDSerializer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+import org.valkyrienskies.mod.common.ValkyrienSkiesMod;
+import org.valkyrienskies.mod.common.physmanagement.chunk.VSChunkClaim;
+
+/**
+ * Reads the ships out of a save from before {@link QueryableShipData} indexed ships by itself,
+ * when it was a CQEngine ConcurrentIndexedCollection written with Kryo.
+ * <p>
+ * That collection was saved along with its indexes, and those held the attributes of the old
+ * ShipData class: two lambdas and an anonymous class, none of which exist anymore. The lambdas
+ * had no fields, so they're read as nothing. The anonymous class is read as {@link
+ * LegacyChunksAttribute}, which has the same fields. ShipData itself is read as {@link
+ * LegacyShipData}, which has the fields ShipData had back then.
+ */
+class LegacyShipDataReader {
+
+    private static final String LEGACY_SHIP_DATA_CLASS =
+        "org.valkyrienskies.mod.common.physmanagement.shipdata.ShipData";
+    // The anonymous class of the old ShipData.CHUNKS attribute.
+    private static final String LEGACY_CHUNKS_ATTRIBUTE_CLASS = LEGACY_SHIP_DATA_CLASS + "$1";
+    // Every lambda class has this in its name.
+    private static final String LAMBDA_CLASS_MARKER = "$$Lambda$";
+
+    /**
+     * @throws RuntimeException If the data couldn't be read.
+     */
+    static List<ShipData> read(byte[] data) {
+        Kryo kryo = new Kryo(new LegacyClassResolver(), new MapReferenceResolver());
+        kryo.setInstantiatorStrategy(
+            new Kryo.DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
+        // Registered in the exact same order as back then, so the classes get the same ids.
+        ValkyrienSkiesMod.registerCollectionSerializers(kryo);
+        kryo.register(ConcurrentIndexedCollection.class);
+        kryo.register(LegacyShipData.class);
+        kryo.register(ShipPositionData.class);
+        kryo.register(VSChunkClaim.class);
+        kryo.register(HashSet.class);
+        kryo.register(UUID.class, new UUIDSerializer());
+        // Only found by name, never written by id.
+        kryo.register(LegacyLambda.class, new LegacyLambdaSerializer());
+        kryo.register(LegacyChunksAttribute.class);
+        kryo.setRegistrationRequired(false);
+
+        ConcurrentIndexedCollection<?> legacyShips = kryo
+            .readObject(new Input(data), ConcurrentIndexedCollection.class);
+        List<ShipData> ships = new ArrayList<>();
+        for (Object legacyShip : legacyShips) {
+            LegacyShipData legacy = (LegacyShipData) legacyShip;
+            ShipData ship = new ShipData.Builder()
+                .setName(legacy.name)
+                .setUUID(legacy.uuid)
+                .setChunkClaim(legacy.chunkClaim)
+                .build();
+            ship.positionData = legacy.positionData;
+            ships.add(ship);
+        }
+        return ships;
+    }
+
+    /**
+     * Finds the replacements for the classes of the old save that are gone.
+     */
+    private static class LegacyClassResolver extends DefaultClassResolver {
+
+        @Override
+        protected Class<?> getTypeByName(String className) {
+            if (className.contains(LAMBDA_CLASS_MARKER)) {
+                return LegacyLambda.class;
+            }
+            if (className.equals(LEGACY_CHUNKS_ATTRIBUTE_CLASS)) {
+                return LegacyChunksAttribute.class;
+            }
+            if (className.equals(LEGACY_SHIP_DATA_CLASS)) {
+                return LegacyShipData.class;
+            }
+            return super.getTypeByName(className);
+        }
+    }
+
+    /**
+     * Reads the lambdas of the old attributes as null. They had no fields, so there's nothing to
+     * read.
+     */
+    private static class LegacyLambdaSerializer extends Serializer<LegacyLambda> {
+
+        @Override
+        public void write(Kryo kryo, Output output, LegacyLambda object) {
+            throw new UnsupportedOperationException("Only used to read old saves");
+        }
+
+        @Override
+        public LegacyLambda read(Kryo kryo, Input input, Class<LegacyLambda> type) {
+            // Take the reference id Kryo made for this object, since null isn't given one.
+            kryo.reference(new LegacyLambda());
+            return null;
+        }
+    }
+
+    private static class LegacyLambda {
+
+    }
+
+    /**
+     * Has the fields the old ShipData had, in the same order.
+     */
+    static class LegacyShipData {
+
+        ShipPositionData positionData;
+        String name;
+        UUID uuid;
+        Set<Long> chunkLongs;
+        VSChunkClaim chunkClaim;
+    }
+
+    /**
+     * Stands in for the anonymous class of the old ShipData.CHUNKS attribute.
+     */
+    static class LegacyChunksAttribute extends MultiValueAttribute<LegacyShipData, Long> {
+
+        @Override
+        public Set<Long> getValues(LegacyShipData ship, QueryOptions queryOptions) {
+            return ship.chunkLongs;
+        }
+    }
+}
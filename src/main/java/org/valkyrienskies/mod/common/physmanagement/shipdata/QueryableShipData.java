@@ -4,11 +4,20 @@ import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 import com.google.common.collect.ImmutableList;
-import com.googlecode.cqengine.ConcurrentIndexedCollection;
-import com.googlecode.cqengine.index.hash.HashIndex;
-import com.googlecode.cqengine.index.unique.UniqueIndex;
-import com.googlecode.cqengine.query.Query;
-import com.googlecode.cqengine.resultset.ResultSet;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import lombok.extern.log4j.Log4j2;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.util.math.ChunkPos;
@@ -17,33 +26,45 @@ import org.valkyrienskies.mod.common.ValkyrienSkiesMod;
 import org.valkyrienskies.mod.common.entity.PhysicsWrapperEntity;
 import org.valkyrienskies.mod.common.util.ValkyrienUtils;
 
-import java.util.Iterator;
-import java.util.List;
-import java.util.Optional;
-import java.util.UUID;
-import java.util.stream.Stream;
-
-import static com.googlecode.cqengine.query.QueryFactory.equal;
-import static com.googlecode.cqengine.query.QueryFactory.startsWith;
-
 /**
- * A class that keeps track of ship data
+ * A class that keeps track of ship data. Ships are indexed by UUID, by every chunk they own, and
+ * by name, so none of the lookups have to look at every ship. Thread safe. Looking ships up by
+ * UUID or by chunk doesn't lock, since the physics threads do that all the time; everything else
+ * is synchronized.
+ * <p>
+ * On the server the ships are saved in a {@link ShipDataStore} opened by {@link
+ * #openStore(File)}, and every save only writes the ships that changed. The position data of the
+ * stored ships is only read from the store once a ship is looked up.
  */
+@Log4j2
 @MethodsReturnNonnullByDefault
 @SuppressWarnings("WeakerAccess")
 public class QueryableShipData implements Iterable<ShipData> {
 
-    // The key used to store/read the allShips collection from nbt.
-    private static final String NBT_STORAGE_KEY = ValkyrienSkiesMod.MOD_ID + "QueryableShipDataNBT";
+    // The key used to store/read the allShips list from nbt, if there is no store.
+    private static final String NBT_STORAGE_KEY = ValkyrienSkiesMod.MOD_ID + "ShipRegistryNBT";
+    // The key the old CQEngine collection was stored under, see LegacyShipDataReader.
+    private static final String LEGACY_NBT_STORAGE_KEY =
+        ValkyrienSkiesMod.MOD_ID + "QueryableShipDataNBT";
     // Where every ship data instance is stored, regardless if the corresponding PhysicsObject is
-    // loaded in the World or not.
-    private ConcurrentIndexedCollection<ShipData> allShips = new ConcurrentIndexedCollection<>();
-
-    public QueryableShipData() {
-        allShips.addIndex(HashIndex.onAttribute(ShipData.NAME));
-        allShips.addIndex(UniqueIndex.onAttribute(ShipData.UUID));
-        allShips.addIndex(UniqueIndex.onAttribute(ShipData.CHUNKS));
-    }
+    // loaded in the World or not. Only changed while synchronized.
+    private final Map<UUID, ShipData> allShips = new ConcurrentHashMap<>();
+    // Every chunk owned by a ship, as ChunkPos.asLong(), mapped to that ship. Only changed while
+    // synchronized.
+    private final Map<Long, ShipData> shipsByChunk = new ConcurrentHashMap<>();
+    private final ShipNameTrie shipsByName = new ShipNameTrie();
+    // The ships whose position data hasn't been read from the store yet.
+    private final Set<UUID> unloadedShips = ConcurrentHashMap.newKeySet();
+    // The ships that have to be written to the store on the next save.
+    private final Set<UUID> dirtyShips = new HashSet<>();
+    // The ships that have to be removed from the store on the next save.
+    private final Set<UUID> removedShips = new HashSet<>();
+    // Null until openStore() is called, and on the client.
+    private volatile ShipDataStore store;
+    // The file of the store, stays set after the store is closed.
+    private File storeFile;
+    // Old CQEngine ship data that couldn't be read, written back on every save so it isn't lost.
+    private byte[] unreadableLegacyData;
 
     /**
      * {@link ValkyrienUtils#getQueryableData(World)}
@@ -57,32 +78,35 @@ public class QueryableShipData implements Iterable<ShipData> {
      * @param newName The new name of the ship
      * @return True of the rename was successful, false if it wasn't.
      */
-    public boolean renameShip(ShipData data, String newName) {
-        Query<ShipData> query = equal(ShipData.NAME, newName);
-        if (allShips.retrieve(query).isEmpty()) {
+    public synchronized boolean renameShip(ShipData data, String newName) {
+        if (shipsByName.get(newName).isEmpty()) {
+            // Otherwise the position data would be lost when the ship is added back.
+            ensureLoaded(data);
+            // The name is indexed, so the ship has to be taken out of that index before it
+            // changes. The builder changes data itself.
+            if (data.getName() != null) {
+                shipsByName.remove(data);
+            }
             ShipData newData = new ShipData.Builder(data)
                 .setName(newName)
                 .build();
 
-            allShips.remove(data);
-            allShips.add(newData);
+            addShip(newData);
 
             return true;
         }
         return false;
     }
 
-    public Stream<ShipData> getShipsFromNameStartingWith(String startsWith) {
-        Query<ShipData> query = startsWith(ShipData.NAME, startsWith);
-
-        return allShips.retrieve(query).stream();
+    public synchronized Stream<ShipData> getShipsFromNameStartingWith(String startsWith) {
+        return ensureLoaded(shipsByName.getStartingWith(startsWith)).stream();
     }
 
     /**
      * Retrieves a list of all ships.
      */
-    public List<ShipData> getShips() {
-        return ImmutableList.copyOf(allShips);
+    public synchronized List<ShipData> getShips() {
+        return ImmutableList.copyOf(ensureLoaded(allShips.values()));
     }
 
     public Optional<ShipData> getShipFromChunk(int chunkX, int chunkZ) {
@@ -90,51 +114,33 @@ public class QueryableShipData implements Iterable<ShipData> {
     }
 
     public Optional<ShipData> getShipFromChunk(long chunkLong) {
-        Query<ShipData> query = equal(ShipData.CHUNKS, chunkLong);
-        ResultSet<ShipData> resultSet = allShips.retrieve(query);
-
-        if (resultSet.size() > 1) {
-            throw new IllegalStateException("How the heck did we get 2 or more ships both managing the chunk at " + chunkLong);
-        }
-        if (resultSet.isEmpty()) {
-            return Optional.empty();
-        } else {
-            return Optional.of(resultSet.uniqueResult());
-        }
+        return Optional.ofNullable(ensureLoaded(shipsByChunk.get(chunkLong)));
     }
 
     public Optional<ShipData> getShip(UUID uuid) {
-        Query<ShipData> query = equal(ShipData.UUID, uuid);
-        ResultSet<ShipData> resultSet = allShips.retrieve(query);
-
-        if (resultSet.isEmpty()) {
-            return Optional.empty();
-        } else {
-            return Optional.of(resultSet.uniqueResult());
-        }
+        return Optional.ofNullable(ensureLoaded(allShips.get(uuid)));
     }
 
     public Optional<ShipData> getShip(PhysicsWrapperEntity wrapperEntity) {
         return getShip(wrapperEntity.getPersistentID());
     }
 
-    public ShipData getOrCreateShip(PhysicsWrapperEntity wrapperEntity) {
+    public synchronized ShipData getOrCreateShip(PhysicsWrapperEntity wrapperEntity) {
         Optional<ShipData> data = getShip(wrapperEntity.getPersistentID());
         return data.orElseGet(() -> {
             ShipData shipData = new ShipData.Builder(wrapperEntity).build();
-            allShips.add(shipData);
+            addShip(shipData);
             return shipData;
         });
     }
 
-    public Optional<ShipData> getShipFromName(String name) {
-        Query<ShipData> query = equal(ShipData.NAME, name);
-        ResultSet<ShipData> shipDataResultSet = allShips.retrieve(query);
+    public synchronized Optional<ShipData> getShipFromName(String name) {
+        List<ShipData> ships = shipsByName.get(name);
 
-        if (shipDataResultSet.isEmpty()) {
+        if (ships.isEmpty()) {
             return Optional.empty();
         } else {
-            return Optional.of(shipDataResultSet.uniqueResult());
+            return Optional.of(ensureLoaded(ships.get(0)));
         }
     }
 
@@ -142,74 +148,289 @@ public class QueryableShipData implements Iterable<ShipData> {
         removeShip(wrapper.getPersistentID());
     }
 
-    public void removeShip(UUID uuid) {
-        Optional<ShipData> shipOptional = getShip(uuid);
+    public synchronized void removeShip(UUID uuid) {
+        ShipData ship = allShips.remove(uuid);
+        if (ship == null) {
+            return;
+        }
+        unloadedShips.remove(uuid);
+        dirtyShips.remove(uuid);
+        removedShips.add(uuid);
+        removeFromChunks(ship);
+        if (ship.getName() != null) {
+            shipsByName.remove(ship);
+        }
+    }
+
+    private void removeFromChunks(ShipData ship) {
+        for (long chunkLong : ship.getChunkLongs()) {
+            if (shipsByChunk.get(chunkLong) == ship) {
+                shipsByChunk.remove(chunkLong);
+            }
+        }
+    }
 
-        shipOptional.ifPresent(ship -> allShips.remove(ship));
+    /**
+     * Adds the ship, replacing any ship with the same UUID.
+     *
+     * @throws IllegalStateException If another ship already owns one of the chunks of this ship.
+     */
+    public synchronized void addShip(ShipData ship) {
+        long[] chunkLongs = ship.getChunkLongs();
+        checkChunksFree(ship, chunkLongs);
+        unloadedShips.remove(ship.getUUID());
+        removedShips.remove(ship.getUUID());
+        dirtyShips.add(ship.getUUID());
+        indexShip(ship, chunkLongs);
     }
 
-    public void addShip(ShipData ship) {
-        allShips.add(ship);
+    private void checkChunksFree(ShipData ship, long[] chunkLongs) {
+        for (long chunkLong : chunkLongs) {
+            ShipData owner = shipsByChunk.get(chunkLong);
+            if (owner != null && !owner.getUUID().equals(ship.getUUID())) {
+                throw new IllegalStateException(
+                    "How the heck did we get 2 or more ships both managing the chunk at "
+                        + chunkLong);
+            }
+        }
     }
 
-    public void addShip(PhysicsWrapperEntity wrapperEntity) {
-        Query<ShipData> query = equal(ShipData.UUID, wrapperEntity.getPersistentID());
+    /**
+     * Puts the ship in the indices, replacing the ship with the same UUID. The new ship is put in
+     * before the old one is taken out, so lookups that don't lock never miss it.
+     */
+    private void indexShip(ShipData ship, long[] chunkLongs) {
+        ShipData old = allShips.put(ship.getUUID(), ship);
+        for (long chunkLong : chunkLongs) {
+            shipsByChunk.put(chunkLong, ship);
+        }
+        if (old != null) {
+            if (old != ship) {
+                removeFromChunks(old);
+            }
+            if (old.getName() != null) {
+                shipsByName.remove(old);
+            }
+        }
+        if (ship.getName() != null) {
+            shipsByName.add(ship);
+        }
+    }
 
+    public synchronized void addShip(PhysicsWrapperEntity wrapperEntity) {
         // If this ship is already added, don't add it again?
-        if (allShips.retrieve(query).isEmpty()) {
+        if (!allShips.containsKey(wrapperEntity.getPersistentID())) {
             addShip(new ShipData.Builder(wrapperEntity).build());
         }
     }
 
-    public void updateShipPosition(PhysicsWrapperEntity wrapper) {
+    public synchronized void updateShipPosition(PhysicsWrapperEntity wrapper) {
         ShipData shipData = getOrCreateShip(wrapper);
         if (shipData.positionData == null) {
             shipData.positionData = new ShipPositionData(wrapper);
         }
         shipData.positionData.updateData(wrapper);
+        dirtyShips.add(shipData.getUUID());
+    }
+
+    /**
+     * Opens the store that ships are saved to from now on, and adds the ships in it. Ships that
+     * were already added, for example from an old save, take priority over the stored ones.
+     */
+    public synchronized void openStore(File file) {
+        closeStore();
+        ShipDataStore newStore = new ShipDataStore(file);
+        List<ShipData> storedShips;
+        try {
+            storedShips = newStore.open();
+        } catch (IOException e) {
+            // Keep saving to nbt instead.
+            log.error("Unable to open the ship data store " + file, e);
+            return;
+        }
+        store = newStore;
+        storeFile = file;
+        for (ShipData ship : storedShips) {
+            if (allShips.containsKey(ship.getUUID())
+                || removedShips.contains(ship.getUUID())) {
+                continue;
+            }
+            long[] chunkLongs = ship.getChunkLongs();
+            try {
+                checkChunksFree(ship, chunkLongs);
+            } catch (IllegalStateException e) {
+                e.printStackTrace();
+                continue;
+            }
+            // Nothing changed, the position data is just still in the store. Marked before the
+            // ship can be looked up, so nobody gets it without its position data.
+            unloadedShips.add(ship.getUUID());
+            indexShip(ship, chunkLongs);
+        }
+        log.debug("Loaded " + storedShips.size() + " ships from " + file);
+    }
+
+    /**
+     * Writes the unsaved changes to the store and closes it.
+     */
+    public synchronized void closeStore() {
+        if (store == null) {
+            return;
+        }
+        try {
+            saveToStore();
+            store.close();
+        } catch (IOException e) {
+            log.error("Unable to save the ship data store", e);
+        }
+        store = null;
+    }
+
+    private void saveToStore() throws IOException {
+        List<ShipData> changed = new ArrayList<>(dirtyShips.size());
+        for (UUID uuid : dirtyShips) {
+            changed.add(allShips.get(uuid));
+        }
+        store.write(changed, removedShips);
+        dirtyShips.clear();
+        removedShips.clear();
+    }
+
+    /**
+     * Reads the position data of the ship from the store, if it wasn't already. Only locks the
+     * store, and only the first time each ship is looked up.
+     */
+    private ShipData ensureLoaded(ShipData ship) {
+        ShipDataStore currentStore = store;
+        if (ship == null || currentStore == null || !unloadedShips.contains(ship.getUUID())) {
+            return ship;
+        }
+        synchronized (currentStore) {
+            // Another thread could have read it while this one was waiting.
+            if (unloadedShips.contains(ship.getUUID())) {
+                try {
+                    ship.positionData = currentStore.readPositionData(ship.getUUID());
+                } catch (IOException e) {
+                    log.error("Unable to read the position of ship " + ship.getName(), e);
+                }
+                unloadedShips.remove(ship.getUUID());
+            }
+        }
+        return ship;
     }
 
+    private <T extends Collection<ShipData>> T ensureLoaded(T ships) {
+        if (!unloadedShips.isEmpty()) {
+            for (ShipData ship : ships) {
+                ensureLoaded(ship);
+            }
+        }
+        return ships;
+    }
+
+    /**
+     * Only reads anything for saves that have no store yet; the ships are then moved into the
+     * store the first time the world is saved. Saves from before that, in the old CQEngine
+     * format, are converted once.
+     */
     @SuppressWarnings("unchecked")
-    public void readFromNBT(NBTTagCompound nbt) {
-        long start = System.currentTimeMillis();
+    public synchronized void readFromNBT(NBTTagCompound nbt) {
+        if (!nbt.hasKey(NBT_STORAGE_KEY)) {
+            if (nbt.hasKey(LEGACY_NBT_STORAGE_KEY)) {
+                readLegacyShips(nbt.getByteArray(LEGACY_NBT_STORAGE_KEY));
+            }
+            return;
+        }
 
         Kryo kryo = ValkyrienSkiesMod.INSTANCE.getKryo();
         Input input = new Input(nbt.getByteArray(NBT_STORAGE_KEY));
+        List<ShipData> ships;
+        // The store reads position data with the same Kryo, from the physics threads.
         try {
-            allShips = kryo.readObject(input, ConcurrentIndexedCollection.class);
+            synchronized (kryo) {
+                ships = kryo.readObject(input, ArrayList.class);
+            }
         } catch (Exception e) {
             // Error reading allShips from memory, just make a new empty one.
             e.printStackTrace();
-            allShips = new ConcurrentIndexedCollection<>();
+            ships = new ArrayList<>();
         }
-        if (allShips == null) {
+        if (ships == null) {
             // This should NEVER EVER happen! So I don't feel bad crashing the game, for now.
             throw new IllegalStateException(
                 "Kryo read allships as null! Making a new empty allships instance");
         }
+        for (ShipData ship : ships) {
+            try {
+                addShip(ship);
+            } catch (IllegalStateException e) {
+                // Don't lose every other ship because of one bad one.
+                e.printStackTrace();
+            }
+        }
+    }
 
-        System.out.println("Price of read: " + (System.currentTimeMillis() - start) + "ms");
+    private void readLegacyShips(byte[] legacyData) {
+        List<ShipData> ships;
+        try {
+            ships = LegacyShipDataReader.read(legacyData);
+        } catch (Exception e) {
+            log.error("Unable to read the ship data saved in the old CQEngine format, keeping "
+                + "it in the save as it is", e);
+            unreadableLegacyData = legacyData;
+            return;
+        }
+        for (ShipData ship : ships) {
+            try {
+                addShip(ship);
+            } catch (IllegalStateException e) {
+                log.error("Unable to convert ship " + ship.getName()
+                    + " from the old CQEngine format", e);
+            }
+        }
+        log.info("Converted " + ships.size() + " ships from the old CQEngine format");
     }
 
-    public NBTTagCompound writeToNBT(NBTTagCompound compound) {
-        long start = System.currentTimeMillis();
+    /**
+     * Writes the ships that changed since the last save to the store. Only if there is no store
+     * are all of the ships written to the nbt instead.
+     */
+    public synchronized NBTTagCompound writeToNBT(NBTTagCompound compound) {
+        if (unreadableLegacyData != null) {
+            compound.setByteArray(LEGACY_NBT_STORAGE_KEY, unreadableLegacyData);
+        }
+        if (store != null) {
+            try {
+                saveToStore();
+                return compound;
+            } catch (IOException e) {
+                log.error("Unable to save the ship data store, saving to nbt instead", e);
+            }
+        } else if (storeFile != null) {
+            // The store was closed along with the world, everything is already in it.
+            return compound;
+        }
 
         Kryo kryo = ValkyrienSkiesMod.INSTANCE.getKryo();
         Output output = new Output(1024, -1);
-        kryo.writeObject(output, allShips);
-        compound.setByteArray(NBT_STORAGE_KEY, output.getBuffer());
-
-        System.out.println("Price of write: " + (System.currentTimeMillis() - start) + "ms");
+        List<ShipData> ships = new ArrayList<>(getShips());
+        synchronized (kryo) {
+            kryo.writeObject(output, ships);
+        }
+        compound.setByteArray(NBT_STORAGE_KEY, output.toBytes());
 
         return compound;
     }
 
+    /**
+     * Iterates over a snapshot of the ships, so the registry can be changed while iterating.
+     */
     @Override
     public Iterator<ShipData> iterator() {
-        return allShips.iterator();
+        return getShips().iterator();
     }
 
     public Stream<ShipData> stream() {
-        return allShips.stream();
+        return getShips().stream();
     }
 }
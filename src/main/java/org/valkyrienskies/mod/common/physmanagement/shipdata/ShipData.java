@@ -1,14 +1,5 @@
 package org.valkyrienskies.mod.common.physmanagement.shipdata;
 
-import static com.googlecode.cqengine.query.QueryFactory.attribute;
-
-import com.google.common.collect.ImmutableSet;
-import com.googlecode.cqengine.attribute.Attribute;
-import com.googlecode.cqengine.attribute.MultiValueAttribute;
-import com.googlecode.cqengine.query.option.QueryOptions;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
 import java.util.UUID;
 import javax.annotation.Nullable;
 import net.minecraft.util.math.ChunkPos;
@@ -22,10 +13,8 @@ public final class ShipData {
     public ShipPositionData positionData;
     private String name;
     private UUID uuid;
-    /**
-     * Unmodifiable set
-     */
-    private Set<Long> chunkLongs;
+    // The chunks owned by this ship are exactly the chunks of the claim, so they aren't stored
+    // separately.
     private VSChunkClaim chunkClaim;
 
     public static class Builder {
@@ -40,7 +29,6 @@ public final class ShipData {
             shipData = new ShipData();
             shipData.name = wrapperEntity.getCustomNameTag();
             shipData.uuid = wrapperEntity.getPersistentID();
-            shipData.chunkLongs = ImmutableSet.copyOf(getChunkLongs(wrapperEntity));
             shipData.chunkClaim = wrapperEntity.getPhysicsObject().getOwnedChunks();
         }
 
@@ -62,37 +50,10 @@ public final class ShipData {
             return this;
         }
 
-        public Builder setChunkLongs(Set<Long> chunkLongs) {
-            shipData.chunkLongs = Collections.unmodifiableSet(chunkLongs);
-            return this;
-        }
-
         public Builder setChunkClaim(VSChunkClaim chunkClaim) {
             shipData.chunkClaim = chunkClaim;
             return this;
         }
-
-        /**
-         * @return Every Chunk that this entity owns/claims represented as a long; for indexing
-         * purposes
-         */
-        private static Set<Long> getChunkLongs(PhysicsWrapperEntity entity) {
-            Set<Long> chunkLongs = new HashSet<>();
-            VSChunkClaim ownedChunks = entity.getPhysicsObject().getOwnedChunks();
-
-            int centerX = ownedChunks.getCenterX();
-            int centerZ = ownedChunks.getCenterZ();
-            int radius = ownedChunks.getRadius();
-
-            for (int x = centerX - radius; x <= centerX + radius; x++) {
-                for (int z = centerZ - radius; z <= centerZ + radius; z++) {
-                    long chunkPos = ChunkPos.asLong(x, z);
-                    chunkLongs.add(chunkPos);
-                }
-            }
-
-            return chunkLongs;
-        }
     }
 
     @Nullable
@@ -108,7 +69,20 @@ public final class ShipData {
         return uuid;
     }
 
-    public Set<Long> getChunkLongs() {
+    /**
+     * @return Every Chunk that this ship owns/claims represented as a long; for indexing purposes
+     */
+    public long[] getChunkLongs() {
+        if (chunkClaim == null) {
+            return new long[0];
+        }
+        long[] chunkLongs = new long[chunkClaim.dimension() * chunkClaim.dimension()];
+        int i = 0;
+        for (int x = chunkClaim.minX(); x <= chunkClaim.maxX(); x++) {
+            for (int z = chunkClaim.minZ(); z <= chunkClaim.maxZ(); z++) {
+                chunkLongs[i++] = ChunkPos.asLong(x, z);
+            }
+        }
         return chunkLongs;
     }
 
@@ -116,16 +90,4 @@ public final class ShipData {
         return chunkClaim;
     }
 
-    /**
-     * Query by UUID most significant digits - do not use this, is only in place for legacy code
-     */
-    static final Attribute<ShipData, String> NAME = attribute(ship -> ship.name);
-    static final Attribute<ShipData, UUID> UUID = attribute(ship -> ship.uuid);
-    static final Attribute<ShipData, Long> CHUNKS = new MultiValueAttribute<ShipData, Long>() {
-        @Override
-        public Set<Long> getValues(ShipData ship, QueryOptions queryOptions) {
-            return ship.chunkLongs;
-        }
-    };
-
 }
@@ -0,0 +1,349 @@
+package org.valkyrienskies.mod.common.physmanagement.shipdata;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import javax.annotation.Nullable;
+import lombok.extern.log4j.Log4j2;
+import org.valkyrienskies.mod.common.ValkyrienSkiesMod;
+import org.valkyrienskies.mod.common.physmanagement.chunk.VSChunkClaim;
+
+/**
+ * Stores {@link ShipData} in an append only log file, so that saving only has to write the ships
+ * that changed since the last save. Every record has a small header with the UUID, name and chunk
+ * claim of the ship, followed by its {@link ShipPositionData} serialized with Kryo. This lets the
+ * headers be loaded on their own, and the position data be read later on when it's needed.
+ * <p>
+ * Every record is laid out as:
+ * <pre>
+ * int    length of the rest of the record
+ * byte   RECORD_PUT or RECORD_REMOVE
+ * long   most significant bits of the UUID
+ * long   least significant bits of the UUID
+ * -- RECORD_PUT only --
+ * UTF    name
+ * bool   has chunk claim
+ * int    chunk claim center x, center z, radius
+ * byte[] position data, the rest of the record. Empty if null
+ * </pre>
+ * Newer records of a ship replace older ones. Once most of the file is made up of replaced
+ * records it is compacted by copying the live records into a new file.
+ * <p>
+ * Thread safe, every method locks the whole store.
+ */
+@Log4j2
+public class ShipDataStore implements Closeable {
+
+    private static final byte RECORD_PUT = 0;
+    private static final byte RECORD_REMOVE = 1;
+    // The type and UUID, every record is at least this long.
+    private static final int MIN_RECORD_LENGTH = 1 + 16;
+    // Don't bother compacting files smaller than this.
+    private static final long MIN_COMPACTION_SIZE = 64 * 1024;
+
+    private final File file;
+    // Where the latest record of every ship that wasn't removed is.
+    private final Map<UUID, RecordLocation> locations;
+    private RandomAccessFile raf;
+    // The total length of the records in locations.
+    private long liveBytes;
+
+    public ShipDataStore(File file) {
+        this.file = file;
+        this.locations = new HashMap<>();
+        this.liveBytes = 0;
+    }
+
+    /**
+     * Opens the file, creating it if it doesn't exist, and reads the headers of every ship in it.
+     *
+     * @return The ships in the file. Their position data isn't loaded, see {@link
+     * #readPositionData(UUID)}.
+     */
+    public synchronized List<ShipData> open() throws IOException {
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        Map<UUID, ShipData> ships = new LinkedHashMap<>();
+        long validLength = 0;
+        boolean isCorrupt = false;
+        if (file.exists()) {
+            long fileLength = file.length();
+            try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+                while (true) {
+                    int length;
+                    byte[] record;
+                    try {
+                        length = in.readInt();
+                        if (length < MIN_RECORD_LENGTH
+                            || length > fileLength - validLength - 4) {
+                            // Either a record that was only partly written before a crash, or a
+                            // corrupt length. Nothing after it can be found either way.
+                            isCorrupt = length < MIN_RECORD_LENGTH;
+                            break;
+                        }
+                        record = new byte[length];
+                        in.readFully(record);
+                    } catch (EOFException e) {
+                        // Either the end of the file, or a record that was only partly written
+                        // before a crash.
+                        break;
+                    }
+                    try {
+                        readRecord(validLength, record, ships);
+                    } catch (IOException e) {
+                        // The length was fine, so the next record can still be read.
+                        log.error("Skipping the unreadable ship record at " + validLength
+                            + " in " + file, e);
+                    }
+                    validLength += 4 + length;
+                }
+            }
+            if (validLength != fileLength) {
+                // Keep what's being cut off, in case it's worth recovering by hand.
+                File backup = new File(file.getPath() + ".corrupt");
+                Files.copy(file.toPath(), backup.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                String reason = isCorrupt ? "corrupt" : "partly written";
+                log.warn("Discarding " + (fileLength - validLength) + " bytes of " + reason
+                    + " ship data at the end of " + file + ", the old file was copied to "
+                    + backup);
+            }
+        }
+        raf = new RandomAccessFile(file, "rw");
+        if (raf.length() != validLength) {
+            raf.setLength(validLength);
+        }
+        compactIfNeeded();
+        return new ArrayList<>(ships.values());
+    }
+
+    /**
+     * Reads the position data of a ship from the file.
+     *
+     * @throws IOException If it couldn't be read, including when it's corrupt.
+     */
+    @Nullable
+    public synchronized ShipPositionData readPositionData(UUID uuid) throws IOException {
+        RecordLocation location = locations.get(uuid);
+        if (location == null || location.payloadLength == 0) {
+            return null;
+        }
+        byte[] payload = new byte[location.payloadLength];
+        raf.seek(location.payloadOffset);
+        raf.readFully(payload);
+        Kryo kryo = ValkyrienSkiesMod.INSTANCE.getKryo();
+        // Kryo isn't thread safe, and QueryableShipData uses the same instance.
+        synchronized (kryo) {
+            try {
+                return kryo.readObject(new Input(payload), ShipPositionData.class);
+            } catch (KryoException e) {
+                throw new IOException("Corrupt position data for ship " + uuid, e);
+            }
+        }
+    }
+
+    /**
+     * Appends the given changes to the end of the file, and waits for them to reach the disk. If
+     * this throws, nothing about the store changed.
+     *
+     * @param changed The ships that were added or changed, their position data must be loaded.
+     * @param removed The ships that were removed.
+     */
+    public synchronized void write(Collection<ShipData> changed, Collection<UUID> removed)
+        throws IOException {
+        if (changed.isEmpty() && removed.isEmpty()) {
+            return;
+        }
+        Kryo kryo = ValkyrienSkiesMod.INSTANCE.getKryo();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        long start = raf.length();
+        // Only applied once the records are written, like compactIfNeeded() does.
+        List<UUID> removedLocations = new ArrayList<>();
+        Map<UUID, RecordLocation> newLocations = new HashMap<>();
+        for (UUID uuid : removed) {
+            if (!locations.containsKey(uuid)) {
+                // Never written, so there is nothing to remove.
+                continue;
+            }
+            out.writeInt(1 + 16);
+            out.writeByte(RECORD_REMOVE);
+            out.writeLong(uuid.getMostSignificantBits());
+            out.writeLong(uuid.getLeastSignificantBits());
+            removedLocations.add(uuid);
+        }
+        for (ShipData ship : changed) {
+            byte[] header = writeHeader(ship);
+            byte[] payload = new byte[0];
+            if (ship.positionData != null) {
+                Output output = new Output(256, -1);
+                synchronized (kryo) {
+                    kryo.writeObject(output, ship.positionData);
+                }
+                payload = output.toBytes();
+            }
+            long recordOffset = start + bytes.size();
+            out.writeInt(header.length + payload.length);
+            out.write(header);
+            out.write(payload);
+            newLocations.put(ship.getUUID(),
+                new RecordLocation(recordOffset, 4 + header.length + payload.length,
+                    recordOffset + 4 + header.length, payload.length));
+        }
+        out.flush();
+        try {
+            raf.seek(start);
+            raf.write(bytes.toByteArray());
+            // Every write is a save, make sure it's on the disk before saying it's done.
+            raf.getFD().sync();
+        } catch (IOException e) {
+            // Don't leave part of the records behind for the next write to append after.
+            try {
+                raf.setLength(start);
+            } catch (IOException truncateException) {
+                e.addSuppressed(truncateException);
+            }
+            throw e;
+        }
+        for (UUID uuid : removedLocations) {
+            liveBytes -= locations.remove(uuid).length;
+        }
+        for (Map.Entry<UUID, RecordLocation> entry : newLocations.entrySet()) {
+            RecordLocation old = locations.put(entry.getKey(), entry.getValue());
+            if (old != null) {
+                liveBytes -= old.length;
+            }
+            liveBytes += entry.getValue().length;
+        }
+        compactIfNeeded();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (raf != null) {
+            raf.close();
+            raf = null;
+        }
+    }
+
+    private static byte[] writeHeader(ShipData ship) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(RECORD_PUT);
+        out.writeLong(ship.getUUID().getMostSignificantBits());
+        out.writeLong(ship.getUUID().getLeastSignificantBits());
+        out.writeUTF(ship.getName() == null ? "" : ship.getName());
+        VSChunkClaim claim = ship.getChunkClaim();
+        out.writeBoolean(claim != null);
+        if (claim != null) {
+            out.writeInt(claim.getCenterX());
+            out.writeInt(claim.getCenterZ());
+            out.writeInt(claim.getRadius());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private void readRecord(long recordOffset, byte[] record, Map<UUID, ShipData> ships)
+        throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        byte type = in.readByte();
+        UUID uuid = new UUID(in.readLong(), in.readLong());
+        RecordLocation old;
+        if (type == RECORD_REMOVE) {
+            ships.remove(uuid);
+            old = locations.remove(uuid);
+        } else {
+            ShipData.Builder builder = new ShipData.Builder()
+                .setUUID(uuid)
+                .setName(in.readUTF());
+            if (in.readBoolean()) {
+                builder.setChunkClaim(new VSChunkClaim(in.readInt(), in.readInt(), in.readInt()));
+            }
+            ships.put(uuid, builder.build());
+            // Whatever wasn't read yet is the position data.
+            int payloadLength = in.available();
+            long payloadOffset = recordOffset + 4 + record.length - payloadLength;
+            old = locations.put(uuid,
+                new RecordLocation(recordOffset, 4 + record.length, payloadOffset,
+                    payloadLength));
+            liveBytes += 4 + record.length;
+        }
+        if (old != null) {
+            liveBytes -= old.length;
+        }
+    }
+
+    /**
+     * Rewrites the file with only the live records once more than half of it is garbage.
+     */
+    private void compactIfNeeded() throws IOException {
+        long length = raf.length();
+        if (length < MIN_COMPACTION_SIZE || liveBytes * 2 > length) {
+            return;
+        }
+        File compacted = new File(file.getPath() + ".tmp");
+        Map<UUID, RecordLocation> newLocations = new HashMap<>();
+        try (RandomAccessFile out = new RandomAccessFile(compacted, "rw")) {
+            out.setLength(0);
+            for (Map.Entry<UUID, RecordLocation> entry : locations.entrySet()) {
+                RecordLocation location = entry.getValue();
+                byte[] record = new byte[location.length];
+                raf.seek(location.recordOffset);
+                raf.readFully(record);
+                long newOffset = out.getFilePointer();
+                out.write(record);
+                newLocations.put(entry.getKey(), new RecordLocation(newOffset, location.length,
+                    newOffset + (location.payloadOffset - location.recordOffset),
+                    location.payloadLength));
+            }
+            // The old file is replaced next, so this one has to be complete first.
+            out.getFD().sync();
+        }
+        raf.close();
+        Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        raf = new RandomAccessFile(file, "rw");
+        locations.clear();
+        locations.putAll(newLocations);
+        log.debug("Compacted " + file + " from " + length + " to " + raf.length() + " bytes");
+    }
+
+    private static class RecordLocation {
+
+        final long recordOffset;
+        // Including the length int
+        final int length;
+        final long payloadOffset;
+        final int payloadLength;
+
+        RecordLocation(long recordOffset, int length, long payloadOffset, int payloadLength) {
+            this.recordOffset = recordOffset;
+            this.length = length;
+            this.payloadOffset = payloadOffset;
+            this.payloadLength = payloadLength;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package org.valkyrienskies.mod.common.physmanagement.shipdata;
+
+import gnu.trove.map.TCharObjectMap;
+import gnu.trove.map.hash.TCharObjectHashMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * A prefix tree of ship names, so that finding every ship whose name starts with some string
+ * only has to look at those ships rather than at every ship in the world. More than one ship can
+ * have the same name.
+ * <p>
+ * Not thread safe.
+ */
+class ShipNameTrie {
+
+    private final Node root = new Node();
+
+    void add(ShipData ship) {
+        Node node = root;
+        String name = ship.getName();
+        for (int i = 0; i < name.length(); i++) {
+            if (node.children == null) {
+                node.children = new TCharObjectHashMap<>(2);
+            }
+            Node child = node.children.get(name.charAt(i));
+            if (child == null) {
+                child = new Node();
+                node.children.put(name.charAt(i), child);
+            }
+            node = child;
+        }
+        if (node.ships == null) {
+            node.ships = new ArrayList<>(1);
+        }
+        node.ships.add(ship);
+    }
+
+    void remove(ShipData ship) {
+        String name = ship.getName();
+        // Remember the path so that nodes left empty can be pruned on the way back up.
+        Node[] path = new Node[name.length() + 1];
+        path[0] = root;
+        for (int i = 0; i < name.length(); i++) {
+            path[i + 1] = path[i].children == null ? null : path[i].children.get(name.charAt(i));
+            if (path[i + 1] == null) {
+                return;
+            }
+        }
+        Node node = path[name.length()];
+        if (node.ships == null || !node.ships.remove(ship)) {
+            return;
+        }
+        if (node.ships.isEmpty()) {
+            node.ships = null;
+        }
+        for (int i = name.length(); i > 0 && path[i].isEmpty(); i--) {
+            path[i - 1].children.remove(name.charAt(i - 1));
+            if (path[i - 1].children.isEmpty()) {
+                path[i - 1].children = null;
+            }
+        }
+    }
+
+    /**
+     * @return The ships named exactly name.
+     */
+    List<ShipData> get(String name) {
+        Node node = find(name);
+        if (node == null || node.ships == null) {
+            return new ArrayList<>(0);
+        }
+        return new ArrayList<>(node.ships);
+    }
+
+    /**
+     * @return Every ship whose name starts with prefix.
+     */
+    List<ShipData> getStartingWith(String prefix) {
+        List<ShipData> result = new ArrayList<>();
+        Node start = find(prefix);
+        if (start == null) {
+            return result;
+        }
+        Deque<Node> toVisit = new ArrayDeque<>();
+        toVisit.push(start);
+        while (!toVisit.isEmpty()) {
+            Node node = toVisit.pop();
+            if (node.ships != null) {
+                result.addAll(node.ships);
+            }
+            if (node.children != null) {
+                node.children.forEachValue(child -> {
+                    toVisit.push(child);
+                    return true;
+                });
+            }
+        }
+        return result;
+    }
+
+    void clear() {
+        root.children = null;
+        root.ships = null;
+    }
+
+    private Node find(String name) {
+        Node node = root;
+        for (int i = 0; i < name.length() && node != null; i++) {
+            node = node.children == null ? null : node.children.get(name.charAt(i));
+        }
+        return node;
+    }
+
+    private static class Node {
+
+        // Both are null when empty, most nodes only have one child and no ships.
+        TCharObjectMap<Node> children;
+        List<ShipData> ships;
+
+        boolean isEmpty() {
+            return children == null && ships == null;
+        }
+    }
+}
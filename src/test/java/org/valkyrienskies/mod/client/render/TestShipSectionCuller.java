@@ -0,0 +1,90 @@
+package org.valkyrienskies.mod.client.render;
+
+import net.minecraft.client.renderer.culling.ICamera;
+import net.minecraft.util.math.AxisAlignedBB;
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
+import org.valkyrienskies.mod.common.coordinates.ShipTransform;
+import org.valkyrienskies.mod.common.math.Vector;
+import valkyrienwarfare.api.TransformType;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SuppressWarnings({"UnusedDeclaration", "WeakerAccess"})
+public class TestShipSectionCuller {
+
+    private static final double EPSILON = 1e-6;
+
+    @RepeatedTest(250)
+    public void boundsContainEveryCorner() {
+        Random random = new Random();
+        Vector center = new Vector(random.nextInt(64), random.nextInt(64), random.nextInt(64));
+        ShipTransform transform = new ShipTransform(random.nextDouble() * 64,
+            random.nextDouble() * 64, random.nextDouble() * 64, random.nextDouble() * 360,
+            random.nextDouble() * 360, random.nextDouble() * 360, center);
+        int minX = random.nextInt(8) * 16;
+        int minY = random.nextInt(8) * 16;
+        int minZ = random.nextInt(8) * 16;
+
+        AxisAlignedBB[] tested = new AxisAlignedBB[1];
+        ICamera frustum = new ICamera() {
+            @Override
+            public boolean isBoundingBoxInFrustum(AxisAlignedBB bb) {
+                tested[0] = bb;
+                return true;
+            }
+
+            @Override
+            public void setPosition(double xIn, double yIn, double zIn) {
+            }
+        };
+        ShipSectionCuller culler = new ShipSectionCuller();
+        culler.setup(transform, frustum, 0, 0, 0, Double.MAX_VALUE);
+        assertTrue(culler.isSectionVisible(minX, minY, minZ));
+
+        AxisAlignedBB bounds = tested[0].grow(EPSILON);
+        for (int corner = 0; corner < 8; corner++) {
+            Vector inWorld = new Vector(minX + (corner & 1) * 16, minY + ((corner >> 1) & 1) * 16,
+                minZ + ((corner >> 2) & 1) * 16);
+            transform.transform(inWorld, TransformType.SUBSPACE_TO_GLOBAL);
+            assertTrue(inWorld.X >= bounds.minX && inWorld.X <= bounds.maxX);
+            assertTrue(inWorld.Y >= bounds.minY && inWorld.Y <= bounds.maxY);
+            assertTrue(inWorld.Z >= bounds.minZ && inWorld.Z <= bounds.maxZ);
+        }
+    }
+
+    @Test
+    public void distanceCulling() {
+        ShipTransform transform = new ShipTransform(1000, 0, 0);
+        ShipSectionCuller culler = new ShipSectionCuller();
+
+        // The section covers x from 1000 to 1016 in the world.
+        culler.setup(transform, null, 900, 8, 8, 50);
+        assertFalse(culler.isSectionVisible(0, 0, 0));
+        culler.setup(transform, null, 960, 8, 8, 50);
+        assertTrue(culler.isSectionVisible(0, 0, 0));
+        culler.setup(transform, null, 1008, 8, 8, 0);
+        assertTrue(culler.isSectionVisible(0, 0, 0));
+    }
+
+    @Test
+    public void frustumCulling() {
+        ShipTransform transform = new ShipTransform(0, 0, 0);
+        ICamera nothingVisible = new ICamera() {
+            @Override
+            public boolean isBoundingBoxInFrustum(AxisAlignedBB bb) {
+                return false;
+            }
+
+            @Override
+            public void setPosition(double xIn, double yIn, double zIn) {
+            }
+        };
+        ShipSectionCuller culler = new ShipSectionCuller();
+        culler.setup(transform, nothingVisible, 8, 8, 8, 100);
+        assertFalse(culler.isSectionVisible(0, 0, 0));
+    }
+}
@@ -0,0 +1,79 @@
+package org.valkyrienskies.mod.client.render;
+
+import net.minecraft.client.renderer.BufferBuilder;
+import net.minecraft.client.renderer.vertex.DefaultVertexFormats;
+import net.minecraft.util.BlockRenderLayer;
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
+import org.valkyrienskies.mod.client.render.ShipSectionMesher.ShipSectionMesh;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SuppressWarnings({"UnusedDeclaration", "WeakerAccess"})
+public class TestShipSectionMesher {
+
+    @Test
+    public void emptySection() {
+        ShipSectionMesh mesh = new ShipSectionMesher()
+            .build((x, y, z, buffers) -> {
+            }, 0, 0, 0, 0, 0, 0);
+        assertTrue(mesh.isEmpty());
+        for (BlockRenderLayer layer : BlockRenderLayer.values()) {
+            assertEquals(0, mesh.getVertexCount(layer));
+            assertNull(mesh.getLayerData(layer));
+        }
+    }
+
+    @RepeatedTest(25)
+    public void buildsEveryLayer() {
+        Random random = new Random();
+        int minX = random.nextInt(1024) * 16;
+        int minY = random.nextInt(16) * 16;
+        int minZ = random.nextInt(1024) * 16;
+        int offsetX = minX + random.nextInt(32) - 16;
+        int offsetY = minY + random.nextInt(32) - 16;
+        int offsetZ = minZ + random.nextInt(32) - 16;
+        // Every block has a random layer, or none at all.
+        long seed = random.nextLong();
+
+        // Build twice with the same mesher, like the worker threads do, to check that reusing
+        // its buffers doesn't leak anything into the next section.
+        ShipSectionMesher mesher = new ShipSectionMesher();
+        ShipSectionMesh[] meshes = new ShipSectionMesh[2];
+        for (int pass = 0; pass < meshes.length; pass++) {
+            Random blocks = new Random(seed);
+            int[] quads = new int[BlockRenderLayer.values().length];
+            meshes[pass] = mesher.build((x, y, z, buffers) -> {
+                int layer = blocks.nextInt(quads.length + 1);
+                if (layer == quads.length) {
+                    return;
+                }
+                quads[layer]++;
+                BufferBuilder buffer = buffers[layer];
+                for (int i = 0; i < 4; i++) {
+                    buffer.pos(x, y, z).color(255, 255, 255, 255).tex(0, 0).lightmap(240, 240)
+                        .endVertex();
+                }
+            }, minX, minY, minZ, offsetX, offsetY, offsetZ);
+
+            for (BlockRenderLayer layer : BlockRenderLayer.values()) {
+                ShipSectionMesh mesh = meshes[pass];
+                assertEquals(quads[layer.ordinal()] * 4, mesh.getVertexCount(layer));
+                ByteBuffer data = mesh.getLayerData(layer);
+                assertEquals(mesh.getVertexCount(layer) * DefaultVertexFormats.BLOCK.getSize(),
+                    data.limit());
+                // Every vertex is moved by the offset.
+                float firstX = data.getFloat(0);
+                assertTrue(firstX >= minX - offsetX && firstX < minX - offsetX + 16);
+            }
+        }
+        for (BlockRenderLayer layer : BlockRenderLayer.values()) {
+            assertEquals(meshes[0].getLayerData(layer), meshes[1].getLayerData(layer));
+        }
+    }
+}
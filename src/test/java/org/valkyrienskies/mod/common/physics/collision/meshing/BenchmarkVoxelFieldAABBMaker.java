@@ -0,0 +1,95 @@
+package org.valkyrienskies.mod.common.physics.collision.meshing;
+
+import net.minecraft.util.math.AxisAlignedBB;
+import net.minecraft.util.math.BlockPos;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Times the counting AABB maker against the naive one on a large ship. Not part of the normal test
+ * run, use the benchmark task to run it.
+ */
+@Tag("benchmark")
+@SuppressWarnings({"UnusedDeclaration", "WeakerAccess"})
+public class BenchmarkVoxelFieldAABBMaker {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+    // Runs that aren't timed, so the JIT has compiled both makers before the timed runs.
+    private static final int WARMUP_RUNS = 5;
+    private static final int TIMED_RUNS = 10;
+
+    @Test
+    public void countingAgainstNaiveLargeShip() {
+        // Roughly the shape of a large ship, with 100k blocks.
+        List<BlockPos> blockPosList = new ArrayList<>();
+        for (int x = -50; x < 50; x++) {
+            for (int y = 60; y < 70; y++) {
+                for (int z = -50; z < 50; z++) {
+                    blockPosList.add(new BlockPos(x, y, z));
+                }
+            }
+        }
+        Collections.shuffle(blockPosList, new Random(0));
+
+        AxisAlignedBB naiveResult = runShip(() -> new NaiveVoxelFieldAABBMaker(0, 0),
+            blockPosList);
+        AxisAlignedBB countingResult = runShip(() -> new CountingVoxelFieldAABBMaker(0, 0),
+            blockPosList);
+        assertEquals(naiveResult, countingResult);
+
+        long naiveNanos = timeShip(() -> new NaiveVoxelFieldAABBMaker(0, 0), blockPosList);
+        long countingNanos = timeShip(() -> new CountingVoxelFieldAABBMaker(0, 0), blockPosList);
+        LOGGER.info(String.format(
+            "Building and taking apart a ship of %d blocks, best of %d runs: naive %.1f ms, "
+                + "counting %.1f ms", blockPosList.size(), TIMED_RUNS, naiveNanos / 1e6D,
+            countingNanos / 1e6D));
+    }
+
+    /**
+     * @return The fastest of the timed runs, in nanoseconds.
+     */
+    private static long timeShip(Supplier<IVoxelFieldAABBMaker> makerFactory,
+        List<BlockPos> blockPosList) {
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            runShip(makerFactory, blockPosList);
+        }
+        long bestNanos = Long.MAX_VALUE;
+        for (int i = 0; i < TIMED_RUNS; i++) {
+            long start = System.nanoTime();
+            runShip(makerFactory, blockPosList);
+            bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+        }
+        return bestNanos;
+    }
+
+    /**
+     * Adds every block and then removes all but the last one, asking for the AABB after every
+     * change like a ship does.
+     *
+     * @return The AABB of the last block.
+     */
+    private static AxisAlignedBB runShip(Supplier<IVoxelFieldAABBMaker> makerFactory,
+        List<BlockPos> blockPosList) {
+        IVoxelFieldAABBMaker maker = makerFactory.get();
+        for (BlockPos pos : blockPosList) {
+            maker.addVoxel(pos.getX(), pos.getY(), pos.getZ());
+            maker.makeVoxelFieldAABB();
+        }
+        for (BlockPos pos : blockPosList.subList(0, blockPosList.size() - 1)) {
+            maker.removeVoxel(pos.getX(), pos.getY(), pos.getZ());
+            maker.makeVoxelFieldAABB();
+        }
+        return maker.makeVoxelFieldAABB();
+    }
+
+}
@@ -2,6 +2,7 @@ package org.valkyrienskies.mod.common.physics.collision.meshing;
 
 import net.minecraft.util.math.BlockPos;
 import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -95,4 +96,89 @@ public class TestVoxelFieldAABBMaker {
         }
     }
 
+    @RepeatedTest(250)
+    public void countingTest1() {
+        CountingVoxelFieldAABBMaker counting = new CountingVoxelFieldAABBMaker(0, 0);
+        ExtremelyNaiveVoxelFieldAABBMaker extreme = new ExtremelyNaiveVoxelFieldAABBMaker(0, 0);
+        Random random = new Random();
+        for (int i = 0; i < 1000; i++) {
+            int randomX = random.nextInt(1024) - 512;
+            int randomY = random.nextInt(256);
+            int randomZ = random.nextInt(1024) - 512;
+            if (random.nextBoolean()) {
+                assertEquals(extreme.addVoxel(randomX, randomY, randomZ),
+                        counting.addVoxel(randomX, randomY, randomZ));
+            } else {
+                assertEquals(extreme.removeVoxel(randomX, randomY, randomZ),
+                        counting.removeVoxel(randomX, randomY, randomZ));
+            }
+            assertEquals(extreme.makeVoxelFieldAABB(), counting.makeVoxelFieldAABB());
+        }
+    }
+
+    @RepeatedTest(1000)
+    public void countingTest2() {
+        Random random = new Random();
+        BlockPos centerPos = new BlockPos(random.nextInt() / 100, 0, random.nextInt() / 100);
+
+        CountingVoxelFieldAABBMaker counting = new CountingVoxelFieldAABBMaker(centerPos.getX(),
+                centerPos.getZ());
+        ExtremelyNaiveVoxelFieldAABBMaker extreme = new ExtremelyNaiveVoxelFieldAABBMaker(
+                centerPos.getX(), centerPos.getZ());
+
+        List<BlockPos> blockPosList = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            // Keep the voxels close together, so that boundary planes often hold several voxels.
+            int randomX = random.nextInt(16) - 8 + centerPos.getX();
+            int randomY = random.nextInt(16) + centerPos.getY();
+            int randomZ = random.nextInt(16) - 8 + centerPos.getZ();
+
+            assertEquals(extreme.addVoxel(randomX, randomY, randomZ),
+                    counting.addVoxel(randomX, randomY, randomZ));
+            assertEquals(extreme.makeVoxelFieldAABB(), counting.makeVoxelFieldAABB());
+            blockPosList.add(new BlockPos(randomX, randomY, randomZ));
+        }
+
+        Collections.shuffle(blockPosList);
+
+        for (BlockPos pos : blockPosList) {
+            int x = pos.getX();
+            int y = pos.getY();
+            int z = pos.getZ();
+            assertEquals(extreme.removeVoxel(x, y, z),
+                    counting.removeVoxel(x, y, z));
+
+            assertEquals(extreme.makeVoxelFieldAABB(), counting.makeVoxelFieldAABB());
+        }
+    }
+
+    @Test
+    public void countingAgainstNaiveLargeShip() {
+        Random random = new Random();
+        NaiveVoxelFieldAABBMaker naive = new NaiveVoxelFieldAABBMaker(0, 0);
+        CountingVoxelFieldAABBMaker counting = new CountingVoxelFieldAABBMaker(0, 0);
+        // Roughly the shape of a large ship, with 100k blocks.
+        List<BlockPos> blockPosList = new ArrayList<>();
+        for (int x = -50; x < 50; x++) {
+            for (int y = 60; y < 70; y++) {
+                for (int z = -50; z < 50; z++) {
+                    blockPosList.add(new BlockPos(x, y, z));
+                }
+            }
+        }
+        Collections.shuffle(blockPosList, random);
+
+        for (BlockPos pos : blockPosList) {
+            naive.addVoxel(pos.getX(), pos.getY(), pos.getZ());
+            counting.addVoxel(pos.getX(), pos.getY(), pos.getZ());
+        }
+        assertEquals(naive.makeVoxelFieldAABB(), counting.makeVoxelFieldAABB());
+
+        for (BlockPos pos : blockPosList.subList(0, blockPosList.size() - 1)) {
+            naive.removeVoxel(pos.getX(), pos.getY(), pos.getZ());
+            counting.removeVoxel(pos.getX(), pos.getY(), pos.getZ());
+        }
+        assertEquals(naive.makeVoxelFieldAABB(), counting.makeVoxelFieldAABB());
+    }
+
 }
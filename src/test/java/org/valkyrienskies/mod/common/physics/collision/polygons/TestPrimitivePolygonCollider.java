@@ -0,0 +1,100 @@
+package org.valkyrienskies.mod.common.physics.collision.polygons;
+
+import net.minecraft.util.math.AxisAlignedBB;
+import org.junit.jupiter.api.RepeatedTest;
+import org.valkyrienskies.mod.common.coordinates.ShipTransform;
+import org.valkyrienskies.mod.common.math.Vector;
+import valkyrienwarfare.api.TransformType;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@SuppressWarnings({"UnusedDeclaration", "WeakerAccess"})
+public class TestPrimitivePolygonCollider {
+
+    private static final double EPSILON = 1e-9;
+
+    @RepeatedTest(250)
+    public void matchesPhysPolygonCollider() {
+        Random random = new Random();
+        Vector center = new Vector(random.nextInt(64), random.nextInt(64), random.nextInt(64));
+        ShipTransform transform = new ShipTransform(random.nextDouble() * 64,
+            random.nextDouble() * 64, random.nextDouble() * 64, random.nextDouble() * 360,
+            random.nextDouble() * 360, random.nextDouble() * 360, center);
+        Vector[] axes = generateAxes(transform);
+
+        double[] matrix = new double[16];
+        transform.copyMatrixInto(TransformType.SUBSPACE_TO_GLOBAL, matrix);
+        PrimitivePolygonCollider primitive = new PrimitivePolygonCollider();
+        primitive.setAxes(axes);
+        double[] contact = new double[PrimitivePolygonCollider.CONTACT_STRIDE];
+
+        for (int i = 0; i < 100; i++) {
+            int localX = (int) center.X + random.nextInt(8) - 4;
+            int localY = (int) center.Y + random.nextInt(8) - 4;
+            int localZ = (int) center.Z + random.nextInt(8) - 4;
+            Vector inWorld = new Vector(localX + .5, localY + .5, localZ + .5);
+            transform.transform(inWorld, TransformType.SUBSPACE_TO_GLOBAL);
+            int worldX = (int) Math.floor(inWorld.X) + random.nextInt(3) - 1;
+            int worldY = (int) Math.floor(inWorld.Y) + random.nextInt(3) - 1;
+            int worldZ = (int) Math.floor(inWorld.Z) + random.nextInt(3) - 1;
+
+            Polygon shipPoly = new Polygon(
+                new AxisAlignedBB(localX, localY, localZ, localX + 1, localY + 1, localZ + 1),
+                transform, TransformType.SUBSPACE_TO_GLOBAL);
+            Polygon worldPoly = new Polygon(
+                new AxisAlignedBB(worldX, worldY, worldZ, worldX + 1, worldY + 1, worldZ + 1));
+            PhysPolygonCollider collider = new PhysPolygonCollider(shipPoly, worldPoly, axes);
+
+            primitive.setMovableBlock(localX, localY, localZ, matrix);
+            primitive.setFixedBlock(worldX, worldY, worldZ);
+            assertEquals(collider.seperated, primitive.processData());
+            if (collider.seperated) {
+                continue;
+            }
+            assertEquals(collider.minDistanceIndex, primitive.getMinDistanceIndex());
+
+            for (int axis = 0; axis < axes.length; axis++) {
+                PhysCollisionObject collision = collider.collisions[axis];
+                assertEquals(collision.penetrationDistance,
+                    primitive.getPenetrationDistance(axis), EPSILON);
+
+                primitive.writeContact(axis, contact, 0);
+                Vector[] points = PolygonCollisionPointFinder
+                    .getPointsOfCollisionForPolygons(collision);
+                assertVectorEquals(collision.collision_normal, contact,
+                    PrimitivePolygonCollider.NORMAL_OFFSET);
+                assertVectorEquals(points[0], contact, PrimitivePolygonCollider.TOP_POINT_OFFSET);
+                assertVectorEquals(points[1], contact,
+                    PrimitivePolygonCollider.BOTTOM_POINT_OFFSET);
+            }
+        }
+    }
+
+    // Same axes as ShipTransformationManager.updateParentNormals()
+    private static Vector[] generateAxes(ShipTransform transform) {
+        Vector[] axes = new Vector[15];
+        Vector[] aligned = Vector.generateAxisAlignedNorms();
+        Vector[] rotated = Vector.generateAxisAlignedNorms();
+        for (int i = 0; i < 3; i++) {
+            transform.rotate(rotated[i], TransformType.SUBSPACE_TO_GLOBAL);
+            axes[i] = aligned[i];
+            axes[i + 3] = rotated[i];
+        }
+        int index = 6;
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                Vector axis = aligned[i].crossAndUnit(rotated[j]);
+                axes[index++] = axis.isZero() ? new Vector(0, 1, 0) : axis;
+            }
+        }
+        return axes;
+    }
+
+    private static void assertVectorEquals(Vector expected, double[] actual, int offset) {
+        assertEquals(expected.X, actual[offset], EPSILON);
+        assertEquals(expected.Y, actual[offset + 1], EPSILON);
+        assertEquals(expected.Z, actual[offset + 2], EPSILON);
+    }
+}
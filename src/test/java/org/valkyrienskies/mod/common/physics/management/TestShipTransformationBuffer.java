@@ -0,0 +1,99 @@
+package org.valkyrienskies.mod.common.physics.management;
+
+import net.minecraft.util.math.AxisAlignedBB;
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
+import org.valkyrienskies.mod.common.math.Vector;
+import org.valkyrienskies.mod.common.network.WrapperPositionMessage;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+@SuppressWarnings({"UnusedDeclaration", "WeakerAccess"})
+public class TestShipTransformationBuffer {
+
+    private static final double TICKS_PER_SECOND = 100;
+    private static final double UPDATE_RATE = 20;
+    private static final long NANOS_PER_TICK = (long) (1e9 / TICKS_PER_SECOND);
+    private static final double EPSILON = 1e-6;
+
+    // A ship moving at a constant speed along x, sent on time every few ticks, should be played
+    // back exactly where it was the delay ago.
+    @RepeatedTest(25)
+    public void interpolatesSteadyStream() {
+        Random random = new Random();
+        int ticksBetweenSnapshots = 1 + random.nextInt(10);
+        double speed = random.nextDouble();
+        ShipTransformationBuffer buffer = new ShipTransformationBuffer(TICKS_PER_SECOND,
+            UPDATE_RATE);
+        for (int tick = 0; tick < 200; tick += ticksBetweenSnapshots) {
+            buffer.pushMessage(createSnapshot(tick, tick * speed), tick * NANOS_PER_TICK);
+        }
+        int newestTick = 199 - 199 % ticksBetweenSnapshots;
+        for (int poll = 0; poll < 4; poll++) {
+            long nowNanos = newestTick * NANOS_PER_TICK + poll * NANOS_PER_TICK / 2;
+            double expectedTick = nowNanos / (double) NANOS_PER_TICK
+                - buffer.getDelaySeconds() * TICKS_PER_SECOND;
+            WrapperPositionMessage polled = buffer.pollForClientTransform(nowNanos);
+            assertNotNull(polled);
+            assertEquals(expectedTick * speed, polled.getPosX(), EPSILON);
+            assertEquals(polled.getPosX() - 1, polled.getShipBB().minX, EPSILON);
+        }
+    }
+
+    @Test
+    public void extrapolatesThenHolds() {
+        ShipTransformationBuffer buffer = new ShipTransformationBuffer(TICKS_PER_SECOND,
+            UPDATE_RATE);
+        for (int tick = 0; tick <= 10; tick += 5) {
+            buffer.pushMessage(createSnapshot(tick, tick), tick * NANOS_PER_TICK);
+        }
+        buffer.pollForClientTransform(10 * NANOS_PER_TICK);
+        // A second without snapshots is way past the furthest it may extrapolate, a quarter second.
+        WrapperPositionMessage polled = buffer.pollForClientTransform(110 * NANOS_PER_TICK);
+        assertNotNull(polled);
+        assertEquals(35, polled.getPosX(), EPSILON);
+        assertNull(buffer.pollForClientTransform(120 * NANOS_PER_TICK));
+    }
+
+    @Test
+    public void restartsWhenTicksGoBackwards() {
+        ShipTransformationBuffer buffer = new ShipTransformationBuffer(TICKS_PER_SECOND,
+            UPDATE_RATE);
+        buffer.pushMessage(createSnapshot(1000, 50), 0);
+        buffer.pushMessage(createSnapshot(1005, 55), 5 * NANOS_PER_TICK);
+        buffer.pushMessage(createSnapshot(0, 7), 10 * NANOS_PER_TICK);
+        WrapperPositionMessage polled = buffer.pollForClientTransform(10 * NANOS_PER_TICK);
+        assertNotNull(polled);
+        assertEquals(7, polled.getPosX(), EPSILON);
+    }
+
+    // The ticks of the snapshots are timed with the tick rate the server sent, not the local one.
+    @Test
+    public void usesServerTickRate() {
+        ShipTransformationBuffer buffer = new ShipTransformationBuffer(TICKS_PER_SECOND,
+            UPDATE_RATE);
+        long nanosPerServerTick = (long) (1e9 / 20);
+        for (int tick = 0; tick <= 20; tick++) {
+            buffer.setServerRates(20, 20);
+            buffer.pushMessage(createSnapshot(tick, tick), tick * nanosPerServerTick);
+        }
+        WrapperPositionMessage polled = buffer.pollForClientTransform(20 * nanosPerServerTick);
+        assertNotNull(polled);
+        assertEquals(20 - buffer.getDelaySeconds() * 20, polled.getPosX(), EPSILON);
+    }
+
+    private static WrapperPositionMessage createSnapshot(int tick, double x) {
+        WrapperPositionMessage snapshot = new WrapperPositionMessage();
+        snapshot.setRelativeTick(tick);
+        snapshot.setPosX(x);
+        snapshot.setPosY(64);
+        snapshot.setPosZ(0);
+        snapshot.setCenterOfMass(new Vector());
+        snapshot.setShipBB(new AxisAlignedBB(x - 1, 63, -1, x + 1, 65, 1));
+        return snapshot;
+    }
+}